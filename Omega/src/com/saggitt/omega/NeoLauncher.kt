@@ -63,6 +63,7 @@ import com.android.launcher3.util.ComponentKey
 import com.android.launcher3.util.TouchController
 import com.android.launcher3.views.OptionsPopupView
 import com.android.systemui.plugins.shared.LauncherOverlayManager
+import com.saggitt.omega.data.AppTrackerRepository
 import com.saggitt.omega.gestures.GestureController
 import com.saggitt.omega.gestures.VerticalSwipeGestureController
 import com.saggitt.omega.popup.OmegaShortcuts
@@ -281,6 +282,12 @@ class NeoLauncher : Launcher(), LifecycleOwner, SavedStateRegistryOwner,
         super.onPause()
         lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_PAUSE)
         paused = true
+        AppTrackerRepository.INSTANCE[this].flush()
+    }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        AppTrackerRepository.INSTANCE[this].flush()
     }
 
     override fun onStop() {
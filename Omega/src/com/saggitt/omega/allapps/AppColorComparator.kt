@@ -17,55 +17,25 @@
 package com.saggitt.omega.allapps
 
 import android.content.Context
-import androidx.core.graphics.ColorUtils
 import com.android.launcher3.allapps.AppInfoComparator
 import com.android.launcher3.model.data.AppInfo
 
-class AppColorComparator(context: Context?) : AppInfoComparator(context) {
+/**
+ * Sorts apps by their icon color, using the sort keys computed once per app by
+ * [AppInfo.setIconColor] with [com.android.launcher3.util.ColorSortKeys]. When [perceptual] is
+ * true, hues are bucketed in the OKLab color space, which groups colors closer to how they are
+ * perceived than HSL.
+ */
+class AppColorComparator @JvmOverloads constructor(
+    context: Context?,
+    private val perceptual: Boolean = false
+) : AppInfoComparator(context) {
     override fun compare(a: AppInfo, b: AppInfo): Int {
-        val hslA = FloatArray(3)
-        val hslB = FloatArray(3)
-        ColorUtils.colorToHSL(a.iconColor, hslA)
-        ColorUtils.colorToHSL(b.iconColor, hslB)
-        val h2A = remapHue(hslA[0])
-        val h2B = remapHue(hslB[0])
-        var s2A = remap(hslA[1])
-        var s2B = remap(hslB[1])
-        var l2A = remap(hslA[2])
-        var l2B = remap(hslB[2])
-        if (h2A % 2 == 1) {
-            s2A = REPETITIONS - s2A
-            l2A = REPETITIONS - l2A
-        }
-        if (h2B % 2 == 1) {
-            s2B = REPETITIONS - s2B
-            l2B = REPETITIONS - l2B
-        }
-        var result = h2A.compareTo(h2B)
-        if (result != 0) {
-            return result
-        }
-        result = l2A.compareTo(l2B)
-        if (result != 0) {
-            return result
-        }
-        result = s2A.compareTo(s2B)
-        return if (result != 0) {
-            result
-        } else super.compare(a, b)
-    }
-
-    companion object {
-        const val REPETITIONS = 6
-
-        @JvmStatic
-        fun remapHue(hue: Float): Int {
-            return (hue / 360 * REPETITIONS).toInt()
-        }
-
-        @JvmStatic
-        fun remap(value: Float): Int {
-            return (value * REPETITIONS).toInt()
+        val result = if (perceptual) {
+            a.perceptualColorSortKey.compareTo(b.perceptualColorSortKey)
+        } else {
+            a.colorSortKey.compareTo(b.colorSortKey)
         }
+        return if (result != 0) result else super.compare(a, b)
     }
-}
\ No newline at end of file
+}
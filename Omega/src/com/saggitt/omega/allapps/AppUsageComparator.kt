@@ -19,22 +19,15 @@
 package com.saggitt.omega.allapps
 
 import com.android.launcher3.model.data.AppInfo
-import com.saggitt.omega.data.AppTracker
 
-class AppUsageComparator(private val mApps: List<AppTracker>) : Comparator<AppInfo> {
+/**
+ * Sorts apps by descending usage, using sort keys precomputed per package by
+ * [com.saggitt.omega.data.AppTrackerRepository.getUsageRanking].
+ */
+class AppUsageComparator(private val ranking: Map<String, Double>) : Comparator<AppInfo> {
     override fun compare(app1: AppInfo, app2: AppInfo): Int {
-        var item1 = 0
-        var item2 = 0
-        for (i in mApps.indices) {
-            if (mApps[i].packageName == app1.componentName.packageName)
-                item1 = mApps[i].count
-            if (mApps[i].packageName == app2.componentName.packageName)
-                item2 = mApps[i].count
-        }
-        return when {
-            item1 < item2 -> 1
-            item2 < item1 -> -1
-            else -> 0
-        }
+        val item1 = ranking[app1.componentName.packageName] ?: 0.0
+        val item2 = ranking[app2.componentName.packageName] ?: 0.0
+        return item2.compareTo(item1)
     }
-}
\ No newline at end of file
+}
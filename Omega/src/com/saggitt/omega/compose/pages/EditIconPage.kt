@@ -45,6 +45,8 @@ import androidx.compose.material3.Divider
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.collectAsState
+import androidx.compose.runtime.getValue
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.ui.Modifier
@@ -71,6 +73,7 @@ import com.saggitt.omega.data.IconOverrideRepository
 import com.saggitt.omega.data.IconPickerItem
 import com.saggitt.omega.iconpack.IconPack
 import com.saggitt.omega.iconpack.IconPackProvider
+import com.saggitt.omega.iconpack.IconPackRegistry
 import com.saggitt.omega.util.getUserForProfileId
 import com.saulhdev.neolauncher.icons.drawableToBitmap
 import kotlinx.coroutines.launch
@@ -80,7 +83,7 @@ fun EditIconPage(
     componentKey: ComponentKey
 ) {
     val context = LocalContext.current
-    val iconPacks = IconPackProvider.INSTANCE.get(context).getIconPackList()
+    val iconPacks by IconPackRegistry.INSTANCE.get(context).iconPacks.collectAsState()
     val isFolder = componentKey.componentName.packageName.contains("com.saggitt.omega.folder")
     val navController = LocalNavController.current
     val launcherApps = context.getSystemService<LauncherApps>()!!
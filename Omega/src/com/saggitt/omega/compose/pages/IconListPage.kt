@@ -21,7 +21,7 @@ package com.saggitt.omega.compose.pages
 import SearchTextField
 import android.content.Intent
 import android.content.pm.LauncherApps
-import android.graphics.drawable.Drawable
+import android.graphics.Bitmap
 import android.os.Process
 import androidx.activity.compose.LocalOnBackPressedDispatcherOwner
 import androidx.activity.compose.rememberLauncherForActivityResult
@@ -67,6 +67,9 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.launch
 
+// Picker icons are decoded at this size rather than at the full density of the pack
+private val ICON_THUMBNAIL_SIZE = 64.dp
+
 /*
 * List Icons from a given IconPack
  */
@@ -245,11 +248,15 @@ fun IconPreview(
     iconItem: IconPickerItem,
     onClick: () -> Unit
 ) {
-    val drawable by produceState<Drawable?>(initialValue = null, iconPack, iconItem) {
+    val context = LocalContext.current
+    val iconPackProvider = remember { IconPackProvider.INSTANCE.get(context) }
+    val thumbnailSize = with(LocalDensity.current) { ICON_THUMBNAIL_SIZE.roundToPx() }
+    val thumbnail by produceState<Bitmap?>(initialValue = null, iconPack, iconItem) {
         launch(Dispatchers.IO) {
-            value = iconPack.getIcon(iconItem.toIconEntry(), 0)
+            value = iconPackProvider.getThumbnail(iconPack, iconItem.toIconEntry(), thumbnailSize)
         }
     }
+    val placeholder = remember { drawableToBitmap(context.getIcon()) }
     Box(
         modifier = Modifier
             .clip(MaterialTheme.shapes.small)
@@ -257,7 +264,7 @@ fun IconPreview(
             .padding(8.dp),
     ) {
         Image(
-            bitmap = drawableToBitmap(drawable ?: LocalContext.current.getIcon()).asImageBitmap(),
+            bitmap = (thumbnail ?: placeholder).asImageBitmap(),
             contentDescription = iconItem.drawableName,
             modifier = Modifier.aspectRatio(1f),
         )
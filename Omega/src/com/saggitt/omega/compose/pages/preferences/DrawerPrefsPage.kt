@@ -79,6 +79,7 @@ fun DrawerPrefsPage() {
     val gridPrefs = listOf(
         prefs.drawerGridSize,
         prefs.drawerSortMode,
+        prefs.drawerSortColorPerceptual,
         prefs.drawerAppGroups,
         prefs.drawerSeparateWorkApps,
         prefs.drawerSaveScrollPosition
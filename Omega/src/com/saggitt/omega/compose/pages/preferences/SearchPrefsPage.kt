@@ -57,6 +57,9 @@ fun SearchPrefsPage() {
         openDialog.value = true
     }
 
+    val searchPrefs = listOf(
+        prefs.searchFuzzy,
+    )
     val feedPrefs = listOf(
         prefs.feedProvider,
     )
@@ -85,6 +88,13 @@ fun SearchPrefsPage() {
                             onPrefDialog = onPrefDialog
                     )
                 }*/
+                item {
+                    PreferenceGroup(
+                        stringResource(id = R.string.label_search),
+                        prefs = searchPrefs,
+                        onPrefDialog = onPrefDialog
+                    )
+                }
                 item {
                     PreferenceGroup(
                         stringResource(id = R.string.title_feed_provider),
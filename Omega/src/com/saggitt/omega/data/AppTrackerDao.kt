@@ -33,15 +33,6 @@ interface AppTrackerDao {
     @Query("DELETE FROM apptracker WHERE packageName = :packageName")
     suspend fun deleteAppCount(packageName: String)
 
-    @Query("SELECT count FROM apptracker WHERE packageName = :packageName")
-    fun getAppCount(packageName: String): Int
-
-    @Query("SELECT EXISTS(SELECT * FROM apptracker WHERE packageName = :packageName)")
-    fun appExist(packageName: String): Boolean
-
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    fun insert(appTracker: AppTracker)
-
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    fun update(appTracker: AppTracker)
+    fun insertAll(appTrackers: List<AppTracker>)
 }
\ No newline at end of file
@@ -20,50 +20,120 @@
 package com.saggitt.omega.data
 
 import android.content.Context
+import com.android.launcher3.util.Executors.MAIN_EXECUTOR
 import com.android.launcher3.util.MainThreadInitializedObject
+import com.saggitt.omega.preferences.NeoPrefs
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
-class AppTrackerRepository(context: Context) {
-    private val scope = CoroutineScope(Dispatchers.IO) + CoroutineName("AppTrackerRepository")
+/**
+ * Keeps the launch statistics of the [AppTracker] table in memory, so that ranking apps does not
+ * hit the database. Launches update the memory state right away and are written behind: changed
+ * packages are persisted together in one transaction, [FLUSH_DELAY_MS] after the first change or
+ * when [flush] is called, always after the initial load.
+ */
+class AppTrackerRepository(private val context: Context) {
+    private val scope = CoroutineScope(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) +
+            CoroutineName("AppTrackerRepository")
     private val dao = NeoLauncherDb.INSTANCE.get(context).appTrackerDao()
 
-    var appCountList: List<AppTracker> = listOf()
+    // Guarded by itself
+    private val usage = HashMap<String, AppUsage>()
+    private val dirty = HashSet<String>()
+    private var loaded = false
+    private var rankedBeforeLoad = false
+    private var flushScheduled = false
 
     init {
         scope.launch {
-            appCountList = dao.getAppCount()
+            val trackers = dao.getAppCount()
+            val reload = synchronized(usage) {
+                trackers.forEach { tracker ->
+                    val stored = AppUsage(tracker)
+                    // Launches recorded while loading happened after the stored ones
+                    usage[tracker.packageName]?.let { stored.merge(it) }
+                    usage[tracker.packageName] = stored
+                }
+                loaded = true
+                rankedBeforeLoad
+            }
+            if (reload) {
+                MAIN_EXECUTOR.execute { NeoPrefs.getInstance(context).reloadApps() }
+            }
         }
     }
 
-    fun getAppsCount(): List<AppTracker> {
-        scope.launch {
-            appCountList = dao.getAppCount()
+    /**
+     * Returns the sort key of every launched package, higher keys ranking first. Packages which
+     * were never launched are not included. When [recency] is true, the keys are the frecency
+     * scores at [time], otherwise the launch counts.
+     */
+    fun getUsageRanking(
+        recency: Boolean,
+        time: Long = System.currentTimeMillis()
+    ): Map<String, Double> = synchronized(usage) {
+        if (!loaded) rankedBeforeLoad = true
+        val ranking = HashMap<String, Double>(usage.size * 4 / 3 + 1)
+        usage.forEach { (packageName, app) ->
+            ranking[packageName] = if (recency) app.scoreAt(time) else app.count.toDouble()
         }
-        return appCountList
+        ranking
     }
 
     fun updateAppCount(packageName: String) {
-        scope.launch {
-            //Check if the app is already in the database
-            if (dao.appExist(packageName)) {
-                //If it is, update the count
-                val currentCount = dao.getAppCount(packageName)
-                dao.update(AppTracker(packageName, currentCount + 1))
-            } else {
-                dao.insert(AppTracker(packageName, 1))
+        val schedule = synchronized(usage) {
+            usage.getOrPut(packageName) { AppUsage() }.onLaunched(System.currentTimeMillis())
+            dirty.add(packageName)
+            !flushScheduled.also { flushScheduled = true }
+        }
+        if (schedule) {
+            scope.launch {
+                delay(FLUSH_DELAY_MS)
+                writeDirty()
             }
         }
     }
 
+    /**
+     * Persists pending launches without waiting for the flush delay
+     */
+    fun flush() {
+        scope.launch { writeDirty() }
+    }
+
+    private fun writeDirty() {
+        val trackers = synchronized(usage) {
+            flushScheduled = false
+            val trackers = dirty.mapNotNull { usage[it]?.toAppTracker(it) }
+            dirty.clear()
+            trackers
+        }
+        if (trackers.isNotEmpty()) {
+            dao.insertAll(trackers)
+        }
+    }
+
     fun deleteAppCount(packageName: String) {
-        scope.launch { dao.deleteAppCount(packageName) }
+        synchronized(usage) {
+            usage.remove(packageName)
+            dirty.remove(packageName)
+        }
+        scope.launch {
+            // The initial load may have added it back
+            synchronized(usage) { usage.remove(packageName) }
+            dao.deleteAppCount(packageName)
+        }
     }
 
     companion object {
+        private val FLUSH_DELAY_MS = TimeUnit.SECONDS.toMillis(10)
+
         val INSTANCE = MainThreadInitializedObject(::AppTrackerRepository)
     }
-}
\ No newline at end of file
+}
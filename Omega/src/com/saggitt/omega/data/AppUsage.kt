@@ -0,0 +1,68 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.data
+
+import java.util.concurrent.TimeUnit
+import kotlin.math.max
+import kotlin.math.pow
+
+/**
+ * In-memory launch statistics of a package, mirrored by an [AppTracker] row.
+ *
+ * Besides the plain launch count, a frecency [score] is kept: every launch adds 1 and the score
+ * halves every [HALF_LIFE_MS], so apps launched often in the recent past rank first.
+ */
+class AppUsage(
+    var count: Int = 0,
+    var lastLaunched: Long = 0,
+    var score: Double = 0.0
+) {
+
+    constructor(tracker: AppTracker) : this(tracker.count, tracker.lastLaunched, tracker.score)
+
+    fun onLaunched(time: Long) {
+        score = scoreAt(time) + 1
+        count++
+        lastLaunched = max(lastLaunched, time)
+    }
+
+    /**
+     * Returns the frecency score decayed up to [time]
+     */
+    fun scoreAt(time: Long): Double {
+        if (lastLaunched == 0L || time <= lastLaunched) return score
+        return score * 0.5.pow((time - lastLaunched).toDouble() / HALF_LIFE_MS)
+    }
+
+    /**
+     * Adds launches recorded in [other] after the launches recorded in this
+     */
+    fun merge(other: AppUsage) {
+        score = scoreAt(other.lastLaunched) + other.score
+        count += other.count
+        lastLaunched = max(lastLaunched, other.lastLaunched)
+    }
+
+    fun toAppTracker(packageName: String) = AppTracker(packageName, count, lastLaunched, score)
+
+    companion object {
+        val HALF_LIFE_MS = TimeUnit.DAYS.toMillis(14)
+    }
+}
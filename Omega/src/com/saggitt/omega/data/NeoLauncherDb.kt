@@ -28,7 +28,7 @@ import com.android.launcher3.util.MainThreadInitializedObject
 
 @Database(
     entities = [IconOverride::class, AppTracker::class, PeopleInfo::class, GestureItemInfo::class],
-    version = 4,
+    version = 5,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
@@ -71,9 +71,20 @@ abstract class NeoLauncherDb : RoomDatabase() {
             }
         }
 
+        /*
+        * Add launch recency and decayed score to AppTracker
+        */
+        private val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE AppTracker ADD COLUMN lastLaunched INTEGER NOT NULL DEFAULT 0")
+                database.execSQL("ALTER TABLE AppTracker ADD COLUMN score REAL NOT NULL DEFAULT 0")
+                database.execSQL("UPDATE AppTracker SET score = count")
+            }
+        }
+
         val INSTANCE = MainThreadInitializedObject { context ->
             Room.databaseBuilder(context, NeoLauncherDb::class.java, "NeoLauncher.db")
-                .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
+                .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
                 .build()
         }
     }
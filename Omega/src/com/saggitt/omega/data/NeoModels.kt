@@ -19,6 +19,7 @@
 package com.saggitt.omega.data
 
 import android.os.Parcelable
+import androidx.room.ColumnInfo
 import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.PrimaryKey
@@ -52,7 +53,9 @@ data class IconPickerItem(
 @Entity
 data class AppTracker(
     @PrimaryKey val packageName: String,
-    val count: Int
+    val count: Int,
+    @ColumnInfo(defaultValue = "0") val lastLaunched: Long = 0,
+    @ColumnInfo(defaultValue = "0") val score: Double = 0.0
 )
 
 @Entity
@@ -18,12 +18,18 @@
 package com.saggitt.omega.flowerpot
 
 import android.content.Context
+import android.content.pm.LauncherApps
+import android.os.UserHandle
+import android.util.Log
+import com.android.launcher3.pm.UserCache
+import com.saggitt.omega.flowerpot.parser.FlowerpotBinary
 import com.saggitt.omega.flowerpot.parser.FlowerpotReader
-import com.saggitt.omega.flowerpot.rules.Rule
 import com.saggitt.omega.util.SingletonHolder
 import com.saggitt.omega.util.ensureOnMainThread
 import com.saggitt.omega.util.toTitleCase
 import com.saggitt.omega.util.useApplicationContext
+import java.io.File
+import java.io.IOException
 import java.io.InputStream
 
 /**
@@ -32,7 +38,7 @@ import java.io.InputStream
 class Flowerpot(
     private val context: Context,
     val name: String,
-    private val loader: Flowerpot.() -> Unit
+    private val loader: () -> FlowerpotMatcher
 ) {
 
     val displayName by lazy {
@@ -46,38 +52,79 @@ class Flowerpot(
         else
             beautifyName(name)
     }
-    private var loaded = false
-    val rules: MutableSet<Rule> = mutableSetOf()
-    val size get() = rules.size
+    var loaded = false
+        private set
+    val size get() = if (loaded) matcher.size else 0
+    lateinit var matcher: FlowerpotMatcher
+        private set
     lateinit var apps: FlowerpotApps
+        private set
 
     fun ensureLoaded() {
-        if (!loaded) {
-            load()
-            loaded = true
-        }
-    }
-
-    private fun load() {
-        loader(this)
-        apps = FlowerpotApps(context, this)
+        Manager.getInstance(context).ensureLoaded(listOf(this))
     }
 
     /**
-     * Load all data from
+     * Loads and compiles the rules, leaving [apps] to be filled by [Manager]
      */
-    private fun loadFromInputStream(inputStream: InputStream) {
-        rules.addAll(FlowerpotReader(inputStream).readRules())
+    private fun load() {
+        matcher = loader()
+        apps = FlowerpotApps(this)
+        loaded = true
     }
 
     companion object {
+        private const val TAG = "Flowerpot"
+
         /**
-         * Load a flowerpot from an assets file
+         * Load a flowerpot from an assets file. If [compiledFile] is set, the pot is read from
+         * this binary file instead, which is (re)written from the text file whenever it is
+         * missing or was compiled for another [stamp].
          */
-        fun fromAssets(context: Context, path: String, name: String): Flowerpot {
+        fun fromAssets(
+            context: Context,
+            path: String,
+            name: String,
+            compiledFile: File? = null,
+            stamp: () -> Long = { 0 }
+        ): Flowerpot {
             return Flowerpot(context, name) {
-                loadFromInputStream(context.assets.open(path))
+                if (compiledFile != null) {
+                    loadCompiled(compiledFile, stamp()) { context.assets.open(path) }
+                } else {
+                    loadFromInputStream(context.assets.open(path))
+                }
+            }
+        }
+
+        private fun loadFromInputStream(inputStream: InputStream) =
+            inputStream.use { FlowerpotMatcher(FlowerpotReader(it).readRules()) }
+
+        private fun loadCompiled(
+            file: File,
+            stamp: Long,
+            openSource: () -> InputStream
+        ): FlowerpotMatcher {
+            if (file.exists()) {
+                try {
+                    FlowerpotBinary.read(file.readBytes(), stamp)?.let { return it }
+                } catch (e: IOException) {
+                    Log.w(TAG, "Failed to read compiled flowerpot $file", e)
+                }
+            }
+            val matcher = loadFromInputStream(openSource())
+            try {
+                file.parentFile?.mkdirs()
+                val tempFile = File(file.path + ".tmp")
+                tempFile.outputStream().use { FlowerpotBinary.write(matcher, stamp, it) }
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete()
+                    Log.w(TAG, "Failed to replace compiled flowerpot $file")
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to write compiled flowerpot $file", e)
             }
+            return matcher
         }
 
         /**
@@ -116,25 +163,48 @@ class Flowerpot(
     /**
      * Class used to interact with Pots as a whole, load hem
      */
-    class Manager private constructor(private val context: Context) {
+    class Manager private constructor(private val context: Context) : LauncherApps.Callback() {
 
         private val pots = mutableMapOf<String, Flowerpot>()
+        private val launcherApps = context.getSystemService(LauncherApps::class.java)
+        private val intents = FlowerpotIntents(context.packageManager)
+        private var callbackRegistered = false
+
+        private var activityListCount = 0
+
+        /**
+         * Number of package manager and launcher apps queries issued so far
+         */
+        val queryCount get() = intents.queryCount + activityListCount
+
+        /**
+         * Number of queries issued by the last package event
+         */
+        var lastEventQueryCount = 0
+            private set
 
         init {
             loadAssets()
         }
 
         /**
-         * Load flowerpot files located in assets/
+         * Load flowerpot files located in assets/, through binary copies compiled on first use.
+         * Assets only change with an app update, which also changes the stamp.
          */
         private fun loadAssets() {
+            val compiledDir = File(context.cacheDir, ASSETS_PATH)
+            val stamp = { assetsStamp }
             context.assets.list(ASSETS_PATH)?.forEach {
                 pots.getOrPut(it) {
-                    fromAssets(context, "$ASSETS_PATH/$it", it)
+                    fromAssets(context, "$ASSETS_PATH/$it", it, File(compiledDir, it), stamp)
                 }
             }
         }
 
+        private val assetsStamp by lazy {
+            context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+        }
+
         /**
          * Get a pot by its name, returns null if no pot with this name has been loaded
          *
@@ -150,6 +220,91 @@ class Flowerpot(
 
         fun getAllPots() = pots.values
 
+        fun ensureAllLoaded() {
+            ensureLoaded(pots.values)
+        }
+
+        /**
+         * Loads the pots which are not loaded yet, categorizing installed apps for all of them in
+         * a single pass over the activity list
+         */
+        fun ensureLoaded(toLoad: Collection<Flowerpot>) {
+            val pending = toLoad.filterNot { it.loaded }
+            if (pending.isEmpty()) return
+            pending.forEach { it.load() }
+            intents.resolve(pending.flatMap { it.matcher.intentKeys })
+
+            UserCache.INSTANCE.get(context).userProfiles.forEach { user ->
+                activityListCount++
+                launcherApps.getActivityList(null, user).forEach { info ->
+                    pending.forEach { it.apps.addIfMatches(info, intents) }
+                }
+            }
+            if (!callbackRegistered) {
+                launcherApps.registerCallback(this)
+                callbackRegistered = true
+            }
+        }
+
+        private fun onPackagesAdded(packageNames: Array<out String>, user: UserHandle) {
+            val loadedPots = pots.values.filter { it.loaded }
+            val startCount = queryCount
+            intents.onPackagesChanged(packageNames)
+            packageNames.forEach { packageName ->
+                loadedPots.forEach { it.apps.removePackage(packageName, user) }
+                activityListCount++
+                launcherApps.getActivityList(packageName, user).forEach { info ->
+                    loadedPots.forEach { it.apps.addIfMatches(info, intents) }
+                }
+            }
+            lastEventQueryCount = queryCount - startCount
+        }
+
+        private fun onPackagesRemoved(packageNames: Array<out String>, user: UserHandle) {
+            val loadedPots = pots.values.filter { it.loaded }
+            packageNames.forEach { packageName ->
+                loadedPots.forEach { it.apps.removePackage(packageName, user) }
+            }
+            lastEventQueryCount = 0
+        }
+
+        override fun onPackageAdded(packageName: String, user: UserHandle) {
+            onPackagesAdded(arrayOf(packageName), user)
+        }
+
+        override fun onPackageChanged(packageName: String, user: UserHandle) {
+            onPackagesAdded(arrayOf(packageName), user)
+        }
+
+        override fun onPackageRemoved(packageName: String, user: UserHandle) {
+            intents.onPackagesRemoved(arrayOf(packageName))
+            onPackagesRemoved(arrayOf(packageName), user)
+        }
+
+        override fun onPackagesAvailable(
+            packageNames: Array<out String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) {
+            onPackagesAdded(packageNames, user)
+        }
+
+        override fun onPackagesUnavailable(
+            packageNames: Array<out String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) {
+            onPackagesRemoved(packageNames, user)
+        }
+
+        override fun onPackagesSuspended(packageNames: Array<out String>, user: UserHandle) {
+            onPackagesRemoved(packageNames, user)
+        }
+
+        override fun onPackagesUnsuspended(packageNames: Array<out String>, user: UserHandle) {
+            onPackagesAdded(packageNames, user)
+        }
+
         companion object :
             SingletonHolder<Manager, Context>(ensureOnMainThread(useApplicationContext(::Manager))) {
 
@@ -0,0 +1,98 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import android.content.Intent
+import android.content.pm.PackageManager
+
+/**
+ * Packages handling the intent rules of all pots, shared so that every intent is resolved once
+ * instead of once per pot and package event.
+ *
+ * Intents are identified by their rule key, see [FlowerpotMatcher.intentKeys]. After the initial
+ * resolution, a package event only queries the changed packages.
+ */
+class FlowerpotIntents(private val pm: PackageManager) {
+
+    private val packagesByIntent = HashMap<String, MutableSet<String>>()
+
+    /**
+     * Number of package manager queries issued so far
+     */
+    var queryCount = 0
+        private set
+
+    fun handles(key: String, packageName: String) =
+        packagesByIntent[key]?.contains(packageName) == true
+
+    /**
+     * Resolves the intents of [keys] which were never resolved
+     */
+    fun resolve(keys: Collection<String>) {
+        keys.forEach { key ->
+            if (key !in packagesByIntent) {
+                packagesByIntent[key] = query(key, null).toHashSet()
+            }
+        }
+    }
+
+    /**
+     * Updates resolved intents after [packageNames] were installed or changed. A single package
+     * is queried alone, while larger batches resolve every intent again.
+     */
+    fun onPackagesChanged(packageNames: Array<out String>) {
+        packagesByIntent.forEach { (key, packages) ->
+            if (packageNames.size == 1) {
+                val packageName = packageNames[0]
+                if (query(key, packageName).isEmpty()) {
+                    packages.remove(packageName)
+                } else {
+                    packages.add(packageName)
+                }
+            } else {
+                packages.clear()
+                packages.addAll(query(key, null))
+            }
+        }
+    }
+
+    fun onPackagesRemoved(packageNames: Array<out String>) {
+        packagesByIntent.values.forEach { it.removeAll(packageNames.toSet()) }
+    }
+
+    private fun query(key: String, packageName: String?): List<String> {
+        val intent = when (key[0]) {
+            KEY_CATEGORY -> Intent(Intent.ACTION_MAIN).addCategory(key.substring(1))
+            else -> Intent(key.substring(1))
+        }
+        packageName?.let { intent.setPackage(it) }
+        queryCount++
+        return pm.queryIntentActivities(intent, 0).map { it.activityInfo.packageName }
+    }
+
+    companion object {
+        // Same prefixes as in the flowerpot format
+        const val KEY_ACTION = ':'
+        const val KEY_CATEGORY = ';'
+
+        fun actionKey(action: String) = "$KEY_ACTION$action"
+        fun categoryKey(category: String) = "$KEY_CATEGORY$category"
+    }
+}
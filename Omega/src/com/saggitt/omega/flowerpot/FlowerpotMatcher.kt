@@ -0,0 +1,59 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import android.content.pm.ApplicationInfo
+import com.saggitt.omega.flowerpot.rules.CodeRule
+import com.saggitt.omega.flowerpot.rules.Rule
+
+/**
+ * The rules of a [Flowerpot] compiled for matching: package rules are kept in a hash set and code
+ * rules are resolved once, so matching an app does not walk the rule set.
+ */
+class FlowerpotMatcher(
+    val packages: Set<String>,
+    val intentKeys: List<String>,
+    val codeRules: List<Rule.CodeRule>
+) {
+
+    constructor(rules: Collection<Rule>) : this(
+        rules.filterIsInstance<Rule.Package>().mapTo(HashSet()) { it.filter },
+        rules.mapNotNull { rule ->
+            when (rule) {
+                is Rule.IntentAction -> FlowerpotIntents.actionKey(rule.action)
+                is Rule.IntentCategory -> FlowerpotIntents.categoryKey(rule.category)
+                else -> null
+            }
+        },
+        rules.filterIsInstance<Rule.CodeRule>()
+    )
+
+    private val resolvedCodeRules = codeRules.map { CodeRule.get(it.rule, it.args) }
+
+    val size get() = packages.size + intentKeys.size + codeRules.size
+
+    /**
+     * Returns whether an app matches, [intents] having resolved [intentKeys]
+     */
+    fun matches(packageName: String, info: ApplicationInfo, intents: FlowerpotIntents) =
+        packageName in packages
+                || intentKeys.any { intents.handles(it, packageName) }
+                || resolvedCodeRules.any { it.matches(info) }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot.parser
+
+import com.saggitt.omega.flowerpot.FlowerpotMatcher
+import com.saggitt.omega.flowerpot.rules.Rule
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Compact binary form of a compiled [FlowerpotMatcher], read back with a single read and without
+ * any line parsing. Files carry a [stamp] identifying their source, so that they can be dropped
+ * once it changes.
+ *
+ * Layout: magic, format version, stamp, then the package, intent key and code rule tables, each
+ * prefixed by its size. Strings are modified UTF-8 as written by [DataOutputStream.writeUTF].
+ */
+object FlowerpotBinary {
+
+    private const val MAGIC = 0x46504F54 // FPOT
+    private const val FORMAT_VERSION = 1
+
+    fun write(matcher: FlowerpotMatcher, stamp: Long, out: OutputStream) {
+        DataOutputStream(out.buffered()).apply {
+            writeInt(MAGIC)
+            writeInt(FORMAT_VERSION)
+            writeLong(stamp)
+            writeInt(matcher.packages.size)
+            matcher.packages.forEach { writeUTF(it) }
+            writeInt(matcher.intentKeys.size)
+            matcher.intentKeys.forEach { writeUTF(it) }
+            writeInt(matcher.codeRules.size)
+            matcher.codeRules.forEach { rule ->
+                writeUTF(rule.rule)
+                writeInt(rule.args.size)
+                rule.args.forEach { writeUTF(it) }
+            }
+            flush()
+        }
+    }
+
+    /**
+     * Returns the matcher stored in [bytes], or null if they were written by another format
+     * version or for another [stamp]
+     */
+    @Throws(IOException::class)
+    fun read(bytes: ByteArray, stamp: Long): FlowerpotMatcher? {
+        val input = DataInputStream(ByteArrayInputStream(bytes))
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION
+            || input.readLong() != stamp
+        ) {
+            return null
+        }
+        val packageCount = input.readInt()
+        val packages = HashSet<String>(packageCount * 4 / 3 + 1)
+        repeat(packageCount) { packages.add(input.readUTF()) }
+        val intentKeys = List(input.readInt()) { input.readUTF() }
+        val codeRules = List(input.readInt()) {
+            val name = input.readUTF()
+            Rule.CodeRule(name, List(input.readInt()) { input.readUTF() })
+        }
+        return FlowerpotMatcher(packages, intentKeys, codeRules)
+    }
+}
@@ -40,7 +40,7 @@ object LineParser {
                 val parts = line.rest.split("|")
                 val ruleName = parts[0]
                 val args = if (parts.size > 1) parts.subList(1, parts.size) else emptyList()
-                Rule.CodeRule(ruleName, args.toTypedArray())
+                Rule.CodeRule(ruleName, args)
             }
             // Package
             else -> if (!line[0].isLetter()) {
@@ -50,12 +50,16 @@ sealed class CodeRule(vararg val args: String) {
     }
 
     companion object {
-        private val cache = mutableMapOf<Pair<String, Array<out String>>, CodeRule>()
-        fun get(name: String, vararg args: String) = cache.getOrPut(Pair(name, args)) {
-            when (name) {
-                "isGame" -> IsGame(*args)
-                "category" -> Category(*args)
-                else -> throw IllegalArgumentException("Unknown Code Rule '$name'")
+        // Keyed by list as arrays only have identity equality
+        private val cache = mutableMapOf<Pair<String, List<String>>, CodeRule>()
+
+        fun get(name: String, args: List<String>) = synchronized(cache) {
+            cache.getOrPut(Pair(name, args)) {
+                when (name) {
+                    "isGame" -> IsGame(*args.toTypedArray())
+                    "category" -> Category(*args.toTypedArray())
+                    else -> throw IllegalArgumentException("Unknown Code Rule '$name'")
+                }
             }
         }
     }
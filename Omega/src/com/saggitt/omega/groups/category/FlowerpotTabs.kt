@@ -73,7 +73,7 @@ class FlowerpotTabs(manager: AppGroupsManager) :
             customizations.entries.first { it is StringCustomization } as StringCustomization)
 
         private val pot
-            get() = Flowerpot.Manager.getInstance(context).getPot(potName.value ?: DEFAULT, true)!!
+            get() = Flowerpot.Manager.getInstance(context).getPot(potName.value ?: DEFAULT, false)!!
 
         init {
             addCustomization(potName)
@@ -86,7 +86,8 @@ class FlowerpotTabs(manager: AppGroupsManager) :
             }
 
         fun getMatches(): Set<ComponentKey> {
-            pot.ensureLoaded()
+            // Tabs are usually created for every pot, categorize them all at once
+            Flowerpot.Manager.getInstance(context).ensureAllLoaded()
             return pot.apps.matches
         }
 
@@ -108,7 +109,7 @@ class FlowerpotTabs(manager: AppGroupsManager) :
     ) : StringCustomization(key, default) {
         private val flowerpotManager = Flowerpot.Manager.getInstance(context)
         private val displayName
-            get() = flowerpotManager.getPot(value ?: default)?.displayName
+            get() = flowerpotManager.getPot(value ?: default, false)?.displayName
 
 
         override fun saveToJson(context: Context): String {
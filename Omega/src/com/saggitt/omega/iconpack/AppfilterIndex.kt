@@ -0,0 +1,241 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.iconpack
+
+import android.content.ComponentName
+import com.saulhdev.neolauncher.icons.ClockMetadata
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * The parsed appfilter of an icon pack, kept as sorted tables of flattened component names
+ * instead of maps of [ComponentName] and [IconEntry]. Lookups are binary searches, and the
+ * index can be written to disk so that later loads skip the XML parsing.
+ *
+ * The resource ids of the drawables are resolved once when the index is built, they stay valid as
+ * long as the pack is not updated, which also invalidates the index.
+ *
+ * Binary layout: magic, format version, pack version code and update time, then the sorted
+ * drawable name table with the resource ids, followed by the icon, calendar and clock tables,
+ * each prefixed by its size.
+ */
+class AppfilterIndex private constructor(
+    private val drawables: Array<String>,
+    private val drawableResIds: IntArray,
+    private val icons: ComponentTable,
+    private val calendars: ComponentTable,
+    private val clockDrawables: Array<String>,
+    private val clockMetas: Array<ClockMetadata>
+) {
+
+    val size get() = icons.size + calendars.size
+
+    fun getIcon(componentName: ComponentName) = drawableName(icons[componentName])
+
+    fun getCalendar(componentName: ComponentName) = drawableName(calendars[componentName])
+
+    fun getClock(drawableName: String): ClockMetadata? {
+        val index = clockDrawables.binarySearch(drawableName)
+        return if (index >= 0) clockMetas[index] else null
+    }
+
+    fun getCalendars() = calendars.componentNames { true }
+
+    fun getClocks() = icons.componentNames { clockDrawables.binarySearch(drawables[it]) >= 0 }
+
+    /**
+     * Returns the resource id of the drawable [drawableName], 0 if the pack doesn't have it, or
+     * -1 if it is not referenced by the appfilter or was not resolved
+     */
+    fun getDrawableResId(drawableName: String): Int {
+        val index = drawables.binarySearch(drawableName)
+        return if (index >= 0) drawableResIds[index] else -1
+    }
+
+    private fun drawableName(drawableId: Int) =
+        if (drawableId >= 0) drawables[drawableId] else null
+
+    @Throws(IOException::class)
+    fun write(out: OutputStream, versionCode: Long, updateTime: Long) {
+        DataOutputStream(out.buffered()).apply {
+            writeInt(MAGIC)
+            writeInt(FORMAT_VERSION)
+            writeLong(versionCode)
+            writeLong(updateTime)
+            writeInt(drawables.size)
+            drawables.forEachIndexed { i, drawable ->
+                writeUTF(drawable)
+                writeInt(drawableResIds[i])
+            }
+            icons.write(this)
+            calendars.write(this)
+            writeInt(clockDrawables.size)
+            clockDrawables.forEachIndexed { i, drawable ->
+                writeUTF(drawable)
+                clockMetas[i].apply {
+                    writeInt(hourLayerIndex)
+                    writeInt(minuteLayerIndex)
+                    writeInt(secondLayerIndex)
+                    writeInt(defaultHour)
+                    writeInt(defaultMinute)
+                    writeInt(defaultSecond)
+                }
+            }
+            flush()
+        }
+    }
+
+    /**
+     * Flattened component names in sorted order, with the id of their drawable name
+     */
+    private class ComponentTable(
+        private val components: Array<String>,
+        private val drawableIds: IntArray
+    ) {
+        val size get() = components.size
+
+        /**
+         * Returns the drawable id of [componentName], or -1 if it is not in the table
+         */
+        operator fun get(componentName: ComponentName): Int {
+            val index = components.binarySearch(componentName.flattenToString())
+            return if (index >= 0) drawableIds[index] else -1
+        }
+
+        fun componentNames(filter: (drawableId: Int) -> Boolean): MutableSet<ComponentName> =
+            components.indices
+                .filter { filter(drawableIds[it]) }
+                .mapNotNullTo(HashSet()) { ComponentName.unflattenFromString(components[it]) }
+
+        fun write(out: DataOutputStream) {
+            out.writeInt(components.size)
+            components.forEachIndexed { i, component ->
+                out.writeUTF(component)
+                out.writeInt(drawableIds[i])
+            }
+        }
+
+        companion object {
+            fun read(input: DataInputStream): ComponentTable {
+                val size = input.readInt()
+                val drawableIds = IntArray(size)
+                val components = Array(size) {
+                    val component = input.readUTF()
+                    drawableIds[it] = input.readInt()
+                    component
+                }
+                return ComponentTable(components, drawableIds)
+            }
+        }
+    }
+
+    /**
+     * Collects appfilter entries, later entries replacing earlier ones for the same component
+     */
+    class Builder {
+        private val icons = HashMap<String, String>()
+        private val calendars = HashMap<String, String>()
+        private val clocks = HashMap<String, ClockMetadata>()
+
+        fun addIcon(componentName: ComponentName, drawableName: String) = apply {
+            icons[componentName.flattenToString()] = drawableName
+        }
+
+        fun addCalendar(componentName: ComponentName, drawableName: String) = apply {
+            calendars[componentName.flattenToString()] = drawableName
+        }
+
+        fun addClock(drawableName: String, metadata: ClockMetadata) = apply {
+            clocks[drawableName] = metadata
+        }
+
+        /**
+         * @param resolveResId returns the resource id of a drawable name, the ids are left
+         * unresolved if null
+         */
+        fun build(resolveResId: ((String) -> Int)? = null): AppfilterIndex {
+            // Many components share a drawable, so names are stored once and referenced by id
+            val drawables = (icons.values + calendars.values).toSortedSet().toTypedArray()
+            val drawableIds = HashMap<String, Int>(drawables.size)
+            drawables.forEachIndexed { i, drawable -> drawableIds[drawable] = i }
+            val clockDrawables = clocks.keys.sorted().toTypedArray()
+            return AppfilterIndex(
+                drawables,
+                IntArray(drawables.size) { resolveResId?.invoke(drawables[it]) ?: -1 },
+                createTable(icons, drawableIds),
+                createTable(calendars, drawableIds),
+                clockDrawables,
+                Array(clockDrawables.size) { clocks.getValue(clockDrawables[it]) }
+            )
+        }
+
+        private fun createTable(entries: Map<String, String>, drawableIds: Map<String, Int>) =
+            entries.keys.sorted().toTypedArray().let { components ->
+                ComponentTable(components, IntArray(components.size) {
+                    drawableIds.getValue(entries.getValue(components[it]))
+                })
+            }
+    }
+
+    companion object {
+        private const val MAGIC = 0x41504649 // APFI
+        private const val FORMAT_VERSION = 2
+
+        val EMPTY = Builder().build()
+
+        /**
+         * Returns the index stored in [bytes], or null if they were written by another format
+         * version or for another version of the pack
+         */
+        @Throws(IOException::class)
+        fun read(bytes: ByteArray, versionCode: Long, updateTime: Long): AppfilterIndex? {
+            val input = DataInputStream(ByteArrayInputStream(bytes))
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION
+                || input.readLong() != versionCode || input.readLong() != updateTime
+            ) {
+                return null
+            }
+            val drawableCount = input.readInt()
+            val drawableResIds = IntArray(drawableCount)
+            val drawables = Array(drawableCount) {
+                val drawable = input.readUTF()
+                drawableResIds[it] = input.readInt()
+                drawable
+            }
+            val icons = ComponentTable.read(input)
+            val calendars = ComponentTable.read(input)
+            val clockCount = input.readInt()
+            val clockDrawables = Array(clockCount) { "" }
+            val clockMetas = Array(clockCount) {
+                clockDrawables[it] = input.readUTF()
+                ClockMetadata(
+                    input.readInt(), input.readInt(), input.readInt(),
+                    input.readInt(), input.readInt(), input.readInt()
+                )
+            }
+            return AppfilterIndex(
+                drawables, drawableResIds, icons, calendars, clockDrawables, clockMetas
+            )
+        }
+    }
+}
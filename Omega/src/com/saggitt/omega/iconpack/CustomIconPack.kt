@@ -6,9 +6,13 @@ import android.content.Intent
 import android.content.pm.PackageManager
 import android.content.res.Resources
 import android.content.res.XmlResourceParser
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.graphics.drawable.Drawable
+import android.util.Log
 import android.util.Xml
 import com.android.launcher3.R
+import com.android.launcher3.Utilities
 import com.saggitt.omega.data.IconPickerItem
 import com.saulhdev.neolauncher.icons.ClockMetadata
 import com.saulhdev.neolauncher.icons.ExtendedBitmapDrawable
@@ -19,21 +23,21 @@ import kotlinx.coroutines.flow.flowOn
 import org.xmlpull.v1.XmlPullParser
 import org.xmlpull.v1.XmlPullParserException
 import org.xmlpull.v1.XmlPullParserFactory
+import java.io.File
 import java.io.IOException
-import kotlin.collections.component1
-import kotlin.collections.component2
-import kotlin.collections.set
+import java.util.concurrent.ConcurrentHashMap
 
 class CustomIconPack(context: Context, packPackageName: String) :
     IconPack(context, packPackageName) {
 
     private val packResources = context.packageManager.getResourcesForApplication(packPackageName)
-    private val componentMap = mutableMapOf<ComponentName, IconEntry>()
-    private val calendarMap = mutableMapOf<ComponentName, IconEntry>()
-    private val clockMap = mutableMapOf<ComponentName, IconEntry>()
-    private val clockMetas = mutableMapOf<IconEntry, ClockMetadata>()
+    override val resources: Resources get() = packResources
 
-    private val idCache = mutableMapOf<String, Int>()
+    @Volatile
+    private var appfilter = AppfilterIndex.EMPTY
+
+    // Icons may be loaded from several threads during an icon cache update
+    private val idCache = ConcurrentHashMap<String, Int>()
 
     override val label = context.packageManager.let { pm ->
         pm.getApplicationInfo(packPackageName, 0).loadLabel(pm).toString()
@@ -46,12 +50,19 @@ class CustomIconPack(context: Context, packPackageName: String) :
         startLoad()
     }
 
-    override fun getIcon(componentName: ComponentName) = componentMap[componentName]
-    override fun getCalendar(componentName: ComponentName) = calendarMap[componentName]
-    override fun getClock(entry: IconEntry) = clockMetas[entry]
+    override fun getIcon(componentName: ComponentName) = appfilter.getIcon(componentName)
+        ?.let { IconEntry(packPackageName, it, IconType.Normal) }
+
+    override fun getCalendar(componentName: ComponentName) = appfilter.getCalendar(componentName)
+        ?.let { IconEntry(packPackageName, it, IconType.Calendar) }
 
-    override fun getCalendars(): MutableSet<ComponentName> = calendarMap.keys
-    override fun getClocks(): MutableSet<ComponentName> = clockMap.keys
+    override fun getClock(entry: IconEntry) =
+        if (entry.packPackageName == packPackageName && entry.type == IconType.Normal) {
+            appfilter.getClock(entry.name)
+        } else null
+
+    override fun getCalendars(): MutableSet<ComponentName> = appfilter.getCalendars()
+    override fun getClocks(): MutableSet<ComponentName> = appfilter.getClocks()
 
     override fun getIcon(iconEntry: IconEntry, iconDpi: Int): Drawable? {
         val id = getDrawableId(iconEntry.name)
@@ -67,6 +78,35 @@ class CustomIconPack(context: Context, packPackageName: String) :
         }
     }
 
+    /**
+     * Decodes bitmap drawables subsampled close to [sizePx] instead of at full density, which
+     * keeps the icon picker grid from decoding hundreds of large icons
+     */
+    override fun getThumbnail(iconEntry: IconEntry, sizePx: Int): Bitmap? {
+        val id = getDrawableId(iconEntry.name)
+        if (id == 0) return null
+        val options = BitmapFactory.Options().apply {
+            inJustDecodeBounds = true
+            inScaled = false
+        }
+        BitmapFactory.decodeResource(packResources, id, options)
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // Not a bitmap, such as a vector or an adaptive icon
+            return super.getThumbnail(iconEntry, sizePx)
+        }
+        options.inJustDecodeBounds = false
+        var sampleSize = 1
+        while (minOf(options.outWidth, options.outHeight) / (sampleSize * 2) >= sizePx) {
+            sampleSize *= 2
+        }
+        options.inSampleSize = sampleSize
+        return try {
+            BitmapFactory.decodeResource(packResources, id, options)
+        } catch (_: Resources.NotFoundException) {
+            null
+        }
+    }
+
     fun createFromExternalPicker(icon: Intent.ShortcutIconResource): IconPickerItem? {
         val id = packResources.getIdentifier(icon.resourceName, null, null)
         if (id == 0) return null
@@ -74,8 +114,57 @@ class CustomIconPack(context: Context, packPackageName: String) :
         return IconPickerItem(packPackageName, simpleName, simpleName, IconType.Normal)
     }
 
+    /**
+     * Loads the appfilter from its index in the cache, which is rebuilt from the XML whenever the
+     * pack was updated since it was written
+     */
     override fun loadInternal() {
-        val parseXml = getXml("appfilter") ?: return
+        val packageInfo = try {
+            context.packageManager.getPackageInfo(packPackageName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return
+        }
+        val versionCode = when {
+            Utilities.ATLEAST_P -> packageInfo.longVersionCode
+            else -> packageInfo.versionCode.toLong()
+        }
+        val updateTime = packageInfo.lastUpdateTime
+        val cacheFile = File(context.cacheDir, "$APPFILTER_CACHE_DIR/$packPackageName")
+        if (cacheFile.exists()) {
+            try {
+                AppfilterIndex.read(cacheFile.readBytes(), versionCode, updateTime)?.let {
+                    appfilter = it
+                    return
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to read appfilter index $cacheFile", e)
+            }
+        }
+        val builder = AppfilterIndex.Builder()
+        val complete = parseAppfilter(builder)
+        val index = builder.build { name ->
+            packResources.getIdentifier(name, "drawable", packPackageName)
+        }
+        appfilter = index
+        if (!complete) return
+        try {
+            cacheFile.parentFile?.mkdirs()
+            val tempFile = File(cacheFile.path + ".tmp")
+            tempFile.outputStream().use { index.write(it, versionCode, updateTime) }
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete()
+                Log.w(TAG, "Failed to replace appfilter index $cacheFile")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write appfilter index $cacheFile", e)
+        }
+    }
+
+    /**
+     * Adds the entries of the appfilter XML to [builder], returning whether it was fully parsed
+     */
+    private fun parseAppfilter(builder: AppfilterIndex.Builder): Boolean {
+        val parseXml = getXml("appfilter") ?: return false
         val compStart = "ComponentInfo{"
         val compStartLength = compStart.length
         val compEnd = "}"
@@ -102,11 +191,9 @@ class CustomIconPack(context: Context, packPackageName: String) :
                             val parsed = ComponentName.unflattenFromString(componentName)
                             if (parsed != null) {
                                 if (isCalendar) {
-                                    calendarMap[parsed] =
-                                        IconEntry(packPackageName, drawableName, IconType.Calendar)
+                                    builder.addCalendar(parsed, drawableName)
                                 } else {
-                                    componentMap[parsed] =
-                                        IconEntry(packPackageName, drawableName, IconType.Normal)
+                                    builder.addIcon(parsed, drawableName)
                                 }
                             }
                         }
@@ -116,28 +203,20 @@ class CustomIconPack(context: Context, packPackageName: String) :
                         val drawableName = parseXml["drawable"]
                         if (drawableName != null) {
                             if (parseXml is XmlResourceParser) {
-                                clockMetas[IconEntry(
-                                    packPackageName,
-                                    drawableName,
-                                    IconType.Normal
-                                )] = ClockMetadata(
+                                builder.addClock(drawableName, ClockMetadata(
                                     parseXml.getAttributeIntValue(null, "hourLayerIndex", -1),
                                     parseXml.getAttributeIntValue(null, "minuteLayerIndex", -1),
                                     parseXml.getAttributeIntValue(null, "secondLayerIndex", -1),
                                     parseXml.getAttributeIntValue(null, "defaultHour", 0),
                                     parseXml.getAttributeIntValue(null, "defaultMinute", 0),
                                     parseXml.getAttributeIntValue(null, "defaultSecond", 0)
-                                )
+                                ))
                             }
                         }
                     }
                 }
             }
-            componentMap.forEach { (componentName, iconEntry) ->
-                if (clockMetas.containsKey(iconEntry)) {
-                    clockMap[componentName] = iconEntry
-                }
-            }
+            return true
         } catch (e: PackageManager.NameNotFoundException) {
             e.printStackTrace()
         } catch (e: XmlPullParserException) {
@@ -147,6 +226,7 @@ class CustomIconPack(context: Context, packPackageName: String) :
         } catch (e: IllegalStateException) {
             e.printStackTrace()
         }
+        return false
     }
 
     override fun getAllIcons(): Flow<List<IconPickerCategory>> = flow {
@@ -194,29 +274,33 @@ class CustomIconPack(context: Context, packPackageName: String) :
         endCategory()
     }.flowOn(Dispatchers.IO)
 
-    private fun getDrawableId(name: String) = idCache.getOrPut(name) {
-        packResources.getIdentifier(name, "drawable", packPackageName)
+    override fun getDrawableId(name: String) = idCache.getOrPut(name) {
+        appfilter.getDrawableResId(name).takeIf { it >= 0 }
+            ?: packResources.getIdentifier(name, "drawable", packPackageName)
     }
 
     private fun getXml(name: String): XmlPullParser? {
-        val res: Resources
+        val res = packResources
         try {
-            res = context.packageManager.getResourcesForApplication(packPackageName)
             val resourceId = res.getIdentifier(name, "xml", packPackageName)
             return if (0 != resourceId) {
-                context.packageManager.getXml(packPackageName, resourceId, null)
+                res.getXml(resourceId)
             } else {
                 val factory = XmlPullParserFactory.newInstance()
                 val parser = factory.newPullParser()
                 parser.setInput(res.assets.open("$name.xml"), Xml.Encoding.UTF_8.toString())
                 parser
             }
-        } catch (_: PackageManager.NameNotFoundException) {
         } catch (_: IOException) {
         } catch (_: XmlPullParserException) {
         }
         return null
     }
+
+    companion object {
+        private const val TAG = "CustomIconPack"
+        private const val APPFILTER_CACHE_DIR = "appfilter"
+    }
 }
 
 private operator fun XmlPullParser.get(key: String): String? = this.getAttributeValue(null, key)
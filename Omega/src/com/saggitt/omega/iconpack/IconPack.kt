@@ -2,7 +2,10 @@ package com.saggitt.omega.iconpack
 
 import android.content.ComponentName
 import android.content.Context
+import android.content.res.Resources
+import android.graphics.Bitmap
 import android.graphics.drawable.Drawable
+import androidx.core.graphics.applyCanvas
 import com.android.launcher3.compat.AlphabeticIndexCompat
 import com.saggitt.omega.data.IconPickerItem
 import com.saulhdev.neolauncher.icons.ClockMetadata
@@ -48,6 +51,27 @@ abstract class IconPack(
     abstract fun getIcon(iconEntry: IconEntry, iconDpi: Int): Drawable?
     abstract fun getAllIcons(): Flow<List<IconPickerCategory>>
 
+    /**
+     * Resources of the pack, loaded once, or null if the pack is not backed by resources
+     */
+    open val resources: Resources? get() = null
+
+    /**
+     * Returns the id of the drawable [name] in [resources], or 0 if there is none
+     */
+    open fun getDrawableId(name: String): Int = 0
+
+    /**
+     * Returns the icon of [iconEntry] as a bitmap of at most [sizePx], for previews
+     */
+    open fun getThumbnail(iconEntry: IconEntry, sizePx: Int): Bitmap? {
+        val drawable = getIcon(iconEntry, 0) ?: return null
+        return Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888).applyCanvas {
+            drawable.setBounds(0, 0, sizePx, sizePx)
+            drawable.draw(this)
+        }
+    }
+
     abstract fun reloadAppMap()
 
     @Suppress("BlockingMethodInNonBlockingContext")
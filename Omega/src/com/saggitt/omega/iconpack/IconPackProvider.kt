@@ -1,8 +1,8 @@
 package com.saggitt.omega.iconpack
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.pm.PackageManager
+import android.graphics.Bitmap
 import android.graphics.drawable.AdaptiveIconDrawable
 import android.graphics.drawable.ColorDrawable
 import android.graphics.drawable.Drawable
@@ -10,17 +10,13 @@ import android.graphics.drawable.InsetDrawable
 import android.os.Build
 import android.os.Process
 import android.os.UserHandle
-import androidx.core.content.ContextCompat
-import com.android.launcher3.R
+import android.util.LruCache
 import com.android.launcher3.Utilities
 import com.android.launcher3.icons.ClockDrawableWrapper
 import com.android.launcher3.icons.ThemedIconDrawable
 import com.android.launcher3.util.MainThreadInitializedObject
 import com.saggitt.omega.NeoApp
-import com.saggitt.omega.NeoApp.Companion.minSDK
-import com.saggitt.omega.util.Config
 import com.saggitt.omega.util.Config.Companion.LAWNICONS_PACKAGE_NAME
-import com.saggitt.omega.util.Config.Companion.THEME_ICON_THEMED
 import com.saulhdev.neolauncher.icons.ClockMetadata
 import com.saulhdev.neolauncher.icons.CustomAdaptiveIconDrawable
 
@@ -28,15 +24,16 @@ class IconPackProvider(private val context: Context) {
 
     private val systemIconPack = SystemIconPack(context)
     private val iconPacks = mutableMapOf<String, IconPack?>()
-    private val systemIcon = CustomAdaptiveIconDrawable.wrapNonNull(
-        ContextCompat.getDrawable(context, R.drawable.ic_launcher_foreground)!!
-    )
+    private val thumbnailCache = object : LruCache<String, Bitmap>(THUMBNAIL_CACHE_BYTES) {
+        override fun sizeOf(key: String, value: Bitmap) = value.allocationByteCount
+    }
 
     fun getIconPackOrSystem(packageName: String): IconPack? {
         if (packageName.isEmpty()) return systemIconPack
         return getIconPack(packageName)
     }
 
+    @Synchronized
     fun getIconPack(packageName: String): IconPack? {
         if (packageName.isEmpty()) {
             return null
@@ -50,51 +47,16 @@ class IconPackProvider(private val context: Context) {
         }
     }
 
-    fun getIconPackList(): List<IconPackInfo> {
-        val pm = context.packageManager
-
-        val iconPacks = Config.ICON_INTENTS
-            .flatMap { pm.queryIntentActivities(it, 0) }
-            .associateBy { it.activityInfo.packageName }
-            .mapTo(mutableSetOf()) { (_, info) ->
-                IconPackInfo(
-                    info.loadLabel(pm).toString(),
-                    info.activityInfo.packageName,
-                    info.loadIcon(pm)
-                )
-            }
-        val defaultIconPack =
-            IconPackInfo(context.getString(R.string.icon_pack_default), "", systemIcon)
-        val lawniconsInfo = try {
-            val info = pm.getPackageInfo(LAWNICONS_PACKAGE_NAME, 0)
-            IconPackInfo(
-                info.applicationInfo.loadLabel(pm).toString(),
-                LAWNICONS_PACKAGE_NAME,
-                info.applicationInfo.loadIcon(pm)
-            )
-        } catch (e: PackageManager.NameNotFoundException) {
-            null
-        }
-        val themedIconsInfo = if (minSDK(Build.VERSION_CODES.TIRAMISU)) IconPackInfo(
-            context.getString(R.string.title_themed_icons),
-            THEME_ICON_THEMED,
-            /*
-            ThemedIconDrawable.wrapWithThemeData(
-                ContextCompat.getDrawable(context, R.mipmap.ic_launcher),
-                context.resources,
-                ThemedIconDrawable.ThemeData(
-                    context.resources,
-                    context.packageName,
-                    R.drawable.ic_launcher_foreground
-                )
-            )*/
-            ContextCompat.getDrawable(context, R.mipmap.ic_launcher)!!
-        ) else null
-        return listOfNotNull(
-            defaultIconPack,
-            if (Utilities.ATLEAST_S) lawniconsInfo else null,
-            themedIconsInfo
-        ) + iconPacks.sortedBy { it.name }
+    /**
+     * Drops the loaded [packageName] pack, so that it is loaded again after it was updated
+     */
+    @Synchronized
+    fun removeIconPack(packageName: String) {
+        iconPacks.remove(packageName)
+        val prefix = "$packageName/"
+        thumbnailCache.snapshot().keys
+            .filter { it.startsWith(prefix) }
+            .forEach { thumbnailCache.remove(it) }
     }
 
     fun getClockMetadata(iconEntry: IconEntry): ClockMetadata? {
@@ -105,7 +67,6 @@ class IconPackProvider(private val context: Context) {
     fun getDrawable(iconEntry: IconEntry, iconDpi: Int, user: UserHandle): Drawable? {
         val iconPack = getIconPackOrSystem(iconEntry.packPackageName) ?: return null
         iconPack.loadBlocking()
-        val packageManager = context.packageManager
         val drawable = iconPack.getIcon(iconEntry, iconDpi) ?: return null
         val clockMetadata =
             if (user == Process.myUserHandle()) iconPack.getClock(iconEntry) else null
@@ -116,11 +77,7 @@ class IconPackProvider(private val context: Context) {
         if (clockMetadata != null) {
             val clockDrawable: ClockDrawableWrapper =
                 ClockDrawableWrapper.forMeta(Build.VERSION.SDK_INT, clockMetadata) {
-                    wrapThemedData(
-                        packageManager,
-                        iconEntry,
-                        drawable
-                    ) ?: drawable
+                    wrapThemedData(iconPack, iconEntry, drawable) ?: drawable
                 }
             if (clockDrawable != null) {
                 return if (isThemedIconsEnabled)
@@ -131,21 +88,32 @@ class IconPackProvider(private val context: Context) {
         }
 
         if (isThemedIconsEnabled) {
-            return wrapThemedData(packageManager, iconEntry, drawable)
+            return wrapThemedData(iconPack, iconEntry, drawable)
         }
         return drawable
     }
 
+    /**
+     * Returns the icon of [iconEntry] decoded at [sizePx] for the icon picker, keeping the most
+     * recently used ones so that scrolling back through the grid doesn't decode them again
+     */
+    fun getThumbnail(iconPack: IconPack, iconEntry: IconEntry, sizePx: Int): Bitmap? {
+        val key = "${iconEntry.packPackageName}/${iconEntry.name}@$sizePx"
+        thumbnailCache[key]?.let { return it }
+        iconPack.loadBlocking()
+        val thumbnail = iconPack.getThumbnail(iconEntry, sizePx) ?: return null
+        thumbnailCache.put(key, thumbnail)
+        return thumbnail
+    }
+
     private fun wrapThemedData(
-        packageManager: PackageManager,
+        iconPack: IconPack,
         iconEntry: IconEntry,
         drawable: Drawable,
     ): Drawable? {
         val themedColors: IntArray = ThemedIconDrawable.getThemedColors(context)
-        val res = packageManager.getResourcesForApplication(iconEntry.packPackageName)
-
-        @SuppressLint("DiscouragedApi")
-        val resId = res.getIdentifier(iconEntry.name, "drawable", iconEntry.packPackageName)
+        val res = iconPack.resources ?: return null
+        val resId = iconPack.getDrawableId(iconEntry.name)
         val bg: Drawable = ColorDrawable(themedColors[0])
         val td = ThemedIconDrawable.ThemeData(res, iconEntry.packPackageName, resId)
         return if (drawable is AdaptiveIconDrawable) {
@@ -164,6 +132,8 @@ class IconPackProvider(private val context: Context) {
     companion object {
         @JvmField
         val INSTANCE = MainThreadInitializedObject(::IconPackProvider)
+
+        private const val THUMBNAIL_CACHE_BYTES = 16 * 1024 * 1024
     }
 }
 
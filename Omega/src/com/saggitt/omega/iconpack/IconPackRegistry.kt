@@ -0,0 +1,253 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.iconpack
+
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageManager
+import android.content.pm.ResolveInfo
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.BitmapDrawable
+import android.os.Build
+import android.util.Log
+import androidx.core.content.ContextCompat
+import androidx.core.graphics.drawable.toBitmap
+import com.android.launcher3.R
+import com.android.launcher3.Utilities
+import com.android.launcher3.util.MainThreadInitializedObject
+import com.saggitt.omega.NeoApp.Companion.minSDK
+import com.saggitt.omega.util.Config
+import com.saggitt.omega.util.Config.Companion.LAWNICONS_PACKAGE_NAME
+import com.saggitt.omega.util.Config.Companion.THEME_ICON_THEMED
+import com.saggitt.omega.util.broadcastReceiverFlow
+import com.saulhdev.neolauncher.icons.CustomAdaptiveIconDrawable
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * The icon packs available for selection. Installed packs are scanned once in the background,
+ * then updated one package at a time from package broadcasts.
+ *
+ * Labels and icons are persisted with the update time of their package, so that the list is
+ * complete as soon as the cache is read, and a scan only loads new or updated packs.
+ */
+class IconPackRegistry(private val context: Context) {
+
+    private val scope = CoroutineScope(Dispatchers.IO) + CoroutineName("IconPackRegistry")
+    private val mutex = Mutex()
+    private val cacheDir = File(context.cacheDir, CACHE_DIR)
+    private val iconSize = (ICON_SIZE_DP * context.resources.displayMetrics.density).toInt()
+
+    // Installed packs by package name, only accessed while holding the mutex
+    private val packs = HashMap<String, InstalledPack>()
+
+    private val defaultIconPack = IconPackInfo(
+        context.getString(R.string.icon_pack_default),
+        "",
+        CustomAdaptiveIconDrawable.wrapNonNull(
+            ContextCompat.getDrawable(context, R.drawable.ic_launcher_foreground)!!
+        )
+    )
+    private val themedIconsInfo = if (minSDK(Build.VERSION_CODES.TIRAMISU)) IconPackInfo(
+        context.getString(R.string.title_themed_icons),
+        THEME_ICON_THEMED,
+        ContextCompat.getDrawable(context, R.mipmap.ic_launcher)!!
+    ) else null
+
+    private val _iconPacks = MutableStateFlow(listOfNotNull(defaultIconPack, themedIconsInfo))
+
+    /**
+     * The default pack and the built-in themed icons, followed by the installed packs
+     */
+    val iconPacks: StateFlow<List<IconPackInfo>> = _iconPacks.asStateFlow()
+
+    init {
+        scope.launch {
+            mutex.withLock {
+                readCache()
+                publish()
+                scan()
+                publish()
+                writeCache()
+            }
+        }
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_CHANGED)
+            addAction(Intent.ACTION_PACKAGE_REMOVED)
+            addDataScheme("package")
+        }
+        broadcastReceiverFlow(context, filter)
+            .onEach { intent -> intent.data?.schemeSpecificPart?.let { update(it) } }
+            .launchIn(scope)
+    }
+
+    private fun scan() {
+        val pm = context.packageManager
+        val resolveInfos = Config.ICON_INTENTS
+            .flatMap { pm.queryIntentActivities(it, 0) }
+            .associateBy { it.activityInfo.packageName }
+        val packageNames = resolveInfos.keys + LAWNICONS_PACKAGE_NAME
+        packs.keys.retainAll(packageNames)
+        packageNames.forEach { packageName ->
+            val pack = loadPack(packageName, resolveInfos[packageName])
+            if (pack != null) packs[packageName] = pack else packs.remove(packageName)
+        }
+    }
+
+    private suspend fun update(packageName: String) = mutex.withLock {
+        val pm = context.packageManager
+        val resolveInfo = Config.ICON_INTENTS.firstNotNullOfOrNull { intent ->
+            pm.queryIntentActivities(Intent(intent).setPackage(packageName), 0).firstOrNull()
+        }
+        val previous = packs[packageName]
+        val pack = loadPack(packageName, resolveInfo)
+        if (pack === previous) return@withLock
+        if (pack != null) packs[packageName] = pack else packs.remove(packageName)
+        publish()
+        writeCache()
+    }
+
+    /**
+     * Returns the pack of [packageName], reusing the loaded one if the package was not updated
+     * since, or null if the package is not an installed icon pack
+     */
+    private fun loadPack(packageName: String, resolveInfo: ResolveInfo?): InstalledPack? {
+        // Lawnicons doesn't declare the icon pack intents
+        val isLawnicons = packageName == LAWNICONS_PACKAGE_NAME && Utilities.ATLEAST_S
+        if (resolveInfo == null && !isLawnicons) return null
+        val pm = context.packageManager
+        val packageInfo = try {
+            pm.getPackageInfo(packageName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return null
+        }
+        val previous = packs[packageName]
+        if (previous != null && previous.updateTime == packageInfo.lastUpdateTime) {
+            return previous
+        }
+        val label = resolveInfo?.loadLabel(pm) ?: packageInfo.applicationInfo.loadLabel(pm)
+        val icon = (resolveInfo?.loadIcon(pm) ?: packageInfo.applicationInfo.loadIcon(pm))
+            .toBitmap(iconSize, iconSize)
+        writeIcon(packageName, icon)
+        return InstalledPack(
+            IconPackInfo(label.toString(), packageName, BitmapDrawable(context.resources, icon)),
+            packageInfo.lastUpdateTime
+        )
+    }
+
+    private fun publish() {
+        val lawnicons = packs[LAWNICONS_PACKAGE_NAME]?.info?.takeIf { Utilities.ATLEAST_S }
+        _iconPacks.value = listOfNotNull(defaultIconPack, lawnicons, themedIconsInfo) +
+                packs.values.map { it.info }.filter { it !== lawnicons }.sortedBy { it.name }
+    }
+
+    private fun readCache() {
+        val indexFile = File(cacheDir, INDEX_FILE)
+        if (!indexFile.exists()) return
+        try {
+            DataInputStream(indexFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) return
+                repeat(input.readInt()) {
+                    val packageName = input.readUTF()
+                    val label = input.readUTF()
+                    val updateTime = input.readLong()
+                    val icon = BitmapFactory.decodeFile(File(cacheDir, "$packageName.png").path)
+                        ?: return@repeat
+                    val drawable = BitmapDrawable(context.resources, icon)
+                    packs[packageName] =
+                        InstalledPack(IconPackInfo(label, packageName, drawable), updateTime)
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read icon pack cache", e)
+            packs.clear()
+        }
+    }
+
+    private fun writeCache() {
+        try {
+            cacheDir.mkdirs()
+            val tempFile = File(cacheDir, "$INDEX_FILE.tmp")
+            DataOutputStream(tempFile.outputStream().buffered()).use { out ->
+                out.writeInt(FORMAT_VERSION)
+                out.writeInt(packs.size)
+                packs.values.forEach {
+                    out.writeUTF(it.info.packageName)
+                    out.writeUTF(it.info.name)
+                    out.writeLong(it.updateTime)
+                }
+            }
+            val indexFile = File(cacheDir, INDEX_FILE)
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete()
+                // The previous index may still list the icons of uninstalled packs, keep them
+                Log.w(TAG, "Failed to replace icon pack cache $indexFile")
+                return
+            }
+            // Drop the icons of uninstalled packs
+            cacheDir.listFiles { file -> file.name.endsWith(".png") }?.forEach { file ->
+                if (file.name.removeSuffix(".png") !in packs) file.delete()
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write icon pack cache", e)
+        }
+    }
+
+    private fun writeIcon(packageName: String, icon: Bitmap) {
+        try {
+            cacheDir.mkdirs()
+            File(cacheDir, "$packageName.png").outputStream().use {
+                icon.compress(Bitmap.CompressFormat.PNG, 100, it)
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write icon of $packageName", e)
+        }
+    }
+
+    private class InstalledPack(val info: IconPackInfo, val updateTime: Long)
+
+    companion object {
+        private const val TAG = "IconPackRegistry"
+        private const val CACHE_DIR = "icon_packs"
+        private const val INDEX_FILE = "index"
+        private const val FORMAT_VERSION = 1
+        private const val ICON_SIZE_DP = 48
+
+        @JvmField
+        val INSTANCE = MainThreadInitializedObject(::IconPackRegistry)
+    }
+}
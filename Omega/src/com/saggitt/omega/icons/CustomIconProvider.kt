@@ -55,7 +55,14 @@ import com.saggitt.omega.util.MultiSafeCloseable
 import com.saggitt.omega.util.getPackageVersionCode
 import com.saggitt.omega.util.isPackageInstalled
 import com.saulhdev.neolauncher.icons.CustomAdaptiveIconDrawable
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
 import org.xmlpull.v1.XmlPullParser
+import java.util.concurrent.ConcurrentHashMap
 import java.util.function.Supplier
 
 class CustomIconProvider @JvmOverloads constructor(
@@ -70,11 +77,16 @@ class CustomIconProvider @JvmOverloads constructor(
     private val iconPack get() = iconPackProvider.getIconPackOrSystem(iconPackPref.getValue())
     private var isOlderLawnIconsInstalled =
         context.packageManager.getPackageVersionCode(LAWNICONS_PACKAGE_NAME) in 1..3
-    private var iconPackVersion = 0L
+    private val packVersions = ConcurrentHashMap<String, Long>()
+    private val resolvedIcons = ConcurrentHashMap<ComponentKey, MemoizedIcon>()
+
+    // Incremented when the content of an icon pack changes, which its identity doesn't reflect
+    @Volatile
+    private var packGeneration = 0
     private var _themeMapName: String = ""
     private var _themeMap: Map<ComponentName, ThemedIconDrawable.ThemeData>? = null
     private val themeMap: Map<ComponentName, ThemedIconDrawable.ThemeData>
-        get() {
+        @Synchronized get() {
             if (_themeMap == null) {
                 _themeMap = createThemedIconMap()
             }
@@ -112,60 +124,83 @@ class CustomIconProvider @JvmOverloads constructor(
         return iconPack.getIcon(componentName)
     }
 
-    override fun getIconWithOverrides(
-        packageName: String,
-        component: String,
-        user: UserHandle,
-        iconDpi: Int,
-        fallback: Supplier<Drawable>,
-    ): Drawable {
-        val componentName = ComponentName(packageName, component)
-        val iconEntry = resolveIconEntry(componentName, user)
-        var resolvedEntry = iconEntry
+    /**
+     * Resolves the pack entry of a component together with the theme applied to it. Everything
+     * which changes the rendered icon must come from here, see [getSystemStateForComponent].
+     * Results are kept until any of their inputs is replaced.
+     */
+    private fun resolveIcon(componentName: ComponentName, user: UserHandle): ResolvedIcon? {
+        val inputs = ResolveInputs(
+            overrideRepo.overridesMap, iconPack, themeMap, getDay(), packGeneration
+        )
+        val key = ComponentKey(componentName, user)
+        val memoized = resolvedIcons[key]
+        if (memoized != null && memoized.inputs.isSameAs(inputs)) {
+            return memoized.resolved
+        }
+        val resolved = resolveIconUncached(componentName, user)
+        resolvedIcons[key] = MemoizedIcon(inputs, resolved)
+        return resolved
+    }
+
+    private fun resolveIconUncached(componentName: ComponentName, user: UserHandle): ResolvedIcon? {
+        val iconEntry = resolveIconEntry(componentName, user) ?: return null
+        val packageName = componentName.packageName
+        var resolvedEntry: IconEntry = iconEntry
         var iconType = ICON_TYPE_DEFAULT
         var themeData: ThemedIconDrawable.ThemeData? = null
-        if (iconEntry != null) {
-            val clock = iconPackProvider.getClockMetadata(iconEntry)
-            when {
-                iconEntry.type == IconType.Calendar -> {
-                    resolvedEntry = iconEntry.resolveDynamicCalendar(getDay())
-                    themeData = getThemeData(mCalendar.packageName, "")
-                    iconType = ICON_TYPE_CALENDAR
-                }
+        val clock = iconPackProvider.getClockMetadata(iconEntry)
+        when {
+            iconEntry.type == IconType.Calendar -> {
+                resolvedEntry = iconEntry.resolveDynamicCalendar(getDay())
+                themeData = getThemeData(mCalendar.packageName, "")
+                iconType = ICON_TYPE_CALENDAR
+            }
 
-                !supportsIconTheme -> {
-                    // theming is disabled, don't populate theme data
-                }
+            !supportsIconTheme -> {
+                // theming is disabled, don't populate theme data
+            }
 
-                clock != null -> {
-                    // the icon supports dynamic clock, use dynamic themed clock
-                    themeData = getThemeData(mClock.packageName, "")
-                    iconType = ICON_TYPE_CLOCK
-                }
+            clock != null -> {
+                // the icon supports dynamic clock, use dynamic themed clock
+                themeData = getThemeData(mClock.packageName, "")
+                iconType = ICON_TYPE_CLOCK
+            }
 
-                packageName == mClock.packageName -> {
-                    // is clock app but icon might not be adaptive, fallback to static themed clock
-                    themeData = ThemedIconDrawable.ThemeData(
-                        context.resources,
-                        BuildConfig.APPLICATION_ID,
-                        R.drawable.themed_icon_static_clock
-                    )
-                }
+            packageName == mClock.packageName -> {
+                // is clock app but icon might not be adaptive, fallback to static themed clock
+                themeData = ThemedIconDrawable.ThemeData(
+                    context.resources,
+                    BuildConfig.APPLICATION_ID,
+                    R.drawable.themed_icon_static_clock
+                )
+            }
 
-                packageName == mCalendar.packageName -> {
-                    // calendar app, apply the dynamic calendar icon
-                    themeData = getThemeData(mCalendar.packageName, "")
-                    iconType = ICON_TYPE_CALENDAR
-                }
+            packageName == mCalendar.packageName -> {
+                // calendar app, apply the dynamic calendar icon
+                themeData = getThemeData(mCalendar.packageName, "")
+                iconType = ICON_TYPE_CALENDAR
+            }
 
-                else -> {
-                    // regular icon
-                    themeData = getThemeData(componentName)
-                }
+            else -> {
+                // regular icon
+                themeData = getThemeData(componentName)
             }
         }
-        val icon = resolvedEntry?.let { iconPackProvider.getDrawable(it, iconDpi, user) }
-        val td = themeData
+        return ResolvedIcon(resolvedEntry, themeData, iconType)
+    }
+
+    override fun getIconWithOverrides(
+        packageName: String,
+        component: String,
+        user: UserHandle,
+        iconDpi: Int,
+        fallback: Supplier<Drawable>,
+    ): Drawable {
+        val resolved = resolveIcon(ComponentName(packageName, component), user)
+        val iconType = resolved?.iconType ?: ICON_TYPE_DEFAULT
+        val icon = resolved?.let { iconPackProvider.getDrawable(it.entry, iconDpi, user) }
+        val td = resolved?.themeData
         if (icon != null) return if (td != null) td.wrapDrawable(icon, iconType) else icon
         var defaultIcon =
             super.getIconWithOverrides(packageName, component, user, iconDpi, fallback)
@@ -214,10 +249,29 @@ class CustomIconProvider @JvmOverloads constructor(
         return super.getSystemStateForPackage(systemState, packageName) + ",${isThemeEnabled}"
     }
 
-    override fun getSystemIconState(): String {
-        return super.getSystemIconState() + ",pack:${iconPackPref.getValue()},ver:${iconPackVersion}"
+    /**
+     * Only the components covered by the icon pack, or overridden, depend on it, so that
+     * switching packs doesn't invalidate the cached icons of all the other components.
+     */
+    override fun getSystemStateForComponent(
+        systemState: String,
+        component: ComponentName,
+        user: UserHandle,
+    ): String {
+        val state = getSystemStateForPackage(systemState, component.packageName)
+        val resolved = resolveIcon(component, user) ?: return state
+        val entry = resolved.entry
+        val theme = resolved.themeData
+            ?.let { "${it.systemState}:${getPackVersion(it.packageName)}" }
+        return "$state,pack:${entry.packPackageName}:${getPackVersion(entry.packPackageName)}" +
+                ",icon:${entry.name}:${resolved.iconType},theme:$theme"
     }
 
+    private fun getPackVersion(packPackageName: String): Long =
+        packVersions.getOrPut(packPackageName) {
+            context.packageManager.getPackageVersionCode(packPackageName)
+        }
+
     override fun registerIconChangeListener(
         callback: IconChangeListener,
         handler: Handler,
@@ -226,6 +280,7 @@ class CustomIconProvider @JvmOverloads constructor(
             add(super.registerIconChangeListener(callback, handler))
             add(IconPackChangeReceiver(context, handler, callback))
             add(LawniconsChangeReceiver(context, handler, callback))
+            add(PackUpdateReceiver(context, handler, callback))
         }
     }
 
@@ -241,21 +296,25 @@ class CustomIconProvider @JvmOverloads constructor(
                 field = value
             }
 
-        private val subscription = SafeCloseable {
-            val newState = systemIconState
-            if (iconState != newState) {
-                iconState = newState
-                callback.onSystemIconStateChanged(iconState)
-                recreateCalendarAndClockChangeReceiver()
-            }
-        }
-
-        private var iconState = systemIconState
+        private val scope = MainScope()
         private val prefs = Utilities.getOmegaPrefs(context)
         private val iconPackPref = prefs.profileIconPack
 
         init {
             recreateCalendarAndClockChangeReceiver()
+            iconPackPref.get()
+                .distinctUntilChanged()
+                .drop(1)
+                .onEach { handler.post(::onIconPackChanged) }
+                .launchIn(scope)
+        }
+
+        private fun onIconPackChanged() {
+            packVersions.clear()
+            resolvedIcons.clear()
+            recreateCalendarAndClockChangeReceiver()
+            // Only the components covered by either pack get a new state
+            callback.onComponentIconStateChanged()
         }
 
         private fun recreateCalendarAndClockChangeReceiver() {
@@ -270,7 +329,7 @@ class CustomIconProvider @JvmOverloads constructor(
 
         override fun close() {
             calendarAndClockChangeReceiver = null
-            subscription.close()
+            scope.cancel()
         }
     }
 
@@ -316,6 +375,38 @@ class CustomIconProvider @JvmOverloads constructor(
         }
     }
 
+    /**
+     * Reloads an icon pack which was updated or removed, so that the components it covers get a
+     * new state
+     */
+    private inner class PackUpdateReceiver(
+        private val context: Context, handler: Handler,
+        private val callback: IconChangeListener,
+    ) : BroadcastReceiver(), SafeCloseable {
+
+        init {
+            val filter = IntentFilter(ACTION_PACKAGE_ADDED)
+            filter.addAction(ACTION_PACKAGE_CHANGED)
+            filter.addAction(ACTION_PACKAGE_REMOVED)
+            filter.addDataScheme("package")
+            context.registerReceiver(this, filter, null, handler)
+        }
+
+        override fun onReceive(context: Context, intent: Intent) {
+            val packageName = intent.data?.schemeSpecificPart ?: return
+            // Only the packs whose version went into a component state
+            if (packVersions.remove(packageName) == null) return
+            iconPackProvider.removeIconPack(packageName)
+            packGeneration++
+            resolvedIcons.clear()
+            callback.onComponentIconStateChanged()
+        }
+
+        override fun close() {
+            context.unregisterReceiver(this)
+        }
+    }
+
     private inner class LawniconsChangeReceiver(
         private val context: Context, handler: Handler,
         private val callback: IconChangeListener,
@@ -379,7 +470,6 @@ class CustomIconProvider @JvmOverloads constructor(
             packageName = context.packageName
         )
         if (context.packageManager.isPackageInstalled(packageName = _themeMapName)) {
-            iconPackVersion = context.packageManager.getPackageVersionCode(_themeMapName)
             updateMapFromResources(
                 resources = context.packageManager.getResourcesForApplication(_themeMapName),
                 packageName = _themeMapName
@@ -392,6 +482,30 @@ class CustomIconProvider @JvmOverloads constructor(
         return map
     }
 
+    private class ResolvedIcon(
+        val entry: IconEntry,
+        val themeData: ThemedIconDrawable.ThemeData?,
+        val iconType: Int,
+    )
+
+    /**
+     * What [resolveIcon] depends on. The maps and the pack are replaced rather than modified, so
+     * they are compared by identity.
+     */
+    private class ResolveInputs(
+        val overrides: Map<ComponentKey, *>,
+        val iconPack: IconPack?,
+        val themeMap: Map<ComponentName, *>,
+        val day: Int,
+        val packGeneration: Int,
+    ) {
+        fun isSameAs(other: ResolveInputs) = overrides === other.overrides &&
+                iconPack === other.iconPack && themeMap === other.themeMap &&
+                day == other.day && packGeneration == other.packGeneration
+    }
+
+    private class MemoizedIcon(val inputs: ResolveInputs, val resolved: ResolvedIcon?)
+
     companion object {
         const val TAG = "CustomIconProvider"
 
@@ -269,7 +269,7 @@ open class StringSelectionPref(
     private val dataStore: DataStore<Preferences>,
     private val key: Preferences.Key<String>,
     val defaultValue: String = "",
-    val entries: Map<String, String>,
+    open val entries: Map<String, String>,
     val onChange: () -> Unit = { }
 ) : PrefDelegate<String>(titleId, summaryId, dataStore, key, defaultValue) {
 
@@ -55,7 +55,7 @@ import com.saggitt.omega.gestures.handlers.OpenOverviewGestureHandler
 import com.saggitt.omega.groups.AppGroupsManager
 import com.saggitt.omega.groups.category.DrawerTabs
 import com.saggitt.omega.iconpack.IconPackInfo
-import com.saggitt.omega.iconpack.IconPackProvider
+import com.saggitt.omega.iconpack.IconPackRegistry
 import com.saggitt.omega.icons.IconShape
 import com.saggitt.omega.search.SearchProviderController
 import com.saggitt.omega.smartspace.provider.BatteryStatusProvider
@@ -146,16 +146,19 @@ class NeoPrefs private constructor(val context: Context) {
         navRoute = Routes.COLOR_ACCENT
     )
 
-    var profileIconPack = StringSelectionPref(
+    var profileIconPack: StringSelectionPref = object : StringSelectionPref(
         titleId = R.string.title_theme_icon_packs,
         dataStore = dataStore,
         key = PrefKey.PROFILE_ICON_PACK,
         defaultValue = "",
-        entries = IconPackProvider.INSTANCE.get(context)
-            .getIconPackList()
-            .associateBy(IconPackInfo::packageName, IconPackInfo::name),
+        entries = emptyMap(),
         onChange = { reloadIcons }
-    )
+    ) {
+        // Installed packs are discovered in the background, so they are read on each access
+        override val entries: Map<String, String>
+            get() = IconPackRegistry.INSTANCE.get(context).iconPacks.value
+                .associateBy(IconPackInfo::packageName, IconPackInfo::name)
+    }
 
     var profileIconShape = NavigationPref(
         titleId = R.string.title__theme_icon_shape,
@@ -587,6 +590,15 @@ class NeoPrefs private constructor(val context: Context) {
         entries = Config.drawerSortOptions,
     )
 
+    val drawerSortColorPerceptual = BooleanPref(
+        dataStore = dataStore,
+        key = PrefKey.DRAWER_SORT_COLOR_PERCEPTUAL,
+        titleId = R.string.title__sort_color_perceptual,
+        summaryId = R.string.summary__sort_color_perceptual,
+        defaultValue = false,
+        onChange = { reloadApps() }
+    )
+
     var drawerHiddenAppSet = StringSetPref(
         key = PrefKey.DRAWER_HIDDEN_APPS_LIST,
         titleId = R.string.title__drawer_hide_apps,
@@ -1024,6 +1036,7 @@ class NeoPrefs private constructor(val context: Context) {
         titleId = R.string.title_fuzzy_search,
         summaryId = R.string.summary_fuzzy_search,
         defaultValue = false,
+        onChange = { recreate() }
     )
 
     var searchGlobal = BooleanPref(
@@ -94,6 +94,7 @@ object PrefKey {
     val DRAWER_LAYOUT_MODE = intPreferencesKey("drawer_layout_mode")
     val DRAWER_GRID_ROWS = intPreferencesKey("drawer_grid_rows")
     val DRAWER_SORT_MODE = intPreferencesKey("drawer_sort_mode")
+    val DRAWER_SORT_COLOR_PERCEPTUAL = booleanPreferencesKey("drawer_sort_color_perceptual")
     val DRAWER_GROUPS_MODE = stringPreferencesKey("drawer_groups_mode")
     val DRAWER_WORK_APPS_SEPARATE = booleanPreferencesKey("drawer_separate_work_apps")
     val DRAWER_CELL_HEIGHT_SCALE = floatPreferencesKey("drawer_cell_height_scale")
@@ -141,7 +142,7 @@ object PrefKey {
     val SEARCH_GLOBAL_ENABLED = booleanPreferencesKey("search_global_enable") // is it needed?
     val SEARCH_HIDDEN_APPS_ENABLED = booleanPreferencesKey("search_hidden_apps_enable")
     val SEARCH_CONTACTS_ENABLED = booleanPreferencesKey("search_contacts_enable")
-    val SEARCH_FUZZY_ENABLED = booleanPreferencesKey("search_bar_show_assistant")
+    val SEARCH_FUZZY_ENABLED = booleanPreferencesKey("search_fuzzy_enable")
     val SEARCH_CORNER_RADIUS = floatPreferencesKey("search_bar_corner_radius")
     val SEARCH_DRAWER_ENABLED = booleanPreferencesKey("search_bar_drawer_enable")
     val SEARCH_DOCK_ENABLED = booleanPreferencesKey("search_bar_dock_enable")
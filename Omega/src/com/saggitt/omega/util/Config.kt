@@ -75,6 +75,7 @@ class Config(val context: Context) {
         const val SORT_MOST_USED = 2
         const val SORT_BY_COLOR = 3
         const val SORT_BY_INSTALL_DATE = 4
+        const val SORT_RECENTLY_USED = 5
 
         //COMPOSE THEME COLORS
         const val THEME_LIGHT = 0
@@ -90,6 +91,7 @@ class Config(val context: Context) {
             SORT_AZ to R.string.title__sort_alphabetical_az,
             SORT_ZA to R.string.title__sort_alphabetical_za,
             SORT_MOST_USED to R.string.title__sort_most_used,
+            SORT_RECENTLY_USED to R.string.title__sort_recently_used,
             SORT_BY_COLOR to R.string.title__sort_by_color,
             SORT_BY_INSTALL_DATE to R.string.title__sort_last_installed,
         )
@@ -297,14 +297,18 @@ fun MutableList<AppInfo>.sortApps(context: Context, sortType: Int) {
             it.title.toString().lowercase()
         })
 
-        Config.SORT_MOST_USED -> {
+        Config.SORT_MOST_USED, Config.SORT_RECENTLY_USED -> {
             val repository = AppTrackerRepository.INSTANCE[context]
-            val appsCounter = repository.getAppsCount()
-            val mostUsedComparator = AppUsageComparator(appsCounter)
-            sortWith(mostUsedComparator)
+            val ranking = repository.getUsageRanking(sortType == Config.SORT_RECENTLY_USED)
+            sortWith(AppUsageComparator(ranking))
         }
 
-        Config.SORT_BY_COLOR -> sortWith(AppColorComparator(context))
+        Config.SORT_BY_COLOR -> sortWith(
+            AppColorComparator(
+                context,
+                NeoPrefs.getInstance(context).drawerSortColorPerceptual.getValue()
+            )
+        )
 
         Config.SORT_BY_INSTALL_DATE -> sortWith(InstallTimeComparator(pm))
 
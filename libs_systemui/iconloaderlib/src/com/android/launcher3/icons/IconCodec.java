@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static com.android.launcher3.icons.GraphicsUtils.getExpectedBitmapSize;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.util.Lz4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Formats in which icon bitmaps can be persisted. The {@link #id} of each format is stored along
+ * with the data, so that icons written with another format can still be read.
+ */
+public enum IconCodec {
+
+    /**
+     * Lossless PNG, the smallest format but also the slowest to write and read
+     */
+    PNG(0) {
+        @Nullable
+        @Override
+        public byte[] encode(@NonNull Bitmap bitmap) {
+            return compress(bitmap, CompressFormat.PNG);
+        }
+
+        @Nullable
+        @Override
+        public Bitmap decode(@NonNull byte[] data, @Nullable Config config) {
+            return decodeCompressed(data, config);
+        }
+    },
+
+    /**
+     * Premultiplied ARGB_8888 pixels compressed with {@link Lz4}, preceded by the width and the
+     * height. Larger than the other formats, but reading it is little more than a memcpy.
+     */
+    RAW_LZ4(1) {
+        private static final int HEADER_SIZE = 8;
+
+        @Nullable
+        @Override
+        public byte[] encode(@NonNull Bitmap bitmap) {
+            Bitmap pixels = bitmap.getConfig() == Config.ARGB_8888
+                    ? bitmap : bitmap.copy(Config.ARGB_8888, false /* isMutable */);
+            if (pixels == null) {
+                return null;
+            }
+            byte[] raw = new byte[getExpectedBitmapSize(pixels)];
+            pixels.copyPixelsToBuffer(ByteBuffer.wrap(raw));
+
+            byte[] out = new byte[HEADER_SIZE + Lz4.maxCompressedLength(raw.length)];
+            ByteBuffer.wrap(out).putInt(pixels.getWidth()).putInt(pixels.getHeight());
+            int length = HEADER_SIZE + Lz4.compress(raw, raw.length, out, HEADER_SIZE);
+            if (pixels != bitmap) {
+                pixels.recycle();
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(out, 0, result, 0, length);
+            return result;
+        }
+
+        @Nullable
+        @Override
+        public Bitmap decode(@NonNull byte[] data, @Nullable Config config) {
+            ByteBuffer header = ByteBuffer.wrap(data);
+            int width = header.getInt();
+            int height = header.getInt();
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            byte[] raw = new byte[getExpectedBitmapSize(bitmap)];
+            if (Lz4.decompress(data, HEADER_SIZE, data.length - HEADER_SIZE, raw) != raw.length) {
+                return null;
+            }
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(raw));
+            if (config != null && config != Config.ARGB_8888) {
+                Bitmap copy = bitmap.copy(config, false /* isMutable */);
+                if (copy != null) {
+                    bitmap.recycle();
+                    bitmap = copy;
+                }
+            }
+            return bitmap;
+        }
+    },
+
+    /**
+     * Lossless WebP, close to PNG in size but faster to decode
+     */
+    WEBP_LOSSLESS(2) {
+        @Nullable
+        @Override
+        public byte[] encode(@NonNull Bitmap bitmap) {
+            // Before R, quality 100 selects the lossless mode of the generic WEBP format
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                    ? compress(bitmap, CompressFormat.WEBP_LOSSLESS)
+                    : compress(bitmap, CompressFormat.WEBP);
+        }
+
+        @Nullable
+        @Override
+        public Bitmap decode(@NonNull byte[] data, @Nullable Config config) {
+            return decodeCompressed(data, config);
+        }
+    };
+
+    private static final String TAG = "IconCodec";
+
+    /**
+     * Persistent id of the format, never reuse one
+     */
+    public final int id;
+
+    IconCodec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Serializes {@param bitmap}, or returns null if it could not be written
+     */
+    @Nullable
+    public abstract byte[] encode(@NonNull Bitmap bitmap);
+
+    /**
+     * Reads a bitmap written by {@link #encode}
+     *
+     * @param config the preferred config of the result, or null for the default
+     */
+    @Nullable
+    public abstract Bitmap decode(@NonNull byte[] data, @Nullable Config config);
+
+    /**
+     * Returns the format with the provided {@param id}, or null if it is unknown
+     */
+    @Nullable
+    public static IconCodec fromId(int id) {
+        for (IconCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static byte[] compress(Bitmap bitmap, CompressFormat format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(getExpectedBitmapSize(bitmap));
+        try {
+            bitmap.compress(format, 100, out);
+            out.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write bitmap");
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Bitmap decodeCompressed(byte[] data, @Nullable Config config) {
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        if (config != null) {
+            decodeOptions.inPreferredConfig = config;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+    }
+}
@@ -135,6 +135,16 @@ public class IconProvider {
         }
     }
 
+    /**
+     * Adds any modification to the provided systemState for the icon of a particular component.
+     * Unlike {@link #getSystemIconState()}, a change here only invalidates the icon of that
+     * component.
+     */
+    public String getSystemStateForComponent(String systemState, ComponentName component,
+            UserHandle user) {
+        return getSystemStateForPackage(systemState, component.getPackageName());
+    }
+
     /**
      * Loads the icon for the provided LauncherActivityInfo
      */
@@ -455,5 +465,11 @@ public class IconProvider {
          * Called when the global icon state changed, which can typically affect all icons
          */
         void onSystemIconStateChanged(String iconState);
+
+        /**
+         * Called when the state returned by {@link #getSystemStateForComponent} changed for some
+         * components. Only the icons of those components need to be reloaded.
+         */
+        default void onComponentIconStateChanged() { }
     }
 }
\ No newline at end of file
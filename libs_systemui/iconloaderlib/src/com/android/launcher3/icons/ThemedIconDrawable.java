@@ -235,6 +235,20 @@ public class ThemedIconDrawable extends FastBitmapDrawable {
             mResID = resID;
         }
 
+        /**
+         * Returns the package providing the themed icon
+         */
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        /**
+         * Returns a string identifying the themed icon, which changes when another icon is used
+         */
+        public String getSystemState() {
+            return mPackageName + "/" + mResID;
+        }
+
         Drawable loadPaddedDrawable() {
             if (!"drawable".equals(mResources.getResourceTypeName(mResID))) {
                 return null;
@@ -15,15 +15,12 @@
  */
 package com.android.launcher3.icons.cache;
 
-import static android.graphics.BitmapFactory.decodeByteArray;
 import static com.android.launcher3.icons.BaseIconFactory.getFullResDefaultActivityIcon;
 import static com.android.launcher3.icons.BitmapInfo.LOW_RES_ICON;
-import static com.android.launcher3.icons.GraphicsUtils.flattenBitmap;
 import static com.android.launcher3.icons.GraphicsUtils.setColorAlphaBound;
-import static java.util.Objects.requireNonNull;
 
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
@@ -36,13 +33,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Handler;
 import android.os.LocaleList;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.text.TextUtils;
@@ -57,27 +54,54 @@ import androidx.annotation.WorkerThread;
 import com.android.launcher3.icons.BaseIconFactory;
 import com.android.launcher3.icons.BaseIconFactory.IconOptions;
 import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.IconCodec;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.saulhdev.neolauncher.icons.CustomAdaptiveIconDrawable;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
-import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+/**
+ * Cache of icons and titles, backed by an in-memory cache and a persistent DB.
+ *
+ * Lookups can run concurrently on any thread and don't hold the cache monitor, which only
+ * serializes the changes to the DB. Concurrent lookups of the same entry are coalesced into a
+ * single load.
+ */
 public abstract class BaseIconCache {
 
     private static final String TAG = "BaseIconCache";
     private static final boolean DEBUG = false;
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    // Fraction of the max heap size used as the budget of the memory cache
+    private static final int MEMORY_CACHE_HEAP_FRACTION = 8;
+
+    private static final String ICON_ATLAS_DIR = "icon_atlas";
+    // Delay after the last icon DB change before the icon atlas is written again
+    private static final long ICON_ATLAS_WRITE_DELAY_MS = 2000;
+    // Components queried at once when patching an atlas, below the SQLite variable limit
+    private static final int ICON_ATLAS_PATCH_QUERY_SIZE = 500;
 
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
@@ -99,34 +123,78 @@ public abstract class BaseIconCache {
     protected final PackageManager mPackageManager;
 
     @NonNull
-    private final Map<ComponentKey, CacheEntry> mCache;
+    private final IconMemoryCache mCache;
 
     @NonNull
     protected final Handler mWorkerHandler;
 
-    protected int mIconDpi;
+    protected volatile int mIconDpi;
 
     @NonNull
-    protected IconDB mIconDb;
+    protected volatile IconDB mIconDb;
 
+    /**
+     * Keeps {@link #mIconDb} open while it is read outside of the worker thread: held for
+     * reading around queries and their cursors, and for writing while the DB is replaced. The
+     * cache monitor must not be taken while holding it for reading.
+     */
     @NonNull
-    protected LocaleList mLocaleList = LocaleList.getEmptyLocaleList();
+    private final ReentrantReadWriteLock mIconDbLock = new ReentrantReadWriteLock();
 
     @NonNull
-    protected String mSystemState = "";
+    protected volatile LocaleList mLocaleList = LocaleList.getEmptyLocaleList();
+
+    @NonNull
+    protected volatile String mSystemState = "";
 
     @Nullable
-    private BitmapInfo mDefaultIcon;
+    private volatile BitmapInfo mDefaultIcon;
+    @NonNull
+    private final Object mDefaultIconLock = new Object();
 
     @NonNull
     private final SparseArray<FlagOp> mUserFlagOpMap = new SparseArray<>();
 
+    /**
+     * Loads in progress by key, so that concurrent lookups of an entry share a single load
+     */
+    @NonNull
+    private final ConcurrentHashMap<ComponentKey, CompletableFuture<CacheEntry>> mHighResLoads =
+            new ConcurrentHashMap<>();
+    @NonNull
+    private final ConcurrentHashMap<ComponentKey, CompletableFuture<CacheEntry>> mLowResLoads =
+            new ConcurrentHashMap<>();
+
     @Nullable
     private final String mDbFileName;
 
     @NonNull
     private final Looper mBgLooper;
 
+    private volatile int mIconPixelSize;
+
+    /**
+     * Opened icon atlases by user serial, null values are atlases which could not be opened.
+     * Guarded by itself.
+     */
+    @NonNull
+    private final HashMap<Long, IconAtlas> mIconAtlases = new HashMap<>();
+
+    /**
+     * Icons changed since the icon atlases were written, by user serial. Guarded by
+     * {@link #mIconAtlases}.
+     */
+    @NonNull
+    private final HashMap<Long, IconAtlas.Changes> mIconAtlasChanges = new HashMap<>();
+
+    @NonNull
+    private final Runnable mWriteIconAtlasesRunnable = this::writeIconAtlases;
+
+    /**
+     * Incremented by each {@link IconCacheUpdateHandler}, cancelling the updates of earlier ones
+     */
+    final AtomicInteger mUpdateGeneration = new AtomicInteger();
+
     public BaseIconCache(@NonNull final Context context, @Nullable final String dbFileName,
                          @NonNull final Looper bgLooper, final int iconDpi, final int iconPixelSize,
                          final boolean inMemoryCache) {
@@ -136,26 +204,14 @@ public abstract class BaseIconCache {
         mBgLooper = bgLooper;
         mWorkerHandler = new Handler(mBgLooper);
 
-        if (inMemoryCache) {
-            mCache = new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
-        } else {
-            // Use a dummy cache
-            mCache = new AbstractMap<ComponentKey, CacheEntry>() {
-                @Override
-                public Set<Entry<ComponentKey, CacheEntry>> entrySet() {
-                    return Collections.emptySet();
-                }
-
-                @Override
-                public CacheEntry put(ComponentKey key, CacheEntry value) {
-                    return value;
-                }
-            };
-        }
+        // Without memory cache, use an empty budget
+        mCache = new IconMemoryCache(inMemoryCache
+                ? Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_FRACTION : 0);
 
         updateSystemState();
         mIconDpi = iconDpi;
-        mIconDb = new IconDB(context, dbFileName, iconPixelSize);
+        mIconPixelSize = iconPixelSize;
+        mIconDb = new IconDB(context, dbFileName, iconPixelSize, mWorkerHandler);
     }
 
     /**
@@ -182,10 +238,19 @@ public abstract class BaseIconCache {
     private synchronized void updateIconParamsBg(final int iconDpi, final int iconPixelSize) {
         mIconDpi = iconDpi;
         mDefaultIcon = null;
-        mUserFlagOpMap.clear();
-        mIconDb.clear();
-        mIconDb.close();
-        mIconDb = new IconDB(mContext, mDbFileName, iconPixelSize);
+        synchronized (mUserFlagOpMap) {
+            mUserFlagOpMap.clear();
+        }
+        mIconDbLock.writeLock().lock();
+        try {
+            mIconDb.clear();
+            mIconDb.close();
+            mIconPixelSize = iconPixelSize;
+            mIconDb = new IconDB(mContext, mDbFileName, iconPixelSize, mWorkerHandler);
+        } finally {
+            mIconDbLock.writeLock().unlock();
+        }
+        deleteIconAtlasesLocked();
         mCache.clear();
     }
 
@@ -223,8 +288,8 @@ public abstract class BaseIconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(@NonNull final ComponentName componentName,
-                                    @NonNull final UserHandle user) {
+    public void remove(@NonNull final ComponentName componentName,
+                           @NonNull final UserHandle user) {
         mCache.remove(new ComponentKey(componentName, user));
     }
 
@@ -233,16 +298,8 @@ public abstract class BaseIconCache {
      */
     private void removeFromMemCacheLocked(@Nullable final String packageName,
                                           @Nullable final UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key : mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned : forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removeIf(key -> key.componentName.getPackageName().equals(packageName)
+                && key.user.equals(user));
     }
 
     /**
@@ -255,6 +312,7 @@ public abstract class BaseIconCache {
         mIconDb.delete(
                 IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
                 new String[]{packageName + "/%", Long.toString(userSerial)});
+        onIconAtlasChangedLocked(userSerial, changes -> changes.addPackage(packageName));
     }
 
     @NonNull
@@ -278,6 +336,16 @@ public abstract class BaseIconCache {
         return mSystemState;
     }
 
+    /**
+     * Returns the system state stored with the icon of {@param cacheKey}. Unlike the global
+     * state, it can change for a single component, in which case only that icon is re-rendered
+     * by the next {@link IconCacheUpdateHandler} pass.
+     */
+    @NonNull
+    protected String getIconSystemState(@NonNull final ComponentKey cacheKey) {
+        return getIconSystemState(cacheKey.componentName.getPackageName());
+    }
+
     /**
      * Adds an entry into the DB and the in-memory cache.
      *
@@ -286,29 +354,43 @@ public abstract class BaseIconCache {
      *                        old data.
      */
     @VisibleForTesting
-    public synchronized <T> void addIconToDBAndMemCache(@NonNull final T object,
-                                                        @NonNull final CachingLogic<T> cachingLogic, @NonNull final PackageInfo info,
-                                                        final long userSerial, final boolean replaceExisting) {
-        UserHandle user = cachingLogic.getUser(object);
-        ComponentName componentName = cachingLogic.getComponent(object);
+    public <T> void addIconToDBAndMemCache(@NonNull final T object,
+                                           @NonNull final CachingLogic<T> cachingLogic, @NonNull final PackageInfo info,
+                                           final long userSerial, final boolean replaceExisting) {
+        // The icon is rendered without holding the lock
+        CacheEntry entry = loadEntry(object, cachingLogic, replaceExisting);
+        if (entry != null) {
+            addEntryToDBAndMemCache(object, cachingLogic, entry, info, userSerial);
+        }
+    }
 
-        final ComponentKey key = new ComponentKey(componentName, user);
-        CacheEntry entry = null;
+    /**
+     * Loads the icon and title of {@param object} into a new entry, without changing the cache.
+     * This can run on any thread.
+     *
+     * @param replaceExisting if false, the bitmap of an existing high-res entry is reused
+     * @return the entry, or null if no icon could be loaded for the object
+     */
+    @Nullable
+    <T> CacheEntry loadEntry(@NonNull final T object, @NonNull final CachingLogic<T> cachingLogic,
+                             final boolean replaceExisting) {
+        UserHandle user = cachingLogic.getUser(object);
+        CacheEntry entry = new CacheEntry();
         if (!replaceExisting) {
-            entry = mCache.get(key);
+            CacheEntry existing =
+                    mCache.get(new ComponentKey(cachingLogic.getComponent(object), user));
             // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.bitmap.isNullOrLowRes()) {
-                entry = null;
+            if (existing != null && !existing.bitmap.isNullOrLowRes()) {
+                entry.bitmap = existing.bitmap;
             }
         }
-        if (entry == null) {
-            entry = new CacheEntry();
+        if (entry.bitmap.isNullOrLowRes()) {
             entry.bitmap = cachingLogic.loadIcon(mContext, object);
         }
         // Icon can't be loaded from cachingLogic, which implies alternative icon was loaded
         // (e.g. fallback icon, default icon). So we drop here since there's no point in caching
         // an empty entry.
-        if (entry.bitmap.isNullOrLowRes()) return;
+        if (entry.bitmap.isNullOrLowRes()) return null;
 
         CharSequence entryTitle = cachingLogic.getLabel(object);
         if (entryTitle == null) {
@@ -316,53 +398,96 @@ public abstract class BaseIconCache {
             entryTitle = "";
         }
         entry.title = entryTitle;
-
         entry.contentDescription = mPackageManager.getUserBadgedLabel(entry.title, user);
-        if (cachingLogic.addToMemCache()) mCache.put(key, entry);
+        return entry;
+    }
 
-        ContentValues values = newContentValues(entry.bitmap, entry.title.toString(),
-                componentName.getPackageName(), cachingLogic.getKeywords(object, mLocaleList));
-        addIconToDB(values, componentName, info, userSerial,
+    /**
+     * Adds an entry created by {@link #loadEntry} to the in-memory cache and to the next DB batch.
+     */
+    synchronized <T> void addEntryToDBAndMemCache(@NonNull final T object,
+            @NonNull final CachingLogic<T> cachingLogic, @NonNull final CacheEntry entry,
+            @NonNull final PackageInfo info, final long userSerial) {
+        ComponentName componentName = cachingLogic.getComponent(object);
+        ComponentKey key = new ComponentKey(componentName, cachingLogic.getUser(object));
+        if (cachingLogic.addToMemCache()) {
+            mCache.put(key, entry);
+        }
+        addIconToDB(entry.bitmap, entry.title.toString(),
+                cachingLogic.getKeywords(object, mLocaleList), key, info, userSerial,
                 cachingLogic.getLastUpdatedTime(object, info));
     }
 
     /**
-     * Updates {@param values} to contain versioning information and adds it to the DB.
-     *
-     * @param values {@link ContentValues} containing icon & title
+     * Returns the executor on which large updates by {@link IconCacheUpdateHandler} render icons
+     * in parallel, or null to render them one at a time on the worker thread. The caching logics
+     * used with this cache must then support loading icons concurrently.
      */
-    private void addIconToDB(@NonNull final ContentValues values, @NonNull final ComponentName key,
+    @Nullable
+    protected Executor getIconRenderExecutor() {
+        return null;
+    }
+
+    /**
+     * Returns the format in which new icons are persisted. Icons stored in another format remain
+     * readable, and are rewritten by the next {@link IconCacheUpdateHandler} pass.
+     */
+    @NonNull
+    protected IconCodec getIconCodec() {
+        return IconCodec.RAW_LZ4;
+    }
+
+    /**
+     * Adds an icon & title with versioning information to the DB. The write is committed with
+     * the next batch of {@link IconDB}.
+     */
+    private void addIconToDB(@NonNull final BitmapInfo bitmapInfo, @NonNull final String label,
+                             @Nullable final String keywords, @NonNull final ComponentKey key,
                              @NonNull final PackageInfo info, final long userSerial, final long lastUpdateTime) {
-        values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
-        values.put(IconDB.COLUMN_USER, userSerial);
-        values.put(IconDB.COLUMN_LAST_UPDATED, lastUpdateTime);
-        values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
+        Object[] row = newIconRow(bitmapInfo, label, key, keywords);
+        row[IconDB.INSERT_INDEX_COMPONENT] = key.componentName.flattenToString();
+        row[IconDB.INSERT_INDEX_USER] = userSerial;
+        row[IconDB.INSERT_INDEX_LAST_UPDATED] = lastUpdateTime;
+        row[IconDB.INSERT_INDEX_VERSION] = info.versionCode;
+        mIconDb.insertOrReplace(row);
+        String component = (String) row[IconDB.INSERT_INDEX_COMPONENT];
+        onIconAtlasChangedLocked(userSerial, changes -> changes.addComponent(component));
     }
 
     @NonNull
-    public synchronized BitmapInfo getDefaultIcon(@NonNull final UserHandle user) {
-        if (mDefaultIcon == null) {
-            try (BaseIconFactory li = getIconFactory()) {
-                mDefaultIcon = li.makeDefaultIcon(user);
+    public BitmapInfo getDefaultIcon(@NonNull final UserHandle user) {
+        BitmapInfo defaultIcon = mDefaultIcon;
+        if (defaultIcon == null) {
+            synchronized (mDefaultIconLock) {
+                defaultIcon = mDefaultIcon;
+                if (defaultIcon == null) {
+                    try (BaseIconFactory li = getIconFactory()) {
+                        defaultIcon = li.makeDefaultIcon(user);
+                    }
+                    mDefaultIcon = defaultIcon;
+                }
             }
         }
-        return mDefaultIcon.withFlags(getUserFlagOpLocked(user));
+        return defaultIcon.withFlags(getUserFlagOpLocked(user));
     }
 
     @NonNull
     protected FlagOp getUserFlagOpLocked(@NonNull final UserHandle user) {
         int key = user.hashCode();
-        int index;
-        if ((index = mUserFlagOpMap.indexOfKey(key)) >= 0) {
-            return mUserFlagOpMap.valueAt(index);
-        } else {
-            try (BaseIconFactory li = getIconFactory()) {
-                FlagOp op = li.getBitmapFlagOp(new IconOptions().setUser(user));
-                mUserFlagOpMap.put(key, op);
-                return op;
+        synchronized (mUserFlagOpMap) {
+            int index;
+            if ((index = mUserFlagOpMap.indexOfKey(key)) >= 0) {
+                return mUserFlagOpMap.valueAt(index);
             }
         }
+        FlagOp op;
+        try (BaseIconFactory li = getIconFactory()) {
+            op = li.getBitmapFlagOp(new IconOptions().setUser(user));
+        }
+        synchronized (mUserFlagOpMap) {
+            mUserFlagOpMap.put(key, op);
+        }
+        return op;
     }
 
     public boolean isDefaultIcon(@NonNull final BitmapInfo icon, @NonNull final UserHandle user) {
@@ -371,7 +496,8 @@ public abstract class BaseIconCache {
 
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method can be called from any thread, concurrent calls for the same entry share a
+     * single load.
      */
     @NonNull
     protected <T> CacheEntry cacheLocked(
@@ -392,30 +518,31 @@ public abstract class BaseIconCache {
     protected <T> CacheEntry cacheLocked(
             @NonNull final ComponentName componentName, @NonNull final UserHandle user,
             @NonNull final Supplier<T> infoProvider, @NonNull final CachingLogic<T> cachingLogic,
-            @Nullable final Cursor cursor, final boolean usePackageIcon,
+            @Nullable final IconDB.Row row, final boolean usePackageIcon,
             final boolean useLowResIcon) {
-        assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.bitmap.isLowRes() && !useLowResIcon)) {
-            entry = new CacheEntry();
-            if (cachingLogic.addToMemCache()) {
-                mCache.put(cacheKey, entry);
-            }
+        if (entry != null && !(entry.bitmap.isLowRes() && !useLowResIcon)) {
+            return entry;
+        }
+        return loadCoalesced(cacheKey, useLowResIcon, cachingLogic.addToMemCache(), () -> {
+            CacheEntry newEntry = new CacheEntry();
 
-            // Check the DB first.
+            // Check the icon atlas and the DB first.
             T object = null;
             boolean providerFetchedOnce = false;
-            boolean cacheEntryUpdated = cursor == null
-                    ? getEntryFromDBLocked(cacheKey, entry, useLowResIcon)
-                    : updateTitleAndIconLocked(cacheKey, entry, cursor, useLowResIcon);
+            boolean cacheEntryUpdated =
+                    (!useLowResIcon && getEntryFromIconAtlasLocked(cacheKey, newEntry))
+                    || (row == null
+                    ? getEntryFromDBLocked(cacheKey, newEntry, useLowResIcon)
+                    : updateTitleAndIconLocked(cacheKey, newEntry, row, useLowResIcon));
             if (!cacheEntryUpdated) {
                 object = infoProvider.get();
                 providerFetchedOnce = true;
 
                 loadFallbackIcon(
                         object,
-                        entry,
+                        newEntry,
                         cachingLogic,
                         usePackageIcon,
                         /* usePackageTitle= */ true,
@@ -423,17 +550,57 @@ public abstract class BaseIconCache {
                         user);
             }
 
-            if (TextUtils.isEmpty(entry.title)) {
+            if (TextUtils.isEmpty(newEntry.title)) {
                 if (object == null && !providerFetchedOnce) {
                     object = infoProvider.get();
                     providerFetchedOnce = true;
                 }
                 if (object != null) {
-                    loadFallbackTitle(object, entry, cachingLogic, user);
+                    loadFallbackTitle(object, newEntry, cachingLogic, user);
                 }
             }
+            return newEntry;
+        });
+    }
+
+    /**
+     * Runs {@param loader} for {@param cacheKey}, unless another thread is already loading it in
+     * which case its result is shared. The loaded entry is added to the memory cache, unless
+     * {@param addToMemCache} is false or the cache was changed meanwhile, since the entry may
+     * then have been loaded from outdated data.
+     *
+     * @param loader returns the loaded entry, or null if it should not be cached
+     */
+    @Nullable
+    private CacheEntry loadCoalesced(@NonNull final ComponentKey cacheKey, final boolean lowRes,
+            final boolean addToMemCache, @NonNull final Supplier<CacheEntry> loader) {
+        ConcurrentHashMap<ComponentKey, CompletableFuture<CacheEntry>> loads =
+                lowRes ? mLowResLoads : mHighResLoads;
+        CompletableFuture<CacheEntry> future = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> pending = loads.putIfAbsent(cacheKey, future);
+        if (pending != null) {
+            try {
+                return pending.join();
+            } catch (CompletionException | CancellationException e) {
+                // The other load failed, try again on this thread without sharing the result
+                return loader.get();
+            }
+        }
+
+        long cacheVersion = mCache.getVersion(cacheKey);
+        try {
+            CacheEntry entry = loader.get();
+            if (entry != null && addToMemCache) {
+                mCache.putIfUnchanged(cacheKey, entry, cacheVersion);
+            }
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(cacheKey, future);
         }
-        return entry;
     }
 
     /**
@@ -480,6 +647,7 @@ public abstract class BaseIconCache {
     public synchronized void clear() {
         assertWorkerThread();
         mIconDb.clear();
+        deleteIconAtlasesLocked();
     }
 
     /**
@@ -520,69 +688,68 @@ public abstract class BaseIconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method can be called from any thread, like {@link #cacheLocked}.
      */
     @WorkerThread
     @NonNull
     protected CacheEntry getEntryForPackageLocked(@NonNull final String packageName,
                                                   @NonNull final UserHandle user, final boolean useLowResIcon) {
-        assertWorkerThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
         CacheEntry entry = mCache.get(cacheKey);
-
-        if (entry == null || (entry.bitmap.isLowRes() && !useLowResIcon)) {
-            entry = new CacheEntry();
-            boolean entryUpdated = true;
+        if (entry != null && !(entry.bitmap.isLowRes() && !useLowResIcon)) {
+            return entry;
+        }
+        entry = loadCoalesced(cacheKey, useLowResIcon, true /* addToMemCache */, () -> {
+            CacheEntry newEntry = new CacheEntry();
 
             // Check the DB first.
-            if (!getEntryFromDBLocked(cacheKey, entry, useLowResIcon)) {
-                try {
-                    int flags = Process.myUserHandle().equals(user) ? 0 :
-                            PackageManager.GET_UNINSTALLED_PACKAGES;
-                    PackageInfo info = mPackageManager.getPackageInfo(packageName, flags);
-                    ApplicationInfo appInfo = info.applicationInfo;
-                    if (appInfo == null) {
-                        throw new NameNotFoundException("ApplicationInfo is null");
-                    }
-
-                    BaseIconFactory li = getIconFactory();
-                    // Load the full res icon for the application, but if useLowResIcon is set, then
-                    // only keep the low resolution icon instead of the larger full-sized icon
-                    BitmapInfo iconInfo = li.createBadgedIconBitmap(
-                            appInfo.loadIcon(mPackageManager),
-                            new IconOptions().setUser(user).setInstantApp(isInstantApp(appInfo)));
-                    li.close();
-
-                    entry.title = appInfo.loadLabel(mPackageManager);
-                    entry.contentDescription = mPackageManager.getUserBadgedLabel(entry.title, user);
-                    entry.bitmap = BitmapInfo.of(
-                            useLowResIcon ? LOW_RES_ICON : iconInfo.icon, iconInfo.color);
-
-                    // Add the icon in the DB here, since these do not get written during
-                    // package updates.
-                    ContentValues values = newContentValues(
-                            iconInfo, entry.title.toString(), packageName, null);
-                    addIconToDB(values, cacheKey.componentName, info, getSerialNumberForUser(user),
-                            info.lastUpdateTime);
-
-                } catch (NameNotFoundException e) {
-                    if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
-                    entryUpdated = false;
-                }
+            if (getEntryFromDBLocked(cacheKey, newEntry, useLowResIcon)) {
+                return newEntry;
             }
+            try {
+                int flags = Process.myUserHandle().equals(user) ? 0 :
+                        PackageManager.GET_UNINSTALLED_PACKAGES;
+                PackageInfo info = mPackageManager.getPackageInfo(packageName, flags);
+                ApplicationInfo appInfo = info.applicationInfo;
+                if (appInfo == null) {
+                    throw new NameNotFoundException("ApplicationInfo is null");
+                }
 
-            // Only add a filled-out entry to the cache
-            if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                BaseIconFactory li = getIconFactory();
+                // Load the full res icon for the application, but if useLowResIcon is set, then
+                // only keep the low resolution icon instead of the larger full-sized icon
+                BitmapInfo iconInfo = li.createBadgedIconBitmap(
+                        appInfo.loadIcon(mPackageManager),
+                        new IconOptions().setUser(user).setInstantApp(isInstantApp(appInfo)));
+                li.close();
+
+                newEntry.title = appInfo.loadLabel(mPackageManager);
+                newEntry.contentDescription =
+                        mPackageManager.getUserBadgedLabel(newEntry.title, user);
+                newEntry.bitmap = BitmapInfo.of(
+                        useLowResIcon ? LOW_RES_ICON : iconInfo.icon, iconInfo.color);
+
+                // Add the icon in the DB here, since these do not get written during
+                // package updates.
+                addIconToDB(iconInfo, newEntry.title.toString(), null, cacheKey,
+                        info, getSerialNumberForUser(user), info.lastUpdateTime);
+                return newEntry;
+            } catch (NameNotFoundException e) {
+                if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
+                // Only add a filled-out entry to the cache
+                return null;
             }
-        }
-        return entry;
+        });
+        return entry != null ? entry : new CacheEntry();
     }
 
     protected boolean getEntryFromDBLocked(@NonNull final ComponentKey cacheKey,
                                            @NonNull final CacheEntry entry, final boolean lowRes) {
+        IconDB.Row row = null;
         Cursor c = null;
         Trace.beginSection("loadIconIndividually");
+        Lock lock = getIconDbReadLock();
+        lock.lock();
         try {
             c = mIconDb.query(
                     lowRes ? IconDB.COLUMNS_LOW_RES : IconDB.COLUMNS_HIGH_RES,
@@ -591,7 +758,7 @@ public abstract class BaseIconCache {
                             cacheKey.componentName.flattenToString(),
                             Long.toString(getSerialNumberForUser(cacheKey.user))});
             if (c.moveToNext()) {
-                return updateTitleAndIconLocked(cacheKey, entry, c, lowRes);
+                row = IconDB.Row.read(c, lowRes);
             }
         } catch (SQLiteException e) {
             Log.d(TAG, "Error reading icon cache", e);
@@ -599,18 +766,29 @@ public abstract class BaseIconCache {
             if (c != null) {
                 c.close();
             }
+            lock.unlock();
             Trace.endSection();
         }
-        return false;
+        // Decoded once the DB is released
+        return row != null && updateTitleAndIconLocked(cacheKey, entry, row, lowRes);
+    }
+
+    /**
+     * Returns the lock to hold while reading {@link #mIconDb} outside of the worker thread, until
+     * the cursors are closed. The worker thread does not need it, as the DB is only replaced
+     * there.
+     */
+    @NonNull
+    protected Lock getIconDbReadLock() {
+        return mIconDbLock.readLock();
     }
 
     private boolean updateTitleAndIconLocked(
             @NonNull final ComponentKey cacheKey, @NonNull final CacheEntry entry,
-            @NonNull final Cursor c, final boolean lowRes) {
+            @NonNull final IconDB.Row row, final boolean lowRes) {
         // Set the alpha to be 255, so that we never have a wrong color
-        entry.bitmap = BitmapInfo.of(LOW_RES_ICON,
-                setColorAlphaBound(c.getInt(IconDB.INDEX_COLOR), 255));
-        entry.title = c.getString(IconDB.INDEX_TITLE);
+        entry.bitmap = BitmapInfo.of(LOW_RES_ICON, setColorAlphaBound(row.color, 255));
+        entry.title = row.title;
         if (entry.title == null) {
             entry.title = "";
             entry.contentDescription = "";
@@ -620,22 +798,25 @@ public abstract class BaseIconCache {
         }
 
         if (!lowRes) {
-            byte[] data = c.getBlob(IconDB.INDEX_ICON);
-            if (data == null) {
+            if (row.icon == null) {
+                return false;
+            }
+            IconCodec codec = IconCodec.fromId(row.iconFormat);
+            if (codec == null) {
                 return false;
             }
             try {
-                BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
-                decodeOptions.inPreferredConfig = Config.HARDWARE;
-                entry.bitmap = BitmapInfo.of(
-                        requireNonNull(decodeByteArray(data, 0, data.length, decodeOptions)),
-                        entry.bitmap.color);
+                Bitmap icon = codec.decode(row.icon, Config.HARDWARE);
+                if (icon == null) {
+                    return false;
+                }
+                entry.bitmap = BitmapInfo.of(icon, entry.bitmap.color);
             } catch (Exception e) {
                 return false;
             }
 
             // Decode mono bitmap
-            data = c.getBlob(IconDB.INDEX_MONO_ICON);
+            byte[] data = row.monoIcon;
             Bitmap icon = entry.bitmap.icon;
             if (data != null && data.length == icon.getHeight() * icon.getWidth()) {
                 Bitmap monoBitmap = Bitmap.createBitmap(
@@ -651,15 +832,341 @@ public abstract class BaseIconCache {
                 }
             }
         }
-        entry.bitmap.flags = c.getInt(IconDB.INDEX_FLAGS);
+        entry.bitmap.flags = row.flags;
         entry.bitmap = entry.bitmap.withFlags(getUserFlagOpLocked(cacheKey.user));
         return entry.bitmap != null;
     }
 
     /**
-     * Returns a cursor for an arbitrary query to the cache db
+     * Sets the entries to keep in high-res in the memory cache regardless of its budget,
+     * typically the items currently bound to the workspace and hotseat. {@param keys} can be a
+     * live view updated by the caller, as long as it is safe to read from any thread.
+     */
+    public void setPinnedEntries(@NonNull final Set<ComponentKey> keys) {
+        mCache.setPinnedKeys(keys);
+    }
+
+    /**
+     * Shrinks the memory cache on the worker thread according to {@param level}
+     *
+     * @see ComponentCallbacks2#onTrimMemory(int)
+     */
+    public void onTrimMemory(final int level) {
+        mWorkerHandler.post(() -> trimMemoryCache(level));
+    }
+
+    private void trimMemoryCache(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            mCache.trimToFraction(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.trimToFraction(0.25f);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToFraction(0.5f);
+        }
+    }
+
+    public void dump(@NonNull final String prefix, @NonNull final PrintWriter writer) {
+        mCache.dump(prefix, writer);
+    }
+
+    /**
+     * Returns true if the persisted icon atlas is enabled. The atlas holds a copy of the high-res
+     * icons of the DB as raw pixels, so that they are loaded at startup without DB queries or
+     * decoding. It is patched with the changed icons once the worker thread is idle, at least
+     * {@link #ICON_ATLAS_WRITE_DELAY_MS} after the last DB change.
+     */
+    protected boolean isIconAtlasEnabled() {
+        return false;
+    }
+
+    /**
+     * Returns true if the high-res icon of {@param cacheKey} can be loaded from the icon atlas
      */
-    public synchronized Cursor queryCacheDb(String[] columns, String selection,
+    protected boolean isInIconAtlasLocked(@NonNull final ComponentKey cacheKey) {
+        IconAtlas atlas = getIconAtlasLocked(getSerialNumberForUser(cacheKey.user));
+        return atlas != null && getIconAtlasEntry(atlas, cacheKey) != null;
+    }
+
+    @Nullable
+    private IconAtlas.Entry getIconAtlasEntry(@NonNull final IconAtlas atlas,
+            @NonNull final ComponentKey cacheKey) {
+        String component = cacheKey.componentName.flattenToString();
+        IconAtlas.Entry entry = atlas.get(component);
+        if (entry == null || !entry.systemState.equals(getIconSystemState(cacheKey))) {
+            return null;
+        }
+        synchronized (mIconAtlases) {
+            // The icon changed in the DB, and the atlas was not patched yet
+            return getIconAtlasChangesLocked(getSerialNumberForUser(cacheKey.user))
+                    .contains(component) ? null : entry;
+        }
+    }
+
+    /**
+     * Returns the icon changes not yet written to the atlas of {@param userSerial}. Must be
+     * called while holding {@link #mIconAtlases}.
+     */
+    @NonNull
+    private IconAtlas.Changes getIconAtlasChangesLocked(final long userSerial) {
+        return mIconAtlasChanges.computeIfAbsent(userSerial,
+                serial -> IconAtlas.Changes.read(getIconAtlasFile(serial, "changes")));
+    }
+
+    @Nullable
+    private IconAtlas getIconAtlasLocked(final long userSerial) {
+        if (!isIconAtlasEnabled() || mDbFileName == null) {
+            return null;
+        }
+        synchronized (mIconAtlases) {
+            if (!mIconAtlases.containsKey(userSerial)) {
+                Trace.beginSection("openIconAtlas");
+                mIconAtlases.put(userSerial, IconAtlas.open(getIconAtlasFile(userSerial, "index"),
+                        getIconAtlasFile(userSerial, "pixels"), mIconPixelSize));
+                Trace.endSection();
+            }
+            return mIconAtlases.get(userSerial);
+        }
+    }
+
+    private boolean getEntryFromIconAtlasLocked(@NonNull final ComponentKey cacheKey,
+            @NonNull final CacheEntry entry) {
+        IconAtlas atlas = getIconAtlasLocked(getSerialNumberForUser(cacheKey.user));
+        IconAtlas.Entry atlasEntry = atlas == null ? null : getIconAtlasEntry(atlas, cacheKey);
+        if (atlasEntry == null) {
+            return false;
+        }
+        Bitmap icon = atlas.readIcon(atlasEntry);
+        // Set the alpha to be 255, so that we never have a wrong color
+        entry.bitmap = BitmapInfo.of(icon, setColorAlphaBound(atlasEntry.color, 255));
+        Bitmap mono = atlas.readMonoIcon(atlasEntry);
+        if (mono != null) {
+            try (BaseIconFactory factory = getIconFactory()) {
+                entry.bitmap.setMonoIcon(mono, factory);
+            }
+        }
+        entry.bitmap.flags = atlasEntry.flags;
+        entry.bitmap = entry.bitmap.withFlags(getUserFlagOpLocked(cacheKey.user));
+        if (atlasEntry.label == null) {
+            entry.title = "";
+            entry.contentDescription = "";
+        } else {
+            entry.title = atlasEntry.label;
+            entry.contentDescription = mPackageManager.getUserBadgedLabel(
+                    entry.title, cacheKey.user);
+        }
+        return true;
+    }
+
+    /**
+     * Records icons of {@param userSerial} which changed in the DB, so that they are no longer
+     * read from the atlas, and schedules patching it.
+     */
+    private void onIconAtlasChangedLocked(final long userSerial,
+            @NonNull final Consumer<IconAtlas.Changes> change) {
+        // Without an atlas, all the icons are written with the next one
+        if (getIconAtlasLocked(userSerial) == null) {
+            return;
+        }
+        synchronized (mIconAtlases) {
+            change.accept(getIconAtlasChangesLocked(userSerial));
+        }
+        scheduleIconAtlasWrite();
+    }
+
+    /**
+     * Drops the icon atlases of all users, and schedules writing new ones
+     */
+    synchronized void invalidateIconAtlases() {
+        if (!isIconAtlasEnabled() || mDbFileName == null) {
+            return;
+        }
+        deleteIconAtlasesLocked();
+        scheduleIconAtlasWrite();
+    }
+
+    /**
+     * Schedules writing the icon atlas of the users who don't have one, and patching the others
+     */
+    void scheduleIconAtlasWrite() {
+        if (!isIconAtlasEnabled() || mDbFileName == null) {
+            return;
+        }
+        mWorkerHandler.removeCallbacks(mWriteIconAtlasesRunnable);
+        mWorkerHandler.postDelayed(mWriteIconAtlasesRunnable, ICON_ATLAS_WRITE_DELAY_MS);
+    }
+
+    private void deleteIconAtlasesLocked() {
+        mWorkerHandler.removeCallbacks(mWriteIconAtlasesRunnable);
+        synchronized (mIconAtlases) {
+            mIconAtlases.clear();
+            mIconAtlasChanges.clear();
+            File[] files = new File(mContext.getCacheDir(), ICON_ATLAS_DIR).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private File getIconAtlasFile(final long userSerial, @NonNull final String extension) {
+        return new File(new File(mContext.getCacheDir(), ICON_ATLAS_DIR),
+                mDbFileName + "_" + userSerial + "." + extension);
+    }
+
+    private synchronized void writeIconAtlases() {
+        // Atlases are large writes, which should not delay the icon loads
+        if (!mWorkerHandler.getLooper().getQueue().isIdle()) {
+            scheduleIconAtlasWrite();
+            return;
+        }
+        Set<Long> userSerials = new HashSet<>();
+        try (Cursor c = mIconDb.query(new String[]{IconDB.COLUMN_USER}, null, null)) {
+            while (c.moveToNext()) {
+                userSerials.add(c.getLong(0));
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+            return;
+        }
+        for (long userSerial : userSerials) {
+            IconAtlas atlas = getIconAtlasLocked(userSerial);
+            IconAtlas.Changes changes;
+            synchronized (mIconAtlases) {
+                changes = getIconAtlasChangesLocked(userSerial);
+            }
+            if (atlas == null || changes.isUnknown()) {
+                writeIconAtlasLocked(userSerial);
+            } else if (!changes.isEmpty()) {
+                patchIconAtlasLocked(userSerial, atlas, changes);
+            }
+        }
+    }
+
+    private void writeIconAtlasLocked(final long userSerial) {
+        Trace.beginSection("writeIconAtlas");
+        long startTime = SystemClock.uptimeMillis();
+        File indexFile = getIconAtlasFile(userSerial, "index");
+        File pixelFile = getIconAtlasFile(userSerial, "pixels");
+        int count = 0;
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(indexFile, pixelFile, mIconPixelSize);
+             Cursor c = mIconDb.query(IconDB.COLUMNS_ATLAS,
+                     IconDB.COLUMN_USER + " = ?", new String[]{Long.toString(userSerial)})) {
+            count = addIconsToAtlas(writer, c);
+            writer.commit();
+            synchronized (mIconAtlases) {
+                getIconAtlasChangesLocked(userSerial).clear();
+            }
+        } catch (IOException | SQLiteException e) {
+            Log.w(TAG, "Unable to write icon atlas", e);
+            IconAtlas.delete(indexFile, pixelFile);
+        } finally {
+            // Opened again on the next lookup
+            synchronized (mIconAtlases) {
+                mIconAtlases.remove(userSerial);
+            }
+            Trace.endSection();
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Wrote " + count + " icons to the atlas in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * Appends the changed icons to the atlas of {@param userSerial}, or rewrites it when most of
+     * its pixels are outdated
+     */
+    private void patchIconAtlasLocked(final long userSerial, @NonNull final IconAtlas atlas,
+            @NonNull final IconAtlas.Changes changes) {
+        Trace.beginSection("patchIconAtlas");
+        long startTime = SystemClock.uptimeMillis();
+        List<String> components;
+        List<String> packages;
+        synchronized (mIconAtlases) {
+            components = new ArrayList<>(changes.getComponents());
+            packages = new ArrayList<>(changes.getPackages());
+        }
+        boolean rewrite = false;
+        int count = 0;
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(atlas)) {
+            packages.forEach(writer::removePackage);
+            components.forEach(writer::remove);
+            if (writer.getUnusedBytes() * 2 > getIconAtlasFile(userSerial, "pixels").length()) {
+                rewrite = true;
+            } else {
+                for (int i = 0; i < components.size(); i += ICON_ATLAS_PATCH_QUERY_SIZE) {
+                    List<String> chunk = components.subList(i,
+                            Math.min(i + ICON_ATLAS_PATCH_QUERY_SIZE, components.size()));
+                    String[] args = new String[chunk.size() + 1];
+                    args[0] = Long.toString(userSerial);
+                    for (int j = 0; j < chunk.size(); j++) {
+                        args[j + 1] = chunk.get(j);
+                    }
+                    try (Cursor c = mIconDb.query(IconDB.COLUMNS_ATLAS, IconDB.COLUMN_USER
+                            + " = ? AND " + IconDB.COLUMN_COMPONENT + " IN ("
+                            + TextUtils.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                            args)) {
+                        count += addIconsToAtlas(writer, c);
+                    }
+                }
+                writer.commit();
+                synchronized (mIconAtlases) {
+                    changes.clear();
+                    // Opened again on the next lookup
+                    mIconAtlases.remove(userSerial);
+                }
+            }
+        } catch (IOException | SQLiteException e) {
+            // The changes are kept, and the atlas is rewritten the next time
+            Log.w(TAG, "Unable to patch icon atlas", e);
+            rewrite = true;
+        } finally {
+            Trace.endSection();
+        }
+        if (rewrite) {
+            writeIconAtlasLocked(userSerial);
+        } else if (DEBUG) {
+            Log.d(TAG, "Patched " + count + " icons of the atlas in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * Adds the icons of the {@link IconDB#COLUMNS_ATLAS} rows of {@param c} to {@param writer}
+     *
+     * @return the number of icons added
+     */
+    private static int addIconsToAtlas(@NonNull final IconAtlas.Writer writer,
+            @NonNull final Cursor c) throws IOException {
+        int count = 0;
+        while (c.moveToNext()) {
+            byte[] data = c.getBlob(IconDB.INDEX_ICON);
+            IconCodec codec = IconCodec.fromId(c.getInt(IconDB.INDEX_ICON_FORMAT));
+            Bitmap icon = data == null || codec == null ? null : codec.decode(data, null);
+            if (icon == null) {
+                continue;
+            }
+            String systemState = c.getString(IconDB.INDEX_ATLAS_SYSTEM_STATE);
+            if (writer.add(c.getString(IconDB.INDEX_ATLAS_COMPONENT),
+                    c.getString(IconDB.INDEX_TITLE), c.getInt(IconDB.INDEX_COLOR),
+                    c.getInt(IconDB.INDEX_FLAGS), systemState == null ? "" : systemState,
+                    icon, c.getBlob(IconDB.INDEX_MONO_ICON))) {
+                count++;
+            }
+            icon.recycle();
+        }
+        return count;
+    }
+
+    /**
+     * Returns a cursor for an arbitrary query to the cache db. Callers outside of the worker
+     * thread must hold {@link #getIconDbReadLock} until the cursor is closed.
+     */
+    public Cursor queryCacheDb(String[] columns, String selection,
                                             String[] selectionArgs) {
         return mIconDb.query(columns, selection, selectionArgs);
     }
@@ -668,7 +1175,9 @@ public abstract class BaseIconCache {
      * Cache class to store the actual entries on disk
      */
     public static final class IconDB extends SQLiteCacheHelper {
-        private static final int RELEASE_VERSION = 34;
+        private static final int RELEASE_VERSION = 35;
+        // Last version before the icon format column, its rows are all PNG
+        private static final int RELEASE_VERSION_PNG_ONLY = 34;
 
         public static final String TABLE_NAME = "icons";
         public static final String COLUMN_ROWID = "rowid";
@@ -683,6 +1192,7 @@ public abstract class BaseIconCache {
         public static final String COLUMN_LABEL = "label";
         public static final String COLUMN_SYSTEM_STATE = "system_state";
         public static final String COLUMN_KEYWORDS = "keywords";
+        public static final String COLUMN_ICON_FORMAT = "icon_format";
 
         public static final String[] COLUMNS_LOW_RES = new String[]{
                 COLUMN_COMPONENT,
@@ -690,11 +1200,12 @@ public abstract class BaseIconCache {
                 COLUMN_ICON_COLOR,
                 COLUMN_FLAGS};
         public static final String[] COLUMNS_HIGH_RES = Arrays.copyOf(COLUMNS_LOW_RES,
-                COLUMNS_LOW_RES.length + 2, String[].class);
+                COLUMNS_LOW_RES.length + 3, String[].class);
 
         static {
             COLUMNS_HIGH_RES[COLUMNS_LOW_RES.length] = COLUMN_ICON;
             COLUMNS_HIGH_RES[COLUMNS_LOW_RES.length + 1] = COLUMN_MONO_ICON;
+            COLUMNS_HIGH_RES[COLUMNS_LOW_RES.length + 2] = COLUMN_ICON_FORMAT;
         }
 
         private static final int INDEX_TITLE = Arrays.asList(COLUMNS_LOW_RES).indexOf(COLUMN_LABEL);
@@ -703,9 +1214,90 @@ public abstract class BaseIconCache {
         private static final int INDEX_FLAGS = Arrays.asList(COLUMNS_LOW_RES).indexOf(COLUMN_FLAGS);
         private static final int INDEX_ICON = COLUMNS_LOW_RES.length;
         private static final int INDEX_MONO_ICON = INDEX_ICON + 1;
+        private static final int INDEX_ICON_FORMAT = INDEX_ICON + 2;
+
+        /**
+         * {@link #COLUMNS_HIGH_RES} followed by the columns needed to write the icon atlas
+         */
+        private static final String[] COLUMNS_ATLAS = Arrays.copyOf(COLUMNS_HIGH_RES,
+                COLUMNS_HIGH_RES.length + 1, String[].class);
+
+        static {
+            COLUMNS_ATLAS[COLUMNS_HIGH_RES.length] = COLUMN_SYSTEM_STATE;
+        }
+
+        private static final int INDEX_ATLAS_COMPONENT = Arrays.asList(COLUMNS_LOW_RES)
+                .indexOf(COLUMN_COMPONENT);
+        private static final int INDEX_ATLAS_SYSTEM_STATE = COLUMNS_HIGH_RES.length;
 
-        public IconDB(Context context, String dbFileName, int iconPixelSize) {
-            super(context, dbFileName, (RELEASE_VERSION << 16) + iconPixelSize, TABLE_NAME);
+        /**
+         * Columns of the rows passed to {@link #insertOrReplace}
+         */
+        private static final String[] COLUMNS_INSERT = new String[]{
+                COLUMN_COMPONENT,
+                COLUMN_USER,
+                COLUMN_LAST_UPDATED,
+                COLUMN_VERSION,
+                COLUMN_ICON,
+                COLUMN_MONO_ICON,
+                COLUMN_ICON_COLOR,
+                COLUMN_FLAGS,
+                COLUMN_LABEL,
+                COLUMN_SYSTEM_STATE,
+                COLUMN_KEYWORDS,
+                COLUMN_ICON_FORMAT};
+
+        private static final int INSERT_INDEX_COMPONENT = 0;
+        private static final int INSERT_INDEX_USER = 1;
+        private static final int INSERT_INDEX_LAST_UPDATED = 2;
+        private static final int INSERT_INDEX_VERSION = 3;
+        private static final int INSERT_INDEX_ICON = 4;
+        private static final int INSERT_INDEX_MONO_ICON = 5;
+        private static final int INSERT_INDEX_COLOR = 6;
+        private static final int INSERT_INDEX_FLAGS = 7;
+        private static final int INSERT_INDEX_LABEL = 8;
+        private static final int INSERT_INDEX_SYSTEM_STATE = 9;
+        private static final int INSERT_INDEX_KEYWORDS = 10;
+        private static final int INSERT_INDEX_ICON_FORMAT = 11;
+
+        /**
+         * The values of a row queried with {@link #COLUMNS_LOW_RES} or {@link #COLUMNS_HIGH_RES},
+         * read out of the cursor so that the icons can be decoded on another thread.
+         */
+        public static final class Row {
+            @Nullable
+            final String title;
+            final int color;
+            final int flags;
+            @Nullable
+            final byte[] icon;
+            @Nullable
+            final byte[] monoIcon;
+            final int iconFormat;
+
+            private Row(@NonNull Cursor c, boolean lowRes) {
+                title = c.getString(INDEX_TITLE);
+                color = c.getInt(INDEX_COLOR);
+                flags = c.getInt(INDEX_FLAGS);
+                icon = lowRes ? null : c.getBlob(INDEX_ICON);
+                monoIcon = lowRes ? null : c.getBlob(INDEX_MONO_ICON);
+                iconFormat = lowRes ? IconCodec.PNG.id : c.getInt(INDEX_ICON_FORMAT);
+            }
+
+            /**
+             * Reads the current row of {@param c}
+             *
+             * @param lowRes true if {@param c} was queried with {@link #COLUMNS_LOW_RES}
+             */
+            @NonNull
+            public static Row read(@NonNull Cursor c, boolean lowRes) {
+                return new Row(c, lowRes);
+            }
+        }
+
+        public IconDB(Context context, String dbFileName, int iconPixelSize, Handler handler) {
+            super(context, dbFileName, (RELEASE_VERSION << 16) + iconPixelSize, TABLE_NAME,
+                    COLUMNS_INSERT, handler);
         }
 
         @Override
@@ -722,18 +1314,36 @@ public abstract class BaseIconCache {
                     + COLUMN_LABEL + " TEXT, "
                     + COLUMN_SYSTEM_STATE + " TEXT, "
                     + COLUMN_KEYWORDS + " TEXT, "
+                    + COLUMN_ICON_FORMAT + " INTEGER NOT NULL DEFAULT " + IconCodec.PNG.id + ", "
                     + "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") "
                     + ");");
         }
+
+        @Override
+        protected boolean onUpgradeTable(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Keep the existing PNG icons, they are re-encoded by the next icon cache update
+            if ((oldVersion >> 16) == RELEASE_VERSION_PNG_ONLY
+                    && (oldVersion & 0xFFFF) == (newVersion & 0xFFFF)) {
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_ICON_FORMAT
+                        + " INTEGER NOT NULL DEFAULT " + IconCodec.PNG.id);
+                return true;
+            }
+            return false;
+        }
     }
 
+    /**
+     * Returns a row of {@link IconDB#COLUMNS_INSERT} containing icon & title
+     */
     @NonNull
-    private ContentValues newContentValues(@NonNull final BitmapInfo bitmapInfo,
-                                           @NonNull final String label, @NonNull final String packageName,
-                                           @Nullable final String keywords) {
-        ContentValues values = new ContentValues();
+    private Object[] newIconRow(@NonNull final BitmapInfo bitmapInfo,
+                                @NonNull final String label, @NonNull final ComponentKey key,
+                                @Nullable final String keywords) {
+        Object[] row = new Object[IconDB.COLUMNS_INSERT.length];
+        IconCodec codec = getIconCodec();
+        row[IconDB.INSERT_INDEX_ICON_FORMAT] = codec.id;
         if (bitmapInfo.canPersist()) {
-            values.put(IconDB.COLUMN_ICON, flattenBitmap(bitmapInfo.icon));
+            row[IconDB.INSERT_INDEX_ICON] = codec.encode(bitmapInfo.icon);
 
             // Persist mono bitmap as alpha channel
             Bitmap mono = bitmapInfo.getMono();
@@ -742,21 +1352,16 @@ public abstract class BaseIconCache {
                     && mono.getConfig() == Config.ALPHA_8) {
                 byte[] pixels = new byte[mono.getWidth() * mono.getHeight()];
                 mono.copyPixelsToBuffer(ByteBuffer.wrap(pixels));
-                values.put(IconDB.COLUMN_MONO_ICON, pixels);
-            } else {
-                values.put(IconDB.COLUMN_MONO_ICON, (byte[]) null);
+                row[IconDB.INSERT_INDEX_MONO_ICON] = pixels;
             }
-        } else {
-            values.put(IconDB.COLUMN_ICON, (byte[]) null);
-            values.put(IconDB.COLUMN_MONO_ICON, (byte[]) null);
         }
-        values.put(IconDB.COLUMN_ICON_COLOR, bitmapInfo.color);
-        values.put(IconDB.COLUMN_FLAGS, bitmapInfo.flags);
+        row[IconDB.INSERT_INDEX_COLOR] = bitmapInfo.color;
+        row[IconDB.INSERT_INDEX_FLAGS] = bitmapInfo.flags;
 
-        values.put(IconDB.COLUMN_LABEL, label);
-        values.put(IconDB.COLUMN_SYSTEM_STATE, getIconSystemState(packageName));
-        values.put(IconDB.COLUMN_KEYWORDS, keywords);
-        return values;
+        row[IconDB.INSERT_INDEX_LABEL] = label;
+        row[IconDB.INSERT_INDEX_SYSTEM_STATE] = getIconSystemState(key);
+        row[IconDB.INSERT_INDEX_KEYWORDS] = keywords;
+        return row;
     }
 
     private void assertWorkerThread() {
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only snapshot of the high-res icons of one user, so that they can be loaded at startup
+ * without querying and decoding the icon DB.
+ *
+ * The icons are stored as two files: a pixel file holding the raw ARGB_8888 pixels of every icon
+ * (followed by its ALPHA_8 mono icon, if any) back to back, which is memory-mapped, and a small
+ * index mapping each component to its label, color, flags, system state and pixel offsets.
+ * The index is written last and records the pixel file size, so a partial write is never used.
+ *
+ * An atlas is patched by appending the pixels of new icons to its pixel file and writing a new
+ * index, the pixels of the replaced or removed icons remaining unused until it is rewritten.
+ */
+public final class IconAtlas {
+
+    private static final String TAG = "IconAtlas";
+
+    private static final int MAGIC = 0x49434154; // ICAT
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int NO_MONO_ICON = -1;
+
+    private final int mIconSize;
+    private final HashMap<String, Entry> mEntries;
+    private final ByteBuffer mPixels;
+    private final File mIndexFile;
+    private final File mPixelFile;
+
+    private IconAtlas(int iconSize, HashMap<String, Entry> entries, ByteBuffer pixels,
+            File indexFile, File pixelFile) {
+        mIconSize = iconSize;
+        mEntries = entries;
+        mPixels = pixels;
+        mIndexFile = indexFile;
+        mPixelFile = pixelFile;
+    }
+
+    /**
+     * Returns the entry of the flattened {@param component}, or null if it is not in the atlas
+     */
+    @Nullable
+    public Entry get(@NonNull String component) {
+        return mEntries.get(component);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Copies the icon of {@param entry} out of the atlas, into an ARGB_8888 bitmap. This is the
+     * only copy of its pixels, it isn't converted to a hardware bitmap.
+     */
+    @NonNull
+    public Bitmap readIcon(@NonNull Entry entry) {
+        Bitmap icon = Bitmap.createBitmap(mIconSize, mIconSize, Config.ARGB_8888);
+        icon.copyPixelsFromBuffer(slice(entry.mIconOffset, mIconSize * mIconSize * 4));
+        return icon;
+    }
+
+    /**
+     * Copies the mono icon of {@param entry} out of the atlas into an ALPHA_8 bitmap, if it has
+     * one
+     */
+    @Nullable
+    public Bitmap readMonoIcon(@NonNull Entry entry) {
+        if (entry.mMonoOffset == NO_MONO_ICON) {
+            return null;
+        }
+        Bitmap mono = Bitmap.createBitmap(mIconSize, mIconSize, Config.ALPHA_8);
+        mono.copyPixelsFromBuffer(slice(entry.mMonoOffset, mIconSize * mIconSize));
+        return mono;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer buffer = mPixels.duplicate();
+        buffer.limit(offset + length).position(offset);
+        return buffer;
+    }
+
+    /**
+     * Opens the atlas written by a {@link Writer} to the same files
+     *
+     * @return the atlas, or null if it is missing, incomplete or for another icon size
+     */
+    @Nullable
+    public static IconAtlas open(@NonNull File indexFile, @NonNull File pixelFile, int iconSize) {
+        if (!indexFile.exists() || !pixelFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)));
+             RandomAccessFile pixels = new RandomAccessFile(pixelFile, "r")) {
+            // Pixels past the recorded size were appended by a patch that wasn't committed
+            long pixelLength;
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readInt() != iconSize
+                    || (pixelLength = in.readLong()) > pixels.length()) {
+                return null;
+            }
+            int count = in.readInt();
+            HashMap<String, Entry> entries = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                String component = in.readUTF();
+                entries.put(component, new Entry(in.readBoolean() ? in.readUTF() : null,
+                        in.readInt(), in.readInt(), in.readUTF(), in.readInt(), in.readInt()));
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = pixels.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, pixelLength);
+            return new IconAtlas(iconSize, entries, buffer, indexFile, pixelFile);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unable to open icon atlas " + indexFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the atlas files, starting with the index so that the atlas is never half deleted
+     */
+    public static void delete(@NonNull File indexFile, @NonNull File pixelFile) {
+        indexFile.delete();
+        pixelFile.delete();
+    }
+
+    /**
+     * An icon in the atlas
+     */
+    public static final class Entry {
+        @Nullable
+        public final String label;
+        public final int color;
+        public final int flags;
+        @NonNull
+        public final String systemState;
+
+        private final int mIconOffset;
+        private final int mMonoOffset;
+
+        Entry(@Nullable String label, int color, int flags, @NonNull String systemState,
+                int iconOffset, int monoOffset) {
+            this.label = label;
+            this.color = color;
+            this.flags = flags;
+            this.systemState = systemState;
+            mIconOffset = iconOffset;
+            mMonoOffset = monoOffset;
+        }
+    }
+
+    /**
+     * The components and packages whose icons changed since an atlas was written, which are
+     * outdated in the atlas until it is patched. They are journaled to a file, so that they stay
+     * outdated after a restart.
+     */
+    public static final class Changes {
+
+        private static final char COMPONENT = 'c';
+        private static final char PACKAGE = 'p';
+
+        private final File mFile;
+        private final HashSet<String> mComponents = new HashSet<>();
+        private final HashSet<String> mPackages = new HashSet<>();
+
+        private Changes(@NonNull File file) {
+            mFile = file;
+        }
+
+        /**
+         * Reads the changes journaled to {@param file}, if any
+         */
+        @NonNull
+        public static Changes read(@NonNull File file) {
+            Changes changes = new Changes(file);
+            if (!file.exists()) {
+                return changes;
+            }
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    (line.charAt(0) == PACKAGE ? changes.mPackages : changes.mComponents)
+                            .add(line.substring(1));
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read icon atlas changes " + file, e);
+                // Not knowing which icons are outdated, consider all of them are
+                changes.mPackages.add("");
+            }
+            return changes;
+        }
+
+        /**
+         * Marks the icon of the flattened {@param component} as outdated
+         */
+        public void addComponent(@NonNull String component) {
+            if (mComponents.add(component)) {
+                append(COMPONENT, component);
+            }
+        }
+
+        /**
+         * Marks the icons of all the components of {@param packageName} as outdated
+         */
+        public void addPackage(@NonNull String packageName) {
+            if (mPackages.add(packageName)) {
+                append(PACKAGE, packageName);
+            }
+        }
+
+        private void append(char type, String value) {
+            mFile.getParentFile().mkdirs();
+            try (FileWriter out = new FileWriter(mFile, true /* append */)) {
+                out.append(type).append(value).append('\n');
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to write icon atlas changes " + mFile, e);
+            }
+        }
+
+        /**
+         * Returns true if the icon of the flattened {@param component} is outdated
+         */
+        public boolean contains(@NonNull String component) {
+            if (mComponents.contains(component) || mPackages.contains("")) {
+                return true;
+            }
+            int separator = component.indexOf('/');
+            return separator >= 0 && mPackages.contains(component.substring(0, separator));
+        }
+
+        public boolean isEmpty() {
+            return mComponents.isEmpty() && mPackages.isEmpty();
+        }
+
+        /**
+         * Returns true if the changes are unknown, so that the atlas has to be rewritten
+         */
+        public boolean isUnknown() {
+            return mPackages.contains("");
+        }
+
+        @NonNull
+        public Set<String> getComponents() {
+            return Collections.unmodifiableSet(mComponents);
+        }
+
+        @NonNull
+        public Set<String> getPackages() {
+            return Collections.unmodifiableSet(mPackages);
+        }
+
+        /**
+         * Forgets the changes, once they were written to the atlas
+         */
+        public void clear() {
+            mComponents.clear();
+            mPackages.clear();
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Writes a new atlas, or patches an existing one. The pixels go straight to a temporary file,
+     * or are appended to the pixel file of the patched atlas, while the index is kept in memory.
+     * The new index replaces the previous one in {@link #commit}.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final File mIndexFile;
+        private final File mPixelFile;
+        // Null when patching, as pixels are then appended to the pixel file
+        @Nullable
+        private final File mTmpPixelFile;
+        private final int mIconSize;
+        private final BufferedOutputStream mPixels;
+        private final byte[] mIconBuffer;
+
+        private final HashMap<String, Entry> mEntries;
+        private int mOffset;
+
+        public Writer(@NonNull File indexFile, @NonNull File pixelFile, int iconSize)
+                throws IOException {
+            mIndexFile = indexFile;
+            mPixelFile = pixelFile;
+            mTmpPixelFile = new File(pixelFile.getPath() + ".tmp");
+            mIconSize = iconSize;
+            mIconBuffer = new byte[iconSize * iconSize * 4];
+            mEntries = new HashMap<>();
+            pixelFile.getParentFile().mkdirs();
+            mPixels = new BufferedOutputStream(new FileOutputStream(mTmpPixelFile));
+        }
+
+        /**
+         * Starts a patch of {@param atlas}, which keeps all its entries until they are removed
+         * or added again
+         */
+        public Writer(@NonNull IconAtlas atlas) throws IOException {
+            mIndexFile = atlas.mIndexFile;
+            mPixelFile = atlas.mPixelFile;
+            mTmpPixelFile = null;
+            mIconSize = atlas.mIconSize;
+            mIconBuffer = new byte[mIconSize * mIconSize * 4];
+            mEntries = new HashMap<>(atlas.mEntries);
+            long length = mPixelFile.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Icon atlas too large " + mPixelFile);
+            }
+            mOffset = (int) length;
+            mPixels = new BufferedOutputStream(new FileOutputStream(mPixelFile, true /* append */));
+        }
+
+        /**
+         * Removes the icon of {@param component}, if any
+         */
+        public void remove(@NonNull String component) {
+            mEntries.remove(component);
+        }
+
+        /**
+         * Removes the icons of all the components of {@param packageName}
+         */
+        public void removePackage(@NonNull String packageName) {
+            String prefix = packageName + "/";
+            mEntries.keySet().removeIf(component -> component.startsWith(prefix));
+        }
+
+        /**
+         * Returns the size of the pixels of the icons which were replaced or removed
+         */
+        public long getUnusedBytes() {
+            long used = 0;
+            for (Entry entry : mEntries.values()) {
+                used += mIconBuffer.length;
+                if (entry.mMonoOffset != NO_MONO_ICON) {
+                    used += mIconSize * mIconSize;
+                }
+            }
+            return mOffset - used;
+        }
+
+        /**
+         * Adds the icon of {@param component}
+         *
+         * @param mono alpha values of the mono icon, or null
+         * @return false if the icon was skipped because it does not have the atlas size, or the
+         * atlas is full
+         */
+        public boolean add(@NonNull String component, @Nullable String label, int color,
+                int flags, @NonNull String systemState, @NonNull Bitmap icon,
+                @Nullable byte[] mono) throws IOException {
+            if (icon.getWidth() != mIconSize || icon.getHeight() != mIconSize
+                    || icon.getConfig() != Config.ARGB_8888
+                    || (mono != null && mono.length != mIconSize * mIconSize)
+                    || mOffset > Integer.MAX_VALUE - 2 * mIconBuffer.length) {
+                return false;
+            }
+            icon.copyPixelsToBuffer(ByteBuffer.wrap(mIconBuffer));
+            int iconOffset = mOffset;
+            mPixels.write(mIconBuffer);
+            mOffset += mIconBuffer.length;
+
+            int monoOffset = NO_MONO_ICON;
+            if (mono != null) {
+                monoOffset = mOffset;
+                mPixels.write(mono);
+                mOffset += mono.length;
+            }
+            mEntries.put(component,
+                    new Entry(label, color, flags, systemState, iconOffset, monoOffset));
+            return true;
+        }
+
+        /**
+         * Replaces the previous atlas with the icons added or kept so far
+         */
+        public void commit() throws IOException {
+            mPixels.close();
+            File tmpIndexFile = writeIndex();
+            // A patch only appended to the pixel file, so the previous index stays valid until
+            // it is replaced
+            if (mTmpPixelFile != null) {
+                mIndexFile.delete();
+            }
+            if ((mTmpPixelFile != null && !mTmpPixelFile.renameTo(mPixelFile))
+                    || !tmpIndexFile.renameTo(mIndexFile)) {
+                tmpIndexFile.delete();
+                throw new IOException("Unable to replace " + mIndexFile);
+            }
+        }
+
+        private File writeIndex() throws IOException {
+            File tmpIndexFile = new File(mIndexFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpIndexFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(mIconSize);
+                out.writeLong(mOffset);
+                out.writeInt(mEntries.size());
+                for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeBoolean(entry.label != null);
+                    if (entry.label != null) {
+                        out.writeUTF(entry.label);
+                    }
+                    out.writeInt(entry.color);
+                    out.writeInt(entry.flags);
+                    out.writeUTF(entry.systemState);
+                    out.writeInt(entry.mIconOffset);
+                    out.writeInt(entry.mMonoOffset);
+                }
+            }
+            return tmpIndexFile;
+        }
+
+        /**
+         * Discards the icons that were not committed
+         */
+        @Override
+        public void close() {
+            try {
+                mPixels.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            if (mTmpPixelFile != null) {
+                mTmpPixelFile.delete();
+            }
+        }
+    }
+}
@@ -28,7 +28,11 @@ import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
 import com.android.launcher3.icons.cache.BaseIconCache.IconDB;
+import com.android.launcher3.util.ComponentKey;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -37,6 +41,9 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Utility class to handle updating the Icon cache
@@ -44,6 +51,7 @@ import java.util.Stack;
 public class IconCacheUpdateHandler {
 
     private static final String TAG = "IconCacheUpdateHandler";
+    private static final boolean DEBUG = false;
 
     /**
      * In this mode, all invalid icons are marked as to-be-deleted in {@link #mItemsToDelete}.
@@ -59,6 +67,11 @@ public class IconCacheUpdateHandler {
 
     private static final Object ICON_UPDATE_TOKEN = new Object();
 
+    /**
+     * Minimum number of icons to render for an update to use the icon render executor
+     */
+    private static final int MIN_PARALLEL_UPDATE_COUNT = 16;
+
     private final HashMap<String, PackageInfo> mPkgInfoMap;
     private final BaseIconCache mIconCache;
 
@@ -67,6 +80,8 @@ public class IconCacheUpdateHandler {
     private final SparseBooleanArray mItemsToDelete = new SparseBooleanArray();
     private boolean mFilterMode = MODE_SET_INVALID_ITEMS;
 
+    private final int mGeneration;
+
     IconCacheUpdateHandler(BaseIconCache cache) {
         mIconCache = cache;
 
@@ -74,6 +89,7 @@ public class IconCacheUpdateHandler {
 
         // Remove all active icon update tasks.
         mIconCache.mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        mGeneration = mIconCache.mUpdateGeneration.incrementAndGet();
 
         createPackageInfoMap();
     }
@@ -148,7 +164,7 @@ public class IconCacheUpdateHandler {
         try (Cursor c = mIconCache.mIconDb.query(
                 new String[]{IconDB.COLUMN_ROWID, IconDB.COLUMN_COMPONENT,
                         IconDB.COLUMN_LAST_UPDATED, IconDB.COLUMN_VERSION,
-                        IconDB.COLUMN_SYSTEM_STATE},
+                        IconDB.COLUMN_SYSTEM_STATE, IconDB.COLUMN_ICON_FORMAT},
                 IconDB.COLUMN_USER + " = ? ",
                 new String[]{Long.toString(userSerial)})) {
 
@@ -157,6 +173,8 @@ public class IconCacheUpdateHandler {
             final int indexVersion = c.getColumnIndex(IconDB.COLUMN_VERSION);
             final int rowIndex = c.getColumnIndex(IconDB.COLUMN_ROWID);
             final int systemStateIndex = c.getColumnIndex(IconDB.COLUMN_SYSTEM_STATE);
+            final int iconFormatIndex = c.getColumnIndex(IconDB.COLUMN_ICON_FORMAT);
+            final int iconFormat = mIconCache.getIconCodec().id;
 
             while (c.moveToNext()) {
                 String cn = c.getString(indexComponent);
@@ -185,7 +203,8 @@ public class IconCacheUpdateHandler {
                 if (version == info.versionCode
                         && updateTime == cachingLogic.getLastUpdatedTime(app, info)
                         && TextUtils.equals(c.getString(systemStateIndex),
-                        mIconCache.getIconSystemState(info.packageName))) {
+                        mIconCache.getIconSystemState(new ComponentKey(component, user)))
+                        && c.getInt(iconFormatIndex) == iconFormat) {
 
                     if (mFilterMode == MODE_CLEAR_VALID_ITEMS) {
                         mItemsToDelete.put(rowId, false);
@@ -211,8 +230,15 @@ public class IconCacheUpdateHandler {
         if (!componentMap.isEmpty() || !appsToUpdate.isEmpty()) {
             Stack<T> appsToAdd = new Stack<>();
             appsToAdd.addAll(componentMap.values());
-            new SerializedIconUpdateTask(userSerial, user, appsToAdd, appsToUpdate, cachingLogic,
-                    onUpdateCallback).scheduleNext();
+            Executor executor = mIconCache.getIconRenderExecutor();
+            if (executor != null
+                    && appsToAdd.size() + appsToUpdate.size() >= MIN_PARALLEL_UPDATE_COUNT) {
+                new ParallelIconUpdateTask<>(userSerial, user, appsToAdd, appsToUpdate,
+                        cachingLogic, onUpdateCallback).start(executor);
+            } else {
+                new SerializedIconUpdateTask(userSerial, user, appsToAdd, appsToUpdate,
+                        cachingLogic, onUpdateCallback).scheduleNext();
+            }
         }
     }
 
@@ -221,7 +247,7 @@ public class IconCacheUpdateHandler {
      * to this class after this.
      */
     public void finish() {
-        // Commit all deletes
+        // Commit all deletes, together with the pending icon writes
         int deleteCount = 0;
         StringBuilder queryBuilder = new StringBuilder()
                 .append(IconDB.COLUMN_ROWID)
@@ -241,6 +267,10 @@ public class IconCacheUpdateHandler {
 
         if (deleteCount > 0) {
             mIconCache.mIconDb.delete(queryBuilder.toString(), null);
+            mIconCache.invalidateIconAtlases();
+        } else {
+            // Writes the atlas of users who don't have one yet, even if no icon changed
+            mIconCache.scheduleIconAtlasWrite();
         }
     }
 
@@ -257,6 +287,8 @@ public class IconCacheUpdateHandler {
         private final CachingLogic<T> mCachingLogic;
         private final HashSet<String> mUpdatedPackages = new HashSet<>();
         private final OnUpdateCallback mOnUpdateCallback;
+        private final int mCount;
+        private final long mStartTime = SystemClock.uptimeMillis();
 
         SerializedIconUpdateTask(long userSerial, UserHandle userHandle,
                                  Stack<T> appsToAdd, Stack<T> appsToUpdate, CachingLogic<T> cachingLogic,
@@ -267,6 +299,7 @@ public class IconCacheUpdateHandler {
             mAppsToUpdate = appsToUpdate;
             mCachingLogic = cachingLogic;
             mOnUpdateCallback = onUpdateCallback;
+            mCount = appsToAdd.size() + appsToUpdate.size();
         }
 
         @Override
@@ -299,7 +332,18 @@ public class IconCacheUpdateHandler {
 
                 if (!mAppsToAdd.isEmpty()) {
                     scheduleNext();
+                } else {
+                    logDuration();
                 }
+            } else {
+                logDuration();
+            }
+        }
+
+        private void logDuration() {
+            if (DEBUG) {
+                Log.d(TAG, "Updated " + mCount + " icons in "
+                        + (SystemClock.uptimeMillis() - mStartTime) + "ms");
             }
         }
 
@@ -309,6 +353,117 @@ public class IconCacheUpdateHandler {
         }
     }
 
+    /**
+     * Updates the same icons as {@link SerializedIconUpdateTask}, but renders them in parallel on
+     * an executor. Rendered icons are added to the memory cache and committed to the DB in
+     * batches on the worker thread, each batch notifying the packages it updated.
+     */
+    private class ParallelIconUpdateTask<T> implements Runnable {
+        private final long mUserSerial;
+        private final UserHandle mUserHandle;
+        private final List<T> mAppsToAdd;
+        private final List<T> mAppsToUpdate;
+        private final CachingLogic<T> mCachingLogic;
+        private final OnUpdateCallback mOnUpdateCallback;
+
+        private final ConcurrentLinkedQueue<RenderedIcon<T>> mRendered =
+                new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mCommitScheduled = new AtomicBoolean();
+        private int mRemaining;
+        private long mStartTime;
+
+        ParallelIconUpdateTask(long userSerial, UserHandle userHandle,
+                List<T> appsToAdd, List<T> appsToUpdate, CachingLogic<T> cachingLogic,
+                OnUpdateCallback onUpdateCallback) {
+            mUserSerial = userSerial;
+            mUserHandle = userHandle;
+            mAppsToAdd = appsToAdd;
+            mAppsToUpdate = appsToUpdate;
+            mCachingLogic = cachingLogic;
+            mOnUpdateCallback = onUpdateCallback;
+        }
+
+        void start(Executor executor) {
+            mStartTime = SystemClock.uptimeMillis();
+            mRemaining = mAppsToAdd.size() + mAppsToUpdate.size();
+            // Updated icons are stale on screen, so they are rendered first
+            for (T app : mAppsToUpdate) {
+                executor.execute(() -> render(app, true /* replaceExisting */));
+            }
+            for (T app : mAppsToAdd) {
+                executor.execute(() -> render(app, false /* replaceExisting */));
+            }
+        }
+
+        private boolean isCancelled() {
+            return mIconCache.mUpdateGeneration.get() != mGeneration;
+        }
+
+        /**
+         * Called on the executor
+         */
+        private void render(T app, boolean replaceExisting) {
+            if (isCancelled()) {
+                return;
+            }
+            CacheEntry entry = mIconCache.loadEntry(app, mCachingLogic, replaceExisting);
+            mRendered.add(new RenderedIcon<>(app, entry, replaceExisting));
+            if (mCommitScheduled.compareAndSet(false, true)) {
+                mIconCache.mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN,
+                        SystemClock.uptimeMillis());
+            }
+        }
+
+        /**
+         * Commits the icons rendered so far, called on the worker thread
+         */
+        @Override
+        public void run() {
+            mCommitScheduled.set(false);
+            if (isCancelled()) {
+                return;
+            }
+            HashSet<String> updatedPackages = new HashSet<>();
+            RenderedIcon<T> icon;
+            while ((icon = mRendered.poll()) != null) {
+                mRemaining--;
+                String pkg = mCachingLogic.getComponent(icon.app).getPackageName();
+                PackageInfo info = mPkgInfoMap.get(pkg);
+                // As for serialized updates, apps to add may have no package info
+                if (icon.entry == null || info == null) {
+                    continue;
+                }
+                mIconCache.addEntryToDBAndMemCache(
+                        icon.app, mCachingLogic, icon.entry, info, mUserSerial);
+                if (icon.replaceExisting) {
+                    updatedPackages.add(pkg);
+                }
+            }
+            mIconCache.mIconDb.flush();
+            if (!updatedPackages.isEmpty()) {
+                mOnUpdateCallback.onPackageIconsUpdated(updatedPackages, mUserHandle);
+            }
+            if (DEBUG && mRemaining == 0) {
+                Log.d(TAG, "Updated " + (mAppsToAdd.size() + mAppsToUpdate.size())
+                        + " icons in parallel in " + (SystemClock.uptimeMillis() - mStartTime)
+                        + "ms");
+            }
+        }
+    }
+
+    private static class RenderedIcon<T> {
+        final T app;
+        @Nullable
+        final CacheEntry entry;
+        final boolean replaceExisting;
+
+        RenderedIcon(T app, @Nullable CacheEntry entry, boolean replaceExisting) {
+            this.app = app;
+            this.entry = entry;
+            this.replaceExisting = replaceExisting;
+        }
+    }
+
     public interface OnUpdateCallback {
 
         void onPackageIconsUpdated(HashSet<String> updatedPackages, UserHandle user);
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static com.android.launcher3.icons.BitmapInfo.LOW_RES_ICON;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * In-memory cache of {@link CacheEntry}, bounded by the size of the bitmaps it holds.
+ *
+ * When over budget, the least recently used entries are first demoted to low-res entries, which
+ * keep their title and color so that they can still be used for low-res requests, and then
+ * dropped. Pinned entries are never demoted.
+ *
+ * Thread safe: lookups and insertions don't block each other, only trimming is serialized.
+ * Accesses are queued and applied to the recency order when trimming, or when too many of them
+ * are pending.
+ */
+public class IconMemoryCache {
+
+    /**
+     * Approximate size of an entry without its bitmaps
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    /**
+     * Accesses queued before a lookup tries to apply them to the recency order
+     */
+    private static final int MAX_PENDING_ACCESSES = 128;
+
+    /**
+     * Number of version counters, keys sharing a counter only cause spurious version mismatches
+     */
+    private static final int VERSION_STRIPES = 64;
+
+    private final ConcurrentHashMap<ComponentKey, Node> mEntries = new ConcurrentHashMap<>();
+    private final long mMaxSizeBytes;
+
+    private final AtomicLong mSizeBytes = new AtomicLong();
+    // Change counters of the keys, by hash
+    private final AtomicLongArray mVersions = new AtomicLongArray(VERSION_STRIPES);
+    private final ReentrantLock mTrimLock = new ReentrantLock();
+
+    // Keys of the entries, least recently used first. May hold keys which were removed since.
+    // Guarded by mTrimLock.
+    private final LinkedHashMap<ComponentKey, Boolean> mRecency =
+            new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+    private final ConcurrentLinkedQueue<ComponentKey> mPendingAccesses =
+            new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPendingAccessCount = new AtomicInteger();
+
+    @NonNull
+    private volatile Set<ComponentKey> mPinnedKeys = Collections.emptySet();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mDemotionCount = new AtomicInteger();
+    private final AtomicInteger mEvictionCount = new AtomicInteger();
+
+    /**
+     * @param maxSizeBytes budget of the cache, 0 to not keep any entry
+     */
+    public IconMemoryCache(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    @Nullable
+    public CacheEntry get(@NonNull ComponentKey key) {
+        Node node = mEntries.get(key);
+        if (node == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        recordAccess(key);
+        return node.entry;
+    }
+
+    public void put(@NonNull ComponentKey key, @NonNull CacheEntry entry) {
+        if (mMaxSizeBytes <= 0) {
+            return;
+        }
+        mVersions.incrementAndGet(getVersionStripe(key));
+        Node node = new Node(entry, getSizeBytes(entry));
+        Node previous = mEntries.put(key, node);
+        mSizeBytes.addAndGet(node.size - (previous == null ? 0 : previous.size));
+        recordAccess(key);
+        trimIfNeeded();
+    }
+
+    /**
+     * Adds {@param entry} unless {@param key} was changed by any other method than this one since
+     * {@link #getVersion} returned {@param version}. This lets a lookup cache what it loaded
+     * without overwriting a concurrent update or resurrecting a concurrently removed entry.
+     *
+     * @return true if the entry was added
+     */
+    public boolean putIfUnchanged(@NonNull ComponentKey key, @NonNull CacheEntry entry,
+            long version) {
+        if (mMaxSizeBytes <= 0) {
+            return false;
+        }
+        Node node = new Node(entry, getSizeBytes(entry));
+        long[] sizeDelta = new long[1];
+        boolean[] added = new boolean[1];
+        // Changes increment the version before touching the map, so checking it while holding
+        // the key is enough to order this insertion before any of them
+        int stripe = getVersionStripe(key);
+        mEntries.compute(key, (k, previous) -> {
+            if (mVersions.get(stripe) != version) {
+                return previous;
+            }
+            sizeDelta[0] = node.size - (previous == null ? 0 : previous.size);
+            added[0] = true;
+            return node;
+        });
+        if (!added[0]) {
+            return false;
+        }
+        mSizeBytes.addAndGet(sizeDelta[0]);
+        recordAccess(key);
+        trimIfNeeded();
+        return true;
+    }
+
+    /**
+     * Returns a counter incremented by every change of {@param key} except
+     * {@link #putIfUnchanged}. Unrelated keys may share the counter.
+     */
+    public long getVersion(@NonNull ComponentKey key) {
+        return mVersions.get(getVersionStripe(key));
+    }
+
+    private static int getVersionStripe(@NonNull ComponentKey key) {
+        return Math.floorMod(key.hashCode(), VERSION_STRIPES);
+    }
+
+    private void incrementAllVersions() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            mVersions.incrementAndGet(i);
+        }
+    }
+
+    public void remove(@NonNull ComponentKey key) {
+        mVersions.incrementAndGet(getVersionStripe(key));
+        Node previous = mEntries.remove(key);
+        if (previous != null) {
+            mSizeBytes.addAndGet(-previous.size);
+        }
+    }
+
+    /**
+     * Removes all the entries matching {@param filter}
+     */
+    public void removeIf(@NonNull Predicate<ComponentKey> filter) {
+        incrementAllVersions();
+        for (Map.Entry<ComponentKey, Node> e : mEntries.entrySet()) {
+            if (filter.test(e.getKey()) && mEntries.remove(e.getKey(), e.getValue())) {
+                mSizeBytes.addAndGet(-e.getValue().size);
+            }
+        }
+    }
+
+    public void clear() {
+        incrementAllVersions();
+        for (Map.Entry<ComponentKey, Node> e : mEntries.entrySet()) {
+            if (mEntries.remove(e.getKey(), e.getValue())) {
+                mSizeBytes.addAndGet(-e.getValue().size);
+            }
+        }
+        mTrimLock.lock();
+        try {
+            drainAccessesLocked();
+            mRecency.clear();
+        } finally {
+            mTrimLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the entries which are kept in high-res regardless of the budget, typically the items
+     * currently bound to the workspace and hotseat.
+     */
+    public void setPinnedKeys(@NonNull Set<ComponentKey> keys) {
+        mPinnedKeys = keys;
+    }
+
+    /**
+     * Demotes and drops the least recently used entries until the cache is at most
+     * {@param fraction} of its budget
+     */
+    public void trimToFraction(float fraction) {
+        mTrimLock.lock();
+        try {
+            trimToSizeLocked((long) (mMaxSizeBytes * fraction));
+        } finally {
+            mTrimLock.unlock();
+        }
+    }
+
+    private void recordAccess(@NonNull ComponentKey key) {
+        mPendingAccesses.add(key);
+        // Skipped while another thread trims, which applies the accesses anyway
+        if (mPendingAccessCount.incrementAndGet() > MAX_PENDING_ACCESSES
+                && mTrimLock.tryLock()) {
+            try {
+                drainAccessesLocked();
+            } finally {
+                mTrimLock.unlock();
+            }
+        }
+    }
+
+    private void drainAccessesLocked() {
+        ComponentKey key;
+        while ((key = mPendingAccesses.poll()) != null) {
+            mPendingAccessCount.decrementAndGet();
+            // Moves the key to the end in access order
+            mRecency.put(key, Boolean.TRUE);
+        }
+    }
+
+    private void trimIfNeeded() {
+        if (mSizeBytes.get() <= mMaxSizeBytes) {
+            return;
+        }
+        mTrimLock.lock();
+        try {
+            // Another thread may have trimmed the cache in the meantime
+            if (mSizeBytes.get() > mMaxSizeBytes) {
+                trimToSizeLocked(mMaxSizeBytes);
+            }
+        } finally {
+            mTrimLock.unlock();
+        }
+    }
+
+    private void trimToSizeLocked(long maxSizeBytes) {
+        drainAccessesLocked();
+        Set<ComponentKey> pinnedKeys = mPinnedKeys;
+
+        // Least recently used first: high-res entries are demoted, low-res ones are dropped, so
+        // that a demoted entry only goes away once it is the oldest one again. Iterating doesn't
+        // change the access order.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Iterator<ComponentKey> it = mRecency.keySet().iterator();
+            while (it.hasNext()) {
+                if (mSizeBytes.get() <= maxSizeBytes) {
+                    return;
+                }
+                ComponentKey key = it.next();
+                Node node = mEntries.get(key);
+                if (node == null) {
+                    it.remove();
+                    continue;
+                }
+                if (pinnedKeys.contains(key)) {
+                    continue;
+                }
+                if (!node.entry.bitmap.isNullOrLowRes()) {
+                    CacheEntry demoted = demote(node.entry);
+                    // The entry is only replaced if it did not change
+                    Node demotedNode = new Node(demoted, getSizeBytes(demoted));
+                    if (mEntries.replace(key, node, demotedNode)) {
+                        mSizeBytes.addAndGet(demotedNode.size - node.size);
+                        mDemotionCount.incrementAndGet();
+                        changed = true;
+                    }
+                } else if (mEntries.remove(key, node)) {
+                    it.remove();
+                    mSizeBytes.addAndGet(-node.size);
+                    mEvictionCount.incrementAndGet();
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static CacheEntry demote(CacheEntry entry) {
+        CacheEntry demoted = new CacheEntry();
+        demoted.title = entry.title;
+        demoted.contentDescription = entry.contentDescription;
+        demoted.bitmap = BitmapInfo.of(LOW_RES_ICON, entry.bitmap.color);
+        demoted.bitmap.flags = entry.bitmap.flags;
+        return demoted;
+    }
+
+    private static int getSizeBytes(CacheEntry entry) {
+        int size = ENTRY_OVERHEAD_BYTES;
+        if (!entry.bitmap.isNullOrLowRes()) {
+            size += getSizeBytes(entry.bitmap.icon) + getSizeBytes(entry.bitmap.getMono());
+        }
+        return size;
+    }
+
+    private static int getSizeBytes(@Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            return 0;
+        }
+        // Hardware bitmaps don't report their allocation, assume the usual configs
+        return bitmap.getWidth() * bitmap.getHeight()
+                * (bitmap.getConfig() == Config.ALPHA_8 ? 1 : 4);
+    }
+
+    public void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        writer.println(prefix + "IconMemoryCache: entries=" + mEntries.size()
+                + " size=" + mSizeBytes.get() / 1024 + "KB max=" + mMaxSizeBytes / 1024 + "KB"
+                + " pinned=" + mPinnedKeys.size());
+        writer.println(prefix + "  hits=" + mHitCount.get() + " misses=" + mMissCount.get()
+                + " demotions=" + mDemotionCount.get() + " evictions=" + mEvictionCount.get());
+    }
+
+    /**
+     * A cached entry with its size. Replaced as a whole when the entry changes, so that size
+     * accounting can use compare-and-set operations on the map.
+     */
+    private static final class Node {
+        @NonNull
+        final CacheEntry entry;
+        final int size;
+
+        Node(@NonNull CacheEntry entry, int size) {
+            this.entry = entry;
+            this.size = size;
+        }
+    }
+}
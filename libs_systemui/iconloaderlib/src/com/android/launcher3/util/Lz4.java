@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+/**
+ * A minimal implementation of the LZ4 block format: a greedy single pass compressor and a
+ * decompressor. The block does not store its uncompressed size, callers need to keep track of it.
+ */
+public final class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    // The last match must start at least 12 bytes before the end of the block
+    private static final int MF_LIMIT = 12;
+    // The last 5 bytes are always literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0x0F;
+
+    private Lz4() { }
+
+    /**
+     * Returns the size of a buffer large enough to compress {@param length} bytes
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@param length} bytes of {@param src} into {@param dst} from {@param offset}.
+     * At least {@link #maxCompressedLength} bytes must be available there.
+     *
+     * @return the compressed size
+     */
+    public static int compress(byte[] src, int length, byte[] dst, int offset) {
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int op = offset;
+        if (length > MF_LIMIT) {
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+            while (ip <= length - MF_LIMIT) {
+                int sequence = readInt(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                int ref = table[hash];
+                table[hash] = ip;
+                if (ref >= ip || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit
+                        && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+
+                int token = op++;
+                int literalLength = ip - anchor;
+                op = writeLiterals(src, anchor, literalLength, dst, op);
+                dst[op++] = (byte) (ip - ref);
+                dst[op++] = (byte) ((ip - ref) >>> 8);
+                op = writeLength(matchLength - MIN_MATCH, dst, op);
+                dst[token] = (byte) ((Math.min(literalLength, RUN_MASK) << 4)
+                        | Math.min(matchLength - MIN_MATCH, RUN_MASK));
+
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        int literalLength = length - anchor;
+        dst[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        return writeLiterals(src, anchor, literalLength, dst, op) - offset;
+    }
+
+    /**
+     * Decompresses the block at {@param src} into {@param dst}
+     *
+     * @return the decompressed size
+     * @throws IllegalArgumentException if the block is malformed or does not fit in {@param dst}
+     */
+    public static int decompress(byte[] src, int offset, int length, byte[] dst) {
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 0xFF);
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= end) {
+                    break;
+                }
+
+                int distance = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 0xFF);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - distance;
+                if (distance == 0 || ref < 0 || op + matchLength > dst.length) {
+                    throw new IllegalArgumentException("Invalid match at " + (ip - offset));
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping match, repeats the last distance bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or oversized block", e);
+        }
+        return op;
+    }
+
+    private static int writeLiterals(byte[] src, int start, int count, byte[] dst, int op) {
+        op = writeLength(count, dst, op);
+        System.arraycopy(src, start, dst, op, count);
+        return op + count;
+    }
+
+    /**
+     * Writes the extra bytes of a length whose token nibble is {@link #RUN_MASK}
+     */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length < RUN_MASK) {
+            return op;
+        }
+        length -= RUN_MASK;
+        while (length >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8)
+                | ((src[i + 2] & 0xFF) << 16) | ((src[i + 3] & 0xFF) << 24);
+    }
+}
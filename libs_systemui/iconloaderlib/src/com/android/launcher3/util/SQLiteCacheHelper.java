@@ -1,94 +1,238 @@
 package com.android.launcher3.util;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
+ *
+ * Inserts are batched: they are committed together in a single transaction once
+ * {@link #BATCH_SIZE} are pending, {@link #BATCH_DELAY_MS} after the first one, before a query on
+ * the handler thread, or along with the next delete. Rows are inserted through a statement
+ * compiled once for the insert columns.
+ *
+ * Queries on other threads read the committed rows without waiting for pending writes, as the DB
+ * is in write-ahead logging mode so that reads don't wait behind a write transaction either.
  */
 public abstract class SQLiteCacheHelper {
     private static final String TAG = "SQLiteCacheHelper";
 
     private static final boolean IN_MEMORY_CACHE = false;
 
+    private static final int BATCH_SIZE = 64;
+    private static final long BATCH_DELAY_MS = 100;
+
     private final String mTableName;
+    private final String[] mInsertColumns;
+    private final Handler mHandler;
     private final MySQLiteOpenHelper mOpenHelper;
 
+    private final ArrayList<Consumer<SQLiteDatabase>> mPendingWrites = new ArrayList<>();
+    private final Runnable mFlushRunnable = this::flush;
+    private boolean mFlushScheduled;
+
+    @Nullable
+    private SQLiteStatement mInsertStatement;
+
     private boolean mIgnoreWrites;
 
-    public SQLiteCacheHelper(Context context, String name, int version, String tableName) {
+    /**
+     * @param insertColumns columns of the rows passed to {@link #insertOrReplace}
+     * @param handler       handler on which pending writes are committed
+     */
+    public SQLiteCacheHelper(Context context, String name, int version, String tableName,
+            String[] insertColumns, Handler handler) {
         if (IN_MEMORY_CACHE) {
             name = null;
         }
         mTableName = tableName;
+        mInsertColumns = insertColumns;
+        mHandler = handler;
         mOpenHelper = new MySQLiteOpenHelper(context, name, version);
 
         mIgnoreWrites = false;
     }
 
     /**
+     * Deletes matching rows, committing them right away along with the pending writes, so that
+     * queries on other threads stop reading them.
+     *
      * @see SQLiteDatabase#delete(String, String, String[])
      */
-    public void delete(String whereClause, String[] whereArgs) {
+    public synchronized void delete(String whereClause, String[] whereArgs) {
         if (mIgnoreWrites) {
             return;
         }
-        try {
-            mOpenHelper.getWritableDatabase().delete(mTableName, whereClause, whereArgs);
-        } catch (SQLiteFullException e) {
-            onDiskFull(e);
-        } catch (SQLiteException e) {
-            Log.d(TAG, "Ignoring sqlite exception", e);
-        }
+        mPendingWrites.add(db -> db.delete(mTableName, whereClause, whereArgs));
+        flush();
     }
 
     /**
-     * @see SQLiteDatabase#insertWithOnConflict(String, String, ContentValues, int)
+     * Inserts or replaces a row as part of the next batch
+     *
+     * @param row values of the insert columns, in order
      */
-    public void insertOrReplace(ContentValues values) {
+    public synchronized void insertOrReplace(Object[] row) {
         if (mIgnoreWrites) {
             return;
         }
+        addPendingWrite(db -> {
+            SQLiteStatement statement = getInsertStatement(db);
+            for (int i = 0; i < row.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, row[i]);
+            }
+            statement.executeInsert();
+        });
+    }
+
+    private void addPendingWrite(Consumer<SQLiteDatabase> write) {
+        mPendingWrites.add(write);
+        if (mPendingWrites.size() >= BATCH_SIZE) {
+            flush();
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, BATCH_DELAY_MS);
+        }
+    }
+
+    private SQLiteStatement getInsertStatement(SQLiteDatabase db) {
+        if (mInsertStatement == null) {
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                    .append(mTableName)
+                    .append(" (")
+                    .append(TextUtils.join(", ", mInsertColumns))
+                    .append(") VALUES (");
+            for (int i = 0; i < mInsertColumns.length; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            mInsertStatement = db.compileStatement(sql.append(')').toString());
+        }
+        return mInsertStatement;
+    }
+
+    /**
+     * Commits all pending writes in a single transaction
+     */
+    public synchronized void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        if (mPendingWrites.isEmpty()) {
+            return;
+        }
         try {
-            mOpenHelper.getWritableDatabase().insertWithOnConflict(
-                    mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            try {
+                db.beginTransaction();
+                try {
+                    for (Consumer<SQLiteDatabase> write : mPendingWrites) {
+                        write.accept(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (SQLiteFullException e) {
+                throw e;
+            } catch (SQLiteException e) {
+                // A single failed write rolls back the whole batch, so retry them one at a time
+                Log.d(TAG, "Failed to commit batch, retrying writes one at a time", e);
+                commitEachWrite(db);
+            }
         } catch (SQLiteFullException e) {
             onDiskFull(e);
         } catch (SQLiteException e) {
             Log.d(TAG, "Ignoring sqlite exception", e);
+        } finally {
+            mPendingWrites.clear();
+        }
+    }
+
+    private void commitEachWrite(SQLiteDatabase db) {
+        for (Consumer<SQLiteDatabase> write : mPendingWrites) {
+            try {
+                write.accept(db);
+            } catch (SQLiteFullException e) {
+                throw e;
+            } catch (SQLiteException e) {
+                Log.d(TAG, "Ignoring sqlite exception", e);
+            }
         }
     }
 
+    @VisibleForTesting
+    public synchronized boolean hasPendingWrites() {
+        return !mPendingWrites.isEmpty();
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         Log.e(TAG, "Disk full, all write operations will be ignored", e);
         mIgnoreWrites = true;
     }
 
     /**
+     * Queries the table. On the handler thread, pending writes are committed first so that they
+     * are read back, other threads only read the committed rows.
+     *
      * @see SQLiteDatabase#query(String, String[], String, String[], String, String, String)
      */
     public Cursor query(String[] columns, String selection, String[] selectionArgs) {
+        if (mHandler.getLooper().isCurrentThread()) {
+            flush();
+        }
         return mOpenHelper.getReadableDatabase().query(
                 mTableName, columns, selection, selectionArgs, null, null, null);
     }
 
-    public void clear() {
+    public synchronized void clear() {
+        mPendingWrites.clear();
+        closeInsertStatement();
         mOpenHelper.clearDB(mOpenHelper.getWritableDatabase());
     }
 
-    public void close() {
+    /**
+     * Commits the pending writes and closes the DB. Writes made afterwards, by threads which
+     * still reference this helper, are ignored.
+     */
+    public synchronized void close() {
+        flush();
+        mIgnoreWrites = true;
+        closeInsertStatement();
         mOpenHelper.close();
     }
 
+    private void closeInsertStatement() {
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+            mInsertStatement = null;
+        }
+    }
+
     protected abstract void onCreateTable(SQLiteDatabase db);
 
+    /**
+     * Called when the DB was written with another version. Returns true if the table was migrated
+     * in place, otherwise it is dropped and created again.
+     */
+    protected boolean onUpgradeTable(SQLiteDatabase db, int oldVersion, int newVersion) {
+        return false;
+    }
+
     /**
      * A private inner class to prevent direct DB access.
      */
@@ -96,6 +240,7 @@ public abstract class SQLiteCacheHelper {
 
         public MySQLiteOpenHelper(Context context, String name, int version) {
             super(context, name, version);
+            setWriteAheadLoggingEnabled(true);
         }
 
         @Override
@@ -105,7 +250,7 @@ public abstract class SQLiteCacheHelper {
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            if (oldVersion != newVersion) {
+            if (oldVersion != newVersion && !onUpgradeTable(db, oldVersion, newVersion)) {
                 clearDB(db);
             }
         }
@@ -980,6 +980,7 @@ public class Launcher extends StatefulActivity<LauncherState>
         hideKeyboard();
         logStopAndResume(false /* isResume */);
         mAppWidgetHost.setActivityStarted(false);
+        getModelWriter().flushPendingUpdates();
         NotificationListener.removeNotificationsChangedListener(getPopupDataProvider());
     }
 
@@ -2164,6 +2165,7 @@ public class Launcher extends StatefulActivity<LauncherState>
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
         }
+        mIconCache.onTrimMemory(level);
     }
 
     @Override
@@ -3021,6 +3023,7 @@ public class Launcher extends StatefulActivity<LauncherState>
         mStateManager.dump(prefix, writer);
         mPopupDataProvider.dump(prefix, writer);
         mDeviceProfile.dump(prefix, writer);
+        mAppsView.getSearchUiManager().dump(prefix, writer);
 
         try {
             FileLog.flushAll(writer);
@@ -235,6 +235,12 @@ public class LauncherAppState implements SafeCloseable {
             getDevicePrefs(mContext).edit().putString(KEY_ICON_STATE, iconState).apply();
         }
 
+        @Override
+        public void onComponentIconStateChanged() {
+            // Keeps the icon cache, the loader re-renders the icons whose state changed
+            mModel.forceReload();
+        }
+
         void verifyIconChanged() {
             String iconState = mIconProvider.getSystemIconState();
             if (!iconState.equals(getDevicePrefs(mContext).getString(KEY_ICON_STATE, ""))) {
@@ -49,6 +49,7 @@ import com.android.launcher3.model.ItemInstallQueue;
 import com.android.launcher3.model.LoaderResults;
 import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.model.ModelDelegate;
+import com.android.launcher3.model.ModelWriteQueue;
 import com.android.launcher3.model.ModelWriter;
 import com.android.launcher3.model.PackageIncrementalDownloadUpdatedTask;
 import com.android.launcher3.model.PackageInstallStateChangedTask;
@@ -126,6 +127,9 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
     @NonNull
     private final ModelDelegate mModelDelegate;
 
+    @NonNull
+    private final ModelWriteQueue mWriteQueue;
+
     // Runnable to check if the shortcuts permission has changed.
     @NonNull
     private final Runnable mDataValidationCheck = new Runnable() {
@@ -144,6 +148,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         mBgAllAppsList = new AllAppsList(iconCache, appFilter);
         mModelDelegate = ModelDelegate.newInstance(context, app, mBgAllAppsList, mBgDataModel,
                 isPrimaryInstance);
+        mWriteQueue = new ModelWriteQueue(context, this::forceReload);
     }
 
     @NonNull
@@ -162,6 +167,14 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         enqueueModelUpdateTask(new AddWorkspaceItemsTask(itemList));
     }
 
+    /**
+     * Returns the queue of pending item updates, shared by all the writers of this model
+     */
+    @NonNull
+    public ModelWriteQueue getWriteQueue() {
+        return mWriteQueue;
+    }
+
     @NonNull
     public ModelWriter getWriter(final boolean hasVerticalHotseat, final boolean verifyChanges,
                                  @Nullable final Callbacks owner) {
@@ -270,6 +283,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
      */
     public void destroy() {
         mModelDestroyed = true;
+        mWriteQueue.requestFlush();
         MODEL_EXECUTOR.execute(mModelDelegate::destroy);
     }
 
@@ -459,7 +473,10 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
                 startLoader();
             }
         }
-        MODEL_EXECUTOR.post(() -> callback.accept(isModelLoaded() ? mBgDataModel : null));
+        MODEL_EXECUTOR.post(() -> {
+            mWriteQueue.flush();
+            callback.accept(isModelLoaded() ? mBgDataModel : null);
+        });
     }
 
     @Override
@@ -682,6 +699,8 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         }
         mModelDelegate.dump(prefix, fd, writer, args);
         mBgDataModel.dump(prefix, fd, writer, args);
+        mWriteQueue.dump(prefix, writer);
+        mApp.getIconCache().dump(prefix, writer);
     }
 
     /**
@@ -2323,7 +2323,11 @@ public class Workspace<T extends View & PageIndicator> extends PagedView<T>
         if (x != mDragOverX || y != mDragOverY) {
             mDragOverX = x;
             mDragOverY = y;
-            setDragMode(DRAG_MODE_NONE);
+            if (mDragMode == DRAG_MODE_NONE) {
+                cleanupReorder(false);
+            } else {
+                setDragMode(DRAG_MODE_NONE);
+            }
         }
     }
 
@@ -2367,6 +2371,11 @@ public class Workspace<T extends View & PageIndicator> extends PagedView<T>
         if (cancelAlarm) {
             mReorderAlarm.cancelAlarm();
         }
+        // A reorder still searched for was computed for the previous drop over cell, even when the
+        // alarm is kept
+        if (mDragTargetLayout != null) {
+            mDragTargetLayout.cancelPendingReorder();
+        }
         mLastReorderX = -1;
         mLastReorderY = -1;
     }
@@ -2462,10 +2471,9 @@ public class Workspace<T extends View & PageIndicator> extends PagedView<T>
                     && (mLastReorderX != reorderX || mLastReorderY != reorderY)
                     && targetCellDistance < mDragTargetLayout.getReorderRadius(mTargetCell)) {
 
-                int[] resultSpan = new int[2];
-                mDragTargetLayout.performReorder((int) mDragViewVisualCenter[0],
+                mDragTargetLayout.performReorderAsync((int) mDragViewVisualCenter[0],
                         (int) mDragViewVisualCenter[1], minSpanX, minSpanY, item.spanX, item.spanY,
-                        child, mTargetCell, resultSpan, CellLayout.MODE_SHOW_REORDER_HINT);
+                        child, CellLayout.MODE_SHOW_REORDER_HINT, null /* callback */);
 
                 // Otherwise, if we aren't adding to or creating a folder and there's no pending
                 // reorder, then we schedule a reorder
@@ -2676,26 +2684,34 @@ public class Workspace<T extends View & PageIndicator> extends PagedView<T>
         }
 
         public void onAlarm(Alarm alarm) {
-            int[] resultSpan = new int[2];
             mTargetCell = findNearestArea((int) mDragViewVisualCenter[0],
                     (int) mDragViewVisualCenter[1], minSpanX, minSpanY, mDragTargetLayout,
                     mTargetCell);
             mLastReorderX = mTargetCell[0];
             mLastReorderY = mTargetCell[1];
 
-            mTargetCell = mDragTargetLayout.performReorder((int) mDragViewVisualCenter[0],
+            // The solution is applied once found, unless the drag left the layout or moved to
+            // another cell in the meantime
+            CellLayout layout = mDragTargetLayout;
+            int dragOverX = mDragOverX;
+            int dragOverY = mDragOverY;
+            layout.performReorderAsync((int) mDragViewVisualCenter[0],
                     (int) mDragViewVisualCenter[1], minSpanX, minSpanY, spanX, spanY,
-                    child, mTargetCell, resultSpan, CellLayout.MODE_DRAG_OVER);
-
-            if (mTargetCell[0] < 0 || mTargetCell[1] < 0) {
-                mDragTargetLayout.revertTempState();
-            } else {
-                setDragMode(DRAG_MODE_REORDER);
-            }
+                    child, CellLayout.MODE_DRAG_OVER, (targetCell, resultSpan) -> {
+                        if (layout != mDragTargetLayout || dragOverX != mDragOverX
+                                || dragOverY != mDragOverY) {
+                            return;
+                        }
+                        mTargetCell = targetCell;
+                        if (mTargetCell[0] < 0 || mTargetCell[1] < 0) {
+                            layout.revertTempState();
+                        } else {
+                            setDragMode(DRAG_MODE_REORDER);
+                        }
 
-            boolean resize = resultSpan[0] != spanX || resultSpan[1] != spanY;
-            mDragTargetLayout.visualizeDropLocation(mTargetCell[0], mTargetCell[1],
-                    resultSpan[0], resultSpan[1], dragObject);
+                        layout.visualizeDropLocation(mTargetCell[0], mTargetCell[1],
+                                resultSpan[0], resultSpan[1], dragObject);
+                    });
         }
     }
 
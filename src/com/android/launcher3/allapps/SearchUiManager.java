@@ -21,6 +21,8 @@ import androidx.annotation.Nullable;
 
 import com.android.launcher3.ExtendedEditText;
 
+import java.io.PrintWriter;
+
 /**
  * Interface for controlling the Apps search UI.
  */
@@ -84,4 +86,10 @@ public interface SearchUiManager {
     default boolean inZeroState() {
         return false;
     }
+
+    /**
+     * Dumps the state of the search UI, e.g. search latency counters.
+     */
+    default void dump(String prefix, PrintWriter writer) {
+    }
 }
@@ -38,6 +38,8 @@ import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
 import com.android.launcher3.views.ActivityContext;
 
+import java.io.PrintWriter;
+
 /**
  * An interface to a search box that AllApps can command.
  */
@@ -154,6 +156,7 @@ public class AllAppsSearchBarController
      * Resets the search bar state.
      */
     public void reset() {
+        mSearchAlgorithm.cancel(true);
         mCallback.clearSearchResult();
         mInput.reset();
         mQuery = null;
@@ -172,4 +175,10 @@ public class AllAppsSearchBarController
     public boolean isSearchFieldFocused() {
         return mInput.isFocused();
     }
+
+    public void dump(String prefix, PrintWriter writer) {
+        if (mSearchAlgorithm != null) {
+            mSearchAlgorithm.dump(prefix, writer);
+        }
+    }
 }
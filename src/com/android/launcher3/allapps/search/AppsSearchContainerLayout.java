@@ -35,13 +35,16 @@ import com.android.launcher3.DeviceProfile;
 import com.android.launcher3.ExtendedEditText;
 import com.android.launcher3.Insettable;
 import com.android.launcher3.R;
+import com.android.launcher3.Utilities;
 import com.android.launcher3.allapps.ActivityAllAppsContainerView;
 import com.android.launcher3.allapps.AllAppsStore;
 import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
 import com.android.launcher3.allapps.SearchUiManager;
+import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
 import com.android.launcher3.views.ActivityContext;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /**
@@ -129,9 +132,11 @@ public class AppsSearchContainerLayout extends ExtendedEditText
     @Override
     public void initializeSearch(ActivityAllAppsContainerView<?> appsView) {
         mAppsView = appsView;
-        mSearchBarController.initialize(
-                new DefaultAppSearchAlgorithm(getContext()),
-                this, mLauncher, this);
+        SearchAlgorithm<AdapterItem> searchAlgorithm =
+                Utilities.getOmegaPrefs(getContext()).getSearchFuzzy().getValue()
+                        ? new FuzzyAppSearchAlgorithm(getContext())
+                        : new DefaultAppSearchAlgorithm(getContext());
+        mSearchBarController.initialize(searchAlgorithm, this, mLauncher, this);
     }
 
     @Override
@@ -144,6 +149,12 @@ public class AppsSearchContainerLayout extends ExtendedEditText
         mSearchBarController.reset();
     }
 
+    @Override
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "AppsSearchContainerLayout:");
+        mSearchBarController.dump(prefix + "  ", writer);
+    }
+
     @Override
     public void preDispatchKeyEvent(KeyEvent event) {
         // Determine if the key event was actual text, if so, focus the search bar and then dispatch
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import static com.android.launcher3.allapps.BaseAllAppsAdapter.VIEW_TYPE_EMPTY_SEARCH;
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.LauncherModel.ModelUpdateTask;
+import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
+import com.android.launcher3.model.AllAppsList;
+import com.android.launcher3.model.BaseModelUpdateTask;
+import com.android.launcher3.model.BgDataModel;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.SearchAlgorithm;
+import com.android.launcher3.search.SearchCallback;
+import com.android.launcher3.search.SearchLatencyStats;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Base class for searching apps on the model thread.
+ * <p>
+ * Queries are coalesced: while a query is waiting on the model executor, newer queries replace it
+ * instead of queuing another task. Every query gets a new generation, and results of a query are
+ * only delivered if no newer query was requested or the search was not cancelled since. Running
+ * searches are expected to poll the provided cancellation check and stop early.
+ */
+public abstract class BaseAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
+
+    private final LauncherAppState mAppState;
+    private final Handler mResultHandler;
+    private final boolean mAddNoResultsMessage;
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicReference<PendingQuery> mPendingQuery = new AtomicReference<>();
+    private final SearchLatencyStats mStats = new SearchLatencyStats();
+
+    public BaseAppSearchAlgorithm(Context context, boolean addNoResultsMessage) {
+        mAppState = LauncherAppState.getInstance(context);
+        mResultHandler = new Handler(MAIN_EXECUTOR.getLooper());
+        mAddNoResultsMessage = addNoResultsMessage;
+    }
+
+    /**
+     * Returns the apps matching {@code query}. Implementations should return early, with any
+     * result, once {@code isCancelled} returns true.
+     */
+    @WorkerThread
+    protected abstract ArrayList<AdapterItem> getSearchResult(AllAppsList apps, String query,
+            BooleanSupplier isCancelled);
+
+    @Override
+    public void cancel(boolean interruptActiveRequests) {
+        if (interruptActiveRequests) {
+            mGeneration.incrementAndGet();
+            mResultHandler.removeCallbacksAndMessages(null);
+        }
+    }
+
+    @Override
+    public void doSearch(String query, SearchCallback<AdapterItem> callback) {
+        mStats.onRequested();
+        PendingQuery pendingQuery = new PendingQuery(query, callback,
+                mGeneration.incrementAndGet(), System.nanoTime());
+        if (mPendingQuery.getAndSet(pendingQuery) != null) {
+            // A task is already waiting on the model thread, it will pick up this query instead.
+            mStats.onCoalesced();
+            return;
+        }
+        mAppState.getModel().enqueueModelUpdateTask(new SearchTask());
+    }
+
+    @WorkerThread
+    private void executeQuery(PendingQuery pending, AllAppsList apps) {
+        BooleanSupplier isCancelled = () -> mGeneration.get() != pending.generation;
+        if (isCancelled.getAsBoolean()) {
+            mStats.onCancelled();
+            return;
+        }
+
+        long executionStart = System.nanoTime();
+        ArrayList<AdapterItem> result = getSearchResult(apps, pending.query, isCancelled);
+        if (isCancelled.getAsBoolean()) {
+            mStats.onCancelled();
+            return;
+        }
+        if (mAddNoResultsMessage && result.isEmpty()) {
+            result.add(getEmptyMessageAdapterItem(pending.query));
+        }
+        long executionTime = System.nanoTime() - executionStart;
+
+        mResultHandler.post(() -> {
+            if (isCancelled.getAsBoolean()) {
+                mStats.onStale();
+                return;
+            }
+            mStats.onDelivered(System.nanoTime() - pending.requestTime, executionTime);
+            pending.callback.onSearchResult(pending.query, result);
+        });
+    }
+
+    /**
+     * Returns the counters of queries handled by this algorithm
+     */
+    public SearchLatencyStats getStats() {
+        return mStats;
+    }
+
+    @Override
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + getClass().getSimpleName() + ":");
+        mStats.dump(prefix + "  ", writer);
+    }
+
+    private static AdapterItem getEmptyMessageAdapterItem(String query) {
+        AdapterItem item = new AdapterItem(VIEW_TYPE_EMPTY_SEARCH);
+        // Add a place holder info to propagate the query
+        AppInfo placeHolder = new AppInfo();
+        placeHolder.title = query;
+        item.itemInfo = placeHolder;
+        return item;
+    }
+
+    /**
+     * Runs the pending query. Unlike a {@link BaseModelUpdateTask}, it also runs while the model is
+     * being loaded, as a skipped task would leave its query pending and coalesce all the next ones.
+     */
+    private class SearchTask implements ModelUpdateTask {
+
+        private AllAppsList mApps;
+
+        @Override
+        public void init(@NonNull LauncherAppState app, @NonNull LauncherModel model,
+                @NonNull BgDataModel dataModel, @NonNull AllAppsList allAppsList,
+                @NonNull Executor uiExecutor) {
+            mApps = allAppsList;
+        }
+
+        @Override
+        public void run() {
+            PendingQuery pending = mPendingQuery.getAndSet(null);
+            if (pending != null) {
+                executeQuery(pending, mApps);
+            }
+        }
+    }
+
+    private static class PendingQuery {
+
+        final String query;
+        final SearchCallback<AdapterItem> callback;
+        final int generation;
+        final long requestTime;
+
+        PendingQuery(String query, SearchCallback<AdapterItem> callback, int generation,
+                long requestTime) {
+            this.query = query;
+            this.callback = callback;
+            this.generation = generation;
+            this.requestTime = requestTime;
+        }
+    }
+}
@@ -15,78 +15,44 @@
  */
 package com.android.launcher3.allapps.search;
 
-import static com.android.launcher3.allapps.BaseAllAppsAdapter.VIEW_TYPE_EMPTY_SEARCH;
-import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
-
 import android.content.Context;
-import android.os.Handler;
 
 import androidx.annotation.AnyThread;
-import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
-import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
 import com.android.launcher3.model.AllAppsList;
-import com.android.launcher3.model.BaseModelUpdateTask;
-import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.data.AppInfo;
-import com.android.launcher3.search.SearchAlgorithm;
-import com.android.launcher3.search.SearchCallback;
 import com.android.launcher3.search.StringMatcherUtility;
+import com.android.launcher3.search.TitleSearchIndex;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * The default search implementation.
  */
-public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
+public class DefaultAppSearchAlgorithm extends BaseAppSearchAlgorithm {
 
     private static final int MAX_RESULTS_COUNT = 5;
 
-    private final LauncherAppState mAppState;
-    private final Handler mResultHandler;
-    private final boolean mAddNoResultsMessage;
+    // Only accessed on the model thread
+    private final TitleSearchIndex<AppInfo> mSearchIndex =
+            new TitleSearchIndex<>(info -> info.title);
 
     public DefaultAppSearchAlgorithm(Context context) {
         this(context, false);
     }
 
     public DefaultAppSearchAlgorithm(Context context, boolean addNoResultsMessage) {
-        mAppState = LauncherAppState.getInstance(context);
-        mResultHandler = new Handler(MAIN_EXECUTOR.getLooper());
-        mAddNoResultsMessage = addNoResultsMessage;
-    }
-
-    @Override
-    public void cancel(boolean interruptActiveRequests) {
-        if (interruptActiveRequests) {
-            mResultHandler.removeCallbacksAndMessages(null);
-        }
+        super(context, addNoResultsMessage);
     }
 
     @Override
-    public void doSearch(String query, SearchCallback<AdapterItem> callback) {
-        mAppState.getModel().enqueueModelUpdateTask(new BaseModelUpdateTask() {
-            @Override
-            public void execute(@NonNull final LauncherAppState app,
-                                @NonNull final BgDataModel dataModel, @NonNull final AllAppsList apps) {
-                ArrayList<AdapterItem> result = getTitleMatchResult(apps.data, query);
-                if (mAddNoResultsMessage && result.isEmpty()) {
-                    result.add(getEmptyMessageAdapterItem(query));
-                }
-                mResultHandler.post(() -> callback.onSearchResult(query, result));
-            }
-        });
-    }
-
-    private static AdapterItem getEmptyMessageAdapterItem(String query) {
-        AdapterItem item = new AdapterItem(VIEW_TYPE_EMPTY_SEARCH);
-        // Add a place holder info to propagate the query
-        AppInfo placeHolder = new AppInfo();
-        placeHolder.title = query;
-        item.itemInfo = placeHolder;
-        return item;
+    protected ArrayList<AdapterItem> getSearchResult(AllAppsList apps, String query,
+            BooleanSupplier isCancelled) {
+        return getTitleMatchResult(mSearchIndex, apps.data, query, isCancelled);
     }
 
     /**
@@ -112,4 +78,20 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
         }
         return result;
     }
+
+    /**
+     * Filters {@link AppInfo}s matching specified query using a precomputed {@code index}, which
+     * is first synchronized with {@code apps}. Same results as {@link #getTitleMatchResult(List,
+     * String)}.
+     */
+    @WorkerThread
+    public static ArrayList<AdapterItem> getTitleMatchResult(TitleSearchIndex<AppInfo> index,
+            List<AppInfo> apps, String query, BooleanSupplier isCancelled) {
+        index.update(apps);
+        final ArrayList<AdapterItem> result = new ArrayList<>();
+        for (AppInfo info : index.search(query.toLowerCase(), MAX_RESULTS_COUNT, isCancelled)) {
+            result.add(AdapterItem.asApp(info));
+        }
+        return result;
+    }
 }
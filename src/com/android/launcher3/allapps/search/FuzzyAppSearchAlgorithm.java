@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.icu.text.Transliterator;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
+import com.android.launcher3.model.AllAppsList;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.FuzzyTitleIndex;
+
+import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Search implementation tolerating typos and matching initials and transliterated titles, with
+ * results ranked by {@link FuzzyTitleIndex}.
+ */
+public class FuzzyAppSearchAlgorithm extends BaseAppSearchAlgorithm {
+
+    private static final int MAX_RESULTS_COUNT = 5;
+
+    private static final String TRANSLITERATOR_ID = "Any-Latin";
+
+    // Only accessed on the model thread
+    private final FuzzyTitleIndex<AppInfo> mSearchIndex =
+            new FuzzyTitleIndex<>(info -> info.title, createTransliterator());
+
+    public FuzzyAppSearchAlgorithm(Context context) {
+        this(context, false);
+    }
+
+    public FuzzyAppSearchAlgorithm(Context context, boolean addNoResultsMessage) {
+        super(context, addNoResultsMessage);
+    }
+
+    @Override
+    protected ArrayList<AdapterItem> getSearchResult(AllAppsList apps, String query,
+            BooleanSupplier isCancelled) {
+        mSearchIndex.update(apps.data);
+        ArrayList<AdapterItem> result = new ArrayList<>();
+        for (AppInfo info : mSearchIndex.search(query, MAX_RESULTS_COUNT, isCancelled)) {
+            result.add(AdapterItem.asApp(info));
+        }
+        return result;
+    }
+
+    @Nullable
+    private static Function<String, String> createTransliterator() {
+        return Utilities.ATLEAST_Q ? new LazyTransliterator() : null;
+    }
+
+    /**
+     * Creates the ICU transliterator on first use, as loading its rules is slow
+     */
+    @TargetApi(Build.VERSION_CODES.Q)
+    private static class LazyTransliterator implements Function<String, String> {
+
+        private Transliterator mTransliterator;
+
+        @Override
+        public String apply(String text) {
+            if (mTransliterator == null) {
+                mTransliterator = Transliterator.getInstance(TRANSLITERATOR_ID);
+            }
+            return mTransliterator.transliterate(text);
+        }
+    }
+}
@@ -0,0 +1,628 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.celllayout;
+
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.util.CellAndSpan;
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.IntArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Searches how the items of a grid can be rearranged to make space for an item being dropped, by
+ * pushing or moving the items in the way.
+ *
+ * The solver only works on a snapshot of the grid occupancy and of the item positions, without
+ * any view, so that the search can run on a background thread. Items are referred to by their
+ * index in the snapshot.
+ */
+public class ReorderSolver {
+
+    private final int mCountX;
+    private final int mCountY;
+    private final GridOccupancy mOccupied;
+    private final CellAndSpan[] mItems;
+    private final boolean[] mCanReorder;
+    private final int mDragItem;
+    private final int[] mDirection;
+    private final List<CellAndSpan> mCandidates = new ArrayList<>();
+
+    // State of the search, reset for each candidate drop location
+    private final GridOccupancy mTmpOccupied;
+    private final CellAndSpan[] mPositions;
+    private final CellAndSpan[] mSavedPositions;
+    private final ArrayList<Integer> mSortedItems = new ArrayList<>();
+    private final IntArray mIntersectingItems = new IntArray();
+    private final Rect mOccupiedRect = new Rect();
+    private final int[] mTempLocation = new int[2];
+    private final int[] mTmpPoint = new int[2];
+
+    private volatile boolean mCancelled;
+
+    /**
+     * @param occupied The occupancy of the grid, without the item being dragged
+     * @param items The position of each item of the grid
+     * @param canReorder Whether each item can be moved to make space
+     * @param dragItem The index of the item being dragged, or -1 if it isn't in the grid
+     * @param direction The favored direction in which the items should be pushed
+     */
+    public ReorderSolver(int countX, int countY, GridOccupancy occupied, CellAndSpan[] items,
+            boolean[] canReorder, int dragItem, int[] direction) {
+        mCountX = countX;
+        mCountY = countY;
+        mOccupied = new GridOccupancy(countX, countY);
+        occupied.copyTo(mOccupied);
+        mItems = items;
+        mCanReorder = canReorder;
+        mDragItem = dragItem;
+        mDirection = new int[] {direction[0], direction[1]};
+
+        mTmpOccupied = new GridOccupancy(countX, countY);
+        mPositions = new CellAndSpan[items.length];
+        mSavedPositions = new CellAndSpan[items.length];
+        for (int i = 0; i < items.length; i++) {
+            mPositions[i] = new CellAndSpan();
+            mSavedPositions[i] = new CellAndSpan();
+        }
+    }
+
+    /**
+     * Adds a location to try for the dragged item, in order of preference. A location of -1, -1
+     * is never a solution.
+     */
+    public void addCandidate(int cellX, int cellY, int spanX, int spanY) {
+        mCandidates.add(new CellAndSpan(cellX, cellY, spanX, spanY));
+    }
+
+    /**
+     * Stops the search, which will then return null
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Returns the solution for the first candidate location which can be made vacant, or null if
+     * the search was cancelled.
+     */
+    @WorkerThread
+    @Nullable
+    public Solution solve() {
+        Solution solution = new Solution(mItems.length);
+        for (CellAndSpan candidate : mCandidates) {
+            if (mCancelled) {
+                return null;
+            }
+            mOccupied.copyTo(mTmpOccupied);
+            mSortedItems.clear();
+            for (int i = 0; i < mItems.length; i++) {
+                mPositions[i].copyFrom(mItems[i]);
+                mSortedItems.add(i);
+            }
+            if (rearrangementExists(candidate.cellX, candidate.cellY, candidate.spanX,
+                    candidate.spanY, solution)) {
+                solution.isSolution = true;
+                solution.copyFrom(candidate);
+                for (int i = 0; i < mItems.length; i++) {
+                    solution.positions[i].copyFrom(mPositions[i]);
+                }
+                return solution;
+            }
+        }
+        return mCancelled ? null : solution;
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            Solution solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+        mIntersectingItems.clear();
+        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        // Mark the desired location of the item currently being dragged.
+        if (mDragItem >= 0) {
+            mPositions[mDragItem].cellX = cellX;
+            mPositions[mDragItem].cellY = cellY;
+        }
+        Rect r1 = new Rect();
+        for (int i = 0; i < mPositions.length; i++) {
+            if (i == mDragItem) continue;
+            CellAndSpan c = mPositions[i];
+            r1.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+            if (Rect.intersects(mOccupiedRect, r1)) {
+                if (!mCanReorder[i]) {
+                    return false;
+                }
+                mIntersectingItems.add(i);
+            }
+        }
+        solution.intersectingItems.copyFrom(mIntersectingItems);
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersectingItems, mOccupiedRect, mDirection)) {
+            return true;
+        }
+        if (mCancelled) return false;
+        // Next we try moving the items as a block, but without requiring the push mechanic.
+        if (addItemsToTempLocation(mIntersectingItems, mOccupiedRect, mDirection)) {
+            return true;
+        }
+        // Ok, they couldn't move as a block, let's move them individually
+        for (int i = 0; i < mIntersectingItems.size(); i++) {
+            if (!addItemToTempLocation(mIntersectingItems.get(i), mOccupiedRect, mDirection)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(IntArray intersectingItems, Rect occupied,
+            int[] direction) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components, then in each component of the opposite
+            // direction.
+            return pushItemsToTempLocation(intersectingItems, occupied, direction[0], 0)
+                    || pushItemsToTempLocation(intersectingItems, occupied, 0, direction[1])
+                    || pushItemsToTempLocation(intersectingItems, occupied, -direction[0], 0)
+                    || pushItemsToTempLocation(intersectingItems, occupied, 0, -direction[1]);
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector, then in the opposite direction, and then along the
+            // perpendicular axis.
+            return pushItemsToTempLocation(intersectingItems, occupied,
+                    direction[0], direction[1])
+                    || pushItemsToTempLocation(intersectingItems, occupied,
+                            -direction[0], -direction[1])
+                    || pushItemsToTempLocation(intersectingItems, occupied,
+                            direction[1], direction[0])
+                    || pushItemsToTempLocation(intersectingItems, occupied,
+                            -direction[1], -direction[0]);
+        }
+    }
+
+    private boolean pushItemsToTempLocation(IntArray items, Rect rectOccupiedByPotentialDrop,
+            int directionX, int directionY) {
+        ItemCluster cluster = new ItemCluster(items);
+        Rect clusterRect = cluster.getBoundingRect();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (directionX < 0) {
+            whichEdge = ItemCluster.LEFT;
+            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
+        } else if (directionX > 0) {
+            whichEdge = ItemCluster.RIGHT;
+            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
+        } else if (directionY < 0) {
+            whichEdge = ItemCluster.TOP;
+            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
+        } else {
+            whichEdge = ItemCluster.BOTTOM;
+            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
+        }
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < items.size(); i++) {
+            mTmpOccupied.markCells(mPositions[items.get(i)], false);
+        }
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        savePositions();
+        // The pushing algorithm is simplified by considering the items in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the items by their right edge, from right to left.
+        cluster.sortItemsForEdgePush(whichEdge);
+        while (pushDistance > 0 && !fail) {
+            for (int item : mSortedItems) {
+                // For each item that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that item. If so, we add that item to the
+                // cluster.
+                if (!cluster.items.contains(item) && item != mDragItem) {
+                    if (cluster.isItemTouchingEdge(item, whichEdge)) {
+                        if (!mCanReorder[item]) {
+                            // The push solution includes an item which can't move, this is not
+                            // viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addItem(item);
+                        // Adding item to cluster, mark it as not occupied.
+                        mTmpOccupied.markCells(mPositions[item], false);
+                    }
+                }
+            }
+            pushDistance--;
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+        boolean foundSolution = false;
+        clusterRect = cluster.getBoundingRect();
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the grid.
+        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX
+                && clusterRect.top >= 0 && clusterRect.bottom <= mCountY) {
+            foundSolution = true;
+        } else {
+            restorePositions();
+        }
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < cluster.items.size(); i++) {
+            mTmpOccupied.markCells(mPositions[cluster.items.get(i)], true);
+        }
+        return foundSolution;
+    }
+
+    private boolean addItemsToTempLocation(IntArray items, Rect rectOccupiedByPotentialDrop,
+            int[] direction) {
+        if (items.size() == 0) return true;
+        boolean success = false;
+        Rect boundingRect = new Rect();
+        // We construct a rect which represents the entire group of items passed in
+        getBoundingRect(items, boundingRect);
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < items.size(); i++) {
+            mTmpOccupied.markCells(mPositions[items.get(i)], false);
+        }
+        GridOccupancy blockOccupied = new GridOccupancy(boundingRect.width(),
+                boundingRect.height());
+        int top = boundingRect.top;
+        int left = boundingRect.left;
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = mPositions[items.get(i)];
+            blockOccupied.markCells(c.cellX - left, c.cellY - top, c.spanX, c.spanY, true);
+        }
+        mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
+        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
+                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
+        // If we successfully found a location by pushing the block of items, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - boundingRect.left;
+            int deltaY = mTempLocation[1] - boundingRect.top;
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan c = mPositions[items.get(i)];
+                c.cellX += deltaX;
+                c.cellY += deltaY;
+            }
+            success = true;
+        }
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < items.size(); i++) {
+            mTmpOccupied.markCells(mPositions[items.get(i)], true);
+        }
+        return success;
+    }
+
+    private boolean addItemToTempLocation(int item, Rect rectOccupiedByPotentialDrop,
+            int[] direction) {
+        CellAndSpan c = mPositions[item];
+        boolean success = false;
+        mTmpOccupied.markCells(c, false);
+        mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
+        findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction, mTmpOccupied, null,
+                mTempLocation);
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            c.cellX = mTempLocation[0];
+            c.cellY = mTempLocation[1];
+            success = true;
+        }
+        mTmpOccupied.markCells(c, true);
+        return success;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computes distance based on unit grid distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the items should move from x, y
+     * @param occupied The array which represents which cells in the grid are occupied
+     * @param blockOccupied The array which represents which cells in the specified block (cellX,
+     *        cellY, spanX, spanY) are occupied. This is used when try to move a group of items.
+     * @param result Array in which to place the result
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            GridOccupancy occupied, @Nullable GridOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+        for (int y = 0; y < mCountY - (spanY - 1); y++) {
+            for (int x = 0; x < mCountX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.isRegionVacant(blockOccupied, x, y)) {
+                    continue;
+                }
+                float distance = (float) Math.hypot(x - cellX, y - cellY);
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0]
+                        + direction[1] * curDirection[1];
+                if (Float.compare(distance, bestDistance) < 0
+                        || (Float.compare(distance, bestDistance) == 0
+                                && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    result[0] = x;
+                    result[1] = y;
+                }
+            }
+        }
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            result[0] = -1;
+            result[1] = -1;
+        }
+        return result;
+    }
+
+    private void savePositions() {
+        for (int i = 0; i < mPositions.length; i++) {
+            mSavedPositions[i].copyFrom(mPositions[i]);
+        }
+    }
+
+    private void restorePositions() {
+        for (int i = 0; i < mPositions.length; i++) {
+            mPositions[i].copyFrom(mSavedPositions[i]);
+        }
+    }
+
+    private void getBoundingRect(IntArray items, Rect outRect) {
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = mPositions[items.get(i)];
+            if (i == 0) {
+                outRect.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+            } else {
+                outRect.union(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+            }
+        }
+    }
+
+    /**
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    public static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(deltaY / deltaX);
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    /**
+     * The location found for the dragged item, with the position of each item of the snapshot
+     */
+    public static class Solution extends CellAndSpan {
+
+        public final CellAndSpan[] positions;
+        // The items which were in the way of the dragged item
+        public final IntArray intersectingItems = new IntArray();
+        public boolean isSolution = false;
+
+        Solution(int itemCount) {
+            positions = new CellAndSpan[itemCount];
+            for (int i = 0; i < itemCount; i++) {
+                positions[i] = new CellAndSpan();
+            }
+        }
+    }
+
+    /**
+     * This helper class defines a cluster of items. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other items. The edges
+     * essentially define a fine-grained boundary around the cluster of items -- like a more
+     * precise version of a bounding box.
+     */
+    private class ItemCluster {
+        static final int LEFT = 1 << 0;
+        static final int TOP = 1 << 1;
+        static final int RIGHT = 1 << 2;
+        static final int BOTTOM = 1 << 3;
+
+        final IntArray items;
+        final Rect boundingRect = new Rect();
+        final int[] leftEdge = new int[mCountY];
+        final int[] rightEdge = new int[mCountY];
+        final int[] topEdge = new int[mCountX];
+        final int[] bottomEdge = new int[mCountX];
+        int dirtyEdges;
+        boolean boundingRectDirty;
+
+        ItemCluster(IntArray items) {
+            this.items = items.clone();
+            resetEdges();
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < mCountX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < mCountY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            dirtyEdges = LEFT | TOP | RIGHT | BOTTOM;
+            boundingRectDirty = true;
+        }
+
+        void computeEdge(int which) {
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan cs = mPositions[items.get(i)];
+                switch (which) {
+                    case LEFT:
+                        int left = cs.cellX;
+                        for (int j = cs.cellY; j < cs.cellY + cs.spanY; j++) {
+                            if (left < leftEdge[j] || leftEdge[j] < 0) {
+                                leftEdge[j] = left;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        int right = cs.cellX + cs.spanX;
+                        for (int j = cs.cellY; j < cs.cellY + cs.spanY; j++) {
+                            if (right > rightEdge[j]) {
+                                rightEdge[j] = right;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        int top = cs.cellY;
+                        for (int j = cs.cellX; j < cs.cellX + cs.spanX; j++) {
+                            if (top < topEdge[j] || topEdge[j] < 0) {
+                                topEdge[j] = top;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        int bottom = cs.cellY + cs.spanY;
+                        for (int j = cs.cellX; j < cs.cellX + cs.spanX; j++) {
+                            if (bottom > bottomEdge[j]) {
+                                bottomEdge[j] = bottom;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isItemTouchingEdge(int item, int whichEdge) {
+            CellAndSpan cs = mPositions[item];
+            if ((dirtyEdges & whichEdge) == whichEdge) {
+                computeEdge(whichEdge);
+                dirtyEdges &= ~whichEdge;
+            }
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = cs.cellY; i < cs.cellY + cs.spanY; i++) {
+                        if (leftEdge[i] == cs.cellX + cs.spanX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = cs.cellY; i < cs.cellY + cs.spanY; i++) {
+                        if (rightEdge[i] == cs.cellX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = cs.cellX; i < cs.cellX + cs.spanX; i++) {
+                        if (topEdge[i] == cs.cellY + cs.spanY) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = cs.cellX; i < cs.cellX + cs.spanX; i++) {
+                        if (bottomEdge[i] == cs.cellY) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan c = mPositions[items.get(i)];
+                switch (whichEdge) {
+                    case LEFT:
+                        c.cellX -= delta;
+                        break;
+                    case RIGHT:
+                        c.cellX += delta;
+                        break;
+                    case TOP:
+                        c.cellY -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        c.cellY += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        void addItem(int item) {
+            items.add(item);
+            resetEdges();
+        }
+
+        Rect getBoundingRect() {
+            if (boundingRectDirty) {
+                ReorderSolver.this.getBoundingRect(items, boundingRect);
+            }
+            return boundingRect;
+        }
+
+        void sortItemsForEdgePush(int edge) {
+            Comparator<Integer> comparator = (left, right) -> {
+                CellAndSpan l = mPositions[left];
+                CellAndSpan r = mPositions[right];
+                switch (edge) {
+                    case LEFT:
+                        return (r.cellX + r.spanX) - (l.cellX + l.spanX);
+                    case RIGHT:
+                        return l.cellX - r.cellX;
+                    case TOP:
+                        return (r.cellY + r.spanY) - (l.cellY + l.spanY);
+                    case BOTTOM:
+                    default:
+                        return l.cellY - r.cellY;
+                }
+            };
+            Collections.sort(mSortedItems, comparator);
+        }
+    }
+}
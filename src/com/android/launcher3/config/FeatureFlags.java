@@ -152,6 +152,11 @@ public final class FeatureFlags {
             true,
             "Enable loading all apps icons in bulk.");
 
+    public static final BooleanFlag ENABLE_PARALLEL_BULK_ICON_DECODE = getDebugFlag(
+            "ENABLE_PARALLEL_BULK_ICON_DECODE",
+            true,
+            "Decode the icons loaded in bulk on multiple threads.");
+
     // Keep as DeviceFlag for remote disable in emergency.
     public static final BooleanFlag ENABLE_OVERVIEW_SELECTIONS = new DeviceFlag(
             "ENABLE_OVERVIEW_SELECTIONS", true, "Show Select Mode button in Overview Actions");
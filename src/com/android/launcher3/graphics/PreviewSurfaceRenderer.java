@@ -198,6 +198,8 @@ public class PreviewSurfaceRenderer {
         if (!GridSizeMigrationTaskV2.needsToMigrate(mContext, mIdp)) {
             return false;
         }
+        // The preview is migrated from the workspace DB, which needs the pending item updates
+        LauncherAppState.getInstance(mContext).getModel().getWriteQueue().flush();
         return GridSizeMigrationTaskV2.migrateGridIfNeeded(mContext, mIdp);
     }
 
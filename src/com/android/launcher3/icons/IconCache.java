@@ -17,6 +17,8 @@
 package com.android.launcher3.icons;
 
 import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT;
+import static com.android.launcher3.util.Executors.ICON_DECODE_EXECUTOR;
+import static com.android.launcher3.util.Executors.ICON_RENDER_EXECUTOR;
 import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
 import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
 import static com.android.launcher3.widget.WidgetSections.NO_CATEGORY;
@@ -45,11 +47,13 @@ import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pair;
 
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherFiles;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.icons.ComponentWithLabel.ComponentCachingLogic;
 import com.android.launcher3.icons.cache.BaseIconCache;
 import com.android.launcher3.icons.cache.CachingLogic;
@@ -61,6 +65,7 @@ import com.android.launcher3.model.data.PackageItemInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
 import com.android.launcher3.pm.UserCache;
 import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
@@ -69,15 +74,23 @@ import com.android.launcher3.widget.WidgetSections.WidgetSection;
 import com.saggitt.omega.icons.CustomIconProvider;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Cache of application icons.  Icons can be made from any thread.
+ * Cache of application icons.  Icons can be made from any thread, lookups don't block each other
+ * and only wait for a concurrent load of the same icon.
  */
 public class IconCache extends BaseIconCache {
 
@@ -133,6 +146,16 @@ public class IconCache extends BaseIconCache {
         return LauncherIcons.obtain(mContext);
     }
 
+    @Override
+    protected Executor getIconRenderExecutor() {
+        return ICON_RENDER_EXECUTOR;
+    }
+
+    @Override
+    protected boolean isIconAtlasEnabled() {
+        return true;
+    }
+
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
@@ -201,7 +224,7 @@ public class IconCache extends BaseIconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
+    public void updateTitleAndIcon(AppInfo application) {
         CacheEntry entry = cacheLocked(application.componentName,
                 application.user, () -> null, mLauncherActivityInfoCachingLogic,
                 false, application.usingLowResIcon());
@@ -213,8 +236,8 @@ public class IconCache extends BaseIconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
-                                             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info,
+                                LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, () -> activityInfo, false, useLowResIcon);
     }
@@ -271,7 +294,7 @@ public class IconCache extends BaseIconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -285,7 +308,7 @@ public class IconCache extends BaseIconCache {
         }
     }
 
-    public synchronized String getTitleNoCache(ComponentWithLabel info) {
+    public String getTitleNoCache(ComponentWithLabel info) {
         CacheEntry entry = cacheLocked(info.getComponent(), info.getUser(), () -> info,
                 mComponentWithLabelCachingLogic, false /* usePackageIcon */,
                 true /* useLowResIcon */);
@@ -295,7 +318,7 @@ public class IconCache extends BaseIconCache {
     /**
      * Fill in {@param mWorkspaceItemInfo} with the icon and label for {@param info}
      */
-    public synchronized void getTitleAndIcon(
+    public void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Supplier<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
@@ -333,11 +356,54 @@ public class IconCache extends BaseIconCache {
                 queryParams);
     }
 
+    /**
+     * Fills the high-res icons requested in {@param filteredList} which are in the icon atlas.
+     *
+     * @return the requests left to load from the DB
+     */
+    private <T extends ItemInfoWithIcon> List<IconRequestInfo<T>> loadIconSubsectionFromAtlas(
+            UserHandle user, List<IconRequestInfo<T>> filteredList,
+            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap,
+            @Nullable Executor decodeExecutor) {
+        Trace.beginSection("loadIconSubsectionWithAtlas");
+        Map<ComponentName, Supplier<CacheEntry>> loaded = new LinkedHashMap<>();
+        duplicateIconRequestsMap.forEach((cn, iconRequests) -> {
+            if (isInIconAtlasLocked(new ComponentKey(cn, user))) {
+                loaded.put(cn, () -> cacheLocked(
+                        cn,
+                        user,
+                        () -> iconRequests.get(0).launcherActivityInfo,
+                        mLauncherActivityInfoCachingLogic,
+                        /* usePackageIcon= */ false,
+                        /* useLowResIcons = */ false));
+            }
+        });
+        applyCacheEntries(loaded, decodeExecutor, duplicateIconRequestsMap);
+        Trace.endSection();
+        if (loaded.isEmpty()) {
+            return filteredList;
+        }
+        return filteredList.stream()
+                .filter(r -> !loaded.containsKey(r.itemInfo.getTargetComponent()))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Load and fill icons requested in iconRequestInfos using a single bulk sql query.
      */
-    public synchronized <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
+    public <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
             List<IconRequestInfo<T>> iconRequestInfos) {
+        getTitlesAndIconsInBulk(iconRequestInfos, getBulkDecodeExecutor());
+    }
+
+    /**
+     * Same as {@link #getTitlesAndIconsInBulk(List)}, decoding the icons on
+     * {@param decodeExecutor}, or on the calling thread if null. The icons are still applied to
+     * the requests on the calling thread, in order.
+     */
+    @VisibleForTesting
+    public <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
+            List<IconRequestInfo<T>> iconRequestInfos, @Nullable Executor decodeExecutor) {
         Map<Pair<UserHandle, Boolean>, List<IconRequestInfo<T>>> iconLoadSubsectionsMap =
                 iconRequestInfos.stream()
                         .filter(iconRequest -> {
@@ -373,17 +439,37 @@ public class IconCache extends BaseIconCache {
                                     iconRequest.itemInfo.getTargetComponent()));
 
             Trace.beginSection("loadIconSubsectionInBulk");
-            loadIconSubsection(sectionKey, filteredList, duplicateIconRequestsMap);
+            loadIconSubsection(sectionKey, filteredList, duplicateIconRequestsMap,
+                    decodeExecutor);
             Trace.endSection();
         });
         Trace.endSection();
     }
 
+    /**
+     * Returns the executor on which the icons loaded in bulk are decoded, or null to decode them
+     * on the calling thread
+     */
+    @Nullable
+    private Executor getBulkDecodeExecutor() {
+        return FeatureFlags.ENABLE_PARALLEL_BULK_ICON_DECODE.get() ? ICON_DECODE_EXECUTOR : null;
+    }
+
     private <T extends ItemInfoWithIcon> void loadIconSubsection(
             Pair<UserHandle, Boolean> sectionKey,
             List<IconRequestInfo<T>> filteredList,
-            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap) {
+            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap,
+            @Nullable Executor decodeExecutor) {
+        if (!sectionKey.second) {
+            filteredList = loadIconSubsectionFromAtlas(
+                    sectionKey.first, filteredList, duplicateIconRequestsMap, decodeExecutor);
+        }
+
         Trace.beginSection("loadIconSubsectionWithDatabase");
+        // The rows are read on this thread, only their decoding is fanned out
+        Map<ComponentName, IconDB.Row> rows = new LinkedHashMap<>();
+        Lock lock = getIconDbReadLock();
+        lock.lock();
         try (Cursor c = createBulkQueryCursor(
                 filteredList,
                 /* user = */ sectionKey.first,
@@ -393,32 +479,33 @@ public class IconCache extends BaseIconCache {
             while (c.moveToNext()) {
                 ComponentName cn = ComponentName.unflattenFromString(
                         c.getString(componentNameColumnIndex));
-                List<IconRequestInfo<T>> duplicateIconRequests =
-                        duplicateIconRequestsMap.get(cn);
-
                 if (cn != null) {
-                    CacheEntry entry = cacheLocked(
-                            cn,
-                            /* user = */ sectionKey.first,
-                            () -> duplicateIconRequests.get(0).launcherActivityInfo,
-                            mLauncherActivityInfoCachingLogic,
-                            c,
-                            /* usePackageIcon= */ false,
-                            /* useLowResIcons = */ sectionKey.second);
-
-                    for (IconRequestInfo<T> iconRequest : duplicateIconRequests) {
-                        applyCacheEntry(entry, iconRequest.itemInfo);
-                    }
+                    rows.put(cn, IconDB.Row.read(c, sectionKey.second));
                 }
             }
         } catch (SQLiteException e) {
             Log.d(TAG, "Error reading icon cache", e);
         } finally {
-            Trace.endSection();
+            lock.unlock();
         }
+        Map<ComponentName, Supplier<CacheEntry>> dbEntries = new LinkedHashMap<>();
+        rows.forEach((cn, row) -> {
+            List<IconRequestInfo<T>> duplicateIconRequests = duplicateIconRequestsMap.get(cn);
+            dbEntries.put(cn, () -> cacheLocked(
+                    cn,
+                    /* user = */ sectionKey.first,
+                    () -> duplicateIconRequests.get(0).launcherActivityInfo,
+                    mLauncherActivityInfoCachingLogic,
+                    row,
+                    /* usePackageIcon= */ false,
+                    /* useLowResIcons = */ sectionKey.second));
+        });
+        applyCacheEntries(dbEntries, decodeExecutor, duplicateIconRequestsMap);
+        Trace.endSection();
 
         Trace.beginSection("loadIconSubsectionWithFallback");
         // Fallback title and icon loading
+        Map<ComponentName, Supplier<CacheEntry>> fallbackEntries = new LinkedHashMap<>();
         for (ComponentName cn : duplicateIconRequestsMap.keySet()) {
             IconRequestInfo<T> iconRequestInfo = duplicateIconRequestsMap.get(cn).get(0);
             ItemInfoWithIcon itemInfo = iconRequestInfo.itemInfo;
@@ -443,36 +530,64 @@ public class IconCache extends BaseIconCache {
                 }
                 entry.contentDescription = itemInfo.contentDescription;
 
-                if (loadFallbackIcon) {
-                    loadFallbackIcon(
-                            lai,
-                            entry,
-                            mLauncherActivityInfoCachingLogic,
-                            /* usePackageIcon= */ false,
-                            /* usePackageTitle= */ loadFallbackTitle,
-                            cn,
-                            sectionKey.first);
-                }
-                if (loadFallbackTitle && TextUtils.isEmpty(entry.title) && lai != null) {
-                    loadFallbackTitle(
-                            lai,
-                            entry,
-                            mLauncherActivityInfoCachingLogic,
-                            sectionKey.first);
-                }
-
-                for (IconRequestInfo<T> iconRequest : duplicateIconRequestsMap.get(cn)) {
-                    applyCacheEntry(entry, iconRequest.itemInfo);
-                }
+                fallbackEntries.put(cn, () -> {
+                    if (loadFallbackIcon) {
+                        loadFallbackIcon(
+                                lai,
+                                entry,
+                                mLauncherActivityInfoCachingLogic,
+                                /* usePackageIcon= */ false,
+                                /* usePackageTitle= */ loadFallbackTitle,
+                                cn,
+                                sectionKey.first);
+                    }
+                    if (loadFallbackTitle && TextUtils.isEmpty(entry.title) && lai != null) {
+                        loadFallbackTitle(
+                                lai,
+                                entry,
+                                mLauncherActivityInfoCachingLogic,
+                                sectionKey.first);
+                    }
+                    return entry;
+                });
             }
         }
+        applyCacheEntries(fallbackEntries, decodeExecutor, duplicateIconRequestsMap);
         Trace.endSection();
     }
 
+    /**
+     * Runs {@param loaders} on {@param executor}, or on this thread if there is none, and applies
+     * the loaded entries to their requests in the iteration order of {@param loaders}. An entry
+     * which fails to load on the executor is loaded again on this thread.
+     */
+    private <T extends ItemInfoWithIcon> void applyCacheEntries(
+            Map<ComponentName, Supplier<CacheEntry>> loaders, @Nullable Executor executor,
+            Map<ComponentName, List<IconRequestInfo<T>>> duplicateIconRequestsMap) {
+        Map<ComponentName, CompletableFuture<CacheEntry>> futures = new LinkedHashMap<>();
+        if (executor != null) {
+            loaders.forEach((cn, loader) ->
+                    futures.put(cn, CompletableFuture.supplyAsync(loader, executor)));
+        }
+        loaders.forEach((cn, loader) -> {
+            CompletableFuture<CacheEntry> future = futures.get(cn);
+            CacheEntry entry;
+            try {
+                entry = future != null ? future.join() : loader.get();
+            } catch (CompletionException | CancellationException e) {
+                Log.w(TAG, "Failed to load icon in parallel, retrying serially: " + cn, e);
+                entry = loader.get();
+            }
+            for (IconRequestInfo<T> iconRequest : duplicateIconRequestsMap.get(cn)) {
+                applyCacheEntry(entry, iconRequest.itemInfo);
+            }
+        });
+    }
+
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             @NonNull final PackageItemInfo infoInOut, final boolean useLowResIcon) {
         CacheEntry entry = getEntryForPackageLocked(
                 infoInOut.packageName, infoInOut.user, useLowResIcon);
@@ -486,7 +601,10 @@ public class IconCache extends BaseIconCache {
         infoInOut.title = mContext.getString(widgetSection.mSectionTitle);
         infoInOut.contentDescription = mPackageManager.getUserBadgedLabel(
                 infoInOut.title, infoInOut.user);
-        final BitmapInfo cachedBitmap = mWidgetCategoryBitmapInfos.get(infoInOut.widgetCategory);
+        final BitmapInfo cachedBitmap;
+        synchronized (mWidgetCategoryBitmapInfos) {
+            cachedBitmap = mWidgetCategoryBitmapInfos.get(infoInOut.widgetCategory);
+        }
         if (cachedBitmap != null) {
             infoInOut.bitmap = getBadgedIcon(cachedBitmap, infoInOut.user);
             return;
@@ -496,7 +614,9 @@ public class IconCache extends BaseIconCache {
             final BitmapInfo tempBitmap = li.createBadgedIconBitmap(
                     mContext.getDrawable(widgetSection.mSectionDrawable),
                     new BaseIconFactory.IconOptions().setShrinkNonAdaptiveIcons(false));
-            mWidgetCategoryBitmapInfos.put(infoInOut.widgetCategory, tempBitmap);
+            synchronized (mWidgetCategoryBitmapInfos) {
+                mWidgetCategoryBitmapInfos.put(infoInOut.widgetCategory, tempBitmap);
+            }
             infoInOut.bitmap = getBadgedIcon(tempBitmap, infoInOut.user);
         } catch (Exception e) {
             Log.e(TAG, "Error initializing bitmap for icons with widget category", e);
@@ -504,8 +624,8 @@ public class IconCache extends BaseIconCache {
 
     }
 
-    private synchronized BitmapInfo getBadgedIcon(@Nullable final BitmapInfo bitmap,
-                                                  @NonNull final UserHandle user) {
+    private BitmapInfo getBadgedIcon(@Nullable final BitmapInfo bitmap,
+                                     @NonNull final UserHandle user) {
         if (bitmap == null) {
             return getDefaultIcon(user);
         }
@@ -539,6 +659,13 @@ public class IconCache extends BaseIconCache {
         return mIconProvider.getSystemStateForPackage(mSystemState, packageName);
     }
 
+    @Override
+    @NonNull
+    protected String getIconSystemState(@NonNull ComponentKey cacheKey) {
+        return mIconProvider.getSystemStateForComponent(
+                mSystemState, cacheKey.componentName, cacheKey.user);
+    }
+
     /**
      * Interface for receiving itemInfo with high-res icon.
      */
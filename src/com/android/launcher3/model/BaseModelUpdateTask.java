@@ -75,6 +75,8 @@ public abstract class BaseModelUpdateTask implements ModelUpdateTask {
             // Loader has not yet run.
             return;
         }
+        // Writes the item updates still pending, for the task to see them in the DB and model
+        mModel.getWriteQueue().flush();
         execute(mApp, mDataModel, mAllAppsList);
     }
 
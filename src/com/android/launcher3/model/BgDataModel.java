@@ -103,6 +103,16 @@ public class BgDataModel {
      */
     public final IntSparseArrayMap<FixedContainerItems> extraItems = new IntSparseArrayMap<>();
 
+    /**
+     * Cells occupied by the items directly on the home screen, by screen
+     */
+    public final WorkspaceOccupancyIndex occupancyIndex = new WorkspaceOccupancyIndex();
+
+    /**
+     * Icon cache keys of the items on the workspace, hotseat and in folders
+     */
+    public final PinnedIconKeys pinnedIconKeys = new PinnedIconKeys();
+
     /**
      * Maps all launcher activities to counts of their shortcuts.
      */
@@ -131,6 +141,8 @@ public class BgDataModel {
         appWidgets.clear();
         folders.clear();
         itemsIdMap.clear();
+        occupancyIndex.clear();
+        pinnedIconKeys.clear();
         deepShortcutMap.clear();
         extraItems.clear();
     }
@@ -217,6 +229,8 @@ public class BgDataModel {
                     break;
             }
             itemsIdMap.remove(item.id);
+            occupancyIndex.removeItem(item.id);
+            pinnedIconKeys.removeItem(item.id);
         }
         updatedDeepShortcuts.forEach(user -> updateShortcutPinnedState(context, user));
     }
@@ -235,6 +249,8 @@ public class BgDataModel {
                     /* stackTrace= */ null);
         }
         itemsIdMap.put(item.id, item);
+        occupancyIndex.updateItem(item);
+        pinnedIconKeys.updateItem(item);
         switch (item.itemType) {
             case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                 folders.put(item.id, (FolderInfo) item);
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.LauncherSettings.Settings;
+import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
+import com.android.launcher3.util.ContentWriter;
+import com.android.launcher3.util.IntSparseArrayMap;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Queue of pending item updates to the workspace DB, shared by all the {@link ModelWriter}s of a
+ * model. Updates to the same item are merged, the last write of each column winning, and all the
+ * pending updates are written in a single transaction shortly after the first one is queued.
+ *
+ * Anything reading the DB on the model thread must call {@link #flush} first.
+ */
+public class ModelWriteQueue {
+
+    private static final String TAG = "ModelWriteQueue";
+
+    // Delay after the first queued update, for the updates of the same gesture to be merged
+    static final long FLUSH_DELAY_MS = 50;
+
+    private final Context mContext;
+    private final Runnable mOnWriteFailed;
+    private final Runnable mFlushRunnable = this::flush;
+
+    private final Object mLock = new Object();
+    // < only access while holding mLock >
+    private IntSparseArrayMap<PendingUpdate> mPending = new IntSparseArrayMap<>();
+    private long mCoalescedCount;
+    private long mExecutedCount;
+
+    /**
+     * @param onWriteFailed called on the model thread when some updates could not be written, for
+     *                      the model to be reloaded from the DB
+     */
+    public ModelWriteQueue(Context context, @NonNull Runnable onWriteFailed) {
+        mContext = context;
+        mOnWriteFailed = onWriteFailed;
+    }
+
+    /**
+     * Queues an update of the item {@param itemId}, {@param onWritten} being run on the model
+     * thread once it is committed. The {@param writer} must already hold the values to write, only
+     * its icon is flattened when flushing.
+     */
+    public void enqueue(int itemId, @NonNull ContentWriter writer, @NonNull Runnable onWritten) {
+        synchronized (mLock) {
+            PendingUpdate update = mPending.get(itemId);
+            if (update != null) {
+                update.writers.add(writer);
+                update.onWritten = onWritten;
+                mCoalescedCount++;
+                return;
+            }
+            mPending.put(itemId, new PendingUpdate(writer, onWritten));
+            if (mPending.size() == 1) {
+                MODEL_EXECUTOR.getHandler().postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending updates on the model thread without waiting for their deadline
+     */
+    public void requestFlush() {
+        MODEL_EXECUTOR.getHandler().removeCallbacks(mFlushRunnable);
+        MODEL_EXECUTOR.execute(mFlushRunnable);
+    }
+
+    /**
+     * Writes all the pending updates in a single transaction. If it fails, the updates are retried
+     * one by one, and the model is reloaded if some of them still can't be written.
+     */
+    @WorkerThread
+    public void flush() {
+        IntSparseArrayMap<PendingUpdate> pending;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            pending = mPending;
+            mPending = new IntSparseArrayMap<>();
+            MODEL_EXECUTOR.getHandler().removeCallbacks(mFlushRunnable);
+        }
+
+        Long modified = System.currentTimeMillis();
+        int count = pending.size();
+        boolean[] written = new boolean[count];
+        if (write(pending, 0, count, modified)) {
+            Arrays.fill(written, true);
+        } else {
+            for (int i = 0; i < count; i++) {
+                written[i] = write(pending, i, i + 1, modified);
+            }
+        }
+
+        int writtenCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (written[i]) {
+                pending.valueAt(i).onWritten.run();
+                writtenCount++;
+            }
+        }
+        synchronized (mLock) {
+            mExecutedCount += writtenCount;
+        }
+        if (writtenCount < count) {
+            Log.e(TAG, "Dropped " + (count - writtenCount) + " item updates, reloading the model");
+            mOnWriteFailed.run();
+        }
+    }
+
+    /**
+     * Writes the updates from {@param start} to {@param end} in a transaction, returning whether
+     * it was committed
+     */
+    private boolean write(IntSparseArrayMap<PendingUpdate> pending, int start, int end,
+            Long modified) {
+        // Statements by SQL, as the updates of the same kind write the same columns
+        HashMap<String, SQLiteStatement> statements = new HashMap<>();
+        try (SQLiteTransaction t = (SQLiteTransaction) Settings.call(
+                mContext.getContentResolver(), Settings.METHOD_NEW_TRANSACTION)
+                .getBinder(Settings.EXTRA_VALUE)) {
+            for (int i = start; i < end; i++) {
+                ContentValues values = pending.valueAt(i).getValues(mContext);
+                values.put(Favorites.MODIFIED, modified);
+
+                String[] columns = values.keySet().toArray(new String[0]);
+                Arrays.sort(columns);
+                String sql = getUpdateSql(columns);
+                SQLiteStatement update = statements.get(sql);
+                if (update == null) {
+                    update = t.getDb().compileStatement(sql);
+                    statements.put(sql, update);
+                }
+                for (int c = 0; c < columns.length; c++) {
+                    DatabaseUtils.bindObjectToProgram(update, c + 1, values.get(columns[c]));
+                }
+                update.bindLong(columns.length + 1, pending.keyAt(i));
+                update.executeUpdateDelete();
+            }
+            t.commit();
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to write " + (end - start) + " item updates", e);
+            return false;
+        } finally {
+            statements.values().forEach(SQLiteStatement::close);
+        }
+    }
+
+    /**
+     * Returns the number of updates merged into an already pending update of the same item
+     */
+    public long getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * Returns the number of item updates written to the DB
+     */
+    public long getExecutedCount() {
+        synchronized (mLock) {
+            return mExecutedCount;
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println(prefix + "ModelWriteQueue: pending=" + mPending.size()
+                    + " coalesced=" + mCoalescedCount + " executed=" + mExecutedCount);
+        }
+    }
+
+    private static String getUpdateSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(Favorites.TABLE_NAME)
+                .append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]).append("=?");
+        }
+        return sql.append(" WHERE ").append(Favorites._ID).append("=?").toString();
+    }
+
+    private static class PendingUpdate {
+
+        final List<ContentWriter> writers = new ArrayList<>(1);
+        Runnable onWritten;
+
+        // Merged values of the writers, kept for the update to be retried on its own
+        private ContentValues mValues;
+
+        PendingUpdate(ContentWriter writer, Runnable onWritten) {
+            writers.add(writer);
+            this.onWritten = onWritten;
+        }
+
+        ContentValues getValues(Context context) {
+            if (mValues == null) {
+                mValues = new ContentValues();
+                for (ContentWriter writer : writers) {
+                    mValues.putAll(writer.getValues(context));
+                }
+            }
+            return mValues;
+        }
+    }
+}
@@ -18,9 +18,7 @@ package com.android.launcher3.model;
 
 import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
 
-import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 import android.text.TextUtils;
@@ -32,7 +30,6 @@ import androidx.annotation.Nullable;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherModel.CallbackTask;
-import com.android.launcher3.LauncherProvider;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.LauncherSettings.Settings;
@@ -56,7 +53,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -70,6 +66,7 @@ public class ModelWriter {
     private final Context mContext;
     private final LauncherModel mModel;
     private final BgDataModel mBgDataModel;
+    private final ModelWriteQueue mWriteQueue;
     private final LooperExecutor mUiExecutor;
 
     @Nullable
@@ -88,6 +85,7 @@ public class ModelWriter {
         mContext = context;
         mModel = model;
         mBgDataModel = dataModel;
+        mWriteQueue = model.getWriteQueue();
         mHasVerticalHotseat = hasVerticalHotseat;
         mVerifyChanges = verifyChanges;
         mOwner = owner;
@@ -168,14 +166,7 @@ public class ModelWriter {
                                    int container, int screenId, int cellX, int cellY) {
         updateItemInfoProps(item, container, screenId, cellX, cellY);
         notifyItemModified(item);
-
-        enqueueDeleteRunnable(new UpdateItemRunnable(item, () ->
-                new ContentWriter(mContext)
-                        .put(Favorites.CONTAINER, item.container)
-                        .put(Favorites.CELLX, item.cellX)
-                        .put(Favorites.CELLY, item.cellY)
-                        .put(Favorites.RANK, item.rank)
-                        .put(Favorites.SCREEN, item.screenId)));
+        enqueueUndoableUpdate(new UpdateItemRunnable(item, getPositionWriter(item)));
     }
 
     /**
@@ -183,24 +174,11 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, int container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
-        int count = items.size();
         notifyOtherCallbacks(c -> c.bindItemsModified(items));
-
-        for (int i = 0; i < count; i++) {
-            ItemInfo item = items.get(i);
+        for (ItemInfo item : items) {
             updateItemInfoProps(item, container, screen, item.cellX, item.cellY);
-
-            final ContentValues values = new ContentValues();
-            values.put(Favorites.CONTAINER, item.container);
-            values.put(Favorites.CELLX, item.cellX);
-            values.put(Favorites.CELLY, item.cellY);
-            values.put(Favorites.RANK, item.rank);
-            values.put(Favorites.SCREEN, item.screenId);
-
-            contentValues.add(values);
+            enqueueUndoableUpdate(new UpdateItemRunnable(item, getPositionWriter(item)));
         }
-        enqueueDeleteRunnable(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -212,16 +190,34 @@ public class ModelWriter {
         item.spanX = spanX;
         item.spanY = spanY;
         notifyItemModified(item);
+        new UpdateItemRunnable(item, getPositionAndSpanWriter(item)).enqueue();
+    }
+
+    /**
+     * Move and/or resize items in the DB to a new <container, screen>. We assume that the
+     * cellX, cellY, spanX and spanY have already been updated on the ItemInfos.
+     */
+    public void modifyItemsInDatabase(final List<ItemInfo> items, int container, int screenId) {
+        notifyOtherCallbacks(c -> c.bindItemsModified(items));
+        for (ItemInfo item : items) {
+            updateItemInfoProps(item, container, screenId, item.cellX, item.cellY);
+            new UpdateItemRunnable(item, getPositionAndSpanWriter(item)).enqueue();
+        }
+    }
 
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () ->
-                new ContentWriter(mContext)
-                        .put(Favorites.CONTAINER, item.container)
-                        .put(Favorites.CELLX, item.cellX)
-                        .put(Favorites.CELLY, item.cellY)
-                        .put(Favorites.RANK, item.rank)
-                        .put(Favorites.SPANX, item.spanX)
-                        .put(Favorites.SPANY, item.spanY)
-                        .put(Favorites.SCREEN, item.screenId)));
+    private ContentWriter getPositionWriter(ItemInfo item) {
+        return new ContentWriter(mContext)
+                .put(Favorites.CONTAINER, item.container)
+                .put(Favorites.CELLX, item.cellX)
+                .put(Favorites.CELLY, item.cellY)
+                .put(Favorites.RANK, item.rank)
+                .put(Favorites.SCREEN, item.screenId);
+    }
+
+    private ContentWriter getPositionAndSpanWriter(ItemInfo item) {
+        return getPositionWriter(item)
+                .put(Favorites.SPANX, item.spanX)
+                .put(Favorites.SPANY, item.spanY);
     }
 
     /**
@@ -229,11 +225,9 @@ public class ModelWriter {
      */
     public void updateItemInDatabase(ItemInfo item) {
         notifyItemModified(item);
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () -> {
-            ContentWriter writer = new ContentWriter(mContext);
-            item.onAddToDatabase(writer);
-            return writer;
-        }));
+        ContentWriter writer = new ContentWriter(mContext);
+        item.onAddToDatabase(writer);
+        new UpdateItemRunnable(item, writer).enqueue();
     }
 
     private void notifyItemModified(ItemInfo item) {
@@ -253,8 +247,9 @@ public class ModelWriter {
         notifyOtherCallbacks(c -> c.bindItems(Collections.singletonList(item), false));
 
         ModelVerifier verifier = new ModelVerifier();
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = captureStackTrace();
         MODEL_EXECUTOR.execute(() -> {
+            mWriteQueue.flush();
             // Write the item on background thread, as some properties might have been updated in
             // the background.
             final ContentWriter writer = new ContentWriter(mContext);
@@ -370,10 +365,26 @@ public class ModelWriter {
      * Otherwise, we run the Runnable immediately.
      */
     private void enqueueDeleteRunnable(Runnable r) {
+        // Pending updates are written first, to keep the order of the DB operations
+        Runnable afterUpdates = () -> {
+            mWriteQueue.flush();
+            r.run();
+        };
+        if (mPreparingToUndo) {
+            mDeleteRunnables.add(afterUpdates);
+        } else {
+            MODEL_EXECUTOR.execute(afterUpdates);
+        }
+    }
+
+    /**
+     * Same as {@link #enqueueDeleteRunnable} for an update, which is queued when committed.
+     */
+    private void enqueueUndoableUpdate(UpdateItemRunnable update) {
         if (mPreparingToUndo) {
-            mDeleteRunnables.add(r);
+            mDeleteRunnables.add(update::enqueue);
         } else {
-            MODEL_EXECUTOR.execute(r);
+            update.enqueue();
         }
     }
 
@@ -385,6 +396,13 @@ public class ModelWriter {
         mDeleteRunnables.clear();
     }
 
+    /**
+     * Writes the pending item updates without waiting for the end of their gesture
+     */
+    public void flushPendingUpdates() {
+        mWriteQueue.requestFlush();
+    }
+
     /**
      * Aborts a previous delete operation pending commit
      */
@@ -410,53 +428,38 @@ public class ModelWriter {
         });
     }
 
+    /**
+     * Returns the current stack trace, to report which write left the model inconsistent, or null
+     * outside of debug builds as capturing it for every write is costly.
+     */
+    @Nullable
+    private static StackTraceElement[] captureStackTrace() {
+        return Utilities.IS_DEBUG_DEVICE || FeatureFlags.IS_STUDIO_BUILD
+                ? new Throwable().getStackTrace() : null;
+    }
+
+    /**
+     * Updates an item through the {@link ModelWriteQueue}, and then the model once written. The
+     * {@param writer} is filled by the caller, as the item can change again before the write.
+     */
     private class UpdateItemRunnable extends UpdateItemBaseRunnable {
         private final ItemInfo mItem;
-        private final Supplier<ContentWriter> mWriter;
+        private final ContentWriter mWriter;
         private final int mItemId;
 
-        UpdateItemRunnable(ItemInfo item, Supplier<ContentWriter> writer) {
+        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
             mItem = item;
             mWriter = writer;
             mItemId = item.id;
         }
 
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.get().getValues(mContext),
-                    null, null);
-            updateItemArrays(mItem, mItemId);
-        }
-    }
-
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
-
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+        void enqueue() {
+            mWriteQueue.enqueue(mItemId, mWriter, this);
         }
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final int itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
-            }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            updateItemArrays(mItem, mItemId);
         }
     }
 
@@ -465,13 +468,15 @@ public class ModelWriter {
         private final ModelVerifier mVerifier = new ModelVerifier();
 
         UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
+            mStackTrace = captureStackTrace();
         }
 
         protected void updateItemArrays(ItemInfo item, int itemId) {
             // Lock on mBgLock *after* the db operation
             synchronized (mBgDataModel) {
                 checkItemInfoLocked(itemId, item, mStackTrace);
+                mBgDataModel.occupancyIndex.updateItem(item);
+                mBgDataModel.pinnedIconKeys.updateItem(item);
 
                 if (item.container != Favorites.CONTAINER_DESKTOP &&
                         item.container != Favorites.CONTAINER_HOTSEAT) {
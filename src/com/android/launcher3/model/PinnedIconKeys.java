@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.IntSparseArrayMap;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Icon cache keys of the items on the workspace, hotseat and in their folders, updated as items
+ * are added and removed, for their icons to be pinned in the memory cache.
+ *
+ * The updates are only made while holding the lock of the {@link BgDataModel} owning it, while
+ * {@link #getKeys} can be read from any thread.
+ */
+public class PinnedIconKeys {
+
+    // Number of items using each key
+    private final ConcurrentHashMap<ComponentKey, Integer> mCounts = new ConcurrentHashMap<>();
+    private final Set<ComponentKey> mKeys = Collections.unmodifiableSet(mCounts.keySet());
+    // Key of each item, as it was when last updated
+    private final IntSparseArrayMap<ComponentKey> mItemKeys = new IntSparseArrayMap<>();
+
+    /**
+     * Updates the key of {@param item}, replacing its previous key if any
+     */
+    public void updateItem(ItemInfo item) {
+        ComponentKey key = getIconKey(item);
+        ComponentKey previous = mItemKeys.get(item.id);
+        if (Objects.equals(key, previous)) {
+            return;
+        }
+        removeItem(item.id);
+        if (key != null) {
+            mItemKeys.put(item.id, key);
+            mCounts.merge(key, 1, Integer::sum);
+        }
+    }
+
+    public void removeItem(int itemId) {
+        ComponentKey key = mItemKeys.get(itemId);
+        if (key == null) {
+            return;
+        }
+        mItemKeys.remove(itemId);
+        mCounts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public void clear() {
+        mItemKeys.clear();
+        mCounts.clear();
+    }
+
+    /**
+     * Returns a live view of the keys, safe to read from any thread
+     */
+    public Set<ComponentKey> getKeys() {
+        return mKeys;
+    }
+
+    @Nullable
+    private static ComponentKey getIconKey(ItemInfo item) {
+        if (!(item instanceof WorkspaceItemInfo)) {
+            return null;
+        }
+        if (item.itemType == Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
+            ShortcutKey key = ShortcutKey.fromItemInfo(item);
+            return new ComponentKey(key.componentName, key.user);
+        }
+        return item.getTargetComponent() == null
+                ? null : new ComponentKey(item.getTargetComponent(), item.user);
+    }
+}
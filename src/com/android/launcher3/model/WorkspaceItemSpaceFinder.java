@@ -17,19 +17,13 @@ package com.android.launcher3.model;
 
 import static com.android.launcher3.WorkspaceLayoutManager.FIRST_SCREEN_ID;
 
-import android.util.LongSparseArray;
-
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.config.FeatureFlags;
-import com.android.launcher3.model.data.ItemInfo;
-import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.IntArray;
 import com.android.launcher3.util.IntSet;
 
-import java.util.ArrayList;
-
 /**
  * Utility class to help find space for new workspace items
  */
@@ -42,22 +36,6 @@ public class WorkspaceItemSpaceFinder {
      */
     public int[] findSpaceForItem(LauncherAppState app, BgDataModel dataModel,
                                   IntArray workspaceScreens, IntArray addedWorkspaceScreensFinal, int spanX, int spanY) {
-        LongSparseArray<ArrayList<ItemInfo>> screenItems = new LongSparseArray<>();
-
-        // Use sBgItemsIdMap as all the items are already loaded.
-        synchronized (dataModel) {
-            for (ItemInfo info : dataModel.itemsIdMap) {
-                if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-                    ArrayList<ItemInfo> items = screenItems.get(info.screenId);
-                    if (items == null) {
-                        items = new ArrayList<>();
-                        screenItems.put(info.screenId, items);
-                    }
-                    items.add(info);
-                }
-            }
-        }
-
         // Find appropriate space for the item.
         int screenId = 0;
         int[] coordinates = new int[2];
@@ -70,13 +48,18 @@ public class WorkspaceItemSpaceFinder {
             screensToExclude.add(FIRST_SCREEN_ID);
         }
 
-        for (int screen = 0; screen < screenCount; screen++) {
-            screenId = workspaceScreens.get(screen);
-            if (!screensToExclude.contains(screenId) && findNextAvailableIconSpaceInScreen(
-                    app, screenItems.get(screenId), coordinates, spanX, spanY)) {
-                // We found a space for it
-                found = true;
-                break;
+        InvariantDeviceProfile profile = app.getInvariantDeviceProfile();
+        // The occupancy index is kept up to date with the items already loaded
+        synchronized (dataModel) {
+            for (int screen = 0; screen < screenCount; screen++) {
+                screenId = workspaceScreens.get(screen);
+                if (!screensToExclude.contains(screenId)
+                        && dataModel.occupancyIndex.findVacantCell(screenId, profile.numColumns,
+                                profile.numRows, spanX, spanY, coordinates)) {
+                    // We found a space for it
+                    found = true;
+                    break;
+                }
             }
         }
 
@@ -91,25 +74,15 @@ public class WorkspaceItemSpaceFinder {
             addedWorkspaceScreensFinal.add(screenId);
 
             // If we still can't find an empty space, then God help us all!!!
-            if (!findNextAvailableIconSpaceInScreen(
-                    app, screenItems.get(screenId), coordinates, spanX, spanY)) {
+            boolean hasSpace;
+            synchronized (dataModel) {
+                hasSpace = dataModel.occupancyIndex.findVacantCell(screenId, profile.numColumns,
+                        profile.numRows, spanX, spanY, coordinates);
+            }
+            if (!hasSpace) {
                 throw new RuntimeException("Can't find space to add the item");
             }
         }
         return new int[]{screenId, coordinates[0], coordinates[1]};
     }
-
-    private boolean findNextAvailableIconSpaceInScreen(
-            LauncherAppState app, ArrayList<ItemInfo> occupiedPos,
-            int[] xy, int spanX, int spanY) {
-        InvariantDeviceProfile profile = app.getInvariantDeviceProfile();
-
-        GridOccupancy occupied = new GridOccupancy(profile.numColumns, profile.numRows);
-        if (occupiedPos != null) {
-            for (ItemInfo r : occupiedPos) {
-                occupied.markCells(r, true);
-            }
-        }
-        return occupied.findVacantCell(xy, spanX, spanY);
-    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.util.CellAndSpan;
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.IntSparseArrayMap;
+
+/**
+ * Index of the cells occupied by the desktop items, by screen, updated as items are added, moved
+ * and removed so that a vacant cell can be found without going through all the items.
+ *
+ * The index keeps the position each item had when it was last indexed, as items are moved by
+ * updating them in place. It isn't thread safe, and is only accessed while holding the lock of the
+ * {@link BgDataModel} owning it.
+ */
+public class WorkspaceOccupancyIndex {
+
+    // Indexed position of the desktop items, by item id
+    private final IntSparseArrayMap<IndexedItem> mItems = new IntSparseArrayMap<>();
+    private final IntSparseArrayMap<ScreenOccupancy> mScreens = new IntSparseArrayMap<>();
+    private int mCountX;
+    private int mCountY;
+
+    /**
+     * Indexes the position of {@param item}, replacing its previous position if any. Items which
+     * aren't on the desktop are only removed from the index.
+     */
+    public void updateItem(ItemInfo item) {
+        IndexedItem indexed = mItems.get(item.id);
+        if (indexed != null) {
+            if (item.container == Favorites.CONTAINER_DESKTOP && indexed.isAt(item)) {
+                return;
+            }
+            removeItem(item.id);
+        }
+        if (item.container != Favorites.CONTAINER_DESKTOP) {
+            return;
+        }
+        indexed = new IndexedItem(item);
+        mItems.put(item.id, indexed);
+        if (mCountX > 0) {
+            getScreen(indexed.screenId).markCells(indexed, 1);
+        }
+    }
+
+    public void removeItem(int itemId) {
+        IndexedItem indexed = mItems.get(itemId);
+        if (indexed == null) {
+            return;
+        }
+        mItems.remove(itemId);
+        ScreenOccupancy screen = mScreens.get(indexed.screenId);
+        if (screen != null) {
+            screen.markCells(indexed, -1);
+        }
+    }
+
+    public void clear() {
+        mItems.clear();
+        mScreens.clear();
+    }
+
+    /**
+     * Finds the first vacant cell for the given span on the screen {@param screenId} of a grid of
+     * {@param countX} by {@param countY} cells.
+     *
+     * @param vacantOut Holds the x and y coordinate of the vacant cell
+     * @return true if a vacant cell was found
+     */
+    public boolean findVacantCell(int screenId, int countX, int countY, int spanX, int spanY,
+            int[] vacantOut) {
+        setGridSize(countX, countY);
+        ScreenOccupancy screen = mScreens.get(screenId);
+        if (screen == null) {
+            if (spanX > countX || spanY > countY) {
+                return false;
+            }
+            vacantOut[0] = vacantOut[1] = 0;
+            return true;
+        }
+        // Skips the screens which don't even have enough vacant cells
+        if (countX * countY - screen.occupiedCount < spanX * spanY) {
+            return false;
+        }
+        return screen.occupied.findVacantCell(vacantOut, spanX, spanY);
+    }
+
+    /**
+     * Rebuilds the occupancy of the screens if the grid size changed since they were built
+     */
+    private void setGridSize(int countX, int countY) {
+        if (countX == mCountX && countY == mCountY) {
+            return;
+        }
+        mCountX = countX;
+        mCountY = countY;
+        mScreens.clear();
+        for (IndexedItem item : mItems) {
+            getScreen(item.screenId).markCells(item, 1);
+        }
+    }
+
+    private ScreenOccupancy getScreen(int screenId) {
+        ScreenOccupancy screen = mScreens.get(screenId);
+        if (screen == null) {
+            screen = new ScreenOccupancy(mCountX, mCountY);
+            mScreens.put(screenId, screen);
+        }
+        return screen;
+    }
+
+    private static class IndexedItem extends CellAndSpan {
+
+        final int screenId;
+
+        IndexedItem(ItemInfo item) {
+            super(item.cellX, item.cellY, item.spanX, item.spanY);
+            screenId = item.screenId;
+        }
+
+        boolean isAt(ItemInfo item) {
+            return screenId == item.screenId && cellX == item.cellX && cellY == item.cellY
+                    && spanX == item.spanX && spanY == item.spanY;
+        }
+    }
+
+    /**
+     * Occupancy of a screen, counting the items over each cell as items can overlap
+     */
+    private static class ScreenOccupancy {
+
+        final int countX;
+        final int countY;
+        final GridOccupancy occupied;
+        final int[] itemCounts;
+        int occupiedCount;
+
+        ScreenOccupancy(int countX, int countY) {
+            this.countX = countX;
+            this.countY = countY;
+            occupied = new GridOccupancy(countX, countY);
+            itemCounts = new int[countX * countY];
+        }
+
+        /**
+         * Adds {@param delta} to the item count of the cells of {@param cell}
+         */
+        void markCells(CellAndSpan cell, int delta) {
+            int x1 = Math.max(cell.cellX, 0);
+            int y1 = Math.max(cell.cellY, 0);
+            int x2 = Math.min(cell.cellX + cell.spanX, countX);
+            int y2 = Math.min(cell.cellY + cell.spanY, countY);
+            for (int y = y1; y < y2; y++) {
+                for (int x = x1; x < x2; x++) {
+                    int count = itemCounts[y * countX + x];
+                    itemCounts[y * countX + x] = count + delta;
+                    if (count == 0 && delta > 0) {
+                        occupied.markCells(x, y, 1, 1, true);
+                        occupiedCount++;
+                    } else if (count + delta == 0) {
+                        occupied.markCells(x, y, 1, 1, false);
+                        occupiedCount--;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -37,6 +37,7 @@ import androidx.palette.graphics.Palette;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.pm.PackageInstallInfo;
+import com.android.launcher3.util.ColorSortKeys;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageManagerHelper;
 
@@ -64,6 +65,10 @@ public class AppInfo extends ItemInfoWithIcon implements WorkspaceItemFactory {
     // Section name used for indexing.
     public String sectionName = "";
 
+    // Drawer sort keys derived from iconColor, see ColorSortKeys
+    public int colorSortKey;
+    public int perceptualColorSortKey;
+
     public AppInfo() {
         itemType = LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
     }
@@ -91,9 +96,9 @@ public class AppInfo extends ItemInfoWithIcon implements WorkspaceItemFactory {
             runtimeStatusFlags |= FLAG_DISABLED_QUIET_USER;
         }
         updateRuntimeFlagsForActivityTarget(this, info);
-        this.iconColor = Palette.from(DrawableKt.toBitmap(info.getIcon(46), 46, 46, null))
+        setIconColor(Palette.from(DrawableKt.toBitmap(info.getIcon(46), 46, 46, null))
                 .generate()
-                .getDominantColor(0);
+                .getDominantColor(0));
     }
 
     public AppInfo(AppInfo info) {
@@ -102,6 +107,8 @@ public class AppInfo extends ItemInfoWithIcon implements WorkspaceItemFactory {
         title = Utilities.trim(info.title);
         intent = new Intent(info.intent);
         this.iconColor = info.iconColor;
+        this.colorSortKey = info.colorSortKey;
+        this.perceptualColorSortKey = info.perceptualColorSortKey;
     }
 
     @VisibleForTesting
@@ -124,6 +131,15 @@ public class AppInfo extends ItemInfoWithIcon implements WorkspaceItemFactory {
         user = installInfo.user;
     }
 
+    /**
+     * Sets the dominant icon color along with the sort keys derived from it
+     */
+    public void setIconColor(int color) {
+        iconColor = color;
+        colorSortKey = ColorSortKeys.getSortKey(color);
+        perceptualColorSortKey = ColorSortKeys.getPerceptualSortKey(color);
+    }
+
     @Override
     protected String dumpProperties() {
         return super.dumpProperties() + " componentName=" + componentName;
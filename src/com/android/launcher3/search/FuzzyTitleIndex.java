@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.search;
+
+import static com.android.launcher3.search.StringMatcherUtility.getBreakOffsets;
+
+import com.android.launcher3.util.IntArray;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Index for approximate title matching. Unlike {@link TitleSearchIndex}, results are ranked by
+ * a score instead of being returned in list order. In decreasing order of score, a title matches
+ * if the query is:
+ * <ul>
+ *   <li>a prefix of the title</li>
+ *   <li>a prefix of one of its words</li>
+ *   <li>a prefix of the initials of its words (e.g. "gm" for "Google Maps")</li>
+ *   <li>a substring of the title</li>
+ *   <li>within a few edits (insertion, deletion, substitution or transposition) of a prefix of
+ *   one of its words</li>
+ * </ul>
+ * Titles are compared after removing diacritics, and can optionally be transliterated to latin
+ * characters first, so that e.g. pinyin queries match Han titles.
+ * <p>
+ * Candidates are found through an inverted index of character bigrams: a word prefix within
+ * {@code k} edits of a query with {@code n} distinct bigrams shares at least {@code n - 3k} of
+ * them.
+ * <p>
+ * This class is not thread safe and is expected to be used from a single (model) thread.
+ *
+ * @param <T> type of the indexed items
+ */
+public class FuzzyTitleIndex<T> {
+
+    public static final int SCORE_NO_MATCH = 0;
+    public static final int SCORE_TITLE_PREFIX = 1000;
+    public static final int SCORE_WORD_PREFIX = 800;
+    public static final int SCORE_INITIALS = 700;
+    public static final int SCORE_SUBSTRING = 600;
+    public static final int SCORE_TYPO = 500;
+    private static final int SCORE_PER_EDIT = 100;
+
+    private static final int MIN_QUERY_LENGTH_ONE_EDIT = 4;
+    private static final int MIN_QUERY_LENGTH_TWO_EDITS = 8;
+    // A transposition changes up to three bigrams, other edits up to two
+    private static final int BIGRAMS_PER_EDIT = 3;
+
+    private final Function<T, CharSequence> mTitleProvider;
+    private final Function<String, String> mTransliterator;
+
+    private final ArrayList<Entry<T>> mEntries = new ArrayList<>();
+    // Bigram (two chars packed in an int) to the sorted indices of entries containing it
+    private final HashMap<Integer, IntArray> mBigrams = new HashMap<>();
+
+    // Reusable buffers for edit distance computation
+    private int[] mRow0 = new int[0];
+    private int[] mRow1 = new int[0];
+    private int[] mRow2 = new int[0];
+
+    public FuzzyTitleIndex(Function<T, CharSequence> titleProvider) {
+        this(titleProvider, null);
+    }
+
+    /**
+     * @param transliterator optional conversion to latin characters, applied to titles and queries
+     *                       which contain non latin letters
+     */
+    public FuzzyTitleIndex(Function<T, CharSequence> titleProvider,
+            Function<String, String> transliterator) {
+        mTitleProvider = titleProvider;
+        mTransliterator = transliterator;
+    }
+
+    /**
+     * Synchronizes the index with {@code items}. Only items which were added, or whose title
+     * changed since the last call are re-normalized.
+     *
+     * @return true if the index changed
+     */
+    public boolean update(List<T> items) {
+        int count = items.size();
+        boolean changed = count != mEntries.size();
+        for (int i = 0; i < count && !changed; i++) {
+            T item = items.get(i);
+            Entry<T> entry = mEntries.get(i);
+            changed = entry.item != item || !entry.hasTitle(mTitleProvider.apply(item));
+        }
+        if (!changed) {
+            return false;
+        }
+
+        IdentityHashMap<T, Entry<T>> previous = new IdentityHashMap<>(mEntries.size());
+        for (Entry<T> entry : mEntries) {
+            previous.put(entry.item, entry);
+        }
+        mEntries.clear();
+        mEntries.ensureCapacity(count);
+        mBigrams.clear();
+        for (int i = 0; i < count; i++) {
+            T item = items.get(i);
+            CharSequence title = mTitleProvider.apply(item);
+            Entry<T> entry = previous.get(item);
+            if (entry == null || !entry.hasTitle(title)) {
+                entry = new Entry<>(item, title);
+                entry.normalize(this);
+            }
+            mEntries.add(entry);
+
+            String key = entry.key;
+            for (int j = 1; j < key.length(); j++) {
+                IntArray postings = mBigrams.computeIfAbsent(
+                        bigram(key.charAt(j - 1), key.charAt(j)), k -> new IntArray());
+                if (postings.isEmpty() || postings.get(postings.size() - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of indexed items
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns up to {@code maxResults} items matching {@code query}, best match first. Items with
+     * the same score are ordered by title length, then by the order they were provided to
+     * {@link #update}.
+     */
+    public List<T> search(String query, int maxResults) {
+        return search(query, maxResults, () -> false);
+    }
+
+    /**
+     * Same as {@link #search(String, int)}, but returns an empty list as soon as
+     * {@code isCancelled} returns true.
+     */
+    public List<T> search(String query, int maxResults, BooleanSupplier isCancelled) {
+        ArrayList<T> result = new ArrayList<>();
+        String q = normalizeQuery(query);
+        if (q.isEmpty()) {
+            return result;
+        }
+        int maxEdits = getMaxEdits(q.length());
+
+        // Typos always score below exact matches, so only look for them if there are not enough
+        // exact matches, which are found with a much narrower candidate set.
+        ArrayList<Match<T>> matches = new ArrayList<>();
+        BitSet matched = new BitSet(mEntries.size());
+        for (int index : findCandidates(q, 0)) {
+            if (isCancelled.getAsBoolean()) {
+                return result;
+            }
+            int score = score(mEntries.get(index), q, 0);
+            if (score > SCORE_NO_MATCH) {
+                matches.add(new Match<>(mEntries.get(index), score, index));
+                matched.set(index);
+            }
+        }
+        if (maxEdits > 0 && matches.size() < maxResults) {
+            for (int index : findCandidates(q, maxEdits)) {
+                if (isCancelled.getAsBoolean()) {
+                    return result;
+                }
+                if (matched.get(index)) {
+                    continue;
+                }
+                int score = score(mEntries.get(index), q, maxEdits);
+                if (score > SCORE_NO_MATCH) {
+                    matches.add(new Match<>(mEntries.get(index), score, index));
+                }
+            }
+        }
+        matches.sort((a, b) -> {
+            if (a.score != b.score) {
+                return Integer.compare(b.score, a.score);
+            }
+            if (a.entry.key.length() != b.entry.key.length()) {
+                return Integer.compare(a.entry.key.length(), b.entry.key.length());
+            }
+            return Integer.compare(a.index, b.index);
+        });
+
+        int count = Math.min(matches.size(), maxResults);
+        for (int i = 0; i < count; i++) {
+            result.add(matches.get(i).entry.item);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the score of {@code title} for {@code query}, or {@link #SCORE_NO_MATCH}.
+     */
+    public int score(String title, String query) {
+        String q = normalizeQuery(query);
+        if (q.isEmpty()) {
+            return SCORE_NO_MATCH;
+        }
+        Entry<Object> entry = new Entry<>(null, title);
+        entry.normalize(this);
+        return score(entry, q, getMaxEdits(q.length()));
+    }
+
+    private int[] findCandidates(String q, int maxEdits) {
+        IntArray queryBigrams = new IntArray(q.length());
+        for (int i = 1; i < q.length(); i++) {
+            int bigram = bigram(q.charAt(i - 1), q.charAt(i));
+            if (!queryBigrams.contains(bigram)) {
+                queryBigrams.add(bigram);
+            }
+        }
+        int minShared = queryBigrams.size() - BIGRAMS_PER_EDIT * maxEdits;
+        if (minShared <= 0) {
+            int[] all = new int[mEntries.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] shared = new int[mEntries.size()];
+        for (int i = 0; i < queryBigrams.size(); i++) {
+            IntArray postings = mBigrams.get(queryBigrams.get(i));
+            if (postings == null) {
+                continue;
+            }
+            for (int j = postings.size() - 1; j >= 0; j--) {
+                shared[postings.get(j)]++;
+            }
+        }
+
+        IntArray candidates = new IntArray();
+        for (int i = 0; i < shared.length; i++) {
+            // Initials do not share bigrams with the title, so they are always checked
+            if (shared[i] >= minShared || mEntries.get(i).initials.startsWith(q)) {
+                candidates.add(i);
+            }
+        }
+        return candidates.toArray();
+    }
+
+    private int score(Entry<?> entry, String q, int maxEdits) {
+        String key = entry.key;
+        if (key.startsWith(q)) {
+            return SCORE_TITLE_PREFIX;
+        }
+        for (int start : entry.wordStarts) {
+            if (key.startsWith(q, start)) {
+                return SCORE_WORD_PREFIX;
+            }
+        }
+        if (q.length() > 1 && entry.initials.startsWith(q)) {
+            return SCORE_INITIALS;
+        }
+        if (key.contains(q)) {
+            return SCORE_SUBSTRING;
+        }
+        if (maxEdits > 0) {
+            int best = maxEdits + 1;
+            for (int start : entry.wordStarts) {
+                best = Math.min(best, prefixDistance(q, key, start, Math.min(best - 1, maxEdits)));
+                if (best == 1) {
+                    break;
+                }
+            }
+            if (best <= maxEdits) {
+                return SCORE_TYPO - best * SCORE_PER_EDIT;
+            }
+        }
+        return SCORE_NO_MATCH;
+    }
+
+    /**
+     * Returns the minimum number of edits (optimal string alignment distance) between
+     * {@code query} and any prefix of {@code text} starting at {@code start}, or
+     * {@code maxEdits + 1} if it is larger than {@code maxEdits}.
+     */
+    private int prefixDistance(String query, String text, int start, int maxEdits) {
+        int n = query.length();
+        int m = Math.min(text.length() - start, n + maxEdits);
+        if (m < n - maxEdits) {
+            return maxEdits + 1;
+        }
+        if (mRow0.length < n + 1) {
+            mRow0 = new int[n + 1];
+            mRow1 = new int[n + 1];
+            mRow2 = new int[n + 1];
+        }
+        // Columns are prefixes of text, rows are prefixes of query
+        int[] beforePrev = mRow0;
+        int[] prev = mRow1;
+        int[] cur = mRow2;
+        for (int i = 0; i <= n; i++) {
+            prev[i] = i;
+        }
+        int best = prev[n];
+        for (int j = 1; j <= m; j++) {
+            char t = text.charAt(start + j - 1);
+            cur[0] = j;
+            int columnMin = cur[0];
+            for (int i = 1; i <= n; i++) {
+                char c = query.charAt(i - 1);
+                int cost = c == t ? 0 : 1;
+                int value = Math.min(Math.min(prev[i] + 1, cur[i - 1] + 1), prev[i - 1] + cost);
+                if (i > 1 && j > 1 && c == text.charAt(start + j - 2)
+                        && query.charAt(i - 2) == t) {
+                    value = Math.min(value, beforePrev[i - 2] + 1);
+                }
+                cur[i] = value;
+                columnMin = Math.min(columnMin, value);
+            }
+            best = Math.min(best, cur[n]);
+            if (columnMin > maxEdits && j > 1) {
+                break;
+            }
+            int[] recycled = beforePrev;
+            beforePrev = prev;
+            prev = cur;
+            cur = recycled;
+        }
+        return Math.min(best, maxEdits + 1);
+    }
+
+    private String normalizeQuery(String query) {
+        return toLowerCase(normalize(query.trim()));
+    }
+
+    /**
+     * Transliterates {@code text} if needed and removes diacritics. The result keeps the original
+     * case, so that camel case word breaks can be detected.
+     */
+    private String normalize(String text) {
+        if (isAscii(text)) {
+            return text;
+        }
+        if (mTransliterator != null && hasNonLatinLetters(text)) {
+            text = mTransliterator.apply(text);
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder result = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String toLowerCase(String text) {
+        // Lower case each char independently so that break offsets are preserved
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasNonLatinLetters(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetter(codePoint)
+                    && Character.UnicodeScript.of(codePoint) != Character.UnicodeScript.LATIN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getMaxEdits(int queryLength) {
+        if (queryLength >= MIN_QUERY_LENGTH_TWO_EDITS) {
+            return 2;
+        }
+        return queryLength >= MIN_QUERY_LENGTH_ONE_EDIT ? 1 : 0;
+    }
+
+    private static int bigram(char first, char second) {
+        return (first << Character.SIZE) | second;
+    }
+
+    private static class Entry<T> {
+
+        final T item;
+        final CharSequence titleRef;
+        final String title;
+
+        // Normalized lower case title
+        String key;
+        // Offsets in key at which a word starts
+        int[] wordStarts;
+        // First character of every word
+        String initials;
+
+        Entry(T item, CharSequence title) {
+            this.item = item;
+            this.titleRef = title;
+            this.title = title == null ? "" : title.toString();
+        }
+
+        void normalize(FuzzyTitleIndex<?> index) {
+            String normalized = index.normalize(title);
+            key = toLowerCase(normalized);
+
+            IntArray starts = new IntArray();
+            StringBuilder firstChars = new StringBuilder();
+            for (int offset : getBreakOffsets(normalized)) {
+                if (Character.isLetterOrDigit(key.charAt(offset))) {
+                    firstChars.append(key.charAt(offset));
+                    starts.add(offset);
+                }
+            }
+            wordStarts = starts.toArray();
+            initials = firstChars.toString();
+        }
+
+        boolean hasTitle(CharSequence newTitle) {
+            return titleRef == newTitle
+                    || (newTitle != null && title.contentEquals(newTitle));
+        }
+    }
+
+    private static class Match<T> {
+
+        final Entry<T> entry;
+        final int score;
+        final int index;
+
+        Match(Entry<T> entry, int score, int index) {
+            this.entry = entry;
+            this.score = score;
+            this.index = index;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.android.launcher3.search;
 
+import java.io.PrintWriter;
+
 /**
  * An interface for handling search.
  *
@@ -45,5 +47,11 @@ public interface SearchAlgorithm<T> {
     default void destroy() {
     }
 
+    /**
+     * Dumps the state of the search algorithm, e.g. query counters.
+     */
+    default void dump(String prefix, PrintWriter writer) {
+    }
+
     ;
 }
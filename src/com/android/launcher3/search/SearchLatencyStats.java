@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.search;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing what happened to search queries, and how long delivered ones took.
+ * Safe to update from any thread.
+ */
+public class SearchLatencyStats {
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();
+    private final AtomicLong mStale = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+
+    // Time from the request to the delivery of the result
+    private final AtomicLong mTotalLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+    private final AtomicLong mLastLatencyNanos = new AtomicLong();
+    // Time spent computing results of delivered queries
+    private final AtomicLong mTotalExecutionNanos = new AtomicLong();
+
+    /**
+     * A query was requested
+     */
+    public void onRequested() {
+        mRequested.incrementAndGet();
+    }
+
+    /**
+     * A query replaced a pending query before it started executing
+     */
+    public void onCoalesced() {
+        mCoalesced.incrementAndGet();
+    }
+
+    /**
+     * A query was cancelled before or while computing its results
+     */
+    public void onCancelled() {
+        mCancelled.incrementAndGet();
+    }
+
+    /**
+     * Results of a query were computed, but dropped as a newer query was requested since
+     */
+    public void onStale() {
+        mStale.incrementAndGet();
+    }
+
+    /**
+     * Results of a query were delivered
+     */
+    public void onDelivered(long latencyNanos, long executionNanos) {
+        mDelivered.incrementAndGet();
+        mTotalLatencyNanos.addAndGet(latencyNanos);
+        mTotalExecutionNanos.addAndGet(executionNanos);
+        mLastLatencyNanos.set(latencyNanos);
+        mMaxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    public long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    public long getCancelledCount() {
+        return mCancelled.get();
+    }
+
+    public long getStaleCount() {
+        return mStale.get();
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    public long getLastLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mLastLatencyNanos.get());
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxLatencyNanos.get());
+    }
+
+    public long getAverageLatencyMillis() {
+        long delivered = mDelivered.get();
+        return delivered == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(mTotalLatencyNanos.get() / delivered);
+    }
+
+    public long getAverageExecutionMillis() {
+        long delivered = mDelivered.get();
+        return delivered == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(mTotalExecutionNanos.get() / delivered);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "requested=" + getRequestedCount()
+                + " coalesced=" + getCoalescedCount()
+                + " cancelled=" + getCancelledCount()
+                + " stale=" + getStaleCount()
+                + " delivered=" + getDeliveredCount());
+        writer.println(prefix + "latencyMs last=" + getLastLatencyMillis()
+                + " avg=" + getAverageLatencyMillis()
+                + " max=" + getMaxLatencyMillis()
+                + " avgExecution=" + getAverageExecutionMillis());
+    }
+}
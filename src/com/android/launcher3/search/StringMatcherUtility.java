@@ -17,6 +17,7 @@
 package com.android.launcher3.search;
 
 import java.text.Collator;
+import java.util.Arrays;
 
 /**
  * Utilities for matching query string to target string.
@@ -58,6 +59,34 @@ public class StringMatcherUtility {
         return false;
     }
 
+    /**
+     * Returns the offsets in {@code target} at which {@link #matches} would attempt a prefix
+     * match, so that they can be computed once and reused across queries.
+     */
+    static int[] getBreakOffsets(String target) {
+        int targetLength = target.length();
+        if (targetLength == 0) {
+            return new int[0];
+        }
+
+        int[] breaks = new int[targetLength];
+        int count = 0;
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = Character.getType(target.codePointAt(0));
+        for (int i = 0; i < targetLength; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (targetLength - 1)
+                    ? Character.getType(target.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (isBreak(thisType, lastType, nextType)) {
+                breaks[count++] = i;
+            }
+        }
+        return Arrays.copyOf(breaks, count);
+    }
+
     /**
      * Returns true if the current point should be a break point. Following cases
      * are considered as break points:
@@ -111,7 +140,7 @@ public class StringMatcherUtility {
 
         private static final char MAX_UNICODE = '\uFFFF';
 
-        private final Collator mCollator;
+        final Collator mCollator;
 
         StringMatcher() {
             // On android N and above, Collator uses ICU implementation which has a much better
@@ -147,7 +176,7 @@ public class StringMatcherUtility {
     /**
      * Matching optimization to search in Chinese.
      */
-    private static boolean requestSimpleFuzzySearch(String s) {
+    static boolean requestSimpleFuzzySearch(String s) {
         for (int i = 0; i < s.length(); ) {
             int codepoint = s.codePointAt(i);
             i += Character.charCount(codepoint);
@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.search;
+
+import static com.android.launcher3.search.StringMatcherUtility.getBreakOffsets;
+import static com.android.launcher3.search.StringMatcherUtility.requestSimpleFuzzySearch;
+
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Precomputed index answering the same queries as {@link StringMatcherUtility#matches} over a
+ * list of items, without re-scanning every title for every keystroke.
+ * <p>
+ * Word break offsets are computed once per title. Titles made of (possibly accented) latin
+ * characters are additionally folded to lower case ASCII, and every suffix starting at a break is
+ * kept in a sorted table, so that a prefix lookup becomes a binary search. Other titles fall back
+ * to {@link Collator} comparisons at the precomputed breaks. A query which extends the previous
+ * one only re-checks the previous matches.
+ * <p>
+ * This class is not thread safe and is expected to be used from a single (model) thread.
+ *
+ * @param <T> type of the indexed items
+ */
+public class TitleSearchIndex<T> {
+
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+    private static final Suffix[] EMPTY_SUFFIX_ARRAY = new Suffix[0];
+
+    private static final char FIRST_PRINTABLE_ASCII = ' ';
+    private static final char LAST_PRINTABLE_ASCII = '~';
+    // Placeholder for folded characters which never match a folded query
+    private static final char UNMATCHABLE = '\uFFFF';
+
+    private final Function<T, CharSequence> mTitleProvider;
+    private final StringMatcher mMatcher;
+    // Folded form of each printable ASCII character, see computeAsciiFolds
+    private final char[] mAsciiFolds;
+
+    private final ArrayList<Entry<T>> mEntries = new ArrayList<>();
+    // Cache of fold results for non ASCII characters, 0 if the character can not be folded
+    private final HashMap<Character, Character> mFoldedChars = new HashMap<>();
+
+    // Suffixes of all folded titles starting at each word break, in lexicographic order
+    private Suffix[] mSortedSuffixes = EMPTY_SUFFIX_ARRAY;
+    // Indices of entries which can not be looked up in the suffix table
+    private int[] mCollatorEntries = EMPTY_INT_ARRAY;
+
+    private String mLastQuery;
+    private int[] mLastMatches = EMPTY_INT_ARRAY;
+
+    public TitleSearchIndex(Function<T, CharSequence> titleProvider) {
+        this(titleProvider, StringMatcher.getInstance());
+    }
+
+    public TitleSearchIndex(Function<T, CharSequence> titleProvider, StringMatcher matcher) {
+        mTitleProvider = titleProvider;
+        mMatcher = matcher;
+        mAsciiFolds = computeAsciiFolds(matcher.mCollator);
+    }
+
+    /**
+     * Synchronizes the index with {@code items}. Only items which were added, or whose title
+     * changed since the last call are re-indexed.
+     *
+     * @return true if the index changed
+     */
+    public boolean update(List<T> items) {
+        int count = items.size();
+        boolean changed = count != mEntries.size();
+        for (int i = 0; i < count && !changed; i++) {
+            T item = items.get(i);
+            Entry<T> entry = mEntries.get(i);
+            changed = entry.item != item || !entry.hasTitle(mTitleProvider.apply(item));
+        }
+        if (!changed) {
+            return false;
+        }
+
+        IdentityHashMap<T, Entry<T>> previous = new IdentityHashMap<>(mEntries.size());
+        for (Entry<T> entry : mEntries) {
+            previous.put(entry.item, entry);
+        }
+        mEntries.clear();
+        mEntries.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            T item = items.get(i);
+            CharSequence title = mTitleProvider.apply(item);
+            Entry<T> entry = previous.get(item);
+            if (entry == null || !entry.hasTitle(title)) {
+                entry = new Entry<>(item, title);
+                entry.folded = fold(entry.title, true /* allowUnmatchable */);
+            }
+            mEntries.add(entry);
+        }
+        rebuildSuffixTable();
+
+        mLastQuery = null;
+        mLastMatches = EMPTY_INT_ARRAY;
+        return true;
+    }
+
+    /**
+     * Returns the number of indexed items
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns up to {@code maxResults} items matching {@code query}, in the order they were
+     * provided to {@link #update}. {@code query} is expected to be lower case.
+     */
+    public List<T> search(String query, int maxResults) {
+        return search(query, maxResults, () -> false);
+    }
+
+    /**
+     * Same as {@link #search(String, int)}, but returns an empty list as soon as
+     * {@code isCancelled} returns true.
+     */
+    public List<T> search(String query, int maxResults, BooleanSupplier isCancelled) {
+        ArrayList<T> result = new ArrayList<>();
+        if (query.isEmpty() || isCancelled.getAsBoolean()) {
+            return result;
+        }
+        int[] matches = findMatches(query, isCancelled);
+        if (matches == null) {
+            return result;
+        }
+        int count = Math.min(matches.length, maxResults);
+        for (int i = 0; i < count; i++) {
+            result.add(mEntries.get(matches[i]).item);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indices of all matching entries, or null if cancelled
+     */
+    private int[] findMatches(String query, BooleanSupplier isCancelled) {
+        boolean fuzzy = requestSimpleFuzzySearch(query);
+        String foldedQuery = fold(query, false /* allowUnmatchable */);
+
+        int[] matches;
+        if (mLastQuery != null && query.startsWith(mLastQuery)
+                && fuzzy == requestSimpleFuzzySearch(mLastQuery)) {
+            // Any title matching the new query also matched the previous one.
+            matches = filter(mLastMatches, query, foldedQuery, fuzzy, isCancelled);
+        } else if (!fuzzy && foldedQuery != null) {
+            matches = lookup(query, foldedQuery, isCancelled);
+        } else {
+            int[] all = new int[mEntries.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            matches = filter(all, query, foldedQuery, fuzzy, isCancelled);
+        }
+
+        if (matches != null) {
+            mLastQuery = query;
+            mLastMatches = matches;
+        }
+        return matches;
+    }
+
+    private int[] lookup(String query, String foldedQuery, BooleanSupplier isCancelled) {
+        BitSet hits = new BitSet(mEntries.size());
+
+        Suffix[] suffixes = mSortedSuffixes;
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (suffixes[mid].text.compareTo(foldedQuery) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < suffixes.length && suffixes[i].text.startsWith(foldedQuery); i++) {
+            hits.set(suffixes[i].owner);
+        }
+
+        for (int index : mCollatorEntries) {
+            if (isCancelled.getAsBoolean()) {
+                return null;
+            }
+            if (matches(mEntries.get(index), query, foldedQuery, false)) {
+                hits.set(index);
+            }
+        }
+        return hits.stream().toArray();
+    }
+
+    private int[] filter(int[] candidates, String query, String foldedQuery, boolean fuzzy,
+            BooleanSupplier isCancelled) {
+        int[] matches = new int[candidates.length];
+        int count = 0;
+        for (int index : candidates) {
+            if (isCancelled.getAsBoolean()) {
+                return null;
+            }
+            if (matches(mEntries.get(index), query, foldedQuery, fuzzy)) {
+                matches[count++] = index;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private boolean matches(Entry<T> entry, String query, String foldedQuery, boolean fuzzy) {
+        int queryLength = query.length();
+        String title = entry.title;
+        if (title.length() < queryLength) {
+            return false;
+        }
+        if (fuzzy) {
+            return entry.getLowerCaseTitle().contains(query);
+        }
+
+        int end = title.length() - queryLength;
+        if (foldedQuery != null && entry.folded != null) {
+            for (int offset : entry.breaks) {
+                if (offset > end) {
+                    break;
+                }
+                if (entry.folded.startsWith(foldedQuery, offset)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int offset : entry.breaks) {
+            if (offset > end) {
+                break;
+            }
+            if (mMatcher.matches(query, title.substring(offset, offset + queryLength))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuildSuffixTable() {
+        int suffixCount = 0;
+        int collatorCount = 0;
+        for (Entry<T> entry : mEntries) {
+            if (entry.folded != null) {
+                suffixCount += entry.breaks.length;
+            } else {
+                collatorCount++;
+            }
+        }
+
+        Suffix[] suffixes = new Suffix[suffixCount];
+        int[] collatorEntries = new int[collatorCount];
+        suffixCount = 0;
+        collatorCount = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry<T> entry = mEntries.get(i);
+            if (entry.folded == null) {
+                collatorEntries[collatorCount++] = i;
+                continue;
+            }
+            for (int offset : entry.breaks) {
+                suffixes[suffixCount++] = new Suffix(entry.folded.substring(offset), i);
+            }
+        }
+        Arrays.sort(suffixes, (a, b) -> a.text.compareTo(b.text));
+
+        mSortedSuffixes = suffixes;
+        mCollatorEntries = collatorEntries;
+    }
+
+    /**
+     * Returns {@code text} with every character replaced by a lower case ASCII character which the
+     * collator considers equal at primary strength, or null if that is not possible for some
+     * character. The result always has the same length as {@code text}.
+     *
+     * @param allowUnmatchable if true, characters which can never be equal to an ASCII character
+     *                         (Han ideographs) are replaced by {@link #UNMATCHABLE} instead.
+     */
+    private String fold(String text, boolean allowUnmatchable) {
+        char[] folded = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char f = foldChar(c);
+            if (f == 0) {
+                if (!allowUnmatchable
+                        || Character.UnicodeScript.of(c) != Character.UnicodeScript.HAN) {
+                    return null;
+                }
+                f = UNMATCHABLE;
+            }
+            if (f != c) {
+                if (folded == null) {
+                    folded = text.toCharArray();
+                }
+                folded[i] = f;
+            }
+        }
+        return folded == null ? text : new String(folded);
+    }
+
+    private char foldChar(char c) {
+        if (c >= FIRST_PRINTABLE_ASCII && c <= LAST_PRINTABLE_ASCII) {
+            return mAsciiFolds[c - FIRST_PRINTABLE_ASCII];
+        }
+        Character cached = mFoldedChars.get(c);
+        if (cached == null) {
+            cached = computeFoldedChar(c);
+            mFoldedChars.put(c, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Maps an accented latin character (e.g. é) to its base letter, if the collator agrees they
+     * are equal. Some locales sort accented letters separately (e.g. Swedish å).
+     */
+    private char computeFoldedChar(char c) {
+        String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        char base = decomposed.charAt(0);
+        if (decomposed.length() < 2 || !Character.isLetter(base)
+                || base < FIRST_PRINTABLE_ASCII || base > LAST_PRINTABLE_ASCII
+                || mAsciiFolds[base - FIRST_PRINTABLE_ASCII] == 0) {
+            return 0;
+        }
+        for (int i = 1; i < decomposed.length(); i++) {
+            if (Character.getType(decomposed.charAt(i)) != Character.NON_SPACING_MARK) {
+                return 0;
+            }
+        }
+        if (mMatcher.mCollator.compare(String.valueOf(c), String.valueOf(base)) != 0) {
+            return 0;
+        }
+        return mAsciiFolds[base - FIRST_PRINTABLE_ASCII];
+    }
+
+    private static char foldAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Returns the lower case form of every printable ASCII character, or 0 for characters where
+     * {@code collator} disagrees, i.e. it considers the character equal to a different character
+     * (e.g. Turkish dotless i), or ignorable punctuation.
+     */
+    private static char[] computeAsciiFolds(Collator collator) {
+        String[] chars = new String[LAST_PRINTABLE_ASCII - FIRST_PRINTABLE_ASCII + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = String.valueOf((char) (FIRST_PRINTABLE_ASCII + i));
+        }
+        Arrays.sort(chars, collator::compare);
+
+        char[] folds = new char[chars.length];
+        int start = 0;
+        while (start < chars.length) {
+            // Find all characters the collator considers equal, they are adjacent once sorted
+            int end = start + 1;
+            while (end < chars.length && collator.compare(chars[start], chars[end]) == 0) {
+                end++;
+            }
+            char fold = foldAscii(chars[start].charAt(0));
+            boolean consistent = collator.compare(chars[start], "") != 0
+                    && end - start == (fold >= 'a' && fold <= 'z' ? 2 : 1);
+            for (int i = start; i < end && consistent; i++) {
+                consistent = foldAscii(chars[i].charAt(0)) == fold;
+            }
+            if (consistent) {
+                for (int i = start; i < end; i++) {
+                    folds[chars[i].charAt(0) - FIRST_PRINTABLE_ASCII] = fold;
+                }
+            }
+            start = end;
+        }
+        return folds;
+    }
+
+    private static class Entry<T> {
+
+        final T item;
+        final CharSequence titleRef;
+        final String title;
+        final int[] breaks;
+        // See fold(String, boolean)
+        String folded;
+
+        private String mLowerCaseTitle;
+
+        Entry(T item, CharSequence title) {
+            this.item = item;
+            this.titleRef = title;
+            this.title = title == null ? "" : title.toString();
+            this.breaks = getBreakOffsets(this.title);
+        }
+
+        boolean hasTitle(CharSequence newTitle) {
+            return titleRef == newTitle
+                    || (newTitle != null && title.contentEquals(newTitle));
+        }
+
+        String getLowerCaseTitle() {
+            if (mLowerCaseTitle == null) {
+                mLowerCaseTitle = title.toLowerCase();
+            }
+            return mLowerCaseTitle;
+        }
+    }
+
+    private static class Suffix {
+
+        final String text;
+        final int owner;
+
+        Suffix(String text, int owner) {
+            this.text = text;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.graphics.Color;
+
+import androidx.core.graphics.ColorUtils;
+
+/**
+ * Utility methods to compute keys ordering colors, such that sorting by key sorts by color
+ */
+public final class ColorSortKeys {
+
+    public static final int REPETITIONS = 6;
+
+    private static final int HUE_BUCKETS = 12;
+    private static final double ACHROMATIC_CHROMA = 0.03;
+    private static final double MAX_CHROMA = 0.4;
+
+    private ColorSortKeys() { }
+
+    public static int remapHue(float hue) {
+        return (int) (hue / 360 * REPETITIONS);
+    }
+
+    public static int remap(float value) {
+        return (int) (value * REPETITIONS);
+    }
+
+    /**
+     * Returns a key ordering colors by HSL hue, then lightness, then saturation. Lightness and
+     * saturation are reversed in every other hue so that neighbouring hues blend.
+     */
+    public static int getSortKey(int color) {
+        float[] hsl = new float[3];
+        ColorUtils.colorToHSL(color, hsl);
+        int hue = remapHue(hsl[0]);
+        int saturation = remap(hsl[1]);
+        int lightness = remap(hsl[2]);
+        if (hue % 2 == 1) {
+            saturation = REPETITIONS - saturation;
+            lightness = REPETITIONS - lightness;
+        }
+        return (hue << 16) | (lightness << 8) | saturation;
+    }
+
+    /**
+     * Returns a key ordering grays first, then colors by OKLab hue bucket, lightness and chroma,
+     * reversing lightness in every other bucket like {@link #getSortKey}.
+     */
+    public static int getPerceptualSortKey(int color) {
+        double r = toLinear(Color.red(color));
+        double g = toLinear(Color.green(color));
+        double b = toLinear(Color.blue(color));
+        double l = Math.cbrt(0.4122214708 * r + 0.5363325363 * g + 0.0514459929 * b);
+        double m = Math.cbrt(0.2119034982 * r + 0.6806995451 * g + 0.1073969566 * b);
+        double s = Math.cbrt(0.0883024619 * r + 0.2817188376 * g + 0.6299787005 * b);
+        double lightness = 0.2104542553 * l + 0.7936177850 * m - 0.0040720468 * s;
+        double labA = 1.9779984951 * l - 2.4285922050 * m + 0.4505937099 * s;
+        double labB = 0.0259040371 * l + 0.7827717662 * m - 0.8086757660 * s;
+
+        double chroma = Math.hypot(labA, labB);
+        int bucket;
+        if (chroma < ACHROMATIC_CHROMA) {
+            bucket = 0;
+        } else {
+            double hue = (Math.toDegrees(Math.atan2(labB, labA)) + 360) % 360;
+            bucket = 1 + Math.min((int) (hue / 360 * HUE_BUCKETS), HUE_BUCKETS - 1);
+        }
+        int lightnessKey = clamp((int) (lightness * 255));
+        if (bucket % 2 == 1) {
+            lightnessKey = 255 - lightnessKey;
+        }
+        int chromaKey = clamp((int) (chroma / MAX_CHROMA * 255));
+        return (bucket << 16) | (lightnessKey << 8) | chromaKey;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(value, 255));
+    }
+
+    private static double toLinear(int channel) {
+        double value = channel / 255.0;
+        return value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+    }
+}
@@ -35,6 +35,7 @@ public class Executors {
     private static final int POOL_SIZE =
             Math.max(Runtime.getRuntime().availableProcessors(), 2);
     private static final int KEEP_ALIVE = 1;
+    private static final int ICON_POOL_SIZE = Math.min(POOL_SIZE, 4);
 
     /**
      * Dedicated executor instances for work depending on other packages.
@@ -47,6 +48,32 @@ public class Executors {
     public static final ThreadPoolExecutor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(
             POOL_SIZE, POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
 
+    /**
+     * A small {@link ThreadPoolExecutor} rendering icons during large icon cache updates, so that
+     * they don't hold up the tasks of {@link #THREAD_POOL_EXECUTOR}.
+     */
+    public static final ThreadPoolExecutor ICON_RENDER_EXECUTOR =
+            createIconExecutor("icon-render-");
+
+    /**
+     * A small {@link ThreadPoolExecutor} decoding the icons loaded in bulk, which the loader
+     * waits for. Only used for that, so that the loader never waits behind unrelated tasks.
+     */
+    public static final ThreadPoolExecutor ICON_DECODE_EXECUTOR =
+            createIconExecutor("icon-decode-");
+
+    /**
+     * Creates a {@link ThreadPoolExecutor} of at most {@link #ICON_POOL_SIZE} background threads,
+     * which are stopped when idle.
+     */
+    private static ThreadPoolExecutor createIconExecutor(String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ICON_POOL_SIZE, ICON_POOL_SIZE,
+                KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new SimpleThreadFactory(namePrefix, Process.THREAD_PRIORITY_BACKGROUND));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Returns the executor for running tasks on the main thread.
      */
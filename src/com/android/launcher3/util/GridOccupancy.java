@@ -4,20 +4,35 @@ import android.graphics.Rect;
 
 import com.android.launcher3.model.data.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bitset in a long, the bit x being set if the cell in column x is
+ * occupied, so that regions are checked and marked a row at a time.
  */
 public class GridOccupancy extends AbsGridOccupancy {
 
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    private final long[] mRows;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > Long.SIZE) {
+            throw new IllegalArgumentException("Grid has more than " + Long.SIZE + " columns");
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
+    }
+
+    /**
+     * Returns a mask of the {@param spanX} columns starting at column {@param x}
+     */
+    private static long columnsMask(int x, int spanX) {
+        return (spanX >= Long.SIZE ? -1L : (1L << spanX) - 1) << x;
     }
 
     /**
@@ -30,15 +45,22 @@ public class GridOccupancy extends AbsGridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
-        return super.findVacantCell(vacantOut, cells, mCountX, mCountY, spanX, spanY);
+        return super.findVacantCell(vacantOut, mRows, mCountX, mCountY, spanX, spanY);
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
+    }
+
+    /**
+     * Returns whether the cell {@param x}, {@param y} is occupied, cells outside of the grid being
+     * considered occupied as nothing can be placed there.
+     */
+    public boolean isOccupied(int x, int y) {
+        if (x < 0 || y < 0 || x >= mCountX || y >= mCountY) {
+            return true;
         }
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -47,11 +69,26 @@ public class GridOccupancy extends AbsGridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = columnsMask(x, spanX);
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the cells occupied in {@param shape} are all vacant in this grid, when the
+     * shape is placed with its top left corner at {@param x}, {@param y}.
+     */
+    public boolean isRegionVacant(GridOccupancy shape, int x, int y) {
+        if (x < 0 || y < 0 || x + shape.mCountX > mCountX || y + shape.mCountY > mCountY) {
+            return false;
+        }
+        for (int j = 0; j < shape.mCountY; j++) {
+            if ((mRows[y + j] & (shape.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
@@ -59,10 +96,12 @@ public class GridOccupancy extends AbsGridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
-            }
+        int x2 = Math.min(cellX + spanX, mCountX);
+        int y2 = Math.min(cellY + spanY, mCountY);
+        if (x2 <= cellX) return;
+        long mask = columnsMask(cellX, x2 - cellX);
+        for (int y = cellY; y < y2; y++) {
+            mRows[y] = value ? mRows[y] | mask : mRows[y] & ~mask;
         }
     }
 
@@ -79,6 +118,6 @@ public class GridOccupancy extends AbsGridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
     }
 }
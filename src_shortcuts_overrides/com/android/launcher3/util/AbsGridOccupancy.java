@@ -26,27 +26,28 @@ public abstract class AbsGridOccupancy {
      * Find the first vacant cell, if there is one.
      *
      * @param vacantOut Holds the x and y coordinate of the vacant cell
+     * @param rows      Occupied cells of each row, the bit x being set for column x.
      * @param spanX     Horizontal cell span.
      * @param spanY     Vertical cell span.
      * @return true if a vacant cell was found
      */
-    protected boolean findVacantCell(int[] vacantOut, boolean[][] cells, int countX, int countY,
+    protected boolean findVacantCell(int[] vacantOut, long[] rows, int countX, int countY,
                                      int spanX, int spanY) {
+        long vacantColumns = countX == Long.SIZE ? -1L : (1L << countX) - 1;
         for (int y = 0; (y + spanY) <= countY; y++) {
-            for (int x = 0; (x + spanX) <= countX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            long vacant = vacantColumns;
+            for (int j = y; j < y + spanY; j++) {
+                vacant &= ~rows[j];
+            }
+            // Keeps the columns followed by spanX - 1 vacant columns
+            long starts = vacant;
+            for (int i = 1; i < spanX && starts != 0; i++) {
+                starts &= vacant >>> i;
+            }
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
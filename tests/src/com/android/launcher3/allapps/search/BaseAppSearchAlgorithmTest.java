@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
+import com.android.launcher3.model.AllAppsList;
+import com.android.launcher3.search.SearchCallback;
+import com.android.launcher3.util.LauncherModelHelper;
+import com.android.launcher3.util.ReflectionHelpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests for {@link BaseAppSearchAlgorithm}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BaseAppSearchAlgorithmTest {
+
+    private LauncherModelHelper mModelHelper;
+    private TestSearchAlgorithm mAlgorithm;
+    private final ResultCollector mResults = new ResultCollector();
+
+    @Before
+    public void setUp() {
+        mModelHelper = new LauncherModelHelper();
+        mAlgorithm = new TestSearchAlgorithm(mModelHelper.sandboxContext);
+    }
+
+    @After
+    public void tearDown() {
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void searchWhileLoaderRunning_deliversLatestQuery() throws Exception {
+        // Holds the model thread with the model not loaded, as a running loader does
+        ReflectionHelpers.setField(mModelHelper.getModel(), "mModelLoaded", false);
+        CountDownLatch loaderDone = new CountDownLatch(1);
+        MODEL_EXECUTOR.execute(() -> {
+            try {
+                loaderDone.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        mAlgorithm.doSearch("a", mResults);
+        mAlgorithm.doSearch("ab", mResults);
+        loaderDone.countDown();
+        waitForResults();
+
+        assertEquals(Collections.singletonList("ab"), mResults.queries);
+        assertEquals(1, mAlgorithm.getStats().getCoalescedCount());
+    }
+
+    @Test
+    public void searchAfterLoaderRun_isNotCoalesced() throws Exception {
+        ReflectionHelpers.setField(mModelHelper.getModel(), "mModelLoaded", false);
+        mAlgorithm.doSearch("a", mResults);
+        waitForResults();
+
+        ReflectionHelpers.setField(mModelHelper.getModel(), "mModelLoaded", true);
+        mAlgorithm.doSearch("ab", mResults);
+        waitForResults();
+
+        assertEquals(Arrays.asList("a", "ab"), mResults.queries);
+        assertEquals(0, mAlgorithm.getStats().getCoalescedCount());
+    }
+
+    private static void waitForResults() throws Exception {
+        MODEL_EXECUTOR.submit(() -> { }).get();
+        MAIN_EXECUTOR.submit(() -> { }).get();
+    }
+
+    private static class TestSearchAlgorithm extends BaseAppSearchAlgorithm {
+
+        TestSearchAlgorithm(Context context) {
+            super(context, false /* addNoResultsMessage */);
+        }
+
+        @Override
+        protected ArrayList<AdapterItem> getSearchResult(AllAppsList apps, String query,
+                BooleanSupplier isCancelled) {
+            return new ArrayList<>();
+        }
+    }
+
+    private static class ResultCollector implements SearchCallback<AdapterItem> {
+
+        final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onSearchResult(String query, ArrayList<AdapterItem> items) {
+            queries.add(query);
+        }
+
+        @Override
+        public void clearSearchResult() { }
+    }
+}
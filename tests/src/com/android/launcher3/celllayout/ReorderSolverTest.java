@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.celllayout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.celllayout.CellLayoutBoard.CellType;
+import com.android.launcher3.celllayout.CellLayoutBoard.IconPoint;
+import com.android.launcher3.celllayout.CellLayoutBoard.WidgetRect;
+import com.android.launcher3.celllayout.testcases.FullReorderCase;
+import com.android.launcher3.celllayout.testcases.MoveOutReorderCase;
+import com.android.launcher3.celllayout.testcases.PushReorderCase;
+import com.android.launcher3.celllayout.testcases.ReorderTestCase;
+import com.android.launcher3.celllayout.testcases.SimpleReorderCase;
+import com.android.launcher3.util.CellAndSpan;
+import com.android.launcher3.util.GridOccupancy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the reorder cases of {@link ReorderWidgets} against {@link ReorderSolver} directly, without
+ * any launcher or view
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ReorderSolverTest {
+
+    @Test
+    public void simpleReorder() {
+        runTestCaseMap(SimpleReorderCase.TEST_BY_GRID_SIZE);
+    }
+
+    @Test
+    public void pushReorder() {
+        runTestCaseMap(PushReorderCase.TEST_BY_GRID_SIZE);
+    }
+
+    @Test
+    public void fullReorder() {
+        runTestCaseMap(FullReorderCase.TEST_BY_GRID_SIZE);
+    }
+
+    @Test
+    public void moveOutReorder() {
+        runTestCaseMap(MoveOutReorderCase.TEST_BY_GRID_SIZE);
+    }
+
+    @Test
+    public void sameSnapshot_sameSolution() {
+        ReorderTestCase testCase = FullReorderCase.TEST_BY_GRID_SIZE.get(new Point(5, 5));
+        ReorderSolver.Solution first = new Snapshot(5, 5, testCase).solve();
+        ReorderSolver.Solution second = new Snapshot(5, 5, testCase).solve();
+        for (int i = 0; i < first.positions.length; i++) {
+            assertEquals(first.positions[i].toString(), second.positions[i].toString());
+        }
+        assertArrayEquals(first.intersectingItems.toArray(), second.intersectingItems.toArray());
+    }
+
+    @Test
+    public void unmovableItem_noSolution() {
+        // Dropping over the search bar, which can't move
+        ReorderTestCase testCase = PushReorderCase.TEST_BY_GRID_SIZE.get(new Point(5, 5));
+        Snapshot snapshot = new Snapshot(5, 5, testCase);
+        ReorderSolver solver = snapshot.createSolver(snapshot.getDirection());
+        solver.addCandidate(0, 0, 1, 1);
+        assertFalse(solver.solve().isSolution);
+    }
+
+    @Test
+    public void cancelledSolver_returnsNull() {
+        ReorderTestCase testCase = PushReorderCase.TEST_BY_GRID_SIZE.get(new Point(5, 5));
+        Snapshot snapshot = new Snapshot(5, 5, testCase);
+        ReorderSolver solver = snapshot.createSolver(snapshot.getDirection());
+        snapshot.addCandidate(solver);
+        solver.cancel();
+        assertNull(solver.solve());
+    }
+
+    private void runTestCaseMap(Map<Point, ReorderTestCase> testCaseMap) {
+        testCaseMap.forEach((gridSize, testCase) -> {
+            Snapshot snapshot = new Snapshot(gridSize.x, gridSize.y, testCase);
+            ReorderSolver.Solution solution = snapshot.solve();
+            assertTrue("No solution for " + gridSize, solution.isSolution);
+            snapshot.positions.get(snapshot.main).copyFrom(solution);
+            for (int i = 0; i < solution.positions.length; i++) {
+                if (i != snapshot.main) {
+                    snapshot.positions.get(i).copyFrom(solution.positions[i]);
+                }
+            }
+            assertTrue("None of the valid boards match the solution for " + gridSize,
+                    testCase.mEnd.stream().anyMatch(snapshot::matches));
+        });
+    }
+
+    /**
+     * The items of a board, dropping the main widget as if it was dragged to the center of the
+     * cell of the test case
+     */
+    private static class Snapshot {
+
+        final int countX;
+        final int countY;
+        final Point moveTo;
+        final List<Character> types = new ArrayList<>();
+        final List<CellAndSpan> positions = new ArrayList<>();
+        final List<Boolean> canReorder = new ArrayList<>();
+        final GridOccupancy occupied;
+        int main = -1;
+
+        Snapshot(int countX, int countY, ReorderTestCase testCase) {
+            this.countX = countX;
+            this.countY = countY;
+            moveTo = testCase.moveMainTo;
+            for (WidgetRect widget : testCase.mStart.getWidgets()) {
+                if (widget.mType == CellType.MAIN_WIDGET) {
+                    main = positions.size();
+                }
+                types.add(widget.mType);
+                positions.add(new CellAndSpan(widget.getCellX(), widget.getCellY(),
+                        widget.getSpanX(), widget.getSpanY()));
+                // The search bar can't be moved
+                canReorder.add(!widget.shouldIgnore());
+            }
+            for (IconPoint icon : testCase.mStart.getIcons()) {
+                types.add(icon.getType());
+                positions.add(new CellAndSpan(icon.getCoord().x, icon.getCoord().y, 1, 1));
+                canReorder.add(true);
+            }
+            // Like a drag within the layout, the dragged item doesn't occupy any cell
+            occupied = new GridOccupancy(countX, countY);
+            for (int i = 0; i < positions.size(); i++) {
+                if (i != main) {
+                    occupied.markCells(positions.get(i), true);
+                }
+            }
+        }
+
+        ReorderSolver.Solution solve() {
+            ReorderSolver solver = createSolver(getDirection());
+            addCandidate(solver);
+            return solver.solve();
+        }
+
+        ReorderSolver createSolver(int[] direction) {
+            CellAndSpan[] items = new CellAndSpan[positions.size()];
+            boolean[] reorder = new boolean[positions.size()];
+            for (int i = 0; i < items.length; i++) {
+                CellAndSpan c = positions.get(i);
+                items[i] = new CellAndSpan(c.cellX, c.cellY, c.spanX, c.spanY);
+                reorder[i] = canReorder.get(i);
+            }
+            return new ReorderSolver(countX, countY, occupied, items, reorder, main, direction);
+        }
+
+        void addCandidate(ReorderSolver solver) {
+            CellAndSpan m = positions.get(main);
+            int[] cell = findNearestCell(m.spanX, m.spanY);
+            solver.addCandidate(cell[0], cell[1], m.spanX, m.spanY);
+        }
+
+        /**
+         * Returns the top left cell of the item nearest to the drop point, as done by
+         * {@link com.android.launcher3.CellLayout#findNearestArea}, with a cell as unit
+         */
+        int[] findNearestCell(int spanX, int spanY) {
+            float pointX = moveTo.x + 0.5f - (spanX - 1) / 2f;
+            float pointY = moveTo.y + 0.5f - (spanY - 1) / 2f;
+            int[] best = new int[2];
+            double bestDistance = Double.MAX_VALUE;
+            for (int y = 0; y <= countY - spanY; y++) {
+                for (int x = 0; x <= countX - spanX; x++) {
+                    double distance = Math.hypot(x + 0.5f - pointX, y + 0.5f - pointY);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best[0] = x;
+                        best[1] = y;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Returns the push direction as computed by CellLayout for a drop at the center of the
+         * target cell, with a cell as unit
+         */
+        int[] getDirection() {
+            CellAndSpan m = positions.get(main);
+            int[] target = findNearestCell(m.spanX, m.spanY);
+            Rect dropRegion = new Rect(target[0], target[1], target[0] + m.spanX,
+                    target[1] + m.spanY);
+            Rect r = new Rect();
+            for (int i = 0; i < positions.size(); i++) {
+                CellAndSpan c = positions.get(i);
+                r.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+                if (i != main && Rect.intersects(dropRegion, r)) {
+                    dropRegion.union(r);
+                }
+            }
+            float deltaX = (dropRegion.exactCenterX() - moveTo.x - 0.5f) / m.spanX;
+            float deltaY = (dropRegion.exactCenterY() - moveTo.y - 0.5f) / m.spanY;
+            if (dropRegion.width() == countX || m.spanX == countX) {
+                deltaX = 0;
+            }
+            if (dropRegion.height() == countY || m.spanY == countY) {
+                deltaY = 0;
+            }
+            int[] direction = new int[] {1, 0};
+            if (deltaX != 0 || deltaY != 0) {
+                ReorderSolver.computeDirectionVector(deltaX, deltaY, direction);
+            }
+            return direction;
+        }
+
+        boolean matches(CellLayoutBoard board) {
+            for (WidgetRect widget : board.getWidgets()) {
+                CellAndSpan c = positions.get(types.indexOf(widget.mType));
+                if (c.cellX != widget.getCellX() || c.cellY != widget.getCellY()
+                        || c.spanX != widget.getSpanX() || c.spanY != widget.getSpanY()) {
+                    return false;
+                }
+            }
+            for (IconPoint icon : board.getIcons()) {
+                boolean found = false;
+                for (int i = 0; i < positions.size(); i++) {
+                    CellAndSpan c = positions.get(i);
+                    found |= types.get(i) == icon.getType() && c.cellX == icon.getCoord().x
+                            && c.cellY == icon.getCoord().y;
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
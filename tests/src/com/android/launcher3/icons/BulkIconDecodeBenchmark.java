@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+
+import static com.android.launcher3.util.Executors.ICON_DECODE_EXECUTOR;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.model.data.IconRequestInfo;
+import com.android.launcher3.util.BenchmarkReporter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures {@link IconCache#getTitlesAndIconsInBulk} over the installed apps, as run by the
+ * loader, decoding the icons on the loader thread and on the decode executor.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class BulkIconDecodeBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void benchmarkBulkLoad() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        IconCache iconCache = new IconCache(context, InvariantDeviceProfile.INSTANCE.get(context),
+                null /* dbFileName */, new IconProvider(context));
+        List<LauncherActivityInfo> activities = context.getSystemService(LauncherApps.class)
+                .getActivityList(null, Process.myUserHandle());
+        MODEL_EXECUTOR.submit(() -> {
+            for (LauncherActivityInfo lai : activities) {
+                iconCache.getTitleAndIcon(new AppInfo(context, lai, lai.getUser()), lai, false);
+            }
+        }).get();
+
+        long serialNanos = 0;
+        long parallelNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            serialNanos += timeBulkLoad(iconCache, activities, null /* decodeExecutor */);
+            parallelNanos += timeBulkLoad(iconCache, activities, ICON_DECODE_EXECUTOR);
+        }
+        new BenchmarkReporter("BulkIconDecode")
+                .add("apps", activities.size())
+                .addAverageMicros("serial", serialNanos, ROUNDS)
+                .addAverageMicros("parallel", parallelNanos, ROUNDS)
+                .report();
+    }
+
+    /**
+     * Returns the time to load the icons of all the {@param activities} in bulk, with an empty
+     * memory cache so that every icon is decoded
+     */
+    private static long timeBulkLoad(IconCache iconCache, List<LauncherActivityInfo> activities,
+            Executor decodeExecutor) throws Exception {
+        iconCache.onTrimMemory(TRIM_MEMORY_COMPLETE);
+        List<IconRequestInfo<AppInfo>> requests = new ArrayList<>();
+        for (LauncherActivityInfo lai : activities) {
+            requests.add(new IconRequestInfo<>(
+                    new AppInfo(lai, lai.getUser(), false /* quietModeEnabled */), lai,
+                    false /* useLowResIcon */));
+        }
+        return MODEL_EXECUTOR.submit(() -> {
+            long start = System.nanoTime();
+            iconCache.getTitlesAndIconsInBulk(requests, decodeExecutor);
+            return System.nanoTime() - start;
+        }).get();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static com.android.launcher3.util.Executors.ICON_DECODE_EXECUTOR;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.model.data.IconRequestInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for {@link IconCache#getTitlesAndIconsInBulk} decoding the icons in parallel
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BulkIconDecodeTest {
+
+    private IconCache mIconCache;
+    private List<LauncherActivityInfo> mActivities;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // Backed by an in-memory DB
+        mIconCache = new IconCache(context, InvariantDeviceProfile.INSTANCE.get(context),
+                null /* dbFileName */, new IconProvider(context));
+        mActivities = context.getSystemService(LauncherApps.class)
+                .getActivityList(null, Process.myUserHandle());
+        assertFalse(mActivities.isEmpty());
+
+        // Caches the icons in the DB, as done when the apps are first loaded
+        MODEL_EXECUTOR.submit(() -> {
+            for (LauncherActivityInfo lai : mActivities) {
+                mIconCache.getTitleAndIcon(new AppInfo(context, lai, lai.getUser()), lai, false);
+            }
+        }).get();
+    }
+
+    @Test
+    public void parallelDecode_appliesSameIconsAsSerialDecode() throws Exception {
+        List<AppInfo> serial = loadInBulk(null /* decodeExecutor */, 1);
+        List<AppInfo> parallel = loadInBulk(ICON_DECODE_EXECUTOR, 1);
+
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            AppInfo expected = serial.get(i);
+            AppInfo actual = parallel.get(i);
+            assertEquals(expected.componentName, actual.componentName);
+            assertFalse(actual.bitmap.isNullOrLowRes());
+            assertEquals(expected.title, actual.title);
+            assertEquals(expected.bitmap.color, actual.bitmap.color);
+            assertEquals(expected.bitmap.flags, actual.bitmap.flags);
+        }
+    }
+
+    @Test
+    public void parallelDecode_fillsDuplicateRequests() throws Exception {
+        List<AppInfo> apps = loadInBulk(ICON_DECODE_EXECUTOR, 2);
+
+        for (int i = 0; i < apps.size(); i += 2) {
+            AppInfo first = apps.get(i);
+            AppInfo duplicate = apps.get(i + 1);
+            assertEquals(first.componentName, duplicate.componentName);
+            assertFalse(first.bitmap.isNullOrLowRes());
+            assertSame(first.bitmap.icon, duplicate.bitmap.icon);
+            assertEquals(first.title, duplicate.title);
+        }
+    }
+
+    /**
+     * Loads the icons of all the activities in bulk on the model thread, with {@param copies}
+     * requests for each one, and returns the filled items in the order of the requests
+     */
+    private List<AppInfo> loadInBulk(Executor decodeExecutor, int copies) throws Exception {
+        List<AppInfo> apps = new ArrayList<>();
+        List<IconRequestInfo<AppInfo>> requests = new ArrayList<>();
+        for (LauncherActivityInfo lai : mActivities) {
+            for (int i = 0; i < copies; i++) {
+                AppInfo app = new AppInfo(lai, lai.getUser(), false /* quietModeEnabled */);
+                apps.add(app);
+                requests.add(new IconRequestInfo<>(app, lai, false /* useLowResIcon */));
+            }
+        }
+        MODEL_EXECUTOR.submit(
+                () -> mIconCache.getTitlesAndIconsInBulk(requests, decodeExecutor)).get();
+        return apps;
+    }
+}
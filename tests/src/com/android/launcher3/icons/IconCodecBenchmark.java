@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static com.android.launcher3.icons.IconCodecTest.createIcon;
+
+import static org.junit.Assert.assertNotNull;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.launcher3.util.BenchmarkReporter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the encoded size and the encode and decode times of each {@link IconCodec}
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconCodecBenchmark {
+
+    private static final int ICON_COUNT = 100;
+
+    @Test
+    public void benchmarkCodecs() {
+        List<Bitmap> icons = new ArrayList<>();
+        for (int i = 0; i < ICON_COUNT; i++) {
+            icons.add(createIcon(i * 360f / ICON_COUNT));
+        }
+        for (IconCodec codec : IconCodec.values()) {
+            long start = System.nanoTime();
+            List<byte[]> encoded = new ArrayList<>();
+            long size = 0;
+            for (Bitmap icon : icons) {
+                byte[] data = codec.encode(icon);
+                encoded.add(data);
+                size += data.length;
+            }
+            long encodeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] data : encoded) {
+                assertNotNull(codec.decode(data, Config.HARDWARE));
+            }
+            long decodeTime = System.nanoTime() - start;
+
+            new BenchmarkReporter("IconCodec." + codec)
+                    .add("icons", ICON_COUNT)
+                    .add("bytes", size)
+                    .addAverageMicros("encode", encodeTime, ICON_COUNT)
+                    .addAverageMicros("decode", decodeTime, ICON_COUNT)
+                    .report();
+        }
+    }
+}
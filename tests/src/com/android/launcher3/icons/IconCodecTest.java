@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+import android.graphics.drawable.AdaptiveIconDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.util.DisplayMetrics;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.util.Lz4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link IconCodec}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconCodecTest {
+
+    private static final int ICON_SIZE = 192;
+
+    @Test
+    public void lz4RoundTrip() {
+        Random random = new Random(0);
+        for (int size : new int[]{0, 5, 13, 100, 70_000, 300_000}) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                // Mostly runs, with some noise
+                data[i] = random.nextInt(8) == 0 ? (byte) random.nextInt() : (byte) (i / 50);
+            }
+            byte[] compressed = new byte[Lz4.maxCompressedLength(size) + 2];
+            int length = Lz4.compress(data, size, compressed, 2);
+            byte[] result = new byte[size];
+            assertEquals(size, Lz4.decompress(compressed, 2, length, result));
+            assertArrayEquals(data, result);
+        }
+    }
+
+    @Test
+    public void rawLz4IsLossless() {
+        Bitmap icon = createIcon(120);
+        Bitmap decoded = IconCodec.RAW_LZ4.decode(IconCodec.RAW_LZ4.encode(icon), null);
+        assertNotNull(decoded);
+        assertTrue(icon.sameAs(decoded));
+    }
+
+    @Test
+    public void allCodecsRoundTrip() {
+        Bitmap icon = createIcon(30);
+        for (IconCodec codec : IconCodec.values()) {
+            assertEquals(codec, IconCodec.fromId(codec.id));
+            Bitmap decoded = codec.decode(codec.encode(icon), Config.HARDWARE);
+            assertNotNull(codec.name(), decoded);
+            assertEquals(ICON_SIZE, decoded.getWidth());
+            assertEquals(ICON_SIZE, decoded.getHeight());
+        }
+        assertNull(IconCodec.fromId(-1));
+    }
+
+    static Bitmap createIcon(float hue) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (BaseIconFactory factory = new BaseIconFactory(
+                context, DisplayMetrics.DENSITY_XXHIGH, ICON_SIZE)) {
+            return factory.createBadgedIconBitmap(new AdaptiveIconDrawable(
+                    new ColorDrawable(Color.HSVToColor(new float[]{hue, 0.5f, 0.8f})),
+                    new ColorDrawable(Color.WHITE))).icon;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that a change of per-component system state, as done by switching icon packs, only
+ * re-renders the icons of the affected components
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ComponentIconStateTest {
+
+    private static final String TAG = "ComponentIconStateTest";
+
+    private static final int APP_COUNT = 100;
+    private static final long TIMEOUT_MS = 60_000;
+
+    private Context mContext;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+    private PackIconCache mIconCache;
+    private final RecordingCachingLogic mCachingLogic = new RecordingCachingLogic();
+    private final List<ComponentName> mApps = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mIconCache = new PackIconCache();
+
+        // The apps must belong to an installed package for the update handler to keep them
+        PackageInfo info = mContext.getPackageManager()
+                .getPackageInfo(mContext.getPackageName(), 0);
+        for (int i = 0; i < APP_COUNT; i++) {
+            mApps.add(new ComponentName(mContext.getPackageName(), "Activity" + i));
+        }
+        runOnWorker(() -> {
+            // Initializes the system state
+            mIconCache.getUpdateHandler().finish();
+            for (ComponentName cn : mApps) {
+                mIconCache.addIconToDBAndMemCache(cn, mCachingLogic, info, 0,
+                        true /* replaceExisting */);
+            }
+            mIconCache.mIconDb.flush();
+        });
+        mCachingLogic.mLoaded.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mIconCache.mIconDb.close();
+        mWorkerThread.quitSafely();
+    }
+
+    @Test
+    public void packSwitchRerendersCoveredComponentsOnly() throws Exception {
+        Set<ComponentName> covered = new HashSet<>();
+        for (int i = 0; i < APP_COUNT; i++) {
+            if (i % 10 < 3) {
+                covered.add(mApps.get(i));
+            }
+        }
+        mIconCache.mPackComponents = covered;
+
+        updateIcons(true /* expectUpdates */);
+        assertEquals(covered, new HashSet<>(mCachingLogic.mLoaded));
+        assertEquals(APP_COUNT * 3 / 10, mCachingLogic.mLoaded.size());
+
+        // The new states were persisted, so another pass doesn't render anything
+        mCachingLogic.mLoaded.clear();
+        updateIcons(false /* expectUpdates */);
+        assertTrue(mCachingLogic.mLoaded.isEmpty());
+    }
+
+    @Test
+    public void unchangedStateRerendersNothing() throws Exception {
+        updateIcons(false /* expectUpdates */);
+        assertTrue(mCachingLogic.mLoaded.isEmpty());
+    }
+
+    /**
+     * Runs an update pass over all the apps, waiting for its updates if {@param expectUpdates}
+     */
+    private void updateIcons(boolean expectUpdates) throws Exception {
+        CountDownLatch updated = new CountDownLatch(1);
+        runOnWorker(() -> {
+            IconCacheUpdateHandler handler = mIconCache.getUpdateHandler();
+            handler.updateIcons(mApps, mCachingLogic, (pkgs, user) -> updated.countDown());
+            handler.finish();
+        });
+        if (expectUpdates) {
+            assertTrue(updated.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        // Lets any remaining update task run
+        runOnWorker(() -> { });
+    }
+
+    private void runOnWorker(Runnable r) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        mWorkerHandler.post(() -> {
+            r.run();
+            done.countDown();
+        });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private class PackIconCache extends TestIconCache {
+
+        // Components for which the current icon pack has an entry
+        volatile Set<ComponentName> mPackComponents = Collections.emptySet();
+
+        PackIconCache() {
+            super(ComponentIconStateTest.this.mContext, mWorkerThread.getLooper(),
+                    true /* inMemoryCache */);
+        }
+
+        @NonNull
+        @Override
+        protected String getIconSystemState(@NonNull ComponentKey cacheKey) {
+            String state = super.getIconSystemState(cacheKey);
+            return mPackComponents.contains(cacheKey.componentName)
+                    ? state + ",pack:test" : state;
+        }
+    }
+
+    private static class RecordingCachingLogic extends TestCachingLogic {
+
+        final List<ComponentName> mLoaded = Collections.synchronizedList(new ArrayList<>());
+
+        @NonNull
+        @Override
+        public BitmapInfo loadIcon(@NonNull Context context, @NonNull ComponentName object) {
+            mLoaded.add(object);
+            return super.loadIcon(context, object);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link IconAtlas}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconAtlasTest {
+
+    private static final int ICON_SIZE = 64;
+
+    private File mIndexFile;
+    private File mPixelFile;
+
+    @Before
+    public void setUp() {
+        File dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "icon_atlas_test");
+        mIndexFile = new File(dir, "atlas.index");
+        mPixelFile = new File(dir, "atlas.pixels");
+    }
+
+    @After
+    public void tearDown() {
+        IconAtlas.delete(mIndexFile, mPixelFile);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Bitmap red = createIcon(Color.RED);
+        Bitmap blue = createIcon(Color.BLUE);
+        byte[] mono = new byte[ICON_SIZE * ICON_SIZE];
+        Arrays.fill(mono, (byte) 0x80);
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(mIndexFile, mPixelFile, ICON_SIZE)) {
+            assertTrue(writer.add("a/.A", "Red", Color.RED, 1, "state", red, mono));
+            assertTrue(writer.add("b/.B", null, Color.BLUE, 2, "", blue, null));
+            assertFalse(writer.add("c/.C", "Small", 0, 0, "",
+                    Bitmap.createBitmap(ICON_SIZE / 2, ICON_SIZE / 2, Config.ARGB_8888), null));
+            writer.commit();
+        }
+
+        IconAtlas atlas = IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE);
+        assertNotNull(atlas);
+        assertEquals(2, atlas.size());
+        assertNull(atlas.get("c/.C"));
+
+        IconAtlas.Entry entry = atlas.get("a/.A");
+        assertEquals("Red", entry.label);
+        assertEquals(Color.RED, entry.color);
+        assertEquals(1, entry.flags);
+        assertEquals("state", entry.systemState);
+        assertTrue(red.sameAs(atlas.readIcon(entry)));
+        Bitmap monoIcon = atlas.readMonoIcon(entry);
+        assertNotNull(monoIcon);
+        assertEquals(0x80, Color.alpha(monoIcon.getPixel(ICON_SIZE / 2, ICON_SIZE / 2)));
+
+        entry = atlas.get("b/.B");
+        assertNull(entry.label);
+        assertTrue(blue.sameAs(atlas.readIcon(entry)));
+        assertNull(atlas.readMonoIcon(entry));
+    }
+
+    @Test
+    public void patch_keepsUnchangedIcons() throws Exception {
+        Bitmap red = createIcon(Color.RED);
+        Bitmap blue = createIcon(Color.BLUE);
+        Bitmap green = createIcon(Color.GREEN);
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(mIndexFile, mPixelFile, ICON_SIZE)) {
+            writer.add("a/.A", "Red", Color.RED, 0, "", red, null);
+            writer.add("a/.A2", "Red", Color.RED, 0, "", red, null);
+            writer.add("b/.B", "Blue", Color.BLUE, 0, "", blue, null);
+            writer.commit();
+        }
+        IconAtlas atlas = IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE);
+        long length = mPixelFile.length();
+
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(atlas)) {
+            writer.removePackage("a");
+            writer.remove("b/.B");
+            writer.add("b/.B", "Green", Color.GREEN, 0, "", green, null);
+            assertEquals(length, writer.getUnusedBytes());
+            writer.commit();
+        }
+        // The previous atlas stays readable
+        assertTrue(red.sameAs(atlas.readIcon(atlas.get("a/.A"))));
+
+        IconAtlas patched = IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE);
+        assertNotNull(patched);
+        assertEquals(1, patched.size());
+        IconAtlas.Entry entry = patched.get("b/.B");
+        assertEquals("Green", entry.label);
+        assertTrue(green.sameAs(patched.readIcon(entry)));
+    }
+
+    @Test
+    public void changes_areJournaled() {
+        File file = new File(mIndexFile.getParentFile(), "atlas.changes");
+        IconAtlas.Changes changes = IconAtlas.Changes.read(file);
+        assertTrue(changes.isEmpty());
+        changes.addComponent("a/.A");
+        changes.addPackage("b");
+
+        changes = IconAtlas.Changes.read(file);
+        assertTrue(changes.contains("a/.A"));
+        assertTrue(changes.contains("b/.B"));
+        assertFalse(changes.contains("a/.A2"));
+        assertFalse(changes.isUnknown());
+
+        changes.clear();
+        assertFalse(file.exists());
+        assertTrue(IconAtlas.Changes.read(file).isEmpty());
+    }
+
+    @Test
+    public void uncommittedAtlasIsNotOpened() throws Exception {
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(mIndexFile, mPixelFile, ICON_SIZE)) {
+            writer.add("a/.A", "Red", Color.RED, 0, "", createIcon(Color.RED), null);
+        }
+        assertNull(IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE));
+    }
+
+    @Test
+    public void otherIconSizeIsNotOpened() throws Exception {
+        try (IconAtlas.Writer writer = new IconAtlas.Writer(mIndexFile, mPixelFile, ICON_SIZE)) {
+            writer.add("a/.A", "Red", Color.RED, 0, "", createIcon(Color.RED), null);
+            writer.commit();
+        }
+        assertNull(IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE * 2));
+        assertNotNull(IconAtlas.open(mIndexFile, mPixelFile, ICON_SIZE));
+    }
+
+    private static Bitmap createIcon(int color) {
+        Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Config.ARGB_8888);
+        icon.eraseColor(color);
+        // Semi transparent corner, to check that pixels stay premultiplied
+        icon.setPixel(0, 0, Color.argb(0x40, 0xFF, 0x80, 0x00));
+        return icon;
+    }
+}
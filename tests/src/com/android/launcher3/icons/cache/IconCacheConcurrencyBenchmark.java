@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
+import com.android.launcher3.util.BenchmarkReporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of cached icon lookups on the UI thread while a bulk load holds the
+ * cache monitor
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconCacheConcurrencyBenchmark {
+
+    private static final String TAG = "IconCacheConcurrencyBenchmark";
+
+    private static final int BULK_LOAD_COUNT = 100;
+    private static final int MAX_LOOKUPS = 1000;
+    private static final long TIMEOUT_MS = 60_000;
+
+    private HandlerThread mWorkerThread;
+    private TestIconCache mIconCache;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mIconCache = new TestIconCache(context, mWorkerThread.getLooper(),
+                true /* inMemoryCache */);
+    }
+
+    @After
+    public void tearDown() {
+        mIconCache.mIconDb.close();
+        mWorkerThread.quitSafely();
+    }
+
+    @Test
+    public void benchmarkUiLookupsDuringBulkLoad() throws Exception {
+        TestCachingLogic cachingLogic = new TestCachingLogic();
+        ComponentName warm = component(-1);
+        lookup(warm, cachingLogic);
+
+        // Simulates a long update holding the cache monitor, rendering new icons meanwhile
+        CountDownLatch bulkStarted = new CountDownLatch(1);
+        CountDownLatch bulkDone = new CountDownLatch(1);
+        long[] bulkNanos = new long[1];
+        Thread bulkLoad = new Thread(() -> {
+            synchronized (mIconCache) {
+                bulkStarted.countDown();
+                long start = System.nanoTime();
+                for (int i = 0; i < BULK_LOAD_COUNT; i++) {
+                    lookup(component(i), cachingLogic);
+                }
+                bulkNanos[0] = System.nanoTime() - start;
+            }
+            bulkDone.countDown();
+        });
+        bulkLoad.start();
+        assertTrue(bulkStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        UserHandle user = Process.myUserHandle();
+        while (bulkDone.getCount() > 0 && latencies.size() < MAX_LOOKUPS) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+                long start = SystemClock.elapsedRealtimeNanos();
+                lookup(warm, cachingLogic);
+                mIconCache.getDefaultIcon(user);
+                latencies.add(SystemClock.elapsedRealtimeNanos() - start);
+            });
+        }
+        assertTrue(bulkDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        new BenchmarkReporter("IconCacheUiLookups")
+                .add("lookups", sorted.size())
+                .addAverageMicros("bulkLoad", bulkNanos[0], 1)
+                .addAverageMicros("median", sorted.get(sorted.size() / 2), 1)
+                .addAverageMicros("max", sorted.get(sorted.size() - 1), 1)
+                .report();
+    }
+
+    private CacheEntry lookup(ComponentName cn, TestCachingLogic cachingLogic) {
+        return mIconCache.cacheLocked(cn, Process.myUserHandle(), () -> cn, cachingLogic,
+                false /* usePackageIcon */, false /* useLowResIcon */);
+    }
+
+    private static ComponentName component(int i) {
+        return new ComponentName("com.example", "com.example.Activity" + i);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for concurrent use of {@link BaseIconCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconCacheConcurrencyTest {
+
+    private static final String TAG = "IconCacheConcurrencyTest";
+
+    private static final long TIMEOUT_MS = 60_000;
+
+    private Context mContext;
+    private HandlerThread mWorkerThread;
+    private TestIconCache mIconCache;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mIconCache = new TestIconCache(mContext, mWorkerThread.getLooper(),
+                true /* inMemoryCache */);
+    }
+
+    @After
+    public void tearDown() {
+        mIconCache.mIconDb.close();
+        mWorkerThread.quitSafely();
+    }
+
+    @Test
+    public void concurrentLookupsShareOneLoad() throws Exception {
+        BlockingCachingLogic cachingLogic = new BlockingCachingLogic();
+        cachingLogic.mBlockLoads = new CountDownLatch(1);
+        ComponentName cn = component(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CacheEntry>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> lookup(cn, cachingLogic)));
+            }
+            // Let the other lookups queue up behind the first load
+            assertTrue(cachingLogic.mLoadStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            SystemClock.sleep(100);
+            cachingLogic.mBlockLoads.countDown();
+
+            CacheEntry first = results.get(0).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            for (Future<CacheEntry> result : results) {
+                assertSame(first, result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, cachingLogic.mLoadCount.get());
+        assertFalse(lookup(cn, cachingLogic).bitmap.isNullOrLowRes());
+        assertEquals(1, cachingLogic.mLoadCount.get());
+    }
+
+    @Test
+    public void removedEntryIsNotCachedByConcurrentLookup() throws Exception {
+        BlockingCachingLogic cachingLogic = new BlockingCachingLogic();
+        cachingLogic.mBlockLoads = new CountDownLatch(1);
+        ComponentName cn = component(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<CacheEntry> result = executor.submit(() -> lookup(cn, cachingLogic));
+            assertTrue(cachingLogic.mLoadStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            mIconCache.remove(cn, Process.myUserHandle());
+            cachingLogic.mBlockLoads.countDown();
+            result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        // The entry loaded before the removal was not kept, so it is loaded again
+        cachingLogic.mBlockLoads = null;
+        lookup(cn, cachingLogic);
+        assertEquals(2, cachingLogic.mLoadCount.get());
+    }
+
+    @Test
+    public void cachedLookupDoesNotWaitForCacheMonitor() throws Exception {
+        BlockingCachingLogic cachingLogic = new BlockingCachingLogic();
+        ComponentName warm = component(-1);
+        lookup(warm, cachingLogic);
+
+        // Simulates a long update holding the cache monitor
+        CountDownLatch updateStarted = new CountDownLatch(1);
+        CountDownLatch finishUpdate = new CountDownLatch(1);
+        Thread update = new Thread(() -> {
+            synchronized (mIconCache) {
+                updateStarted.countDown();
+                try {
+                    finishUpdate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        update.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(updateStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Future<CacheEntry> result = executor.submit(() -> {
+                mIconCache.getDefaultIcon(Process.myUserHandle());
+                return lookup(warm, cachingLogic);
+            });
+            assertFalse(result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).bitmap.isNullOrLowRes());
+            assertEquals(1, finishUpdate.getCount());
+        } finally {
+            executor.shutdownNow();
+            finishUpdate.countDown();
+            update.join();
+        }
+    }
+
+    private CacheEntry lookup(ComponentName cn, BlockingCachingLogic cachingLogic) {
+        return mIconCache.cacheLocked(cn, Process.myUserHandle(), () -> cn, cachingLogic,
+                false /* usePackageIcon */, false /* useLowResIcon */);
+    }
+
+    private static ComponentName component(int i) {
+        return new ComponentName("com.example", "com.example.Activity" + i);
+    }
+
+    private static class BlockingCachingLogic extends TestCachingLogic {
+
+        final AtomicInteger mLoadCount = new AtomicInteger();
+        final CountDownLatch mLoadStarted = new CountDownLatch(1);
+        volatile CountDownLatch mBlockLoads;
+
+        @NonNull
+        @Override
+        public BitmapInfo loadIcon(@NonNull Context context, @NonNull ComponentName object) {
+            mLoadCount.incrementAndGet();
+            mLoadStarted.countDown();
+            CountDownLatch blockLoads = mBlockLoads;
+            if (blockLoads != null) {
+                try {
+                    blockLoads.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.loadIcon(context, object);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.icons.cache.BaseIconCache.IconDB;
+import com.android.launcher3.util.BenchmarkReporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rebuilding the icon cache with {@link IconCacheUpdateHandler}, rendering the icons on
+ * the worker thread and on a render executor
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconCacheUpdateHandlerBenchmark {
+
+    private static final String TAG = "IconCacheUpdateHandlerBenchmark";
+
+    private static final int APP_COUNT = 300;
+    private static final long TIMEOUT_MS = 60_000;
+
+    private Context mContext;
+    private HandlerThread mWorkerThread;
+    private ExecutorService mRenderExecutor;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mRenderExecutor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @After
+    public void tearDown() {
+        mRenderExecutor.shutdownNow();
+        mWorkerThread.quitSafely();
+    }
+
+    @Test
+    public void benchmarkRebuild() throws Exception {
+        List<ComponentName> apps = new ArrayList<>(APP_COUNT);
+        for (int i = 0; i < APP_COUNT; i++) {
+            apps.add(new ComponentName(mContext.getPackageName(), "test.Activity" + i));
+        }
+
+        new BenchmarkReporter("IconCacheRebuild")
+                .add("icons", APP_COUNT)
+                .addAverageMicros("serial", rebuild(createIconCache(null), apps), 1)
+                .addAverageMicros("parallel", rebuild(createIconCache(mRenderExecutor), apps), 1)
+                .report();
+    }
+
+    /**
+     * Fills an empty cache with {@param apps}, returning the wall time until all were persisted
+     */
+    private long rebuild(TestIconCache cache, List<ComponentName> apps) throws Exception {
+        TestCachingLogic cachingLogic = new TestCachingLogic();
+        long start = System.nanoTime();
+        CountDownLatch started = new CountDownLatch(1);
+        new Handler(mWorkerThread.getLooper()).post(() -> {
+            IconCacheUpdateHandler handler = cache.getUpdateHandler();
+            handler.updateIcons(apps, cachingLogic, (packages, user) -> { });
+            handler.finish();
+            started.countDown();
+        });
+        assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        long end = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (countRows(cache) < apps.size()) {
+            assertTrue("Timed out waiting for icons", SystemClock.uptimeMillis() < end);
+            Thread.sleep(5);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private int countRows(TestIconCache cache) {
+        try (Cursor c = cache.queryCacheDb(new String[]{IconDB.COLUMN_COMPONENT}, null, null)) {
+            return c.getCount();
+        }
+    }
+
+    private TestIconCache createIconCache(@Nullable Executor renderExecutor) {
+        return new TestIconCache(mContext, mWorkerThread.getLooper(), true /* inMemoryCache */) {
+            @Override
+            protected Executor getIconRenderExecutor() {
+                return renderExecutor;
+            }
+        };
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.launcher3.icons.cache.BaseIconCache.IconDB;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link IconCacheUpdateHandler}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconCacheUpdateHandlerTest {
+
+    private static final String TAG = "IconCacheUpdateHandlerTest";
+
+    private static final long TIMEOUT_MS = 60_000;
+
+    private Context mContext;
+    private HandlerThread mWorkerThread;
+    private ExecutorService mRenderExecutor;
+    private final UpdatableCachingLogic mCachingLogic = new UpdatableCachingLogic();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mRenderExecutor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @After
+    public void tearDown() {
+        mRenderExecutor.shutdownNow();
+        mWorkerThread.quitSafely();
+    }
+
+    @Test
+    public void parallelUpdateAddsAllIcons() throws Exception {
+        TestIconCache cache = createIconCache();
+        rebuild(cache, createApps(100));
+        assertEquals(100, countRows(cache));
+    }
+
+    @Test
+    public void parallelUpdateNotifiesUpdatedPackages() throws Exception {
+        TestIconCache cache = createIconCache();
+        List<ComponentName> apps = createApps(50);
+        rebuild(cache, apps);
+
+        // Every icon is now outdated
+        mCachingLogic.mLastUpdated++;
+        Set<String> updatedPackages = new HashSet<>();
+        runOnWorker(() -> cache.getUpdateHandler().updateIcons(apps, mCachingLogic,
+                (packages, user) -> updatedPackages.addAll(packages)));
+        waitForRows(apps.size(), TIMEOUT_MS, () -> {
+            try (Cursor c = cache.queryCacheDb(new String[]{IconDB.COLUMN_LAST_UPDATED},
+                    IconDB.COLUMN_LAST_UPDATED + " = ?",
+                    new String[]{Long.toString(mCachingLogic.mLastUpdated)})) {
+                return c.getCount();
+            }
+        });
+        runOnWorker(() -> { });
+        assertTrue(updatedPackages.contains(mContext.getPackageName()));
+    }
+
+    /**
+     * Fills an empty cache with {@param apps}, returning once all were persisted
+     */
+    private void rebuild(TestIconCache cache, List<ComponentName> apps) throws Exception {
+        runOnWorker(() -> {
+            IconCacheUpdateHandler handler = cache.getUpdateHandler();
+            handler.updateIcons(apps, mCachingLogic, (packages, user) -> { });
+            handler.finish();
+        });
+        waitForRows(apps.size(), TIMEOUT_MS, () -> countRows(cache));
+    }
+
+    private List<ComponentName> createApps(int count) {
+        List<ComponentName> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            apps.add(new ComponentName(mContext.getPackageName(), "test.Activity" + i));
+        }
+        return apps;
+    }
+
+    private int countRows(TestIconCache cache) {
+        try (Cursor c = cache.queryCacheDb(new String[]{IconDB.COLUMN_COMPONENT}, null, null)) {
+            return c.getCount();
+        }
+    }
+
+    private void waitForRows(int count, long timeout, RowCounter counter)
+            throws InterruptedException {
+        long end = SystemClock.uptimeMillis() + timeout;
+        while (counter.count() < count) {
+            assertTrue("Timed out waiting for icons", SystemClock.uptimeMillis() < end);
+            Thread.sleep(5);
+        }
+    }
+
+    private void runOnWorker(Runnable r) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mWorkerThread.getLooper()).post(() -> {
+            r.run();
+            latch.countDown();
+        });
+        assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private interface RowCounter {
+        int count();
+    }
+
+    private TestIconCache createIconCache() {
+        return new TestIconCache(mContext, mWorkerThread.getLooper(), true /* inMemoryCache */) {
+            @Override
+            protected Executor getIconRenderExecutor() {
+                return mRenderExecutor;
+            }
+        };
+    }
+
+    private static class UpdatableCachingLogic extends TestCachingLogic {
+
+        volatile long mLastUpdated = 1;
+
+        @Override
+        public long getLastUpdatedTime(@Nullable ComponentName object,
+                @NonNull PackageInfo info) {
+            return mLastUpdated;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+
+/**
+ * Tests for {@link IconMemoryCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconMemoryCacheTest {
+
+    private static final int ICON_SIZE = 64;
+    // Room for three icons and a few low-res entries
+    private static final long BUDGET = 3 * (ICON_SIZE * ICON_SIZE * 4 + 256) + 1024;
+
+    @Test
+    public void leastRecentlyUsedIsDemoted() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        cache.put(key(0), createEntry("0"));
+        cache.put(key(1), createEntry("1"));
+        cache.put(key(2), createEntry("2"));
+        // Touch the first entry, so that the second one is the least recently used
+        cache.get(key(0));
+        cache.put(key(3), createEntry("3"));
+
+        CacheEntry demoted = cache.get(key(1));
+        assertNotNull(demoted);
+        assertTrue(demoted.bitmap.isLowRes());
+        assertEquals("1", demoted.title);
+        assertEquals(Color.RED, demoted.bitmap.color);
+        assertFalse(cache.get(key(0)).bitmap.isLowRes());
+        assertFalse(cache.get(key(3)).bitmap.isLowRes());
+    }
+
+    @Test
+    public void queuedAccessesKeepTheirOrder() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        cache.put(key(0), createEntry("0"));
+        cache.put(key(1), createEntry("1"));
+        cache.put(key(2), createEntry("2"));
+        // More accesses than are queued before being applied
+        for (int i = 0; i < 300; i++) {
+            cache.get(key(i % 2 == 0 ? 0 : 2));
+        }
+        cache.put(key(3), createEntry("3"));
+
+        assertTrue(cache.get(key(1)).bitmap.isLowRes());
+        assertFalse(cache.get(key(0)).bitmap.isLowRes());
+        assertFalse(cache.get(key(2)).bitmap.isLowRes());
+    }
+
+    @Test
+    public void pinnedEntriesAreKept() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        cache.setPinnedKeys(Collections.singleton(key(0)));
+        for (int i = 0; i < 10; i++) {
+            cache.put(key(i), createEntry(Integer.toString(i)));
+        }
+        assertFalse(cache.get(key(0)).bitmap.isLowRes());
+
+        cache.trimToFraction(0);
+        assertFalse(cache.get(key(0)).bitmap.isLowRes());
+        assertNull(cache.get(key(9)));
+    }
+
+    @Test
+    public void lowResEntriesAreDroppedLast() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        for (int i = 0; i < 100; i++) {
+            cache.put(key(i), createEntry(Integer.toString(i)));
+        }
+        // The oldest demoted entries were dropped to stay within the budget
+        assertNull(cache.get(key(0)));
+        assertNotNull(cache.get(key(99)));
+        assertFalse(cache.get(key(99)).bitmap.isLowRes());
+    }
+
+    @Test
+    public void putIfUnchanged_onlyChecksItsKey() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        long version = cache.getVersion(key(0));
+        cache.put(key(1), createEntry("1"));
+        cache.remove(key(1));
+        assertTrue(cache.putIfUnchanged(key(0), createEntry("0"), version));
+
+        version = cache.getVersion(key(0));
+        cache.remove(key(0));
+        assertFalse(cache.putIfUnchanged(key(0), createEntry("0"), version));
+        assertNull(cache.get(key(0)));
+
+        version = cache.getVersion(key(0));
+        cache.clear();
+        assertFalse(cache.putIfUnchanged(key(0), createEntry("0"), version));
+    }
+
+    @Test
+    public void emptyBudgetKeepsNothing() {
+        IconMemoryCache cache = new IconMemoryCache(0);
+        cache.put(key(0), createEntry("0"));
+        assertNull(cache.get(key(0)));
+    }
+
+    @Test
+    public void dumpReportsCounters() {
+        IconMemoryCache cache = new IconMemoryCache(BUDGET);
+        cache.put(key(0), createEntry("0"));
+        cache.get(key(0));
+        cache.get(key(1));
+        StringWriter out = new StringWriter();
+        cache.dump("", new PrintWriter(out, true));
+        assertTrue(out.toString().contains("hits=1 misses=1"));
+    }
+
+    private static ComponentKey key(int i) {
+        return new ComponentKey(new ComponentName("com.example", "com.example.Activity" + i),
+                Process.myUserHandle());
+    }
+
+    private static CacheEntry createEntry(String title) {
+        CacheEntry entry = new CacheEntry();
+        entry.title = title;
+        entry.bitmap = BitmapInfo.of(
+                Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Config.ARGB_8888), Color.RED);
+        return entry;
+    }
+}
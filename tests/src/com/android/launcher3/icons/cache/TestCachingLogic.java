@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static com.android.launcher3.icons.cache.TestIconCache.ICON_SIZE;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.AdaptiveIconDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.DisplayMetrics;
+
+import androidx.annotation.NonNull;
+
+import com.android.launcher3.icons.BaseIconFactory;
+import com.android.launcher3.icons.BitmapInfo;
+
+/**
+ * {@link CachingLogic} for components of the current user, rendering each of them with its own
+ * adaptive icon color
+ */
+public class TestCachingLogic implements CachingLogic<ComponentName> {
+
+    @NonNull
+    @Override
+    public ComponentName getComponent(@NonNull ComponentName object) {
+        return object;
+    }
+
+    @NonNull
+    @Override
+    public UserHandle getUser(@NonNull ComponentName object) {
+        return Process.myUserHandle();
+    }
+
+    @NonNull
+    @Override
+    public CharSequence getLabel(@NonNull ComponentName object) {
+        return object.getShortClassName();
+    }
+
+    @NonNull
+    @Override
+    public BitmapInfo loadIcon(@NonNull Context context, @NonNull ComponentName object) {
+        try (BaseIconFactory factory = new BaseIconFactory(
+                context, DisplayMetrics.DENSITY_XXHIGH, ICON_SIZE)) {
+            return factory.createBadgedIconBitmap(new AdaptiveIconDrawable(
+                    new ColorDrawable(Color.HSVToColor(
+                            new float[]{Math.floorMod(object.hashCode(), 360), 0.5f, 0.8f})),
+                    new ColorDrawable(Color.WHITE)));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.util.DisplayMetrics;
+
+import androidx.annotation.NonNull;
+
+import com.android.launcher3.icons.BaseIconFactory;
+
+/**
+ * {@link BaseIconCache} backed by an in-memory DB, for the icons of a single user
+ */
+public class TestIconCache extends BaseIconCache {
+
+    public static final int ICON_SIZE = 192;
+
+    public TestIconCache(Context context, Looper bgLooper, boolean inMemoryCache) {
+        super(context, null, bgLooper, DisplayMetrics.DENSITY_XXHIGH, ICON_SIZE, inMemoryCache);
+    }
+
+    @Override
+    protected long getSerialNumberForUser(@NonNull UserHandle user) {
+        return 0;
+    }
+
+    @Override
+    protected boolean isInstantApp(@NonNull ApplicationInfo info) {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public BaseIconFactory getIconFactory() {
+        return new BaseIconFactory(mContext, DisplayMetrics.DENSITY_XXHIGH, ICON_SIZE);
+    }
+}
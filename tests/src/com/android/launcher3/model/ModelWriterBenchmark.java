@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+import static com.android.launcher3.util.LauncherModelHelper.APP_ICON;
+import static com.android.launcher3.util.LauncherModelHelper.DESKTOP;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.util.BenchmarkReporter;
+import com.android.launcher3.util.LauncherModelHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures rearranging a full screen of items through {@link ModelWriter}, against one content
+ * provider update per item
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ModelWriterBenchmark {
+
+    private static final int ITEM_COUNT = 100;
+    private static final int GRID_WIDTH = 10;
+    private static final int SCREEN_ID = 0;
+    private static final int ROUNDS = 10;
+
+    private LauncherModelHelper mModelHelper;
+    private ModelWriter mWriter;
+    private final ArrayList<ItemInfo> mItems = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mModelHelper = new LauncherModelHelper();
+        mWriter = mModelHelper.getModel().getWriter(false /* hasVerticalHotseat */,
+                false /* verifyChanges */, null /* owner */);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            WorkspaceItemInfo item = new WorkspaceItemInfo();
+            item.id = mModelHelper.addItem(APP_ICON, SCREEN_ID, DESKTOP,
+                    i % GRID_WIDTH, i / GRID_WIDTH);
+            item.container = DESKTOP;
+            item.screenId = SCREEN_ID;
+            item.cellX = i % GRID_WIDTH;
+            item.cellY = i / GRID_WIDTH;
+            mItems.add(item);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void benchmarkRearrangeItems() throws Exception {
+        ContentResolver cr = mModelHelper.sandboxContext.getContentResolver();
+        ModelWriteQueue writeQueue = mModelHelper.getModel().getWriteQueue();
+        long providerNanos = 0;
+        long writerNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            // One update per item through the content provider, as done before
+            rearrange(2 * round + 1);
+            long start = System.nanoTime();
+            MODEL_EXECUTOR.submit(() -> {
+                for (ItemInfo item : mItems) {
+                    ContentValues values = new ContentValues();
+                    values.put(Favorites.CONTAINER, item.container);
+                    values.put(Favorites.CELLX, item.cellX);
+                    values.put(Favorites.CELLY, item.cellY);
+                    values.put(Favorites.RANK, item.rank);
+                    values.put(Favorites.SPANX, item.spanX);
+                    values.put(Favorites.SPANY, item.spanY);
+                    values.put(Favorites.SCREEN, item.screenId);
+                    cr.update(Favorites.getContentUri(item.id), values, null, null);
+                }
+            }).get();
+            providerNanos += System.nanoTime() - start;
+
+            rearrange(2 * round + 2);
+            start = System.nanoTime();
+            mWriter.modifyItemsInDatabase(mItems, DESKTOP, SCREEN_ID);
+            MODEL_EXECUTOR.submit(writeQueue::flush).get();
+            writerNanos += System.nanoTime() - start;
+        }
+        new BenchmarkReporter("ModelWriterRearrange")
+                .add("items", ITEM_COUNT)
+                .addAverageMicros("contentProvider", providerNanos, ROUNDS)
+                .addAverageMicros("modelWriter", writerNanos, ROUNDS)
+                .report();
+    }
+
+    /**
+     * Places each item at a rotation of the grid, which moves all of them for each {@param shift}
+     */
+    private void rearrange(int shift) {
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            int cell = (i + shift) % ITEM_COUNT;
+            ItemInfo item = mItems.get(i);
+            item.cellX = cell % GRID_WIDTH;
+            item.cellY = cell / GRID_WIDTH;
+        }
+    }
+}
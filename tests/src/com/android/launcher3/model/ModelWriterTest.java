@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+import static com.android.launcher3.util.LauncherModelHelper.APP_ICON;
+import static com.android.launcher3.util.LauncherModelHelper.DESKTOP;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.util.ContentWriter;
+import com.android.launcher3.util.LauncherModelHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests the workspace writes of {@link ModelWriter}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ModelWriterTest {
+
+    private static final int ITEM_COUNT = 100;
+    private static final int GRID_WIDTH = 10;
+    private static final int SCREEN_ID = 0;
+
+    private LauncherModelHelper mModelHelper;
+    private ModelWriter mWriter;
+    private ModelWriteQueue mWriteQueue;
+    private final ArrayList<ItemInfo> mItems = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mModelHelper = new LauncherModelHelper();
+        mWriter = mModelHelper.getModel().getWriter(false /* hasVerticalHotseat */,
+                false /* verifyChanges */, null /* owner */);
+        mWriteQueue = mModelHelper.getModel().getWriteQueue();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            WorkspaceItemInfo item = new WorkspaceItemInfo();
+            item.id = mModelHelper.addItem(APP_ICON, SCREEN_ID, DESKTOP,
+                    i % GRID_WIDTH, i / GRID_WIDTH);
+            item.container = DESKTOP;
+            item.screenId = SCREEN_ID;
+            item.cellX = i % GRID_WIDTH;
+            item.cellY = i / GRID_WIDTH;
+            mItems.add(item);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void modifyItems_writesAllPositions() throws Exception {
+        rearrange(1);
+        mWriter.modifyItemsInDatabase(mItems, DESKTOP, SCREEN_ID);
+        flushWrites();
+        verifyPositions(1);
+    }
+
+    @Test
+    public void moveItem_writesPosition() throws Exception {
+        ItemInfo item = mItems.get(0);
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        flushWrites();
+
+        verifyPosition(item.id, 3, 4);
+    }
+
+    @Test
+    public void repeatedMoves_coalescedIntoOneWrite() throws Exception {
+        ItemInfo item = mItems.get(0);
+        for (int i = 0; i < 5; i++) {
+            mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, i, 9);
+        }
+        // A resize of the same item is merged too, keeping the last position
+        mWriter.modifyItemInDatabase(item, DESKTOP, SCREEN_ID, 7, 9, 1, 1);
+        flushWrites();
+
+        assertEquals(5, mWriteQueue.getCoalescedCount());
+        assertEquals(1, mWriteQueue.getExecutedCount());
+        verifyPosition(item.id, 7, 9);
+    }
+
+    @Test
+    public void pendingWrites_flushedAfterDeadline() throws Exception {
+        ItemInfo item = mItems.get(0);
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        // Posted after the flush with the same delay, so runs once the updates are written
+        CountDownLatch flushed = new CountDownLatch(1);
+        MODEL_EXECUTOR.getHandler().postDelayed(flushed::countDown,
+                ModelWriteQueue.FLUSH_DELAY_MS);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, mWriteQueue.getExecutedCount());
+        verifyPosition(item.id, 3, 4);
+    }
+
+    @Test
+    public void moveItem_writesPositionAtTimeOfMove() throws Exception {
+        ItemInfo item = mItems.get(0);
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        // Changed again without going through the writer before the flush
+        item.cellX = 5;
+        item.cellY = 6;
+        flushWrites();
+
+        verifyPosition(item.id, 3, 4);
+    }
+
+    @Test
+    public void failedUpdate_notReportedAsWritten() throws Exception {
+        ItemInfo item = mItems.get(0);
+        ItemInfo badItem = mItems.get(1);
+        AtomicBoolean badItemWritten = new AtomicBoolean();
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        mWriteQueue.enqueue(badItem.id, new ContentWriter(mModelHelper.sandboxContext)
+                .put("unknown_column", 1), () -> badItemWritten.set(true));
+        flushWrites();
+
+        // The other update is still written on its own
+        assertFalse(badItemWritten.get());
+        assertEquals(1, mWriteQueue.getExecutedCount());
+        verifyPosition(item.id, 3, 4);
+    }
+
+    @Test
+    public void abortDelete_dropsPendingMoves() throws Exception {
+        ItemInfo item = mItems.get(0);
+        mWriter.prepareToUndoDelete();
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        mWriter.abortDelete();
+        flushWrites();
+
+        assertEquals(0, mWriteQueue.getExecutedCount());
+        verifyPosition(item.id, 0, 0);
+    }
+
+    @Test
+    public void commitDelete_writesPendingMoves() throws Exception {
+        ItemInfo item = mItems.get(0);
+        mWriter.prepareToUndoDelete();
+        mWriter.moveItemInDatabase(item, DESKTOP, SCREEN_ID, 3, 4);
+        mWriter.commitDelete();
+        // Lets the committed moves reach the queue
+        MODEL_EXECUTOR.submit(() -> { }).get();
+        flushWrites();
+
+        assertEquals(1, mWriteQueue.getExecutedCount());
+        verifyPosition(item.id, 3, 4);
+    }
+
+    private void flushWrites() throws Exception {
+        MODEL_EXECUTOR.submit(mWriteQueue::flush).get();
+    }
+
+    /**
+     * Places each item at a rotation of the grid, which moves all of them for each {@param shift}
+     */
+    private void rearrange(int shift) {
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            int cell = (i + shift) % ITEM_COUNT;
+            ItemInfo item = mItems.get(i);
+            item.cellX = cell % GRID_WIDTH;
+            item.cellY = cell / GRID_WIDTH;
+        }
+    }
+
+    private void verifyPositions(int shift) {
+        int count = 0;
+        try (Cursor c = queryPositions()) {
+            while (c.moveToNext()) {
+                int index = indexOfItem(c.getInt(0));
+                int cell = (index + shift) % ITEM_COUNT;
+                assertEquals(cell % GRID_WIDTH, c.getInt(1));
+                assertEquals(cell / GRID_WIDTH, c.getInt(2));
+                count++;
+            }
+        }
+        assertEquals(ITEM_COUNT, count);
+    }
+
+    private void verifyPosition(int id, int cellX, int cellY) {
+        try (Cursor c = queryPositions()) {
+            while (c.moveToNext()) {
+                if (c.getInt(0) == id) {
+                    assertEquals(cellX, c.getInt(1));
+                    assertEquals(cellY, c.getInt(2));
+                    return;
+                }
+            }
+        }
+        throw new AssertionError("Unknown item " + id);
+    }
+
+    private int indexOfItem(int id) {
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            if (mItems.get(i).id == id) {
+                return i;
+            }
+        }
+        throw new AssertionError("Unknown item " + id);
+    }
+
+    private Cursor queryPositions() {
+        return mModelHelper.provider.getDb().query(Favorites.TABLE_NAME,
+                new String[]{Favorites._ID, Favorites.CELLX, Favorites.CELLY},
+                null, null, null, null, null);
+    }
+}
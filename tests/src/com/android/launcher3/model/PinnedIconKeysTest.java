@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link PinnedIconKeys}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PinnedIconKeysTest {
+
+    private static final ComponentName APP_A = new ComponentName("a", "a.Main");
+    private static final ComponentName APP_B = new ComponentName("b", "b.Main");
+
+    private final PinnedIconKeys mPinnedKeys = new PinnedIconKeys();
+    private final Set<ComponentKey> mKeys = mPinnedKeys.getKeys();
+
+    @Test
+    public void addedItem_isPinnedUntilRemoved() {
+        WorkspaceItemInfo item = newItem(1, APP_A);
+        mPinnedKeys.updateItem(item);
+        assertTrue(mKeys.contains(keyOf(APP_A)));
+
+        mPinnedKeys.removeItem(item.id);
+        assertFalse(mKeys.contains(keyOf(APP_A)));
+    }
+
+    @Test
+    public void sharedKey_staysPinnedWhileUsed() {
+        mPinnedKeys.updateItem(newItem(1, APP_A));
+        mPinnedKeys.updateItem(newItem(2, APP_A));
+
+        mPinnedKeys.removeItem(1);
+        assertTrue(mKeys.contains(keyOf(APP_A)));
+        mPinnedKeys.removeItem(2);
+        assertTrue(mKeys.isEmpty());
+    }
+
+    @Test
+    public void changedTarget_replacesKey() {
+        WorkspaceItemInfo item = newItem(1, APP_A);
+        mPinnedKeys.updateItem(item);
+        item.intent = new Intent().setComponent(APP_B);
+        mPinnedKeys.updateItem(item);
+
+        assertEquals(Collections.singleton(keyOf(APP_B)), new HashSet<>(mKeys));
+    }
+
+    @Test
+    public void folder_isNotPinned() {
+        FolderInfo folder = new FolderInfo();
+        folder.id = 1;
+        mPinnedKeys.updateItem(folder);
+
+        assertTrue(mKeys.isEmpty());
+    }
+
+    private static WorkspaceItemInfo newItem(int id, ComponentName component) {
+        WorkspaceItemInfo item = new WorkspaceItemInfo();
+        item.id = id;
+        item.user = Process.myUserHandle();
+        item.intent = new Intent().setComponent(component);
+        return item;
+    }
+
+    private static ComponentKey keyOf(ComponentName component) {
+        return new ComponentKey(component, Process.myUserHandle());
+    }
+}
@@ -16,8 +16,10 @@
 package com.android.launcher3.model
 
 import android.graphics.Rect
+import android.util.Pair
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.filters.SmallTest
+import com.android.launcher3.model.data.ItemInfo
 import com.google.common.truth.Truth.assertThat
 import org.junit.After
 import org.junit.Before
@@ -168,4 +170,52 @@ class WorkspaceItemSpaceFinderTest : AbstractWorkspaceModelTest() {
         assertThat(spaceFound.screenId).isEqualTo(3)
         assertRegionVacant(spaceFound, 3, 1)
     }
+
+    @Test
+    fun manyItemsAdded_eachFindsVacantSpace() {
+        setupWorkspaces((0 until 10).toList())
+        val oldScreens = mExistingScreens.clone()
+        val itemCount = 200
+        val items = (0 until itemCount).map { getNewItem() }
+
+        // Installs the items through the task, which places each one before finding the next space
+        mModelHelper.executeTaskForTest(
+            AddWorkspaceItemsTask(items.map { Pair.create<ItemInfo, Any>(it, Any()) })
+        )
+        val placed = items.map { NewItemSpace(it.screenId, it.cellX, it.cellY) }
+
+        // Items are placed in distinct cells, which were vacant on the existing screens
+        assertThat(placed.toSet()).hasSize(itemCount)
+        val placedOnExisting = placed.filter { oldScreens.contains(it.screenId) }
+        placedOnExisting.forEach { assertRegionVacant(it, 1, 1) }
+        // All the existing screens but the skipped first one are filled before adding screens
+        (1 until 10).forEach { screenId ->
+            assertThat(placedOnExisting.count { it.screenId == screenId })
+                .isEqualTo(nonEmptyScreenSpaces.sumOf { it.width() * it.height() })
+        }
+        val cellsPerScreen = mIdp.numColumns * mIdp.numRows
+        val newScreens = placed.map { it.screenId }.filterNot { oldScreens.contains(it) }.toSet()
+        assertThat(newScreens)
+            .hasSize((itemCount - placedOnExisting.size + cellsPerScreen - 1) / cellsPerScreen)
+    }
+
+    @Test
+    fun itemRemoved_whenFindSpaceForItem_thenReturnRemovedItemCell() {
+        setupWorkspacesWithSpaces(
+            // 3x2 space on screen 0, but it should be skipped
+            screen0 = listOf(Rect(2, 0, 5, 2)),
+            screen1 = fullScreenSpaces,
+            screen2 = fullScreenSpaces,
+        )
+
+        val spaceFound = mModelHelper.executeSimpleTask { dataModel ->
+            val removed = dataModel.itemsIdMap.first { it.screenId == 2 && it.cellX == 3 }
+            dataModel.removeItem(mTargetContext, removed)
+            NewItemSpace(removed.screenId, removed.cellX, removed.cellY)
+                .also { assertThat(findSpace(1, 1)).isEqualTo(it) }
+        }
+
+        assertThat(mNewScreens.isEmpty).isTrue()
+        assertThat(spaceFound.screenId).isEqualTo(2)
+    }
 }
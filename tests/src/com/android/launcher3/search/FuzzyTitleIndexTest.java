@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_INITIALS;
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_NO_MATCH;
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_SUBSTRING;
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_TITLE_PREFIX;
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_TYPO;
+import static com.android.launcher3.search.FuzzyTitleIndex.SCORE_WORD_PREFIX;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link FuzzyTitleIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class FuzzyTitleIndexTest {
+
+    static final String[] QUERIES = {"g", "gm", "goo", "gogle", "googel", "maps",
+            "whtsapp", "calender", "cafe", "elan", "photo", "settngs", "ytmusic", "xyzzy"};
+
+    private final FuzzyTitleIndex<String> mIndex = new FuzzyTitleIndex<>(s -> s);
+
+    @Test
+    public void testScores() {
+        assertEquals(SCORE_TITLE_PREFIX, mIndex.score("Google Maps", "goo"));
+        assertEquals(SCORE_WORD_PREFIX, mIndex.score("Google Maps", "ma"));
+        assertEquals(SCORE_WORD_PREFIX, mIndex.score("WhatsApp", "app"));
+        assertEquals(SCORE_INITIALS, mIndex.score("Google Maps", "gm"));
+        assertEquals(SCORE_INITIALS, mIndex.score("YouTube Music", "ytm"));
+        assertEquals(SCORE_SUBSTRING, mIndex.score("Google Maps", "ogle"));
+
+        // Diacritics are ignored
+        assertEquals(SCORE_TITLE_PREFIX, mIndex.score("Café", "cafe"));
+        assertEquals(SCORE_TITLE_PREFIX, mIndex.score("Cafe", "café"));
+
+        // Typos
+        assertTrue(mIndex.score("Google Maps", "gogle") > SCORE_NO_MATCH);
+        assertTrue(mIndex.score("Google Maps", "googel") > SCORE_NO_MATCH);
+        assertTrue(mIndex.score("Calendar", "calender") > SCORE_NO_MATCH);
+        assertTrue(mIndex.score("WhatsApp", "whtsapp") > SCORE_NO_MATCH);
+        assertTrue(mIndex.score("Settings", "settngs") > SCORE_NO_MATCH);
+        assertTrue(mIndex.score("Google Maps", "mpas") < SCORE_TYPO);
+
+        // Short queries must match exactly
+        assertEquals(SCORE_NO_MATCH, mIndex.score("Google Maps", "gx"));
+        assertEquals(SCORE_NO_MATCH, mIndex.score("Google Maps", "xyzzy"));
+        assertEquals(SCORE_NO_MATCH, mIndex.score("Camera", "clock"));
+    }
+
+    @Test
+    public void testTransliteration() {
+        Map<String, String> table = Map.of("电子邮件", "dian zi you jian");
+        FuzzyTitleIndex<String> index =
+                new FuzzyTitleIndex<>(s -> s, s -> table.getOrDefault(s, s));
+        assertEquals(SCORE_TITLE_PREFIX, index.score("电子邮件", "dian"));
+        assertEquals(SCORE_WORD_PREFIX, index.score("电子邮件", "you"));
+        assertEquals(SCORE_INITIALS, index.score("电子邮件", "dzyj"));
+    }
+
+    @Test
+    public void testRanking() {
+        mIndex.update(Arrays.asList("Mail", "Google Maps", "Maps", "Gmail", "Photos"));
+        assertEquals(Arrays.asList("Mail", "Maps", "Google Maps", "Gmail"), mIndex.search("ma", 5));
+        assertEquals(Arrays.asList("Gmail", "Google Maps"), mIndex.search("gm", 5));
+        assertEquals(Arrays.asList("Maps", "Google Maps"), mIndex.search("maps", 5));
+        assertEquals(Arrays.asList("Photos"), mIndex.search("photso", 5));
+        assertEquals(Arrays.asList("Mail"), mIndex.search("ma", 1));
+    }
+
+    @Test
+    public void testCandidatesMatchFullScan() {
+        List<String> titles = generateTitles(2000, new Random(3));
+        mIndex.update(titles);
+        for (String query : QUERIES) {
+            List<String> expected = new ArrayList<>();
+            for (String title : titles) {
+                if (mIndex.score(title, query) > SCORE_NO_MATCH) {
+                    expected.add(title);
+                }
+            }
+            List<String> actual = mIndex.search(query, titles.size());
+            assertEquals(query, expected.size(), actual.size());
+            assertTrue(query, actual.containsAll(expected));
+        }
+    }
+
+    static List<String> generateTitles(int count, Random random) {
+        String[] words = {"Google", "Maps", "Play", "Store", "Music", "Camera", "WhatsApp",
+                "Calendar", "Clock", "Files", "Photos", "Settings", "YouTube", "Café", "Élan",
+                "Mail", "Chrome", "Drive", "Keep", "Notes", "Weather", "Fit", "Pay", "Wallet"};
+        List<String> titles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder(words[random.nextInt(words.length)]);
+            int extraWords = random.nextInt(3);
+            for (int j = 0; j < extraWords; j++) {
+                title.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static com.android.launcher3.search.TitleSearchIndexTest.IDENTITY;
+import static com.android.launcher3.search.TitleSearchIndexTest.QUERIES;
+import static com.android.launcher3.search.TitleSearchIndexTest.generateTitles;
+import static com.android.launcher3.search.TitleSearchIndexTest.scan;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+import com.android.launcher3.util.BenchmarkReporter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures {@link TitleSearchIndex} against scanning all the titles with
+ * {@link StringMatcherUtility}
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class TitleSearchIndexBenchmark {
+
+    @Test
+    public void benchmarkAgainstStringMatcherUtility() {
+        for (int count : new int[]{1000, 5000}) {
+            List<String> titles = generateTitles(count, new Random(count));
+            StringMatcher matcher = StringMatcher.getInstance();
+
+            long start = System.nanoTime();
+            for (String query : QUERIES) {
+                scan(titles, query, matcher);
+            }
+            long scanTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TitleSearchIndex<String> index = new TitleSearchIndex<>(IDENTITY);
+            index.update(titles);
+            long buildTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String query : QUERIES) {
+                index.search(query, count);
+            }
+            long indexTime = System.nanoTime() - start;
+
+            new BenchmarkReporter("TitleSearchIndex" + count)
+                    .add("titles", count)
+                    .add("queries", QUERIES.length)
+                    .addAverageMicros("matcher", scanTime, 1)
+                    .addAverageMicros("indexBuild", buildTime, 1)
+                    .addAverageMicros("indexQueries", indexTime, 1)
+                    .report();
+        }
+    }
+}
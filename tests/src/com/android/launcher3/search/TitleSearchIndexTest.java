@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Unit tests for {@link TitleSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class TitleSearchIndexTest {
+
+    private static final String[] WORDS = {"google", "maps", "play", "store", "music", "camera",
+            "white", "cow", "cats&dogs", "2+43", "Élan", "café", "电子邮件", "Bot", "elephant",
+            "WhatsApp", "K-9", "Mail", "calendar", "clock", "Files", "photos", "x", "Y"};
+    static final String[] QUERIES = {"g", "go", "goo", "goog", "m", "ma", "map", "maps",
+            "w", "white c", "cow", "dog", "&", "43", "3", "e", "el", "ela", "élan", "ca", "caf",
+            "café", "电", "子", "邮件", "ba", "bo", "whats", "app", "k-", "9", "file", "y", " "};
+
+    static final Function<String, CharSequence> IDENTITY = s -> s;
+
+    @Test
+    public void testMatchesStringMatcherUtility() {
+        List<String> titles = generateTitles(500, new Random(42));
+        TitleSearchIndex<String> index = new TitleSearchIndex<>(IDENTITY);
+        index.update(titles);
+
+        StringMatcher matcher = StringMatcher.getInstance();
+        for (String query : QUERIES) {
+            assertEquals(query, scan(titles, query, matcher), index.search(query, titles.size()));
+        }
+    }
+
+    @Test
+    public void testNarrowingQueries() {
+        List<String> titles = generateTitles(500, new Random(7));
+        TitleSearchIndex<String> index = new TitleSearchIndex<>(IDENTITY);
+        index.update(titles);
+
+        StringMatcher matcher = StringMatcher.getInstance();
+        String query = "";
+        for (char c : "white cow".toCharArray()) {
+            query += c;
+            assertEquals(query, scan(titles, query, matcher), index.search(query, titles.size()));
+        }
+        // Deleting characters must not narrow from the previous result
+        assertEquals(scan(titles, "wh", matcher), index.search("wh", titles.size()));
+    }
+
+    @Test
+    public void testUpdate() {
+        List<String> titles = new ArrayList<>(Arrays.asList("Maps", "Music", "Camera"));
+        TitleSearchIndex<String> index = new TitleSearchIndex<>(IDENTITY);
+        assertTrue(index.update(titles));
+        assertFalse(index.update(new ArrayList<>(titles)));
+        assertEquals(Arrays.asList("Maps", "Music"), index.search("m", 5));
+
+        titles.remove("Maps");
+        titles.add("Mail");
+        assertTrue(index.update(titles));
+        assertEquals(Arrays.asList("Music", "Mail"), index.search("m", 5));
+        assertEquals(Arrays.asList("Music"), index.search("m", 1));
+    }
+
+    @Test
+    public void testCancelledSearch() {
+        List<String> titles = Arrays.asList("Maps", "Music", "Camera");
+        TitleSearchIndex<String> index = new TitleSearchIndex<>(IDENTITY);
+        index.update(titles);
+        assertTrue(index.search("m", 5, () -> true).isEmpty());
+        // A cancelled query must not be used to narrow the next one
+        assertEquals(Arrays.asList("Maps", "Music"), index.search("m", 5));
+        assertTrue(index.search("mu", 5, () -> true).isEmpty());
+        assertEquals(Arrays.asList("Music"), index.search("mu", 5));
+    }
+
+    static List<String> scan(List<String> titles, String query, StringMatcher matcher) {
+        List<String> result = new ArrayList<>();
+        for (String title : titles) {
+            if (StringMatcherUtility.matches(query, title, matcher)) {
+                result.add(title);
+            }
+        }
+        return result;
+    }
+
+    static List<String> generateTitles(int count, Random random) {
+        List<String> titles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            int extraWords = random.nextInt(3);
+            for (int j = 0; j < extraWords; j++) {
+                title.append(random.nextBoolean() ? " " : "")
+                        .append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Reports the measurements of the benchmarks. Benchmarks run as large tests and don't assert on
+ * their timings, which depend on the device: the values are logged and sent as instrumentation
+ * status, for them to be collected with {@code am instrument -r}.
+ */
+public final class BenchmarkReporter {
+
+    private static final String TAG = "LauncherBenchmark";
+
+    private final String mName;
+    private final Bundle mResults = new Bundle();
+
+    public BenchmarkReporter(String name) {
+        mName = name;
+    }
+
+    /**
+     * Adds the average of {@param totalNanos} over {@param iterations}, in microseconds
+     */
+    public BenchmarkReporter addAverageMicros(String metric, long totalNanos, int iterations) {
+        return add(metric + "_us", totalNanos / iterations / 1000);
+    }
+
+    public BenchmarkReporter add(String metric, long value) {
+        mResults.putLong(mName + "." + metric, value);
+        return this;
+    }
+
+    /**
+     * Logs and sends all the measurements added so far
+     */
+    public void report() {
+        for (String key : mResults.keySet()) {
+            Log.i(TAG, key + "=" + mResults.getLong(key));
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, mResults);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.android.launcher3.model.data.AppInfo
+import com.android.launcher3.util.ColorSortKeysTest.Companion.BLACK
+import com.android.launcher3.util.ColorSortKeysTest.Companion.compareHsl
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/** Measures sorting the apps by color with the keys of [ColorSortKeys] */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class ColorSortKeysBenchmark {
+
+    @Test
+    fun benchmarkSort() {
+        val random = Random(APP_COUNT)
+        val apps = (0 until APP_COUNT).map {
+            AppInfo().apply { setIconColor(random.nextInt() or BLACK) }
+        }
+
+        val hslComparator = Comparator<AppInfo> { a, b -> compareHsl(a.iconColor, b.iconColor) }
+        val keyComparator = Comparator<AppInfo> { a, b -> a.colorSortKey.compareTo(b.colorSortKey) }
+
+        BenchmarkReporter("ColorSort")
+            .add("apps", APP_COUNT.toLong())
+            .addAverageMicros("hsl", measureSort(apps, hslComparator), 1)
+            .addAverageMicros("keys", measureSort(apps, keyComparator), 1)
+            .report()
+    }
+
+    private fun measureSort(apps: List<AppInfo>, comparator: Comparator<AppInfo>): Long {
+        val start = System.nanoTime()
+        apps.toMutableList().sortWith(comparator)
+        return System.nanoTime() - start
+    }
+
+    companion object {
+        private const val APP_COUNT = 500
+    }
+}
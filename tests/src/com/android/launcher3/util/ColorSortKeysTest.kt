@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util
+
+import android.graphics.Color
+import androidx.core.graphics.ColorUtils
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import com.android.launcher3.util.ColorSortKeys.REPETITIONS
+import com.android.launcher3.util.ColorSortKeys.getPerceptualSortKey
+import com.android.launcher3.util.ColorSortKeys.getSortKey
+import com.android.launcher3.util.ColorSortKeys.remap
+import com.android.launcher3.util.ColorSortKeys.remapHue
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.math.sign
+import kotlin.random.Random
+
+/** Unit tests for [ColorSortKeys] */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class ColorSortKeysTest {
+
+    @Test
+    fun sortKeyMatchesHslComparison() {
+        val random = Random(6)
+        repeat(2000) {
+            val a = random.nextInt() or BLACK
+            val b = random.nextInt() or BLACK
+            assertEquals(
+                compareHsl(a, b).sign,
+                getSortKey(a).compareTo(getSortKey(b)).sign
+            )
+        }
+    }
+
+    @Test
+    fun perceptualKeyGroupsGraysAndHues() {
+        val gray = getPerceptualSortKey(Color.GRAY)
+        val white = getPerceptualSortKey(Color.WHITE)
+        val red = getPerceptualSortKey(Color.RED)
+        val darkRed = getPerceptualSortKey(Color.rgb(128, 0, 0))
+        val green = getPerceptualSortKey(Color.GREEN)
+        val blue = getPerceptualSortKey(Color.BLUE)
+
+        // Grays come first, in one bucket
+        assertTrue(gray < red && white < red)
+        assertEquals(gray shr 16, white shr 16)
+        // Shades of a hue share a bucket, distinct hues do not
+        assertEquals(red shr 16, darkRed shr 16)
+        assertTrue(red shr 16 != green shr 16)
+        assertTrue(green shr 16 != blue shr 16)
+    }
+
+    companion object {
+        const val BLACK = 0xFF000000.toInt()
+
+        /** The comparison used before the sort keys were computed per app */
+        fun compareHsl(a: Int, b: Int): Int {
+            val hslA = FloatArray(3)
+            val hslB = FloatArray(3)
+            ColorUtils.colorToHSL(a, hslA)
+            ColorUtils.colorToHSL(b, hslB)
+            val h2A = remapHue(hslA[0])
+            val h2B = remapHue(hslB[0])
+            var s2A = remap(hslA[1])
+            var s2B = remap(hslB[1])
+            var l2A = remap(hslA[2])
+            var l2B = remap(hslB[2])
+            if (h2A % 2 == 1) {
+                s2A = REPETITIONS - s2A
+                l2A = REPETITIONS - l2A
+            }
+            if (h2B % 2 == 1) {
+                s2B = REPETITIONS - s2B
+                l2B = REPETITIONS - l2B
+            }
+            var result = h2A.compareTo(h2B)
+            if (result != 0) {
+                return result
+            }
+            result = l2A.compareTo(l2B)
+            return if (result != 0) result else s2A.compareTo(s2B)
+        }
+    }
+}
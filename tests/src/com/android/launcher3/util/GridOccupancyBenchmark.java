@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static com.android.launcher3.util.GridOccupancyTest.fillRandomly;
+import static com.android.launcher3.util.GridOccupancyTest.initGrid;
+import static com.android.launcher3.util.GridOccupancyTest.isRegionVacant;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/**
+ * Measures the occupancy operations of the reorder search on {@link GridOccupancy}, against
+ * checking the cells one by one
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class GridOccupancyBenchmark {
+
+    private static final int ITERATIONS = 100;
+
+    @Test
+    public void benchmarkReorderSearch() {
+        benchmarkReorderSearch(6, 8);
+        benchmarkReorderSearch(10, 12);
+    }
+
+    /**
+     * Times the occupancy operations of the reorder search: for every drop position, the grid is
+     * copied and the dropped item marked, then all the positions of a pushed item are checked.
+     */
+    private void benchmarkReorderSearch(int countX, int countY) {
+        Random random = new Random(countX * countY);
+        GridOccupancy grid = new GridOccupancy(countX, countY);
+        boolean[][] cells = new boolean[countX][countY];
+        fillRandomly(random, grid, cells);
+        GridOccupancy shape = initGrid(2,
+                1, 1,
+                1, 0
+        );
+        boolean[][] shapeCells = {{true, true}, {true, false}};
+
+        GridOccupancy tmp = new GridOccupancy(countX, countY);
+        boolean[][] tmpCells = new boolean[countX][countY];
+        long bitsetNanos = 0;
+        long referenceNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            searchReorder(grid, tmp, shape, countX, countY);
+            bitsetNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            searchReorder(cells, tmpCells, shapeCells, countX, countY);
+            referenceNanos += System.nanoTime() - start;
+        }
+        new BenchmarkReporter("ReorderSearch" + countX + "x" + countY)
+                .addAverageMicros("bitset", bitsetNanos, ITERATIONS)
+                .addAverageMicros("cellByCell", referenceNanos, ITERATIONS)
+                .report();
+    }
+
+    private static int searchReorder(GridOccupancy grid, GridOccupancy tmp, GridOccupancy shape,
+            int countX, int countY) {
+        int result = 0;
+        for (int dropY = 0; dropY < countY - 1; dropY++) {
+            for (int dropX = 0; dropX < countX - 1; dropX++) {
+                grid.copyTo(tmp);
+                tmp.markCells(dropX, dropY, 2, 2, true);
+                for (int y = 0; y < countY - 1; y++) {
+                    for (int x = 0; x < countX - 1; x++) {
+                        if (tmp.isRegionVacant(shape, x, y)) {
+                            result += x + y * countX;
+                        }
+                        if (tmp.isRegionVacant(x, y, 2, 1)) {
+                            result++;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as above on boolean arrays, as occupancy was checked before using bitsets
+     */
+    private static int searchReorder(boolean[][] cells, boolean[][] tmp, boolean[][] shape,
+            int countX, int countY) {
+        int result = 0;
+        for (int dropY = 0; dropY < countY - 1; dropY++) {
+            for (int dropX = 0; dropX < countX - 1; dropX++) {
+                for (int i = 0; i < countX; i++) {
+                    for (int j = 0; j < countY; j++) {
+                        tmp[i][j] = cells[i][j];
+                    }
+                }
+                for (int i = dropX; i < dropX + 2; i++) {
+                    for (int j = dropY; j < dropY + 2; j++) {
+                        tmp[i][j] = true;
+                    }
+                }
+                for (int y = 0; y < countY - 1; y++) {
+                    for (int x = 0; x < countX - 1; x++) {
+                        boolean shapeVacant = true;
+                        for (int i = 0; i < 2 && shapeVacant; i++) {
+                            for (int j = 0; j < 2; j++) {
+                                if (tmp[x + i][y + j] && shape[i][j]) {
+                                    shapeVacant = false;
+                                    break;
+                                }
+                            }
+                        }
+                        if (shapeVacant) {
+                            result += x + y * countX;
+                        }
+                        if (isRegionVacant(tmp, x, y, 2, 1)) {
+                            result++;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
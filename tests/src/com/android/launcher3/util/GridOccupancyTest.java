@@ -10,6 +10,8 @@ import androidx.test.filters.SmallTest;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Random;
+
 /**
  * Unit tests for {@link GridOccupancy}
  */
@@ -55,13 +57,126 @@ public class GridOccupancyTest {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
-    private GridOccupancy initGrid(int rows, int... cells) {
+    @Test
+    public void testMatchesCellByCellReference() {
+        Random random = new Random(42);
+        for (int n = 0; n < 50; n++) {
+            int countX = 1 + random.nextInt(Long.SIZE);
+            int countY = 1 + random.nextInt(12);
+            GridOccupancy grid = new GridOccupancy(countX, countY);
+            boolean[][] cells = new boolean[countX][countY];
+            fillRandomly(random, grid, cells);
+
+            int[] vacant = new int[2];
+            int[] expectedVacant = new int[2];
+            for (int spanX = 1; spanX <= 4; spanX++) {
+                for (int spanY = 1; spanY <= 4; spanY++) {
+                    boolean found = grid.findVacantCell(vacant, spanX, spanY);
+                    assertEquals(findVacantCell(cells, expectedVacant, spanX, spanY), found);
+                    if (found) {
+                        assertEquals(expectedVacant[0], vacant[0]);
+                        assertEquals(expectedVacant[1], vacant[1]);
+                    }
+                    for (int x = 0; x < countX; x++) {
+                        for (int y = 0; y < countY; y++) {
+                            assertEquals(isRegionVacant(cells, x, y, spanX, spanY),
+                                    grid.isRegionVacant(x, y, spanX, spanY));
+                        }
+                    }
+                }
+            }
+
+            GridOccupancy copy = new GridOccupancy(countX, countY);
+            grid.copyTo(copy);
+            for (int x = 0; x < countX; x++) {
+                for (int y = 0; y < countY; y++) {
+                    assertEquals(cells[x][y], copy.isOccupied(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIsShapeVacant() {
+        GridOccupancy grid = initGrid(3,
+                1, 0, 0, 1,
+                0, 0, 1, 1,
+                0, 0, 0, 0
+        );
+        // An L shape interlocking with the occupied cells
+        GridOccupancy shape = initGrid(2,
+                1, 1,
+                1, 0
+        );
+
+        assertTrue(grid.isRegionVacant(shape, 1, 0));
+        assertTrue(grid.isRegionVacant(shape, 0, 1));
+        assertFalse(grid.isRegionVacant(shape, 0, 0));
+        assertFalse(grid.isRegionVacant(shape, 2, 0));
+        // Out of bounds
+        assertFalse(grid.isRegionVacant(shape, 3, 1));
+        assertFalse(grid.isRegionVacant(shape, 1, 2));
+    }
+
+    @Test
+    public void testIsOccupiedOutOfBounds() {
+        GridOccupancy grid = initGrid(2,
+                0, 1,
+                0, 0
+        );
+        assertTrue(grid.isOccupied(1, 0));
+        assertFalse(grid.isOccupied(1, 1));
+        // Cells outside of the grid are never vacant
+        assertTrue(grid.isOccupied(-1, 0));
+        assertTrue(grid.isOccupied(2, 0));
+        assertTrue(grid.isOccupied(0, 2));
+        assertTrue(grid.isOccupied(Long.SIZE, 0));
+    }
+
+    static void fillRandomly(Random random, GridOccupancy grid, boolean[][] cells) {
+        for (int x = 0; x < cells.length; x++) {
+            for (int y = 0; y < cells[x].length; y++) {
+                cells[x][y] = random.nextInt(3) == 0;
+                grid.markCells(x, y, 1, 1, cells[x][y]);
+            }
+        }
+    }
+
+    static boolean isRegionVacant(boolean[][] cells, int x, int y, int spanX, int spanY) {
+        if (x + spanX > cells.length || y + spanY > cells[0].length) {
+            return false;
+        }
+        for (int i = x; i < x + spanX; i++) {
+            for (int j = y; j < y + spanY; j++) {
+                if (cells[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean findVacantCell(boolean[][] cells, int[] vacantOut, int spanX,
+            int spanY) {
+        for (int y = 0; y < cells[0].length; y++) {
+            for (int x = 0; x < cells.length; x++) {
+                if (isRegionVacant(cells, x, y, spanX, spanY)) {
+                    vacantOut[0] = x;
+                    vacantOut[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
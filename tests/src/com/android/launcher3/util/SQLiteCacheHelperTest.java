@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Tests for {@link SQLiteCacheHelper}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SQLiteCacheHelperTest {
+
+    private static final String TAG = "SQLiteCacheHelperTest";
+    private static final String DB_FILE = "sqlite_cache_helper_test.db";
+
+    private HandlerThread mThread;
+    private TestCacheHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHelper = new TestCacheHelper();
+        mHelper.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DB_FILE);
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void queryCommitsPendingWrites() throws Exception {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        mHelper.insertOrReplace(new Object[]{"b", 2});
+        mHelper.insertOrReplace(new Object[]{"a", 3});
+        assertEquals(2, count(null));
+        assertEquals(1, count("value = 3"));
+    }
+
+    @Test
+    public void writesKeepTheirOrder() throws Exception {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        mHelper.delete("key = ?", new String[]{"a"});
+        mHelper.insertOrReplace(new Object[]{"b", 2});
+        assertEquals(1, count(null));
+        assertEquals(0, count("key = 'a'"));
+    }
+
+    @Test
+    public void failedWrite_otherWritesCommitted() throws Exception {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        // The key can't be null
+        mHelper.insertOrReplace(new Object[]{null, 2});
+        mHelper.insertOrReplace(new Object[]{"b", 3});
+        assertEquals(2, count(null));
+    }
+
+    @Test
+    public void queryOnOtherThread_readsCommittedRows() throws Exception {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        mHelper.flush();
+        // Keeps the handler from committing the next write
+        CountDownLatch blockHandler = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            try {
+                blockHandler.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            mHelper.insertOrReplace(new Object[]{"b", 2});
+            try (Cursor c = mHelper.query(new String[]{"key"}, null, null)) {
+                assertEquals(1, c.getCount());
+            }
+            assertTrue(mHelper.hasPendingWrites());
+        } finally {
+            blockHandler.countDown();
+        }
+        assertEquals(2, count(null));
+    }
+
+    @Test
+    public void deleteCommitsPendingWrites() {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        mHelper.delete("key = ?", new String[]{"b"});
+        assertFalse(mHelper.hasPendingWrites());
+    }
+
+    @Test
+    public void pendingWritesAreCommittedOnHandler() throws Exception {
+        mHelper.insertOrReplace(new Object[]{"a", 1});
+        assertTrue(mHelper.hasPendingWrites());
+        // Well beyond the batch delay
+        Thread.sleep(500);
+        assertFalse(mHelper.hasPendingWrites());
+        assertEquals(1, count(null));
+    }
+
+    /**
+     * Counts the matching rows, querying on the handler thread so that pending writes are read
+     */
+    private int count(String selection) throws Exception {
+        FutureTask<Integer> task = new FutureTask<>(() -> {
+            try (Cursor c = mHelper.query(new String[]{"key"}, selection, null)) {
+                return c.getCount();
+            }
+        });
+        new Handler(mThread.getLooper()).post(task);
+        return task.get();
+    }
+
+    private class TestCacheHelper extends SQLiteCacheHelper {
+
+        TestCacheHelper() {
+            super(InstrumentationRegistry.getInstrumentation().getTargetContext(), DB_FILE, 1,
+                    "test", new String[]{"key", "value"}, new Handler(mThread.getLooper()));
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS test ("
+                    + "key TEXT NOT NULL PRIMARY KEY, "
+                    + "value INTEGER NOT NULL DEFAULT 0);");
+        }
+    }
+}
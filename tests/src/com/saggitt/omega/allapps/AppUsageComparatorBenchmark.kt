@@ -0,0 +1,75 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.allapps
+
+import android.content.ComponentName
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.android.launcher3.model.data.AppInfo
+import com.android.launcher3.util.BenchmarkReporter
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/** Measures sorting the apps with [AppUsageComparator] */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class AppUsageComparatorBenchmark {
+
+    @Test
+    fun benchmarkSort() {
+        val random = Random(APP_COUNT)
+        val apps = (0 until APP_COUNT).map { createApp("com.example.app$it") }
+        val ranking = HashMap<String, Double>()
+        apps.forEach { ranking[it.componentName.packageName] = random.nextInt(100).toDouble() }
+
+        // Scan based comparator used before keys were precomputed per package
+        val entries = ranking.entries.toList()
+        val scanComparator = Comparator<AppInfo> { app1, app2 ->
+            var item1 = 0.0
+            var item2 = 0.0
+            for (entry in entries) {
+                if (entry.key == app1.componentName.packageName) item1 = entry.value
+                if (entry.key == app2.componentName.packageName) item2 = entry.value
+            }
+            item2.compareTo(item1)
+        }
+
+        BenchmarkReporter("AppUsageSort")
+            .add("apps", APP_COUNT.toLong())
+            .addAverageMicros("scan", measureSort(apps, scanComparator), 1)
+            .addAverageMicros("ranking", measureSort(apps, AppUsageComparator(ranking)), 1)
+            .report()
+    }
+
+    private fun measureSort(apps: List<AppInfo>, comparator: Comparator<AppInfo>): Long {
+        val start = System.nanoTime()
+        apps.toMutableList().sortWith(comparator)
+        return System.nanoTime() - start
+    }
+
+    private fun createApp(packageName: String) = AppInfo().apply {
+        componentName = ComponentName(packageName, "$packageName.Main")
+    }
+
+    companion object {
+        private const val APP_COUNT = 500
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.allapps
+
+import android.content.ComponentName
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import com.android.launcher3.model.data.AppInfo
+import com.saggitt.omega.data.AppUsage
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/** Unit tests for [AppUsageComparator] and [AppUsage] */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class AppUsageComparatorTest {
+
+    @Test
+    fun sortsByDescendingKeyAndKeepsTies() {
+        val apps = listOf("a", "b", "c", "d").map(::createApp).toMutableList()
+        apps.sortWith(AppUsageComparator(mapOf("b" to 3.0, "d" to 5.0)))
+        assertEquals(listOf("d", "b", "a", "c"), apps.map { it.componentName.packageName })
+    }
+
+    @Test
+    fun scoreDecaysWithHalfLife() {
+        val usage = AppUsage()
+        usage.onLaunched(1000)
+        usage.onLaunched(1000)
+        assertEquals(2, usage.count)
+        assertEquals(2.0, usage.scoreAt(1000), DELTA)
+        assertEquals(1.0, usage.scoreAt(1000 + AppUsage.HALF_LIFE_MS), DELTA)
+
+        usage.onLaunched(1000 + AppUsage.HALF_LIFE_MS)
+        assertEquals(3, usage.count)
+        assertEquals(2.0, usage.scoreAt(1000 + AppUsage.HALF_LIFE_MS), DELTA)
+    }
+
+    @Test
+    fun recentLaunchesOutrankOldOnes() {
+        val now = 100 * AppUsage.HALF_LIFE_MS
+        val old = AppUsage().apply { repeat(20) { onLaunched(now - 5 * AppUsage.HALF_LIFE_MS) } }
+        val recent = AppUsage().apply { repeat(3) { onLaunched(now - 1000) } }
+        assertTrue(old.count > recent.count)
+        assertTrue(recent.scoreAt(now) > old.scoreAt(now))
+    }
+
+    @Test
+    fun mergeAppendsLaterLaunches() {
+        val stored = AppUsage(4, 1000, 4.0)
+        val pending = AppUsage().apply { onLaunched(1000 + AppUsage.HALF_LIFE_MS) }
+        stored.merge(pending)
+        assertEquals(5, stored.count)
+        assertEquals(1000 + AppUsage.HALF_LIFE_MS, stored.lastLaunched)
+        assertEquals(3.0, stored.scoreAt(stored.lastLaunched), DELTA)
+    }
+
+    private fun createApp(packageName: String) = AppInfo().apply {
+        componentName = ComponentName(packageName, "$packageName.Main")
+    }
+
+    companion object {
+        private const val DELTA = 1e-9
+    }
+}
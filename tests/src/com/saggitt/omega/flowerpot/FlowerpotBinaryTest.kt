@@ -0,0 +1,72 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.saggitt.omega.flowerpot.parser.FlowerpotBinary
+import com.saggitt.omega.flowerpot.parser.FlowerpotReader
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayOutputStream
+
+/** Unit tests for [FlowerpotBinary] over the shipped flowerpot files */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class FlowerpotBinaryTest {
+
+    private val assets = InstrumentationRegistry.getInstrumentation().targetContext.assets
+    private val names = assets.list(Flowerpot.ASSETS_PATH)!!.toList()
+
+    @Test
+    fun roundTripsShippedPots() {
+        assertTrue(names.isNotEmpty())
+        names.forEach { name ->
+            val matcher = parseText(name)
+            val read = FlowerpotBinary.read(compile(matcher, STAMP), STAMP)
+            assertNotNull(name, read)
+            assertEquals(name, matcher.packages, read!!.packages)
+            assertEquals(name, matcher.intentKeys, read.intentKeys)
+            assertEquals(name, matcher.codeRules, read.codeRules)
+        }
+    }
+
+    @Test
+    fun rejectsOtherStamp() {
+        val bytes = compile(parseText(names.first()), STAMP)
+        assertNull(FlowerpotBinary.read(bytes, STAMP + 1))
+    }
+
+    private fun parseText(name: String) = assets.open("${Flowerpot.ASSETS_PATH}/$name").use {
+        FlowerpotMatcher(FlowerpotReader(it).readRules())
+    }
+
+    private fun compile(matcher: FlowerpotMatcher, stamp: Long) =
+        ByteArrayOutputStream().also { FlowerpotBinary.write(matcher, stamp, it) }.toByteArray()
+
+    companion object {
+        private const val STAMP = 42L
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.PackageManager
+import android.content.pm.ResolveInfo
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import com.android.launcher3.util.any
+import com.android.launcher3.util.mock
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mockito.`when`
+
+/** Unit tests for [FlowerpotIntents] */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class FlowerpotIntentsTest {
+
+    private val browser = FlowerpotIntents.categoryKey("android.intent.category.APP_BROWSER")
+    private val dial = FlowerpotIntents.actionKey("android.intent.action.DIAL")
+
+    // Packages handling each intent key on the fake device
+    private val handlers = mutableMapOf(
+        browser to mutableSetOf("org.chromium", "org.mozilla"),
+        dial to mutableSetOf("com.phone")
+    )
+    private val queriedPackages = mutableListOf<String?>()
+
+    private lateinit var intents: FlowerpotIntents
+
+    @Before
+    fun setUp() {
+        val pm = mock<PackageManager>()
+        `when`(pm.queryIntentActivities(any(), anyInt())).thenAnswer { invocation ->
+            val intent = invocation.getArgument<Intent>(0)
+            queriedPackages.add(intent.`package`)
+            val key = intent.categories?.firstOrNull()?.let { FlowerpotIntents.categoryKey(it) }
+                ?: FlowerpotIntents.actionKey(intent.action!!)
+            handlers[key].orEmpty()
+                .filter { intent.`package` == null || it == intent.`package` }
+                .map { packageName ->
+                    ResolveInfo().apply {
+                        activityInfo = ActivityInfo().apply { this.packageName = packageName }
+                    }
+                }
+        }
+        intents = FlowerpotIntents(pm)
+    }
+
+    @Test
+    fun resolvesEachIntentOnce() {
+        intents.resolve(listOf(browser, dial))
+        intents.resolve(listOf(browser, dial, browser))
+        assertEquals(2, intents.queryCount)
+        assertTrue(intents.handles(browser, "org.mozilla"))
+        assertTrue(intents.handles(dial, "com.phone"))
+        assertFalse(intents.handles(dial, "org.mozilla"))
+    }
+
+    @Test
+    fun packageEventQueriesOnlyThatPackage() {
+        intents.resolve(listOf(browser, dial))
+        queriedPackages.clear()
+
+        handlers[browser]!!.add("com.brave")
+        intents.onPackagesChanged(arrayOf("com.brave"))
+        assertEquals(listOf("com.brave", "com.brave"), queriedPackages)
+        assertEquals(4, intents.queryCount)
+        assertTrue(intents.handles(browser, "com.brave"))
+        assertFalse(intents.handles(dial, "com.brave"))
+
+        handlers[browser]!!.remove("org.chromium")
+        intents.onPackagesChanged(arrayOf("org.chromium"))
+        assertFalse(intents.handles(browser, "org.chromium"))
+        assertTrue(intents.handles(browser, "org.mozilla"))
+    }
+
+    @Test
+    fun removalDoesNotQuery() {
+        intents.resolve(listOf(browser, dial))
+        intents.onPackagesRemoved(arrayOf("org.mozilla", "com.phone"))
+        assertEquals(2, intents.queryCount)
+        assertFalse(intents.handles(browser, "org.mozilla"))
+        assertFalse(intents.handles(dial, "com.phone"))
+        assertTrue(intents.handles(browser, "org.chromium"))
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.android.launcher3.util.BenchmarkReporter
+import com.android.launcher3.util.mock
+import com.saggitt.omega.flowerpot.FlowerpotMatcherTest.Companion.createApps
+import com.saggitt.omega.flowerpot.FlowerpotMatcherTest.Companion.loadPots
+import com.saggitt.omega.flowerpot.FlowerpotMatcherTest.Companion.matchesRules
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/** Measures categorizing apps with [FlowerpotMatcher] against the raw rules */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class FlowerpotMatcherBenchmark {
+
+    private val noIntents = FlowerpotIntents(mock())
+
+    @Test
+    fun benchmarkCategorization() {
+        val pots = loadPots()
+        val apps = createApps(pots, Random(500))
+
+        var start = System.nanoTime()
+        apps.forEach { (packageName, info) ->
+            pots.values.forEach { matchesRules(it, packageName, info) }
+        }
+        val rulesTime = System.nanoTime() - start
+
+        start = System.nanoTime()
+        val matchers = pots.values.map { FlowerpotMatcher(it) }
+        val compileTime = System.nanoTime() - start
+
+        start = System.nanoTime()
+        apps.forEach { (packageName, info) ->
+            matchers.forEach { it.matches(packageName, info, noIntents) }
+        }
+        val matcherTime = System.nanoTime() - start
+
+        BenchmarkReporter("FlowerpotMatcher")
+            .add("apps", apps.size.toLong())
+            .add("pots", pots.size.toLong())
+            .addAverageMicros("rules", rulesTime, 1)
+            .addAverageMicros("compile", compileTime, 1)
+            .addAverageMicros("matcher", matcherTime, 1)
+            .report()
+    }
+}
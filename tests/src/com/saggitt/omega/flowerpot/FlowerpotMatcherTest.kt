@@ -0,0 +1,115 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.flowerpot
+
+import android.content.pm.ApplicationInfo
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.launcher3.util.mock
+import com.saggitt.omega.flowerpot.parser.FlowerpotReader
+import com.saggitt.omega.flowerpot.rules.CodeRule
+import com.saggitt.omega.flowerpot.rules.Rule
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/** Unit tests for [FlowerpotMatcher] over the shipped flowerpot files */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class FlowerpotMatcherTest {
+
+    // Intent rules are covered by FlowerpotIntentsTest
+    private val noIntents = FlowerpotIntents(mock())
+
+    private val pots by lazy { loadPots() }
+
+    @Test
+    fun codeRulesAreCached() {
+        assertSame(
+            CodeRule.get("category", listOf("game")),
+            CodeRule.get("category", listOf("game"))
+        )
+        assertEquals(
+            Rule.CodeRule("category", listOf("audio")),
+            Rule.CodeRule("category", listOf("audio"))
+        )
+    }
+
+    @Test
+    fun matcherAgreesWithRules() {
+        val apps = createApps(pots, Random(7))
+        pots.forEach { (name, rules) ->
+            val matcher = FlowerpotMatcher(rules)
+            apps.forEach { (packageName, info) ->
+                assertEquals(
+                    "$name: $packageName",
+                    matchesRules(rules, packageName, info),
+                    matcher.matches(packageName, info, noIntents)
+                )
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Returns the rules of the shipped flowerpot files, by file name
+         */
+        fun loadPots(): Map<String, Set<Rule>> {
+            val assets = InstrumentationRegistry.getInstrumentation().targetContext.assets
+            return assets.list(Flowerpot.ASSETS_PATH)!!.associateWith { name ->
+                assets.open("${Flowerpot.ASSETS_PATH}/$name").use {
+                    FlowerpotReader(it).readRules().toSet()
+                }
+            }
+        }
+
+        /**
+         * Matching as done against the raw rule set before rules were compiled
+         */
+        fun matchesRules(rules: Set<Rule>, packageName: String, info: ApplicationInfo) =
+            rules.contains(Rule.Package(packageName)) || rules.filterIsInstance<Rule.CodeRule>()
+                .any { CodeRule.get(it.rule, it.args).matches(info) }
+
+        /**
+         * Returns packages from every pot and as many unknown packages, with random categories
+         */
+        fun createApps(
+            pots: Map<String, Set<Rule>>,
+            random: Random,
+        ): List<Pair<String, ApplicationInfo>> {
+            val categories = intArrayOf(
+                ApplicationInfo.CATEGORY_UNDEFINED, ApplicationInfo.CATEGORY_GAME,
+                ApplicationInfo.CATEGORY_AUDIO, ApplicationInfo.CATEGORY_SOCIAL
+            )
+            val known = pots.values.flatMap { rules ->
+                rules.filterIsInstance<Rule.Package>().shuffled(random).take(20).map { it.filter }
+            }
+            val unknown = known.indices.map { "com.example.app$it" }
+            return (known + unknown).map { packageName ->
+                packageName to ApplicationInfo().apply {
+                    category = categories[random.nextInt(categories.size)]
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of Neo Launcher
+ * Copyright (c) 2023   Neo Launcher Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.saggitt.omega.iconpack
+
+import android.content.ComponentName
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import com.saulhdev.neolauncher.icons.ClockMetadata
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayOutputStream
+
+/** Unit tests for [AppfilterIndex] */
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class AppfilterIndexTest {
+
+    private val camera = ComponentName("com.android.camera", "com.android.camera.Camera")
+    private val clock = ComponentName("com.android.deskclock", "com.android.deskclock.Clock")
+    private val calendar = ComponentName("com.android.calendar", "com.android.calendar.Main")
+    private val clockMetadata = ClockMetadata(0, 1, 2, 10, 20, 30)
+
+    private val index = AppfilterIndex.Builder()
+        .addIcon(camera, "camera_old")
+        .addIcon(camera, "camera")
+        .addIcon(clock, "clock")
+        .addIcon(calendar, "calendar")
+        .addCalendar(calendar, "calendar_")
+        .addClock("clock", clockMetadata)
+        .build()
+
+    @Test
+    fun lookups() {
+        assertIndex(index)
+    }
+
+    @Test
+    fun roundTrip() {
+        val read = AppfilterIndex.read(write(index, 3, 100), 3, 100)
+        assertNotNull(read)
+        assertIndex(read!!)
+    }
+
+    @Test
+    fun rejectsOtherPackVersion() {
+        val bytes = write(index, 3, 100)
+        assertNull(AppfilterIndex.read(bytes, 4, 100))
+        assertNull(AppfilterIndex.read(bytes, 3, 101))
+    }
+
+    @Test
+    fun drawableResIds() {
+        val resIds = mapOf("camera" to 0x7f010001, "calendar" to 0x7f010002)
+        val resolved = AppfilterIndex.Builder()
+            .addIcon(camera, "camera")
+            .addIcon(calendar, "calendar")
+            .addIcon(clock, "clock")
+            .build { resIds[it] ?: 0 }
+        for (index in listOf(resolved, AppfilterIndex.read(write(resolved, 1, 1), 1, 1)!!)) {
+            assertEquals(0x7f010001, index.getDrawableResId("camera"))
+            assertEquals(0x7f010002, index.getDrawableResId("calendar"))
+            // Referenced by the appfilter, but missing from the pack
+            assertEquals(0, index.getDrawableResId("clock"))
+            assertEquals(-1, index.getDrawableResId("other"))
+        }
+        assertEquals(-1, index.getDrawableResId("camera"))
+    }
+
+    @Test
+    fun largeIndex() {
+        val builder = AppfilterIndex.Builder()
+        val components = List(10000) { ComponentName("com.example.app$it", "com.example.Main") }
+        components.forEachIndexed { i, componentName ->
+            builder.addIcon(componentName, "icon${i % 100}")
+        }
+        val read = AppfilterIndex.read(write(builder.build(), 1, 1), 1, 1)!!
+        assertEquals(10000, read.size)
+        components.forEachIndexed { i, componentName ->
+            assertEquals("icon${i % 100}", read.getIcon(componentName))
+        }
+        assertNull(read.getIcon(ComponentName("com.example.app", "com.example.Main")))
+    }
+
+    private fun assertIndex(index: AppfilterIndex) {
+        assertEquals(4, index.size)
+        assertEquals("camera", index.getIcon(camera))
+        assertEquals("calendar", index.getIcon(calendar))
+        assertEquals("calendar_", index.getCalendar(calendar))
+        assertNull(index.getCalendar(camera))
+        assertNull(index.getIcon(ComponentName("com.android.camera", "com.android.camera.Other")))
+        assertEquals(clockMetadata, index.getClock("clock"))
+        assertNull(index.getClock("camera"))
+        assertEquals(setOf(clock), index.getClocks())
+        assertEquals(setOf(calendar), index.getCalendars())
+    }
+
+    private fun write(index: AppfilterIndex, versionCode: Long, updateTime: Long) =
+        ByteArrayOutputStream().also { index.write(it, versionCode, updateTime) }.toByteArray()
+}